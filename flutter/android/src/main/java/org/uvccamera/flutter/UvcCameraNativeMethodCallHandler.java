@@ -322,6 +322,13 @@ import io.flutter.plugin.common.MethodChannel;
                     mode.put("frameWidth", size.width);
                     mode.put("frameHeight", size.height);
                     mode.put("frameFormat", frameFormatEnumName);
+                    final var frameRates = new ArrayList<Double>(size.fps != null ? size.fps.length : 0);
+                    if (size.fps != null) {
+                        for (final var fps : size.fps) {
+                            frameRates.add((double) fps);
+                        }
+                    }
+                    mode.put("frameRates", frameRates);
                     modes.add(mode);
                 }
 
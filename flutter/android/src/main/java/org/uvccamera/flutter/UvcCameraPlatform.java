@@ -14,6 +14,7 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
+import com.serenegiant.usb.ControlWriter;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.UVCCamera;
@@ -427,6 +428,7 @@ import io.flutter.view.TextureRegistry;
         final var statusCallback = new UvcCameraStatusCallback(this, cameraId);
         try {
             camera.setStatusCallback(statusCallback);
+            camera.setControlCallback(statusCallback);
         } catch (final Exception e) {
             camera.close();
             camera.destroy();
@@ -510,11 +512,22 @@ import io.flutter.view.TextureRegistry;
 
         final var mediaRecorder = new MediaRecorder();
 
+        // Controls are written asynchronously, so the results are only logged
+        final var controlWriter = new ControlWriter(camera);
+        controlWriter.setResultCallback((ctrlId, result, error) -> {
+            if (error != null) {
+                Log.w(TAG, "Failed to write control: cameraId=" + cameraId + ", ctrlId=" + ctrlId, error);
+            } else if (result < 0) {
+                Log.w(TAG, "Failed to write control: cameraId=" + cameraId + ", ctrlId=" + ctrlId + ", result=" + result);
+            }
+        });
+
         camerasResources.put(cameraId, new UvcCameraResources(
                 cameraId,
                 cameraSurfaceProducer,
                 cameraSurface,
                 camera,
+                controlWriter,
                 errorEventChannel,
                 errorEventStreamHandler,
                 errorCallback,
@@ -575,12 +588,21 @@ import io.flutter.view.TextureRegistry;
 
         Log.d(TAG, "closeCamera: unsetting status callback");
         try {
+            cameraResources.camera().setControlCallback(null);
             cameraResources.camera().setStatusCallback(null);
             Log.d(TAG, "closeCamera: status callback unset");
         } catch (final Exception e) {
             Log.w(TAG, "closeCamera: failed to unset status callback", e);
         }
 
+        Log.d(TAG, "closeCamera: releasing control writer");
+        try {
+            cameraResources.controlWriter().release();
+            Log.d(TAG, "closeCamera: control writer released");
+        } catch (final Exception e) {
+            Log.w(TAG, "closeCamera: failed to release control writer", e);
+        }
+
         Log.d(TAG, "closeCamera: closing camera");
         try {
             cameraResources.camera().close();
@@ -776,6 +798,52 @@ import io.flutter.view.TextureRegistry;
         );
     }
 
+    /**
+     * Casts camera control change event to the status event stream
+     *
+     * @param cameraId the camera ID
+     * @param ctrlId   the control ID, UVCCamera.CTRL_XXX/PU_XXX
+     * @param value    the new value of the control
+     * @param source   the source of the change, UVCCamera.CONTROL_SOURCE_XXX
+     */
+    /* package-private */ void castCameraControlEvent(
+            final int cameraId,
+            int ctrlId,
+            int value,
+            int source
+    ) {
+        Log.v(TAG, "castCameraControlEvent"
+                + ": cameraId=" + cameraId
+                + ", ctrlId=" + ctrlId
+                + ", value=" + value
+                + ", source=" + source
+        );
+
+        final var cameraResources = camerasResources.get(cameraId);
+        if (cameraResources == null) {
+            throw new IllegalArgumentException("Camera resources not found: " + cameraId);
+        }
+
+        final var eventSink = cameraResources.statusEventStreamHandler().getEventSink();
+        if (eventSink == null) {
+            Log.w(TAG, "castCameraControlEvent: event sink not found");
+            return;
+        }
+
+        final var eventMap = Map.of(
+                "cameraId", cameraId,
+                "control", Map.of(
+                        "controlId", ctrlId,
+                        "value", value,
+                        "source", source == UVCCamera.CONTROL_SOURCE_APP ? "app" : "device"
+                )
+        );
+
+        mainLooperHandler.post(
+                () -> eventSink.success(eventMap)
+        );
+    }
+
     /**
      * Attaches to the camera button callback
      *
@@ -890,7 +958,7 @@ import io.flutter.view.TextureRegistry;
             throw new IllegalArgumentException("Camera resources not found: " + cameraId);
         }
 
-        return UVCCamera.getSupportedSize(-1, cameraResources.camera().getSupportedSize());
+        return cameraResources.camera().getSupportedModes();
     }
 
     /**
@@ -972,7 +1040,7 @@ import io.flutter.view.TextureRegistry;
             throw new IllegalStateException("Failed to create picture file", e);
         }
 
-        cameraResources.camera().setFrameCallback(
+        cameraResources.camera().setFrameCallback2(
                 new UvcCameraTakePictureFrameCallback(
                         this,
                         cameraId,
@@ -989,18 +1057,24 @@ import io.flutter.view.TextureRegistry;
      * @param cameraId      the camera ID
      * @param outputFile    the output file
      * @param frame         the frame
+     * @param frameWidth    the width of the frame
+     * @param frameHeight   the height of the frame
      * @param resultHandler the result handler
      */
     /* package-private */ void handleTakenPicture(
             final int cameraId,
             final File outputFile,
             final ByteBuffer frame,
+            final int frameWidth,
+            final int frameHeight,
             final UvcCameraTakePictureResultHandler resultHandler
     ) {
         Log.v(TAG, "handleTakenPicture"
                 + ": cameraId=" + cameraId
                 + ", outputFile=" + outputFile
                 + ", frame=" + frame
+                + ", frameWidth=" + frameWidth
+                + ", frameHeight=" + frameHeight
                 + ", resultHandler=" + resultHandler
         );
 
@@ -1021,7 +1095,7 @@ import io.flutter.view.TextureRegistry;
             cameraResources.camera().setFrameCallback(null, 0);
 
             try {
-                saveTakenPictureToFile(cameraId, outputFile, frameData);
+                saveTakenPictureToFile(cameraId, outputFile, frameData, frameWidth, frameHeight);
                 resultHandler.onResult(outputFile, null);
             } catch(final Exception e) {
                 Log.e(TAG, "Failed to save taken picture to file", e);
@@ -1035,13 +1109,23 @@ import io.flutter.view.TextureRegistry;
      *
      * @param cameraId   the camera ID
      * @param outputFile the output file
-     * @param frameData  the frame data
+     * @param frameData   the frame data
+     * @param frameWidth  the width of the frame
+     * @param frameHeight the height of the frame
      */
-    private void saveTakenPictureToFile(final int cameraId, final File outputFile, final byte[] frameData) {
+    private void saveTakenPictureToFile(
+            final int cameraId,
+            final File outputFile,
+            final byte[] frameData,
+            final int frameWidth,
+            final int frameHeight
+    ) {
         Log.v(TAG, "saveTakenPictureToFile"
                 + ": cameraId=" + cameraId
                 + ", outputFile=" + outputFile
                 + ", frameData=[... " + frameData.length + " byte(s) ...]"
+                + ", frameWidth=" + frameWidth
+                + ", frameHeight=" + frameHeight
         );
 
         final var cameraResources = camerasResources.get(cameraId);
@@ -1049,12 +1133,12 @@ import io.flutter.view.TextureRegistry;
             throw new IllegalArgumentException("Camera resources not found: " + cameraId);
         }
 
-        final var previewSize = cameraResources.camera().getPreviewSize();
+        // NOTE: The frame size differs from the preview size while the frames are cropped by the digital zoom
         final var yuvImage = new YuvImage(
                 frameData,
                 ImageFormat.NV21,
-                previewSize.width,
-                previewSize.height,
+                frameWidth,
+                frameHeight,
                 null
         );
 
@@ -1067,7 +1151,7 @@ import io.flutter.view.TextureRegistry;
 
         try {
             yuvImage.compressToJpeg(
-                    new Rect(0, 0, previewSize.width, previewSize.height),
+                    new Rect(0, 0, frameWidth, frameHeight),
                     100,
                     outputFileStream
             );
@@ -1168,6 +1252,10 @@ import io.flutter.view.TextureRegistry;
 
     /**
      * Sets the zoom level for the specified camera
+     * <p>
+     * Cameras without the zoom control are zoomed digitally by cropping the frames natively,
+     * see {@link UVCCamera#setDigitalZoom(int)}. The digital zoom has no effect while recording
+     * because the capture surface turns the cropping off.
      *
      * @param cameraId  the camera ID
      * @param zoomLevel the zoom level (0 to 100)
@@ -1180,7 +1268,13 @@ import io.flutter.view.TextureRegistry;
             throw new IllegalArgumentException("Camera resources not found: " + cameraId);
         }
 
-        cameraResources.camera().setZoom(zoomLevel);
+        final var camera = cameraResources.camera();
+        if (camera.checkSupportFlag(UVCCamera.CTRL_ZOOM_ABS)) {
+            // NOTE: The result is logged by the result callback of the control writer, see openCamera
+            cameraResources.controlWriter().setPercent(UVCCamera.CTRL_ZOOM_ABS, zoomLevel);
+        } else {
+            camera.setDigitalZoom(zoomLevel);
+        }
     }
 
     /**
@@ -1197,7 +1291,12 @@ import io.flutter.view.TextureRegistry;
             throw new IllegalArgumentException("Camera resources not found: " + cameraId);
         }
 
-        return cameraResources.camera().getZoom();
+        final var camera = cameraResources.camera();
+        if (camera.checkSupportFlag(UVCCamera.CTRL_ZOOM_ABS)) {
+            return camera.getZoom();
+        } else {
+            return camera.getDigitalZoom();
+        }
     }
 
     /**
@@ -3,6 +3,7 @@ package org.uvccamera.flutter;
 import android.media.MediaRecorder;
 import android.view.Surface;
 
+import com.serenegiant.usb.ControlWriter;
 import com.serenegiant.usb.UVCCamera;
 
 import io.flutter.plugin.common.EventChannel;
@@ -16,6 +17,7 @@ import io.flutter.view.TextureRegistry;
         TextureRegistry.SurfaceProducer surfaceSurfaceProducer,
         Surface surface,
         UVCCamera camera,
+        ControlWriter controlWriter,
         EventChannel errorEventChannel,
         UvcCameraErrorEventStreamHandler errorEventStreamHandler,
         UvcCameraErrorCallback errorCallback,
@@ -2,15 +2,16 @@ package org.uvccamera.flutter;
 
 import android.util.Log;
 
+import com.serenegiant.usb.IControlCallback;
 import com.serenegiant.usb.IStatusCallback;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * {@link com.serenegiant.usb.UVCCamera}'s {@link IStatusCallback} implementation
+ * {@link com.serenegiant.usb.UVCCamera}'s {@link IStatusCallback} and {@link IControlCallback} implementation
  */
-/* package-private */ class UvcCameraStatusCallback implements IStatusCallback {
+/* package-private */ class UvcCameraStatusCallback implements IStatusCallback, IControlCallback {
 
     /**
      * Log tag
@@ -73,4 +74,18 @@ import java.util.concurrent.atomic.AtomicBoolean;
         }
     }
 
+    @Override
+    public void onControlChanged(int ctrlId, int value, int source) {
+        Log.v(TAG, "onControlChanged"
+                + ": cameraId=" + cameraId
+                + ", ctrlId=" + ctrlId
+                + ", value=" + value
+                + ", source=" + source
+        );
+
+        if (castEvents.get()) {
+            uvcCameraPlatform.castCameraControlEvent(cameraId, ctrlId, value, source);
+        }
+    }
+
 }
@@ -5,7 +5,7 @@ import android.util.Log;
 import io.flutter.plugin.common.EventChannel;
 
 /**
- * Camera button event stream handler
+ * Camera status event stream handler, also carries the control change events
  */
 /* package-private */ class UvcCameraStatusEventStreamHandler implements EventChannel.StreamHandler {
 
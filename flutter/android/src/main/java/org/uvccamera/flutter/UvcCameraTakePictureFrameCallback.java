@@ -2,12 +2,13 @@ package org.uvccamera.flutter;
 
 import android.util.Log;
 
-import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.FrameInfo;
+import com.serenegiant.usb.IFrameCallback2;
 
 import java.io.File;
 import java.nio.ByteBuffer;
 
-/* package-private */ class UvcCameraTakePictureFrameCallback implements IFrameCallback {
+/* package-private */ class UvcCameraTakePictureFrameCallback implements IFrameCallback2 {
 
     /**
      * Log tag
@@ -60,19 +61,32 @@ import java.nio.ByteBuffer;
     }
 
     @Override
-    public void onFrame(ByteBuffer frame) {
+    public void onFrame(ByteBuffer frame, FrameInfo info) {
         Log.v(TAG, "onFrame"
                 + ": frame=" + frame
+                + ", info=" + info
         );
 
-        if (frameCaptured) {
-            Log.w(TAG, "onFrame: frame already captured");
-            return;
+        try {
+            if (frameCaptured) {
+                Log.w(TAG, "onFrame: frame already captured");
+                return;
+            }
+
+            frameCaptured = true;
+
+            // NOTE: The frame size is taken from the frame itself as it may be cropped by the digital zoom
+            uvcCameraPlatform.handleTakenPicture(
+                    cameraId,
+                    outputFile,
+                    frame,
+                    info.width,
+                    info.height,
+                    resultHandler
+            );
+        } finally {
+            info.release();
         }
-
-        frameCaptured = true;
-
-        uvcCameraPlatform.handleTakenPicture(cameraId, outputFile, frame, resultHandler);
     }
 
 }
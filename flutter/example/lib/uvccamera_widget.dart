@@ -116,7 +116,9 @@ class _UvcCameraWidgetState extends State<UvcCameraWidget> with WidgetsBindingOb
 
             _statusEventSubscription = _cameraController!.cameraStatusEvents.listen((event) {
               setState(() {
-                _log = 'status: ${event.payload}\n$_log';
+                _log = event.control != null
+                    ? 'control(${event.control!.controlId}): ${event.control!.value}\n$_log'
+                    : 'status: ${event.payload}\n$_log';
               });
             });
 
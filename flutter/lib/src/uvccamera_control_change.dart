@@ -0,0 +1,32 @@
+import 'package:equatable/equatable.dart';
+import 'package:flutter/foundation.dart';
+
+import 'uvccamera_control_source.dart';
+
+/// UVC camera control value change.
+///
+/// Delivered on the status event stream when the value of a control changes.
+@immutable
+class UvcCameraControlChange extends Equatable {
+  /// The control ID, same as UVCCamera.CTRL_XXX/PU_XXX
+  final int controlId;
+  final int value;
+  final UvcCameraControlSource source;
+
+  const UvcCameraControlChange({required this.controlId, required this.value, required this.source});
+
+  factory UvcCameraControlChange.fromMap(Map<dynamic, dynamic> map) {
+    return UvcCameraControlChange(
+      controlId: map['controlId'] as int,
+      value: map['value'] as int,
+      source: UvcCameraControlSource.values.byName(map['source'] as String),
+    );
+  }
+
+  Map<String, dynamic> toMap() {
+    return {'controlId': controlId, 'value': value, 'source': source.name};
+  }
+
+  @override
+  List<Object?> get props => [controlId, value, source];
+}
@@ -0,0 +1,10 @@
+/// Source of the control value change.
+///
+/// Corresponds to the UVCCamera.CONTROL_SOURCE_XXX.
+enum UvcCameraControlSource {
+  /// The value was notified by the camera or read from the camera
+  device,
+
+  /// The value was written by this app
+  app,
+}
@@ -214,6 +214,10 @@ class UvcCameraController extends ValueNotifier<UvcCameraControllerState> {
   }
 
   /// Sets the zoom level for the camera.
+  ///
+  /// Cameras without an optical zoom control are zoomed digitally by cropping the preview frames.
+  /// The digital zoom is not applied while a video is being recorded, as the recorder receives
+  /// the whole frames, so the preview shows the whole frame until the recording is stopped.
   Future<void> setZoomLevel(int zoomLevel) async {
     _ensureInitializedNotDisposed();
     await UvcCameraPlatformInterface.instance.setZoomLevel(_cameraId!, zoomLevel);
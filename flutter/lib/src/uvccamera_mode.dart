@@ -9,7 +9,16 @@ class UvcCameraMode extends Equatable {
   final int frameHeight;
   final UvcCameraFrameFormat frameFormat;
 
-  const UvcCameraMode({required this.frameWidth, required this.frameHeight, required this.frameFormat});
+  /// Frame rates the camera reports for this mode, empty if unknown.
+  /// Not part of the equality so that modes from different sources still compare equal.
+  final List<double> frameRates;
+
+  const UvcCameraMode({
+    required this.frameWidth,
+    required this.frameHeight,
+    required this.frameFormat,
+    this.frameRates = const [],
+  });
 
   /// The aspect ratio of the camera mode.
   double get aspectRatio => frameWidth / frameHeight;
@@ -19,11 +28,17 @@ class UvcCameraMode extends Equatable {
       frameWidth: map['frameWidth'] as int,
       frameHeight: map['frameHeight'] as int,
       frameFormat: UvcCameraFrameFormat.values.byName(map['frameFormat'] as String),
+      frameRates: (map['frameRates'] as List<dynamic>?)?.map((e) => (e as num).toDouble()).toList() ?? const [],
     );
   }
 
   Map<String, dynamic> toMap() {
-    return {'frameWidth': frameWidth, 'frameHeight': frameHeight, 'frameFormat': frameFormat.name};
+    return {
+      'frameWidth': frameWidth,
+      'frameHeight': frameHeight,
+      'frameFormat': frameFormat.name,
+      'frameRates': frameRates,
+    };
   }
 
   @override
@@ -1,26 +1,36 @@
 import 'package:equatable/equatable.dart';
 import 'package:flutter/foundation.dart';
 
+import 'uvccamera_control_change.dart';
 import 'uvccamera_status.dart';
 
+/// UVC camera status event.
+///
+/// Either [payload] (status interrupt of the camera) or [control] (control value change) is set.
 @immutable
 class UvcCameraStatusEvent extends Equatable {
   final int cameraId;
-  final UvcCameraStatus payload;
+  final UvcCameraStatus? payload;
+  final UvcCameraControlChange? control;
 
-  const UvcCameraStatusEvent({required this.cameraId, required this.payload});
+  const UvcCameraStatusEvent({required this.cameraId, this.payload, this.control});
 
   factory UvcCameraStatusEvent.fromMap(Map<dynamic, dynamic> map) {
     return UvcCameraStatusEvent(
       cameraId: map['cameraId'] as int,
-      payload: UvcCameraStatus.fromMap(map['payload'] as Map<dynamic, dynamic>),
+      payload: map['payload'] != null ? UvcCameraStatus.fromMap(map['payload'] as Map<dynamic, dynamic>) : null,
+      control: map['control'] != null ? UvcCameraControlChange.fromMap(map['control'] as Map<dynamic, dynamic>) : null,
     );
   }
 
   Map<String, dynamic> toMap() {
-    return {'cameraId': cameraId, 'payload': payload.toMap()};
+    return {
+      'cameraId': cameraId,
+      if (payload != null) 'payload': payload!.toMap(),
+      if (control != null) 'control': control!.toMap(),
+    };
   }
 
   @override
-  List<Object?> get props => [cameraId, payload];
+  List<Object?> get props => [cameraId, payload, control];
 }
@@ -0,0 +1,573 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.serenegiant.usb.USBMonitor.UsbControlBlock;
+
+/**
+ * plans preview modes of multiple cameras that stream at the same time.
+ * isochronous cameras reserve bus bandwidth with the altsetting that libuvc selects on start,
+ * so streaming fails when the cameras on the same bus reserve more than the bus can schedule.
+ * this probes the desired modes of each camera(negotiation only, nothing is streamed),
+ * searches the combination of the modes and altsettings that fits into the periodic budget
+ * of each bus and applies it to all cameras or none.
+ * the search is deterministic, same cameras and modes give same plan, and it does not need
+ * real cameras when the probes are added with #addCamera(Object, int, Probe...).
+ * <pre>
+ * final BandwidthPlanner planner = new BandwidthPlanner();
+ * planner.addCamera(camera1, new Mode(1280, 720, 30, UVCCamera.FRAME_FORMAT_MJPEG, 0.5f), new Mode(640, 480, 30));
+ * planner.addCamera(camera2, new Mode(640, 480, 30), new Mode(320, 240, 30));
+ * final BandwidthPlanner.Plan plan = planner.plan();
+ * if ((plan != null) && plan.apply()) { camera1.startPreview(); camera2.startPreview(); }
+ * </pre>
+ */
+public final class BandwidthPlanner {
+	// same as libusb_speed
+	public static final int SPEED_UNKNOWN = 0;
+	public static final int SPEED_LOW = 1;
+	public static final int SPEED_FULL = 2;
+	public static final int SPEED_HIGH = 3;
+	public static final int SPEED_SUPER = 4;
+	/**
+	 * periodic transfers may use 90% of a full speed frame(1500 bytes/ms)
+	 * and 80% of a high speed microframe(7500 bytes/125us), bytes per second.
+	 * these ignore the protocol overhead of each transaction.
+	 */
+	public static final long BUDGET_FULL_SPEED = 1350000L;
+	public static final long BUDGET_HIGH_SPEED = 48000000L;
+	public static final long BUDGET_SUPER_SPEED = 450000000L;
+
+	// same as UVCPreview.h
+	private static final int PROBE_PAYLOAD_BYTES = 0;
+	private static final int PROBE_FRAME_BYTES = 1;
+	private static final int PROBE_FRAME_INTERVAL = 2;
+	private static final int PROBE_ALT_NUM = 3;
+	private static final int PROBE_SPEED = 4;
+	private static final int PROBE_ALT_TOP = 5;
+	private static final int PROBE_MAX_ALT = 16;
+	/*package*/static final int PROBE_VALUES_NUM = PROBE_ALT_TOP + PROBE_MAX_ALT * 2;
+
+	/**
+	 * desired preview mode of a camera
+	 */
+	public static final class Mode {
+		public final int width, height;
+		public final int minFps, maxFps;
+		/** UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG */
+		public final int frameFormat;
+		/**
+		 * lowest bandwidth factor the planner may use, in (0, 1].
+		 * MJPEG cameras usually request the bandwidth of an uncompressed frame and
+		 * stream fine with a smaller altsetting, 1.0 always uses the altsetting the camera requests
+		 */
+		public final float minBandwidthFactor;
+
+		public Mode(final int width, final int height, final int fps) {
+			this(width, height, fps, UVCCamera.FRAME_FORMAT_MJPEG, UVCCamera.DEFAULT_BANDWIDTH);
+		}
+
+		public Mode(final int width, final int height, final int fps,
+			final int frameFormat, final float minBandwidthFactor) {
+
+			this(width, height, fps, fps, frameFormat, minBandwidthFactor);
+		}
+
+		public Mode(final int width, final int height, final int minFps, final int maxFps,
+			final int frameFormat, final float minBandwidthFactor) {
+
+			if ((width <= 0) || (height <= 0) || (minFps <= 0) || (maxFps < minFps)
+				|| (minBandwidthFactor <= 0) || (minBandwidthFactor > 1.0f))
+				throw new IllegalArgumentException("invalid mode");
+			this.width = width;
+			this.height = height;
+			this.minFps = minFps;
+			this.maxFps = maxFps;
+			this.frameFormat = frameFormat;
+			this.minBandwidthFactor = minBandwidthFactor;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%dx%d@%d-%dfps(%s)", width, height, minFps, maxFps,
+				frameFormat == UVCCamera.FRAME_FORMAT_YUYV ? "YUYV" : "MJPEG");
+		}
+	}
+
+	/**
+	 * parameters of a mode negotiated with the camera
+	 */
+	public static final class Probe {
+		public final Mode mode;
+		/** libusb_speed of the camera, SPEED_XXX */
+		public final int speed;
+		/** negotiated dwMaxPayloadTransferSize */
+		public final int payloadBytes;
+		/** negotiated dwMaxVideoFrameSize */
+		public final int frameBytes;
+		/** negotiated dwFrameInterval in 100ns */
+		public final int frameInterval;
+		/** bytes of a packet of each isochronous altsetting, empty for bulk transfer */
+		public final int[] packetBytes;
+		/** service intervals per second of each isochronous altsetting */
+		public final int[] intervalsPerSec;
+
+		/**
+		 * constructor for the probes that are not read from a camera
+		 */
+		public Probe(final Mode mode, final int speed,
+			final int payloadBytes, final int frameBytes, final int frameInterval,
+			final int[] packetBytes, final int[] intervalsPerSec) {
+
+			if ((packetBytes == null) || (intervalsPerSec == null)
+				|| (packetBytes.length != intervalsPerSec.length))
+				throw new IllegalArgumentException("invalid altsettings");
+			this.mode = mode;
+			this.speed = speed;
+			this.payloadBytes = payloadBytes;
+			this.frameBytes = frameBytes;
+			this.frameInterval = frameInterval;
+			this.packetBytes = packetBytes.clone();
+			this.intervalsPerSec = intervalsPerSec.clone();
+		}
+
+		private Probe(final Mode mode, final long[] values) {
+			this.mode = mode;
+			speed = (int)values[PROBE_SPEED];
+			payloadBytes = (int)values[PROBE_PAYLOAD_BYTES];
+			frameBytes = (int)values[PROBE_FRAME_BYTES];
+			frameInterval = (int)values[PROBE_FRAME_INTERVAL];
+			final int n = (int)Math.min(values[PROBE_ALT_NUM], PROBE_MAX_ALT);
+			packetBytes = new int[n];
+			intervalsPerSec = new int[n];
+			for (int i = 0; i < n; i++) {
+				packetBytes[i] = (int)values[PROBE_ALT_TOP + i * 2];
+				intervalsPerSec[i] = (int)values[PROBE_ALT_TOP + i * 2 + 1];
+			}
+		}
+
+		public boolean isIsochronous() {
+			return packetBytes.length > 0;
+		}
+
+		/**
+		 * index of the altsetting that libuvc selects with the bandwidth factor,
+		 * same as uvc_stream_start_bandwidth
+		 * @return -1 for bulk transfer
+		 */
+		public int selectAltsetting(final float bandwidthFactor) {
+			final int n = packetBytes.length;
+			if (n == 0) return -1;
+			long config = payloadBytes;
+			if ((bandwidthFactor > 0) && (bandwidthFactor < 1.0f)) {
+				config = (long)(payloadBytes * bandwidthFactor);
+				if (config == 0) config = payloadBytes;
+			}
+			for (int i = 0; i < n; i++) {
+				if (packetBytes[i] >= config) {
+					return i;
+				}
+			}
+			return n - 1;
+		}
+
+		/** bus bandwidth the altsetting reserves in bytes per second, 0 for bulk transfer */
+		public long reservedBytes(final int alt) {
+			return alt >= 0 ? (long)packetBytes[alt] * intervalsPerSec[alt] : 0;
+		}
+	}
+
+	/**
+	 * a mode with the altsetting to use
+	 */
+	public static final class Option {
+		public final Probe probe;
+		/** index of the altsetting, -1 for bulk transfer */
+		public final int altsetting;
+		/** bandwidth factor that makes libuvc select the altsetting */
+		public final float bandwidthFactor;
+		/** reserved bus bandwidth in bytes per second */
+		public final long reservedBytes;
+
+		private Option(final Probe probe, final int altsetting, final float bandwidthFactor) {
+			this.probe = probe;
+			this.altsetting = altsetting;
+			this.bandwidthFactor = bandwidthFactor;
+			reservedBytes = probe.reservedBytes(altsetting);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s,alt=%d,factor=%.3f,reserved=%dB/s",
+				probe.mode, altsetting, bandwidthFactor, reservedBytes);
+		}
+	}
+
+	/**
+	 * modes and altsettings of all cameras that fit into the bus budgets
+	 */
+	public static final class Plan {
+		/** keys passed to #addCamera and the options in the same order */
+		public final List<Object> cameras;
+		public final List<Option> options;
+		/** total cost of the plan, sum of the preference ranks of the options, 0 is the best */
+		public final int cost;
+
+		private Plan(final List<Object> cameras, final List<Option> options, final int cost) {
+			this.cameras = Collections.unmodifiableList(cameras);
+			this.options = Collections.unmodifiableList(options);
+			this.cost = cost;
+		}
+
+		public Option get(final Object camera) {
+			final int ix = cameras.indexOf(camera);
+			return ix >= 0 ? options.get(ix) : null;
+		}
+
+		/**
+		 * set the preview size of all UVCCamera in the plan, this should be called while preview is not running.
+		 * if a camera rejects its mode, cameras already set are restored to their previous mode.
+		 * exceptions other than IllegalArgumentException are rethrown after restoring them.
+		 * @return true if all cameras accepted their modes
+		 */
+		public boolean apply() {
+			return apply(UVC_CAMERA_SETTER);
+		}
+
+		/*package*/boolean apply(final ModeSetter setter) {
+			final int n = cameras.size();
+			final Object[] prev = new Object[n];
+			boolean applied = false;
+			int i = 0;
+			try {
+				for (; i < n; i++) {
+					prev[i] = setter.set(cameras.get(i), options.get(i));
+				}
+				applied = true;
+			} catch (final IllegalArgumentException e) {
+				// the camera rejected its mode
+			} finally {
+				if (!applied) {
+					for (i--; i >= 0; i--) {
+						if (prev[i] != null) {
+							try {
+								setter.restore(cameras.get(i), prev[i]);
+							} catch (final RuntimeException e1) {
+								// ignore, restore the other cameras anyway
+							}
+						}
+					}
+				}
+			}
+			return applied;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder("Plan{cost=").append(cost);
+			for (int i = 0; i < cameras.size(); i++) {
+				sb.append(",[").append(options.get(i)).append(']');
+			}
+			return sb.append('}').toString();
+		}
+	}
+
+	/**
+	 * changes the mode of a camera in the plan, Plan#apply uses this to set/restore UVCCamera
+	 */
+	/*package*/interface ModeSetter {
+		/**
+		 * @return previous mode of the camera to restore, null if the camera was not changed
+		 */
+		public Object set(final Object camera, final Option option);
+		public void restore(final Object camera, final Object previous);
+	}
+
+	/** mode of UVCCamera before Plan#apply */
+	private static final class PreviewSize {
+		private final int width, height;
+		private final int minFps, maxFps;
+		private final int frameFormat;
+		private final float bandwidthFactor;
+
+		private PreviewSize(final UVCCamera camera) {
+			width = camera.mCurrentWidth;
+			height = camera.mCurrentHeight;
+			minFps = camera.mCurrentMinFps;
+			maxFps = camera.mCurrentMaxFps;
+			frameFormat = camera.mCurrentFrameFormat;
+			bandwidthFactor = camera.mCurrentBandwidthFactor;
+		}
+	}
+
+	private static final ModeSetter UVC_CAMERA_SETTER = new ModeSetter() {
+		@Override
+		public Object set(final Object camera, final Option option) {
+			if (!(camera instanceof UVCCamera)) {
+				return null;
+			}
+			final UVCCamera uvcCamera = (UVCCamera)camera;
+			final Mode mode = option.probe.mode;
+			synchronized (uvcCamera) {
+				final PreviewSize prev = new PreviewSize(uvcCamera);
+				uvcCamera.setPreviewSize(mode.width, mode.height, mode.minFps, mode.maxFps,
+					mode.frameFormat, option.bandwidthFactor);
+				return prev;
+			}
+		}
+
+		@Override
+		public void restore(final Object camera, final Object previous) {
+			final PreviewSize prev = (PreviewSize)previous;
+			((UVCCamera)camera).setPreviewSize(prev.width, prev.height,
+				prev.minFps, prev.maxFps, prev.frameFormat, prev.bandwidthFactor);
+		}
+	};
+
+	private static final class Entry {
+		private final Object key;
+		private final int busNum;
+		private final List<Option> options = new ArrayList<Option>();
+
+		private Entry(final Object key, final int busNum) {
+			this.key = key;
+			this.busNum = busNum;
+		}
+	}
+
+	private final List<Entry> mEntries = new ArrayList<Entry>();
+	private final Map<Integer, Long> mBudgets = new LinkedHashMap<Integer, Long>();
+
+	/**
+	 * override the budget of the bus, e.g. to keep bandwidth for the other isochronous devices
+	 * @param bytesPerSec bytes per second that the cameras on the bus can reserve
+	 */
+	public synchronized BandwidthPlanner setBusBudget(final int busNum, final long bytesPerSec) {
+		mBudgets.put(busNum, bytesPerSec);
+		return this;
+	}
+
+	/**
+	 * probe the modes with the camera and add them as the candidates of the camera.
+	 * the camera must be opened and not previewing
+	 * @param modes in the order of preference
+	 * @return number of modes the camera supports
+	 */
+	public int addCamera(final UVCCamera camera, final Mode... modes) {
+		final UsbControlBlock ctrlBlock = camera.getUsbControlBlock();
+		if (ctrlBlock == null)
+			throw new IllegalStateException("camera is not opened");
+		final List<Probe> probes = new ArrayList<Probe>();
+		final long[] values = new long[PROBE_VALUES_NUM];
+		for (final Mode mode: modes) {
+			if (camera.probeStreamMode(mode.width, mode.height, mode.minFps, mode.maxFps, mode.frameFormat, values)) {
+				probes.add(new Probe(mode, values));
+			}
+		}
+		addCamera(camera, ctrlBlock.getBusNum(), probes.toArray(new Probe[probes.size()]));
+		return probes.size();
+	}
+
+	/**
+	 * add the camera with the probes that are not read from a camera(e.g. saved or fake descriptors)
+	 * @param key any object to identify the camera in the Plan
+	 * @param busNum cameras with same bus number share the budget of the bus
+	 * @param probes in the order of preference
+	 */
+	public synchronized void addCamera(final Object key, final int busNum, final Probe... probes) {
+		final Entry entry = new Entry(key, busNum);
+		for (final Probe probe: probes) {
+			addOptions(entry.options, probe);
+		}
+		mEntries.add(entry);
+	}
+
+	/**
+	 * options of a probe from the altsetting the camera requests down to the smallest one
+	 * the minimum bandwidth factor allows
+	 */
+	private static void addOptions(final List<Option> options, final Probe probe) {
+		final int full = probe.selectAltsetting(UVCCamera.DEFAULT_BANDWIDTH);
+		if (full < 0) {
+			options.add(new Option(probe, -1, UVCCamera.DEFAULT_BANDWIDTH));
+			return;
+		}
+		options.add(new Option(probe, full, UVCCamera.DEFAULT_BANDWIDTH));
+		final long min = (long)Math.ceil(probe.payloadBytes * (double)probe.mode.minBandwidthFactor);
+		for (int alt = full - 1; (alt >= 0) && (probe.packetBytes[alt] >= min); alt--) {
+			final int lower = alt > 0 ? probe.packetBytes[alt - 1] : 0;
+			if ((probe.packetBytes[alt] <= lower) || (probe.packetBytes[alt] >= probe.packetBytes[alt + 1])) {
+				continue;	// libuvc can not select this altsetting
+			}
+			// middle of this and the smaller altsetting, so that rounding never selects the neighbors
+			final float factor = (lower + probe.packetBytes[alt]) / 2.0f / probe.payloadBytes;
+			if (probe.selectAltsetting(factor) == alt) {
+				options.add(new Option(probe, alt, factor));
+			}
+		}
+	}
+
+	private long budget(final int busNum, final int speed) {
+		final Long budget = mBudgets.get(busNum);
+		if (budget != null) {
+			return budget;
+		}
+		switch (speed) {
+		case SPEED_LOW:
+		case SPEED_FULL:
+			return BUDGET_FULL_SPEED;
+		case SPEED_SUPER:
+			return BUDGET_SUPER_SPEED;
+		default:
+			return BUDGET_HIGH_SPEED;
+		}
+	}
+
+	/**
+	 * search the modes and altsettings of all cameras that fit into the budget of each bus
+	 * with the smallest sum of preference ranks(mode first, then altsetting)
+	 * @return null if any camera has no supported mode or no combination fits
+	 */
+	public synchronized Plan plan() {
+		final int n = mEntries.size();
+		final long[][] reserved = new long[n][];
+		final int[] group = new int[n];
+		final List<Integer> buses = new ArrayList<Integer>();
+		final List<Integer> speeds = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			final Entry entry = mEntries.get(i);
+			if (entry.options.isEmpty()) {
+				return null;
+			}
+			int g = buses.indexOf(entry.busNum);
+			if (g < 0) {
+				g = buses.size();
+				buses.add(entry.busNum);
+				speeds.add(SPEED_UNKNOWN);
+			}
+			group[i] = g;
+			reserved[i] = new long[entry.options.size()];
+			for (int j = 0; j < reserved[i].length; j++) {
+				final Option option = entry.options.get(j);
+				reserved[i][j] = option.reservedBytes;
+				if (option.probe.speed > speeds.get(g)) {
+					speeds.set(g, option.probe.speed);
+				}
+			}
+		}
+		final long[] budgets = new long[buses.size()];
+		for (int g = 0; g < budgets.length; g++) {
+			budgets[g] = budget(buses.get(g), speeds.get(g));
+		}
+		final int[] selected = solve(reserved, group, budgets);
+		if (selected == null) {
+			return null;
+		}
+		final List<Object> cameras = new ArrayList<Object>(n);
+		final List<Option> options = new ArrayList<Option>(n);
+		int cost = 0;
+		for (int i = 0; i < n; i++) {
+			cameras.add(mEntries.get(i).key);
+			options.add(mEntries.get(i).options.get(selected[i]));
+			cost += selected[i];
+		}
+		return new Plan(cameras, options, cost);
+	}
+
+	/**
+	 * depth first branch and bound search of the options.
+	 * options of each camera are in the order of preference and the cost is the sum of their indices,
+	 * the first combination found with the lowest cost wins, so the result is deterministic.
+	 * @param reserved reserved bytes of the options of each camera
+	 * @param group bus group of each camera
+	 * @param budgets budget of each bus group
+	 * @return index of the option of each camera, null if nothing fits
+	 */
+	/*package*/static int[] solve(final long[][] reserved, final int[] group, final long[] budgets) {
+		final int n = reserved.length;
+		// smallest reservation of the remaining cameras in each group, to prune early
+		final long[][] remainMin = new long[n + 1][budgets.length];
+		for (int i = n - 1; i >= 0; i--) {
+			System.arraycopy(remainMin[i + 1], 0, remainMin[i], 0, budgets.length);
+			long min = Long.MAX_VALUE;
+			for (final long r: reserved[i]) {
+				min = Math.min(min, r);
+			}
+			remainMin[i][group[i]] += min;
+		}
+		for (int g = 0; g < budgets.length; g++) {
+			if (remainMin[0][g] > budgets[g]) {
+				return null;
+			}
+		}
+		final Search search = new Search(reserved, group, budgets, remainMin);
+		search.run(0, 0);
+		return search.best;
+	}
+
+	private static final class Search {
+		private final long[][] reserved;
+		private final int[] group;
+		private final long[] budgets;
+		private final long[][] remainMin;
+		private final long[] used;
+		private final int[] current;
+		private int[] best;
+		private int bestCost = Integer.MAX_VALUE;
+
+		private Search(final long[][] reserved, final int[] group, final long[] budgets, final long[][] remainMin) {
+			this.reserved = reserved;
+			this.group = group;
+			this.budgets = budgets;
+			this.remainMin = remainMin;
+			used = new long[budgets.length];
+			current = new int[reserved.length];
+		}
+
+		private void run(final int camera, final int cost) {
+			if (camera == reserved.length) {
+				bestCost = cost;
+				best = current.clone();
+				return;
+			}
+			final int g = group[camera];
+			final long[] options = reserved[camera];
+			for (int j = 0; (j < options.length) && (cost + j < bestCost); j++) {
+				// the other cameras of this group still need their smallest reservation
+				if (used[g] + options[j] + remainMin[camera + 1][g] <= budgets[g]) {
+					used[g] += options[j];
+					current[camera] = j;
+					run(camera + 1, cost + j);
+					used[g] -= options[j];
+				}
+			}
+		}
+	}
+}
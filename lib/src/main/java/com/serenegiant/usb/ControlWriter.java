@@ -0,0 +1,394 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.util.Log;
+
+/**
+ * writes controls of UVCCamera asynchronously for values that change quickly like sliders.
+ * only the last value of each control is written(last-write-wins) and each control is written
+ * at most max rate times per second, values set while waiting replace the pending value
+ * and share its Future. controls that are due at the same time are written with one
+ * UVCCamera#setControls call on the writer thread, so callers never wait for USB transfers.
+ * <pre>
+ * final ControlWriter writer = new ControlWriter(camera);
+ * // in OnSeekBarChangeListener#onProgressChanged
+ * writer.setPercent(UVCCamera.CTRL_ZOOM_ABS, progress);
+ * ...
+ * writer.release();	// before UVCCamera#close
+ * </pre>
+ */
+public final class ControlWriter {
+	private static final boolean DEBUG = false;	// TODO set false when releasing
+	private static final String TAG = ControlWriter.class.getSimpleName();
+
+	/** default max rate of each control [times/second] */
+	public static final float DEFAULT_MAX_RATE = 30.0f;
+
+	/**
+	 * called on the writer thread after each value is passed to the camera,
+	 * for callers that can not wait for the Future
+	 */
+	public interface ResultCallback {
+		/**
+		 * @param ctrlId UVCCamera.CTRL_XXX/PU_XXX
+		 * @param result UVCCamera.CONTROL_RESULT_XXX or negative error code, 0 if error is not null
+		 * @param error exception thrown by UVCCamera#setControls, null if the value was passed to the camera
+		 */
+		public void onResult(final int ctrlId, final int result, final Throwable error);
+	}
+
+	private final Object mSync = new Object();
+	private final UVCCamera mCamera;
+	private final ScheduledExecutorService mExecutor;
+	private final Map<Integer, Pending> mPending = new HashMap<Integer, Pending>();
+	private final Map<Integer, Long> mIntervalsNs = new HashMap<Integer, Long>();
+	private final Map<Integer, Long> mLastWriteNs = new HashMap<Integer, Long>();
+	private long mDefaultIntervalNs = rateToIntervalNs(DEFAULT_MAX_RATE);
+	private long mRequestCount, mCoalescedCount, mWriteCount;
+	private boolean mReleased;
+	private volatile ResultCallback mCallback;
+
+	/**
+	 * @param camera the camera should be opened while writing
+	 */
+	public ControlWriter(final UVCCamera camera) {
+		if (camera == null)
+			throw new IllegalArgumentException("camera should not be null");
+		mCamera = camera;
+		mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * discard pending values and stop the writer thread,
+	 * Futures of discarded values are cancelled
+	 */
+	public void release() {
+		final List<Pending> pending;
+		synchronized (mSync) {
+			if (mReleased) return;
+			mReleased = true;
+			pending = new ArrayList<Pending>(mPending.values());
+			mPending.clear();
+		}
+		for (final Pending p: pending) {
+			p.future.cancel(false);
+		}
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * set callback that receives the result of each written value, values that are cancelled are not notified
+	 * @param callback null to remove
+	 */
+	public void setResultCallback(final ResultCallback callback) {
+		mCallback = callback;
+	}
+
+	/**
+	 * set max rate of all controls that do not have their own rate
+	 * @param maxRate [times/second], 0 or negative value means no limit
+	 */
+	public void setDefaultMaxRate(final float maxRate) {
+		synchronized (mSync) {
+			mDefaultIntervalNs = rateToIntervalNs(maxRate);
+		}
+	}
+
+	/**
+	 * set max rate of the control
+	 * @param ctrlId UVCCamera.CTRL_XXX/PU_XXX
+	 * @param maxRate [times/second], 0 or negative value means no limit
+	 */
+	public void setMaxRate(final int ctrlId, final float maxRate) {
+		synchronized (mSync) {
+			mIntervalsNs.put(ctrlId, rateToIntervalNs(maxRate));
+		}
+	}
+
+	/**
+	 * write absolute value of the control asynchronously
+	 * @param ctrlId UVCCamera.CTRL_XXX/PU_XXX that UVCCamera#setControls supports
+	 * @param value
+	 * @return Future of UVCCamera.CONTROL_RESULT_XXX or negative error code,
+	 * 	shared with the values that are coalesced with this value
+	 */
+	public Future<Integer> set(final int ctrlId, final int value) {
+		return enqueue(ctrlId, value, 0);
+	}
+
+	/**
+	 * write the control as percentage of its range like UVCCamera#setZoom asynchronously
+	 * @param ctrlId UVCCamera.CTRL_XXX/PU_XXX that UVCCamera#setControls supports
+	 * @param percent [0, 100]
+	 * @return Future of UVCCamera.CONTROL_RESULT_XXX or negative error code,
+	 * 	shared with the values that are coalesced with this value
+	 */
+	public Future<Integer> setPercent(final int ctrlId, final int percent) {
+		return enqueue(ctrlId, percent, UVCCamera.CONTROL_FLAG_PERCENT);
+	}
+
+	/**
+	 * @return number of values passed to #set/#setPercent
+	 */
+	public long getRequestCount() {
+		synchronized (mSync) {
+			return mRequestCount;
+		}
+	}
+
+	/**
+	 * @return number of values that were replaced by later values before they were written
+	 */
+	public long getCoalescedCount() {
+		synchronized (mSync) {
+			return mCoalescedCount;
+		}
+	}
+
+	/**
+	 * @return number of values that were passed to the camera
+	 */
+	public long getWriteCount() {
+		synchronized (mSync) {
+			return mWriteCount;
+		}
+	}
+
+	private Future<Integer> enqueue(final int ctrlId, final int value, final int flags) {
+		synchronized (mSync) {
+			if (mReleased)
+				throw new IllegalStateException("already released");
+			mRequestCount++;
+			Pending pending = mPending.get(ctrlId);
+			if (pending != null) {
+				// last-write-wins, the value is written at the time already scheduled
+				pending.value = value;
+				pending.flags = flags;
+				mCoalescedCount++;
+				return pending.future;
+			}
+			final long now = System.nanoTime();
+			final Long last = mLastWriteNs.get(ctrlId);
+			final long due = last != null ? Math.max(now, last + getIntervalNs(ctrlId)) : now;
+			pending = new Pending(ctrlId, value, flags, due);
+			mPending.put(ctrlId, pending);
+			mExecutor.schedule(mFlushTask, due - now, TimeUnit.NANOSECONDS);
+			return pending.future;
+		}
+	}
+
+	private long getIntervalNs(final int ctrlId) {
+		final Long interval = mIntervalsNs.get(ctrlId);
+		return interval != null ? interval : mDefaultIntervalNs;
+	}
+
+	private static long rateToIntervalNs(final float maxRate) {
+		return maxRate > 0 ? (long)(1000000000L / maxRate) : 0;
+	}
+
+	/**
+	 * write all pending values that are due with as few native calls as possible
+	 */
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			final List<Pending> due = new ArrayList<Pending>();
+			synchronized (mSync) {
+				final long now = System.nanoTime();
+				for (final Iterator<Pending> it = mPending.values().iterator(); it.hasNext(); ) {
+					final Pending pending = it.next();
+					if (pending.dueNs <= now) {
+						it.remove();
+						// next value of this control is delayed from now
+						mLastWriteNs.put(pending.ctrlId, now);
+						due.add(pending);
+					}
+				}
+				mWriteCount += due.size();
+			}
+			if (!due.isEmpty()) {
+				write(due, 0);
+				write(due, UVCCamera.CONTROL_FLAG_PERCENT);
+			}
+		}
+	};
+
+	private void write(final List<Pending> due, final int flags) {
+		int n = 0;
+		for (final Pending pending: due) {
+			if (pending.flags == flags) n++;
+		}
+		if (n == 0) return;
+		final int[] ids = new int[n];
+		final int[] values = new int[n];
+		final int[] results = new int[n];
+		final Pending[] targets = new Pending[n];
+		int i = 0;
+		for (final Pending pending: due) {
+			if (pending.flags == flags) {
+				targets[i] = pending;
+				ids[i] = pending.ctrlId;
+				values[i++] = pending.value;
+			}
+		}
+		Exception error = null;
+		try {
+			mCamera.setControls(ids, values, results, flags);
+			for (i = 0; i < n; i++) {
+				targets[i].future.set(results[i], null);
+			}
+		} catch (final Exception e) {
+			if (DEBUG) Log.w(TAG, e);
+			error = e;
+			for (i = 0; i < n; i++) {
+				targets[i].future.set(0, e);
+			}
+		}
+		final ResultCallback callback = mCallback;
+		if (callback != null) {
+			for (i = 0; i < n; i++) {
+				try {
+					callback.onResult(ids[i], error == null ? results[i] : 0, error);
+				} catch (final Exception e) {
+					Log.w(TAG, e);
+				}
+			}
+		}
+	}
+
+	private final class Pending {
+		private final int ctrlId;
+		private final long dueNs;
+		private final WriteFuture future = new WriteFuture(this);
+		private int value;
+		private int flags;
+
+		private Pending(final int ctrlId, final int value, final int flags, final long dueNs) {
+			this.ctrlId = ctrlId;
+			this.value = value;
+			this.flags = flags;
+			this.dueNs = dueNs;
+		}
+	}
+
+	private final class WriteFuture implements Future<Integer> {
+		private final Pending mOwner;
+		private boolean mDone, mCancelled;
+		private int mResult;
+		private Throwable mError;
+
+		private WriteFuture(final Pending owner) {
+			mOwner = owner;
+		}
+
+		private synchronized void set(final int result, final Throwable error) {
+			if (!mDone) {
+				mResult = result;
+				mError = error;
+				mDone = true;
+				notifyAll();
+			}
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			synchronized (mSync) {
+				// only values that are not passed to the camera yet can be cancelled
+				if (mPending.get(mOwner.ctrlId) == mOwner) {
+					mPending.remove(mOwner.ctrlId);
+				} else if (!mReleased) {
+					return false;
+				}
+			}
+			synchronized (this) {
+				if (mDone) return false;
+				mCancelled = mDone = true;
+				notifyAll();
+			}
+			return true;
+		}
+
+		@Override
+		public synchronized boolean isCancelled() {
+			return mCancelled;
+		}
+
+		@Override
+		public synchronized boolean isDone() {
+			return mDone;
+		}
+
+		@Override
+		public synchronized Integer get() throws InterruptedException, ExecutionException {
+			while (!mDone) {
+				wait();
+			}
+			return result();
+		}
+
+		@Override
+		public synchronized Integer get(final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+
+			final long end = System.nanoTime() + unit.toNanos(timeout);
+			while (!mDone) {
+				final long remain = end - System.nanoTime();
+				if (remain <= 0)
+					throw new TimeoutException();
+				TimeUnit.NANOSECONDS.timedWait(this, remain);
+			}
+			return result();
+		}
+
+		private Integer result() throws ExecutionException {
+			if (mCancelled)
+				throw new CancellationException();
+			if (mError != null)
+				throw new ExecutionException(mError);
+			return mResult;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * attributes of the frame passed to IFrameCallback2#onFrame,
+ * native code creates this for each frame so that it always refers to the frame it was passed with
+ */
+public final class FrameInfo {
+	private final UVCCamera mCamera;
+	private final int mSlot;
+	private final long mFrameId;
+	private boolean mReleased;
+	public int width;
+	public int height;
+	/** UVCCamera#PIXEL_FORMAT_XXX */
+	public int pixelFormat;
+	/** bytes of the frame data */
+	public int size;
+	/** frame number of the stream */
+	public long sequence;
+	/** presentation time stamp from the camera (device clock), 0 if the camera does not send it */
+	public long pts;
+	/** source clock from the camera (device clock), 0 if the camera does not send it */
+	public long scr;
+	/** time when the frame was received, same clock as System#nanoTime */
+	public long hostTimestampNs;
+	/** bytes received from the camera, differs from #size when the frame was decoded/converted */
+	public int actualBytes;
+	/** number of frames dropped since the previous frame */
+	public int dropped;
+
+	/**
+	 * this is called from native code
+	 * @param camera
+	 * @param slot
+	 * @param frameId
+	 */
+	FrameInfo(final UVCCamera camera, final int slot, final long frameId) {
+		mCamera = camera;
+		mSlot = slot;
+		mFrameId = frameId;
+	}
+
+	/**
+	 * return the frame to the native frame pool,
+	 * ByteBuffer passed with this FrameInfo should not be accessed any more.
+	 * calling this more than once is harmless.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (mReleased) return;
+			mReleased = true;
+		}
+		mCamera.releaseFrame(mSlot, mFrameId);
+	}
+}
@@ -0,0 +1,16 @@
+package com.serenegiant.usb;
+
+/**
+ * receives changes of the control values that UVCCamera#setControls/#getControls support,
+ * values come from value change interrupts of the camera and from writes of this app.
+ * this is called on the thread that receives status interrupts or the thread that set the value,
+ * so this should not block and should not call UVCCamera#setControlCallback.
+ */
+public interface IControlCallback {
+    /**
+     * @param ctrlId UVCCamera.CTRL_XXX/PU_XXX
+     * @param value new value, same as the value that the getter of the control returns in raw
+     * @param source UVCCamera.CONTROL_SOURCE_XXX
+     */
+    void onControlChanged(int ctrlId, int value, int source);
+}
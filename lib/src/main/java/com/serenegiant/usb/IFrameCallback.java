@@ -39,6 +39,9 @@ public interface IFrameCallback {
 	 * just execute pixel format conversion. If you want to get same result as on screen, please try to
 	 * consider to get images via texture(SurfaceTexture) and read pixel buffer from it using OpenGL|ES2/3
 	 * instead of using IFrameCallback(this way is much efficient in most case than using IFrameCallback).
+	 * With PIXEL_FORMAT_RAW and FRAME_FORMAT_MJPEG, frame is the JPEG data received from the camera
+	 * without decoding, its capacity is the length of each JPEG data.
+	 * PTS, sequence number and receiving time of the frame can be read with UVCCamera#getFrameMetadata in this method.
 	 * @param frame this is direct ByteBuffer from JNI layer and you should handle it's byte order and limitation.
 	 */
 	public void onFrame(ByteBuffer frame);
@@ -0,0 +1,44 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+/**
+ * Callback interface for UVCCamera class that can hold frames after returning from #onFrame.
+ * Set this with UVCCamera#setFrameCallback2(IFrameCallback2, int) instead of IFrameCallback.
+ * ByteBuffers are reused, so passing frames creates only a small FrameInfo object for each frame.
+ */
+public interface IFrameCallback2 {
+	/**
+	 * This method is called from native library via JNI on the same thread as IFrameCallback#onFrame.
+	 * The frame is owned by the callback until FrameInfo#release is called,
+	 * it can be released on any thread even after returning from this method.
+	 * Only a few frames can be held at the same time(UVCCamera#MAX_HELD_FRAMES),
+	 * frames are dropped while all of them are held.
+	 * Never access frame after calling FrameInfo#release or UVCCamera#destroy.
+	 * @param frame direct ByteBuffer wrapping the native frame buffer, position is 0 and limit is the size of frame data.
+	 * @param info attributes of the frame, this is valid only for this frame.
+	 */
+	public void onFrame(ByteBuffer frame, FrameInfo info);
+}
@@ -0,0 +1,165 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+/**
+ * base class of the native frame pipelines.
+ * a pipeline passes the frames to the next one set with #setPipeline,
+ * DistributePipeline passes them to multiple pipelines.
+ * pass the first pipeline to UVCCamera#setCapturePipeline to receive the frames
+ * instead of the capture thread of UVCCamera, see also PipelineBuilder.
+ * you should call #release when the pipeline is not used any more.
+ */
+public abstract class IPipeline {
+	// same as pipeline_type_t in IPipeline.h
+	public static final int TYPE_SIMPLE_BUFFERED = 0;
+	public static final int TYPE_MMAP_BUFFERED = 20;
+	public static final int TYPE_CALLBACK = 200;
+	public static final int TYPE_CONVERT = 300;
+	public static final int TYPE_PREVIEW = 400;
+	public static final int TYPE_DISTRIBUTE = 600;
+
+	// same as pipeline_state_t in IPipeline.h
+	public static final int STATE_UNINITIALIZED = 0;
+	public static final int STATE_RELEASING = 10;
+	public static final int STATE_INITIALIZED = 20;
+	public static final int STATE_STARTING = 30;
+	public static final int STATE_RUNNING = 40;
+	public static final int STATE_STOPPING = 50;
+
+	// index of #getFramePoolCounters, same as FramePool.h
+	public static final int FRAME_POOL_HIT = 0;
+	public static final int FRAME_POOL_MISS = 1;
+	public static final int FRAME_POOL_EXHAUSTED = 2;
+	public static final int FRAME_POOL_RELEASED = 3;
+	public static final int FRAME_POOL_ALLOCATED = 4;
+	public static final int FRAME_POOL_ALIVE = 5;
+	private static final int FRAME_POOL_COUNTER_NUM = 6;
+
+	// these fields are accessed from native code, do not rename
+	protected long mNativePtr;
+	private final int mType;
+
+	protected IPipeline(final int type) {
+		mType = type;
+	}
+
+	public int getType() {
+		return mType;
+	}
+
+	public synchronized int getState() {
+		return mNativePtr != 0 ? nativeGetState(mNativePtr) : STATE_UNINITIALIZED;
+	}
+
+	/**
+	 * set the pipeline that receives the frames from this one
+	 * @param pipeline null to remove
+	 */
+	public synchronized void setPipeline(final IPipeline pipeline) {
+		if (mNativePtr != 0) {
+			nativeSetPipeline(mNativePtr, pipeline);
+		}
+	}
+
+	/**
+	 * start the thread(s) of this pipeline, the frames are dropped until this is called
+	 * @throws IllegalStateException if the thread could not be started
+	 */
+	public synchronized void start() {
+		if (mNativePtr != 0) {
+			final int result = nativeStart(mNativePtr);
+			if (result != 0) {
+				throw new IllegalStateException("failed to start pipeline:err=" + result);
+			}
+		}
+	}
+
+	public synchronized void stop() {
+		if (mNativePtr != 0) {
+			nativeStop(mNativePtr);
+		}
+	}
+
+	/**
+	 * set sizing of the frame pool of this pipeline,
+	 * frames are allocated when the pipeline starts and reused while it is running.
+	 * this should be called while this pipeline is not running
+	 * @param initialFrames frames allocated when this pipeline starts
+	 * @param maxFrames maximum number of frames alive, 0: unlimited
+	 * @param lowWatermark number of frames allocated at once when the pool is empty
+	 * @param highWatermark maximum number of free frames kept in the pool
+	 * @param flags 0 or UVCCamera#FRAME_POOL_HUGEPAGE
+	 * @throws IllegalArgumentException if this pipeline has no frame pool, is running or the policy is invalid
+	 */
+	public synchronized void setFramePoolPolicy(final int initialFrames, final int maxFrames,
+		final int lowWatermark, final int highWatermark, final int flags) {
+
+		if (mNativePtr != 0) {
+			final int result = nativeSetFramePoolPolicy(initialFrames, maxFrames, lowWatermark, highWatermark, flags);
+			if (result != 0) {
+				throw new IllegalArgumentException("failed to set frame pool policy:err=" + result);
+			}
+		}
+	}
+
+	/**
+	 * get the counters of the frame pool,
+	 * hits, misses(frames allocated because the pool was empty), exhausted(frames dropped because of maxFrames),
+	 * released(frames freed because of highWatermark), allocated and alive frames
+	 * @return null if this pipeline has no frame pool
+	 */
+	public synchronized long[] getFramePoolCounters() {
+		if (mNativePtr != 0) {
+			final long[] values = new long[FRAME_POOL_COUNTER_NUM];
+			if (nativeGetFramePoolCounters(values) == 0) {
+				return values;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * stop and release the native pipeline,
+	 * you should remove this from UVCCamera and the other pipelines before calling this
+	 */
+	public synchronized void release() {
+		if (mNativePtr != 0) {
+			nativeDestroy(mNativePtr);
+			mNativePtr = 0;
+		}
+	}
+
+	// implemented by the native methods of each subclass
+	protected abstract void nativeDestroy(final long id_pipeline);
+	protected abstract int nativeGetState(final long id_pipeline);
+	protected abstract int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	protected abstract int nativeStart(final long id_pipeline);
+	protected abstract int nativeStop(final long id_pipeline);
+	// common to all pipelines, these access mNativePtr and mType
+	private final native int nativeSetFramePoolPolicy(final int initialFrames, final int maxFrames,
+		final int lowWatermark, final int highWatermark, final int flags);
+	private final native int nativeGetFramePoolCounters(final long[] values);
+}
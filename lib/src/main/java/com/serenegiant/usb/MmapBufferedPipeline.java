@@ -0,0 +1,129 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * keeps the latest frames in memory mapped segment files as a ring buffer(pre-event buffer)
+ * and passes the frames to the next pipeline as they are.
+ * the frames survive restarting the app and can be exported as mp4 without decoding,
+ * so put this at the head of the pipelines while previewing in MJPEG mode.
+ * the size of the ring is segmentBytes * segmentNum,
+ * 1080p30 MJPEG needs approx. 10MB/sec.
+ */
+public class MmapBufferedPipeline extends IPipeline {
+	public static final int DEFAULT_SEGMENT_BYTES = 32 * 1024 * 1024;
+	public static final int DEFAULT_SEGMENT_NUM = 8;
+	public static final long DEFAULT_LIMIT_MS = 30000;
+
+	/**
+	 * @param dir directory of the segment files, this is created if it does not exist
+	 * @throws IllegalStateException if the segment files could not be created
+	 */
+	public MmapBufferedPipeline(final String dir) {
+		this(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_NUM, DEFAULT_LIMIT_MS, false);
+	}
+
+	/**
+	 * @param dir directory of the segment files, this is created if it does not exist
+	 * @param segmentBytes size of each segment file
+	 * @param segmentNum number of segment files, at least 2
+	 * @param limitMs frames older than this from the latest frame are not exported
+	 * @param clear true: discard the frames kept in the segment files
+	 * @throws IllegalStateException if the segment files could not be created
+	 */
+	public MmapBufferedPipeline(final String dir,
+		final long segmentBytes, final int segmentNum, final long limitMs, final boolean clear) {
+
+		super(TYPE_MMAP_BUFFERED);
+		mNativePtr = nativeCreate(dir, segmentBytes, segmentNum, limitMs, clear);
+		if (mNativePtr == 0) {
+			throw new IllegalStateException("failed to open segment files:" + dir);
+		}
+	}
+
+	/**
+	 * write the MJPEG frames within the range to the mp4 file without decoding them,
+	 * this can be called while the pipeline is running
+	 * @param path mp4 file
+	 * @param startTimeMs same clock as System#currentTimeMillis
+	 * @param endTimeMs same clock as System#currentTimeMillis
+	 * @return number of frames written, 0 if no frame is in the range
+	 * @throws IllegalStateException if the file could not be written
+	 */
+	public synchronized int exportMp4(final String path, final long startTimeMs, final long endTimeMs) {
+		if (mNativePtr == 0) {
+			throw new IllegalStateException("already released");
+		}
+		// frames keep coming to the native pipeline while exporting
+		final int result = nativeExportMp4(mNativePtr, path, startTimeMs, endTimeMs);
+		if (result < 0) {
+			throw new IllegalStateException("failed to export:err=" + result);
+		}
+		return result;
+	}
+
+	/**
+	 * write the MJPEG frames of the last durationMs to the mp4 file
+	 * @see #exportMp4(String, long, long)
+	 */
+	public int exportMp4(final String path, final long durationMs) {
+		final long now = System.currentTimeMillis();
+		return exportMp4(path, now - durationMs, now);
+	}
+
+	/**
+	 * discard all frames, this should be called while the pipeline is not running
+	 * @throws IllegalStateException if the pipeline is running or exporting
+	 */
+	public synchronized void clear() {
+		if (mNativePtr != 0) {
+			if (nativeClear(mNativePtr) != 0) {
+				throw new IllegalStateException("failed to clear");
+			}
+		}
+	}
+
+	/**
+	 * @return number of frames dropped because the segment to reuse was being exported
+	 */
+	public synchronized int getDropped() {
+		return mNativePtr != 0 ? nativeGetDropped(mNativePtr) : 0;
+	}
+
+	private final native long nativeCreate(final String dir,
+		final long segmentBytes, final int segmentNum, final long limitMs, final boolean clear);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeExportMp4(final long id_pipeline, final String path, final long startTimeMs, final long endTimeMs);
+	private static final native int nativeClear(final long id_pipeline);
+	private static final native int nativeGetDropped(final long id_pipeline);
+}
@@ -0,0 +1,137 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * helper to build a graph of pipelines that replaces the capture thread of UVCCamera.
+ * <pre>
+ * final FrameCallbackPipeline callback = new FrameCallbackPipeline();
+ * callback.setFrameCallback(frameCallback, UVCCamera.PIXEL_FORMAT_NV21);
+ * final PreviewPipeline recorder = new PreviewPipeline();
+ * recorder.setCaptureDisplay(encoderSurface);
+ * final PipelineBuilder builder = new PipelineBuilder()
+ * 	.fanOut(new PreviewPipeline(), callback, recorder);
+ * builder.start(camera);
+ * ...
+ * builder.release(camera);
+ * </pre>
+ * each branch has its own queue, the frames are copied once into each buffered branch.
+ * the builder owns the pipelines added to it and releases them with #release.
+ */
+public class PipelineBuilder {
+	/** all pipelines from the head to the tails */
+	private final List<IPipeline> mPipelines = new ArrayList<IPipeline>();
+	private IPipeline mHead;
+	private IPipeline mTail;
+	private boolean mFannedOut;
+
+	/**
+	 * append the pipeline after the last one
+	 * @throws IllegalStateException if #fanOut was already called
+	 */
+	public synchronized PipelineBuilder add(final IPipeline pipeline) {
+		if (pipeline == null) throw new NullPointerException("pipeline");
+		if (mFannedOut) throw new IllegalStateException("can't add pipeline after fanOut");
+		if (mTail != null) {
+			mTail.setPipeline(pipeline);
+		} else {
+			mHead = pipeline;
+		}
+		mTail = pipeline;
+		mPipelines.add(pipeline);
+		return this;
+	}
+
+	/**
+	 * pass the frames from the last pipeline to all of the branches,
+	 * this should be the last call to build the graph
+	 * @param branches pipelines that receive the frames, the pipelines after them are not started/released by the builder
+	 */
+	public synchronized PipelineBuilder fanOut(final IPipeline... branches) {
+		final DistributePipeline distribute = new DistributePipeline();
+		add(distribute);
+		for (final IPipeline branch: branches) {
+			if (branch != null) {
+				distribute.addPipeline(branch);
+				mPipelines.add(branch);
+			}
+		}
+		mFannedOut = true;
+		return this;
+	}
+
+	/**
+	 * @return first pipeline to pass to UVCCamera#setCapturePipeline, null if nothing was added
+	 */
+	public synchronized IPipeline getHead() {
+		return mHead;
+	}
+
+	/**
+	 * start all pipelines from the tails so that no frame is dropped by a pipeline
+	 * that is not started yet
+	 */
+	public synchronized void start() {
+		for (int i = mPipelines.size() - 1; i >= 0; i--) {
+			mPipelines.get(i).start();
+		}
+	}
+
+	/**
+	 * start all pipelines and pass the frames of the camera to them
+	 */
+	public synchronized void start(final UVCCamera camera) {
+		start();
+		camera.setCapturePipeline(mHead);
+	}
+
+	/**
+	 * stop all pipelines from the head
+	 */
+	public synchronized void stop() {
+		for (final IPipeline pipeline: mPipelines) {
+			pipeline.stop();
+		}
+	}
+
+	/**
+	 * stop and release all pipelines, the builder can not be used after this
+	 * @param camera the camera passed to #start(UVCCamera), can be null
+	 */
+	public synchronized void release(final UVCCamera camera) {
+		if (camera != null) {
+			camera.setCapturePipeline(null);
+		}
+		stop();
+		for (final IPipeline pipeline: mPipelines) {
+			pipeline.release();
+		}
+		mPipelines.clear();
+		mHead = mTail = null;
+	}
+}
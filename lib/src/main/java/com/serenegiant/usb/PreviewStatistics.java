@@ -0,0 +1,189 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.util.Locale;
+
+/**
+ * snapshot of the counters and the latency histograms of the native preview pipeline,
+ * see UVCCamera#getStatistics. values are for the current preview session
+ * and are reset by UVCCamera#startPreview.
+ */
+public final class PreviewStatistics {
+	// same as PreviewStatistics.h
+	private static final int COUNTER_NUM = 21;
+	private static final int TIMER_NUM = 3;
+	/** bucket i counts durations in [2^(i-1), 2^i) microseconds, the last bucket counts all longer ones */
+	public static final int HISTOGRAM_BUCKETS = 16;
+	private static final int TIMER_VALUES = 3 + HISTOGRAM_BUCKETS;
+	/*package*/static final int SNAPSHOT_NUM = COUNTER_NUM + TIMER_NUM * TIMER_VALUES;
+
+	/**
+	 * latency histogram of one stage
+	 */
+	public static final class Timer {
+		public final long count;
+		public final long totalNs;
+		public final long maxNs;
+		public final long[] buckets;
+
+		private Timer(final long[] values, final int offset) {
+			count = values[offset];
+			totalNs = values[offset + 1];
+			maxNs = values[offset + 2];
+			buckets = new long[HISTOGRAM_BUCKETS];
+			System.arraycopy(values, offset + 3, buckets, 0, HISTOGRAM_BUCKETS);
+		}
+
+		public long averageNs() {
+			return count > 0 ? totalNs / count : 0;
+		}
+
+		/**
+		 * approximate percentile from the histogram
+		 * @param percent 0-100
+		 * @return upper bound of the bucket in microseconds, -1 if nothing was recorded
+		 */
+		public long percentileUs(final float percent) {
+			long sum = 0;
+			for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+				sum += buckets[i];
+			}
+			final long target = (long)Math.ceil(sum * percent / 100.0);
+			long n = 0;
+			for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+				n += buckets[i];
+				if ((n > 0) && (n >= target)) {
+					return 1L << i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "count=%d,avg=%.2fms,p99<%.2fms,max=%.2fms",
+				count, averageNs() / 1e6f, percentileUs(99) / 1e3f, maxNs / 1e6f);
+		}
+	}
+
+	/** frames libuvc passed to the preview */
+	public final long received;
+	/** frames with unexpected size */
+	public final long broken;
+	/** frames libuvc dropped before passing to the preview(transfer errors, callback was busy) */
+	public final long streamDropped;
+	/** frames dropped because no frame buffer was available */
+	public final long noFrame;
+	/** frames dropped by the queue to the preview thread, see UVCCamera#setFrameQueue */
+	public final long previewQueueDropped;
+	/** frames dropped by the queue to the capture thread(IFrameCallback, capture Surface) */
+	public final long captureQueueDropped;
+	/** MJPEG frames that could not be decoded */
+	public final long decodeErrors;
+	/** frames not passed to IFrameCallback because of conversion failure or all frames were held */
+	public final long callbackDropped;
+	/** frames taken from the native frame pool */
+	public final long poolHits;
+	/** frames allocated while streaming because the pool was empty, see UVCCamera#setFramePoolPolicy */
+	public final long poolMisses;
+	/** frames not allocated because maxFrames frames were alive */
+	public final long poolExhausted;
+	/** frames freed because free frames exceeded the high watermark */
+	public final long poolReleased;
+	/** USB transfers completed successfully */
+	public final long transfersCompleted;
+	/** USB transfers completed with error(timed out, stall, overflow) or failed to resubmit */
+	public final long transferErrors;
+	/** isochronous packets received */
+	public final long isoPackets;
+	/** isochronous packets with error status, their data was lost */
+	public final long isoMissed;
+	/** USB transfers resubmitted */
+	public final long transfersResubmitted;
+	/** total/max time from completion to resubmission of a USB transfer */
+	public final long resubmitTotalNs;
+	public final long resubmitMaxNs;
+	/**
+	 * lowest number of USB transfers still submitted when a transfer completed,
+	 * 0 means the host controller ran out of transfers, see UVCCamera#setTransferConfig
+	 */
+	public final long minInFlight;
+	/**
+	 * native frame buffers reallocated because they were too small, this should stay 0 once streaming
+	 * settles like #poolMisses. this is counted for the whole process, including the other cameras
+	 */
+	public final long frameReallocs;
+	/** MJPEG decoding */
+	public final Timer decode;
+	/** conversion and copy to the preview Surface */
+	public final Timer draw;
+	/** conversion and IFrameCallback#onFrame */
+	public final Timer callback;
+
+	/*package*/PreviewStatistics(final long[] values) {
+		received = values[0];
+		broken = values[1];
+		streamDropped = values[2];
+		noFrame = values[3];
+		previewQueueDropped = values[4];
+		captureQueueDropped = values[5];
+		decodeErrors = values[6];
+		callbackDropped = values[7];
+		poolHits = values[8];
+		poolMisses = values[9];
+		poolExhausted = values[10];
+		poolReleased = values[11];
+		transfersCompleted = values[12];
+		transferErrors = values[13];
+		isoPackets = values[14];
+		isoMissed = values[15];
+		transfersResubmitted = values[16];
+		resubmitTotalNs = values[17];
+		resubmitMaxNs = values[18];
+		minInFlight = values[19];
+		frameReallocs = values[20];
+		decode = new Timer(values, COUNTER_NUM);
+		draw = new Timer(values, COUNTER_NUM + TIMER_VALUES);
+		callback = new Timer(values, COUNTER_NUM + TIMER_VALUES * 2);
+	}
+
+	public long averageResubmitNs() {
+		return transfersResubmitted > 0 ? resubmitTotalNs / transfersResubmitted : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US,
+			"received=%d,broken=%d,streamDropped=%d,noFrame=%d,previewQueueDropped=%d,captureQueueDropped=%d,"
+			+ "decodeErrors=%d,callbackDropped=%d,poolHits=%d,poolMisses=%d,poolExhausted=%d,poolReleased=%d,"
+			+ "transfers=%d,transferErrors=%d,isoPackets=%d,isoMissed=%d,resubmit={avg=%.3fms,max=%.3fms},minInFlight=%d,"
+			+ "frameReallocs=%d,decode={%s},draw={%s},callback={%s}",
+			received, broken, streamDropped, noFrame, previewQueueDropped, captureQueueDropped,
+			decodeErrors, callbackDropped, poolHits, poolMisses, poolExhausted, poolReleased,
+			transfersCompleted, transferErrors, isoPackets, isoMissed,
+			averageResubmitNs() / 1e6f, resubmitMaxNs / 1e6f, minInFlight, frameReallocs,
+			decode, draw, callback);
+	}
+}
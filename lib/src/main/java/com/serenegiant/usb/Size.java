@@ -29,6 +29,10 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 public class Size implements Parcelable {
+	/**
+	 * max number of frame rates listed for continuous frame intervals
+	 */
+	private static final int MAX_FRAME_RATES = 64;
 	//
 	/**
 	 * native側のuvc_raw_format_tの値, こっちは主にlibuvc用
@@ -239,13 +243,19 @@ public class Size implements Parcelable {
 			try {
 				final int min = Math.min(intervals[0], intervals[1]);
 				final int max = Math.max(intervals[0], intervals[1]);
-				final int step = intervals[2];
+				int step = intervals[2];
 				if (step > 0) {
+					// continuous intervals with small step can have millions of entries,
+					// widen the step so that at most MAX_FRAME_RATES frame rates are listed
+					final long count = ((long)max - min) / step + 1;
+					if (count > MAX_FRAME_RATES) {
+						step = (int)((((long)max - min) + MAX_FRAME_RATES - 2) / (MAX_FRAME_RATES - 1));
+					}
 					int m = 0;
-					for (int i = min; i <= max; i+= step) { m++; }
+					for (long i = min; i <= max; i+= step) { m++; }
 					fps = new float[m];
 					m = 0;
-					for (int i = min; i <= max; i+= step) {
+					for (long i = min; i <= max; i+= step) {
 						final float _fps = fps[m++] = 10000000.0f / i;
 					}
 				} else {
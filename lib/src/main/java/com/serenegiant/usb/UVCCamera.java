@@ -23,8 +23,24 @@
 
 package com.serenegiant.usb;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -54,13 +70,60 @@ public class UVCCamera {
 	public static final int FRAME_FORMAT_YUYV = 0;
 	public static final int FRAME_FORMAT_MJPEG = 1;
 
-	public static final int PIXEL_FORMAT_RAW = 0;
+	public static final int PIXEL_FORMAT_RAW = 0;		// same as PIXEL_FORMAT_YUV, or JPEG as it is with FRAME_FORMAT_MJPEG
 	public static final int PIXEL_FORMAT_YUV = 1;
 	public static final int PIXEL_FORMAT_RGB565 = 2;
 	public static final int PIXEL_FORMAT_RGBX = 3;
 	public static final int PIXEL_FORMAT_YUV420SP = 4;
 	public static final int PIXEL_FORMAT_NV21 = 5;		// = YVU420SemiPlanar
 
+	// overflow policy of the preview frame queue, see #setFrameQueue
+	public static final int FRAME_QUEUE_DROP_NEWEST = 0;
+	public static final int FRAME_QUEUE_DROP_OLDEST = 1;
+	public static final int DEFAULT_FRAME_QUEUE_DEPTH = 4;
+	// number of MJPEG decoding threads, see #setDecoderOptions
+	public static final int DEFAULT_DECODE_WORKERS = 1;
+	public static final int MAX_DECODE_WORKERS = 8;
+	// consumers of the decoded frames, see #setOutputSize
+	public static final int OUTPUT_TARGET_PREVIEW = 0;
+	public static final int OUTPUT_TARGET_FRAME_CALLBACK = 1;
+	// magnification of #setDigitalZoom at 100%
+	public static final float MAX_DIGITAL_ZOOM = 4.0f;
+	// flags for #setFramePoolPolicy
+	public static final int FRAME_POOL_HUGEPAGE = 0x01;	// align frame buffers to huge pages(hint only)
+	// number of frames IFrameCallback2 can hold at the same time
+	public static final int MAX_HELD_FRAMES = 4;
+	// index of the values in #getFrameMetadata
+	public static final int FRAME_META_SEQUENCE = 0;
+	public static final int FRAME_META_PTS = 1;				// device clock
+	public static final int FRAME_META_SCR = 2;				// device clock
+	public static final int FRAME_META_HOST_TIMESTAMP_NS = 3;	// same clock as System#nanoTime
+	public static final int FRAME_META_ACTUAL_BYTES = 4;	// bytes received from the camera
+	public static final int FRAME_META_DROPPED = 5;			// frames dropped since the previous frame
+	public static final int FRAME_META_NUM = 6;
+	// index of the values in #getTransferConfig
+	public static final int TRANSFER_CONFIG_NUM_TRANSFERS = 0;
+	public static final int TRANSFER_CONFIG_PACKETS_PER_TRANSFER = 1;
+	public static final int TRANSFER_CONFIG_FRAME_BUF_SIZE = 2;
+	public static final int TRANSFER_CONFIG_NUM = 3;
+	// upper limits of #setTransferConfig
+	public static final int MAX_TRANSFERS = 32;
+	public static final int MAX_PACKETS_PER_TRANSFER = 128;
+	// value of Size#type, same as bDescriptorSubtype of the format descriptor
+	public static final int FORMAT_TYPE_UNCOMPRESSED = 4;
+	public static final int FORMAT_TYPE_MJPEG = 6;
+	public static final int FORMAT_TYPE_FRAME_BASED = 16;
+	// layout of the array from nativeGetSupportedModes, keep same as Parameters.h
+	private static final int SUPPORTED_MODES_VERSION = 1;
+	private static final int SUPPORTED_MODES_HEADER = 2;
+	private static final int SUPPORTED_MODE_TYPE = 0;
+	private static final int SUPPORTED_MODE_FORMAT_INDEX = 2;
+	private static final int SUPPORTED_MODE_WIDTH = 4;
+	private static final int SUPPORTED_MODE_HEIGHT = 5;
+	private static final int SUPPORTED_MODE_INTERVAL_TYPE = 7;
+	private static final int SUPPORTED_MODE_INTERVAL_NUM = 8;
+	private static final int SUPPORTED_MODE_FIELDS = 9;
+
 	//--------------------------------------------------------------------------------
     public static final int	CTRL_SCANNING		= 0x00000001;	// D0:  Scanning Mode
     public static final int CTRL_AE				= 0x00000002;	// D1:  Auto-Exposure Mode
@@ -102,6 +165,18 @@ public class UVCCamera {
     public static final int PU_AVIDEO_LOCK		= 0x80020000;	// D17: Analog Video Lock Status
     public static final int PU_CONTRAST_AUTO	= 0x80040000;	// D18: Contrast, Auto
 
+	// result of each control of #setControls/#getControls, other negative values are error codes of libuvc
+	public static final int CONTROL_RESULT_OK = 0;
+	public static final int CONTROL_RESULT_SKIPPED = 1;				// same as the value set/read last and not written
+	public static final int CONTROL_RESULT_NOT_SUPPORTED = -12;		// UVC_ERROR_NOT_SUPPORTED
+	public static final int CONTROL_RESULT_NO_DEVICE = -4;			// UVC_ERROR_NO_DEVICE, camera is not opened
+	// flags of #setControls, same as CTRL_FLAG_XXX in UVCCamera.h
+	/*package*/static final int CONTROL_FLAG_FORCE = 0x01;
+	/*package*/static final int CONTROL_FLAG_PERCENT = 0x02;		// values are percentage like #setZoom
+	// source of the change that is notified to IControlCallback, same as CTRL_SOURCE_XXX in UVCCamera.h
+	public static final int CONTROL_SOURCE_DEVICE = 0;				// value change interrupt or value read from the camera
+	public static final int CONTROL_SOURCE_APP = 1;					// value written by this app
+
 	// uvc_status_class from libuvc.h
 	public static final int STATUS_CLASS_CONTROL = 0x10;
 	public static final int STATUS_CLASS_CONTROL_CAMERA = 0x11;
@@ -124,14 +199,36 @@ public class UVCCamera {
 		}
 	}
 
+	/**
+	 * descriptors from nativeGetSupportedModes for each device key,
+	 * reopening the same camera does not walk the descriptors again
+	 */
+	private static final Map<String, int[]> sSupportedModes = new HashMap<String, int[]>();
+	/**
+	 * min/max/def of the controls for each device key and firmware version(bcdDevice),
+	 * also saved into sCtrlLimitsDir if it is set
+	 */
+	private static final Map<String, int[]> sCtrlLimits = new HashMap<String, int[]>();
+	private static File sCtrlLimitsDir;
+	private static final String CTRL_LIMITS_EXT = ".limits";
+	private static final String CTRL_LIMITS_TMP_EXT = CTRL_LIMITS_EXT + ".tmp";
+
 	private UsbControlBlock mCtrlBlock;
     protected long mControlSupports;			// カメラコントロールでサポートしている機能フラグ
     protected long mProcSupports;				// プロセッシングユニットでサポートしている機能フラグ
     protected int mCurrentFrameFormat = FRAME_FORMAT_MJPEG;
 	protected int mCurrentWidth = DEFAULT_PREVIEW_WIDTH, mCurrentHeight = DEFAULT_PREVIEW_HEIGHT;
 	protected float mCurrentBandwidthFactor = DEFAULT_BANDWIDTH;
+	protected int mDigitalZoom;	// [%], see #setDigitalZoom
+	protected int mCurrentMinFps = DEFAULT_PREVIEW_MIN_FPS, mCurrentMaxFps = DEFAULT_PREVIEW_MAX_FPS;
     protected String mSupportedSize;
+    protected int[] mSupportedModes;
+    private String mCtrlLimitsKey;
+    private int[] mCtrlLimits;
     protected List<Size> mCurrentSizeList;
+    private LongBuffer mFrameMetadata;
+    // serializes FrameInfo#release with #close/#destroy that free the native objects
+    private final Object mReleaseFrameSync = new Object();
 	// these fields from here are accessed from native code and do not change name and remove
     protected long mNativePtr;
     protected int mScanningModeMin, mScanningModeMax, mScanningModeDef;
@@ -203,8 +300,15 @@ public class UVCCamera {
 		if (result != 0) {
 			throw new UnsupportedOperationException("open failed:result=" + result);
 		}
-    	if (mNativePtr != 0 && TextUtils.isEmpty(mSupportedSize)) {
-    		mSupportedSize = nativeGetSupportedSize(mNativePtr);
+    	if (mNativePtr != 0) {
+    		mSupportedModes = loadSupportedModes(mNativePtr, mCtrlBlock);
+    		// limits are not cached for the device that can not be identified
+    		final String deviceKey = mCtrlBlock.getDeviceKeyNameWithSerial();
+    		mCtrlLimitsKey = deviceKey != null ? deviceKey + "#" + mCtrlBlock.getVersion() : null;
+    		mCtrlLimits = mCtrlLimitsKey != null ? loadCtrlLimits(mCtrlLimitsKey) : null;
+    		if ((mCtrlLimits != null) && (nativeSetCtrlLimits(mNativePtr, mCtrlLimits) != 0)) {
+    			mCtrlLimits = null;
+    		}
     	}
 		nativeSetPreviewSize(mNativePtr, DEFAULT_PREVIEW_WIDTH, DEFAULT_PREVIEW_HEIGHT,
 			DEFAULT_PREVIEW_MIN_FPS, DEFAULT_PREVIEW_MAX_FPS, DEFAULT_PREVIEW_MODE, DEFAULT_BANDWIDTH);
@@ -220,6 +324,19 @@ public class UVCCamera {
 		}
 	}
 
+	/**
+	 * set callback to receive changes of the control values.
+	 * the getters of controls that #setControls supports return the values kept in native
+	 * that are updated with value change interrupts and writes, so they do not access the camera
+	 * except for the first read. use #getControls to read the values from the camera again.
+	 * @param callback null to remove
+	 */
+	public void setControlCallback(final IControlCallback callback) {
+		if (mNativePtr != 0) {
+			nativeSetControlCallback(mNativePtr, callback);
+		}
+	}
+
 	/**
 	 * set button callback
 	 * @param callback
@@ -236,7 +353,10 @@ public class UVCCamera {
     public synchronized void close() {
     	stopPreview();
     	if (mNativePtr != 0) {
-    		nativeRelease(mNativePtr);
+    		saveCtrlLimits();
+    		synchronized (mReleaseFrameSync) {
+    			nativeRelease(mNativePtr);
+    		}
 //    		mNativePtr = 0;	// nativeDestroyを呼ぶのでここでクリアしちゃダメ
     	}
     	if (mCtrlBlock != null) {
@@ -247,6 +367,9 @@ public class UVCCamera {
 		mCurrentFrameFormat = -1;
 		mCurrentBandwidthFactor = 0;
 		mSupportedSize = null;
+		mSupportedModes = null;
+		mCtrlLimitsKey = null;
+		mCtrlLimits = null;
 		mCurrentSizeList = null;
     	if (DEBUG) Log.v(TAG, "close:finished");
     }
@@ -263,10 +386,224 @@ public class UVCCamera {
 		return mCtrlBlock;
 	}
 
+	/**
+	 * get supported formats and sizes as JSON string,
+	 * #getSupportedModes is faster and also has frame intervals
+	 * @return
+	 */
 	public synchronized String getSupportedSize() {
     	return !TextUtils.isEmpty(mSupportedSize) ? mSupportedSize : (mSupportedSize = nativeGetSupportedSize(mNativePtr));
     }
 
+	/**
+	 * get all formats, sizes and frame intervals that the camera supports.
+	 * Size#type is one of FORMAT_TYPE_XXX, Size#index is the position in the format.
+	 * descriptors are cached for each device key and reopening the same camera does not read them again
+	 * @return empty list if the camera is not opened
+	 */
+	public synchronized List<Size> getSupportedModes() {
+		return getSupportedModes(-1, mSupportedModes);
+	}
+
+	/**
+	 * discard the cached descriptors, e.g. when firmware of the camera is updated
+	 */
+	public static void clearSupportedModesCache() {
+		synchronized (sSupportedModes) {
+			sSupportedModes.clear();
+		}
+	}
+
+	/**
+	 * set directory to save min/max/def of the controls for each camera model and firmware version.
+	 * they are bulk loaded on #open and the control limits are available without USB transfers.
+	 * limits are cached only in memory if this is not called
+	 * @param dir null to stop saving to the storage
+	 */
+	public static void setControlLimitsCacheDir(final File dir) {
+		synchronized (sCtrlLimits) {
+			sCtrlLimitsDir = dir;
+		}
+	}
+
+	/**
+	 * discard the cached limits of the controls both in memory and in the storage
+	 */
+	public static void clearControlLimitsCache() {
+		synchronized (sCtrlLimits) {
+			sCtrlLimits.clear();
+			if (sCtrlLimitsDir != null) {
+				final File[] files = sCtrlLimitsDir.listFiles();
+				if (files != null) {
+					for (final File file: files) {
+						final String name = file.getName();
+						if (name.endsWith(CTRL_LIMITS_EXT) || name.endsWith(CTRL_LIMITS_TMP_EXT)) {
+							file.delete();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static File getCtrlLimitsFile(final String key) {
+		return new File(sCtrlLimitsDir, "uvc" + Integer.toHexString(key.hashCode()) + CTRL_LIMITS_EXT);
+	}
+
+	private static File getCtrlLimitsTmpFile(final String key) {
+		return new File(sCtrlLimitsDir, "uvc" + Integer.toHexString(key.hashCode()) + CTRL_LIMITS_TMP_EXT);
+	}
+
+	/**
+	 * read the limits from the file
+	 * @return null if the file is for other key, or it is truncated/broken
+	 */
+	private static int[] readCtrlLimits(final File file, final String key) throws IOException {
+		final DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file)));
+		try {
+			// file name is hash of the key, so check the key itself
+			if (!key.equals(in.readUTF())) return null;
+			final int n = in.readInt();
+			if ((n < 0) || (n > file.length() / 4)) return null;
+			final int[] limits = new int[n];
+			for (int i = 0; i < n; i++) {
+				limits[i] = in.readInt();
+			}
+			return limits;
+		} catch (final EOFException e) {
+			// short read, the file was not written completely
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int[] loadCtrlLimits(final String key) {
+		synchronized (sCtrlLimits) {
+			int[] limits = sCtrlLimits.get(key);
+			if ((limits == null) && (sCtrlLimitsDir != null)) {
+				final File file = getCtrlLimitsFile(key);
+				if (file.canRead()) {
+					try {
+						limits = readCtrlLimits(file, key);
+						if (limits != null) {
+							sCtrlLimits.put(key, limits);
+						}
+					} catch (final IOException e) {
+						Log.w(TAG, e);
+						limits = null;
+					}
+				}
+			}
+			return limits;
+		}
+	}
+
+	/**
+	 * save the limits if they were fetched or invalidated by INFO_CHANGE while the camera was opened
+	 */
+	private void saveCtrlLimits() {
+		final String key = mCtrlLimitsKey;
+		final int[] limits = key != null ? nativeGetCtrlLimits(mNativePtr) : null;
+		if ((limits == null) || Arrays.equals(limits, mCtrlLimits)) return;
+		synchronized (sCtrlLimits) {
+			sCtrlLimits.put(key, limits);
+			if (sCtrlLimitsDir != null) {
+				// write into the temporary file and replace the old one with it,
+				// so that readers never see partially written file
+				final File file = getCtrlLimitsFile(key);
+				final File tmp = getCtrlLimitsTmpFile(key);
+				try {
+					final FileOutputStream fout = new FileOutputStream(tmp);
+					final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+					try {
+						out.writeUTF(key);
+						out.writeInt(limits.length);
+						for (final int v: limits) {
+							out.writeInt(v);
+						}
+						out.flush();
+						fout.getFD().sync();
+					} finally {
+						out.close();
+					}
+					if (!tmp.renameTo(file)) {
+						throw new IOException("failed to rename " + tmp + " to " + file);
+					}
+				} catch (final IOException e) {
+					Log.w(TAG, e);
+					tmp.delete();
+				}
+			}
+		}
+		mCtrlLimits = limits;
+	}
+
+	private static int[] loadSupportedModes(final long nativePtr, final UsbControlBlock ctrlBlock) {
+		final String key = ctrlBlock != null ? ctrlBlock.getDeviceKeyNameWithSerial() : null;
+		synchronized (sSupportedModes) {
+			int[] modes = key != null ? sSupportedModes.get(key) : null;
+			if (modes == null) {
+				modes = nativeGetSupportedModes(nativePtr);
+				if ((modes != null) && (key != null)
+					&& (modes.length >= SUPPORTED_MODES_HEADER)
+					&& (modes[0] == SUPPORTED_MODES_VERSION)) {
+
+					sSupportedModes.put(key, modes);
+				}
+			}
+			return modes;
+		}
+	}
+
+	/**
+	 * build Size list from the array of nativeGetSupportedModes
+	 * @param type FORMAT_TYPE_XXX or -1 for all formats
+	 * @param modes
+	 * @return
+	 */
+	private static List<Size> getSupportedModes(final int type, final int[] modes) {
+		final List<Size> result = new ArrayList<Size>();
+		if ((modes == null) || (modes.length < SUPPORTED_MODES_HEADER)
+			|| (modes[0] != SUPPORTED_MODES_VERSION)) {
+
+			return result;
+		}
+		final int n = modes.length;
+		int formatIndex = -1, index = 0;
+		for (int i = 0, pos = SUPPORTED_MODES_HEADER; (i < modes[1]) && (pos + SUPPORTED_MODE_FIELDS <= n); i++) {
+			final int num = modes[pos + SUPPORTED_MODE_INTERVAL_NUM];
+			final int next = pos + SUPPORTED_MODE_FIELDS + num;
+			if ((num < 0) || (next > n)) break;
+			final int formatType = modes[pos + SUPPORTED_MODE_TYPE];
+			if (modes[pos + SUPPORTED_MODE_FORMAT_INDEX] != formatIndex) {
+				formatIndex = modes[pos + SUPPORTED_MODE_FORMAT_INDEX];
+				index = 0;
+			}
+			if ((type == -1) || (formatType == type)) {
+				final int width = modes[pos + SUPPORTED_MODE_WIDTH];
+				final int height = modes[pos + SUPPORTED_MODE_HEIGHT];
+				final int top = pos + SUPPORTED_MODE_FIELDS;
+				if (modes[pos + SUPPORTED_MODE_INTERVAL_TYPE] == 0) {
+					if (num >= 3) {
+						result.add(new Size(formatType, 0, index, width, height,
+							modes[top], modes[top + 1], modes[top + 2]));
+					} else {
+						result.add(new Size(formatType, 0, index, width, height));
+					}
+				} else {
+					final int[] intervals = new int[num];
+					System.arraycopy(modes, top, intervals, 0, num);
+					result.add(new Size(formatType, 0, index, width, height, intervals));
+				}
+			}
+			index++;
+			pos = next;
+		}
+		return result;
+	}
+
 	public Size getPreviewSize() {
 		Size result = null;
 		final List<Size> list = getSupportedSizeList();
@@ -329,13 +666,32 @@ public class UVCCamera {
 			mCurrentFrameFormat = frameFormat;
 			mCurrentWidth = width;
 			mCurrentHeight = height;
+			mCurrentMinFps = min_fps;
+			mCurrentMaxFps = max_fps;
 			mCurrentBandwidthFactor = bandwidthFactor;
+			if (mDigitalZoom > 0) {
+				// the region is in pixels of the frame
+				updateDigitalZoom();
+			}
 		}
 	}
 
-	public List<Size> getSupportedSizeList() {
-		final int type = (mCurrentFrameFormat > 0) ? 6 : 4;
-		return getSupportedSize(type, mSupportedSize);
+	/**
+	 * negotiate the mode with the camera without changing the preview size, for BandwidthPlanner.
+	 * this should be called while preview is not running
+	 * @param values at least BandwidthPlanner.PROBE_VALUES_NUM
+	 * @return true if the camera supports the mode
+	 */
+	/*package*/synchronized boolean probeStreamMode(final int width, final int height,
+		final int min_fps, final int max_fps, final int frameFormat, final long[] values) {
+
+		return (mNativePtr != 0)
+			&& (nativeProbeStreamMode(mNativePtr, width, height, min_fps, max_fps, frameFormat, values) == 0);
+	}
+
+	public synchronized List<Size> getSupportedSizeList() {
+		final int type = (mCurrentFrameFormat > 0) ? FORMAT_TYPE_MJPEG : FORMAT_TYPE_UNCOMPRESSED;
+		return getSupportedModes(type, mSupportedModes);
 	}
 
 	public static List<Size> getSupportedSize(final int type, final String supportedSize) {
@@ -411,6 +767,265 @@ public class UVCCamera {
     	}
     }
 
+    /**
+     * set frame callback that can hold frames after returning from IFrameCallback2#onFrame.
+     * this replaces IFrameCallback set by #setFrameCallback and vice versa(only one of them is called)
+     * @param callback
+     * @param pixelFormat
+     */
+    public void setFrameCallback2(final IFrameCallback2 callback, final int pixelFormat) {
+    	if (mNativePtr != 0) {
+        	nativeSetFrameCallback2(mNativePtr, callback, pixelFormat);
+    	}
+    }
+
+    /**
+     * called from FrameInfo#release, this does not take the lock of this object
+     * because frames may be released on the callback thread while other thread stops preview,
+     * #close/#destroy wait for in-flight releases with mReleaseFrameSync instead
+     * @param slot
+     * @param frameId
+     */
+    /*package*/void releaseFrame(final int slot, final long frameId) {
+    	synchronized (mReleaseFrameSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeReleaseFrame(mNativePtr, slot, frameId);
+	    	}
+    	}
+    }
+
+    /**
+     * get metadata of the frame that is passed to IFrameCallback#onFrame.
+     * values are updated just before each IFrameCallback#onFrame on the same thread,
+     * so read them in IFrameCallback#onFrame (see FRAME_META_XXX for the index).
+     * returned buffer is a view of native memory and is valid until #destroy,
+     * get it once and keep it instead of calling this for each frame.
+     * IFrameCallback2 gets the same values with FrameInfo.
+     * @return null if the camera is already destroyed
+     */
+    public synchronized LongBuffer getFrameMetadata() {
+    	if ((mFrameMetadata == null) && (mNativePtr != 0)) {
+    		final ByteBuffer buf = nativeGetFrameMetadata(mNativePtr);
+    		if (buf != null) {
+    			mFrameMetadata = buf.order(ByteOrder.nativeOrder()).asLongBuffer();
+    		}
+    	}
+    	return mFrameMetadata != null ? mFrameMetadata.asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * set depth and overflow policy of the queue between receiving thread and preview thread.
+     * this should be called while preview is not running
+     * @param depth maximum number of frames waiting for preview thread, default is DEFAULT_FRAME_QUEUE_DEPTH
+     * @param policy either FRAME_QUEUE_DROP_NEWEST(0, default) or FRAME_QUEUE_DROP_OLDEST(1)
+     */
+    public synchronized void setFrameQueue(final int depth, final int policy) {
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetFrameQueue(mNativePtr, depth, policy);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set frame queue");
+    	}
+    }
+
+    /**
+     * set number of threads that decode MJPEG frames.
+     * with 2 or more workers, frames are decoded in parallel and still passed
+     * to the preview display and IFrameCallback in the order they were received.
+     * this should be called while preview is not running
+     * @param workers DEFAULT_DECODE_WORKERS(1, decode on the preview thread) to MAX_DECODE_WORKERS
+     * @param maxInFlight maximum number of frames decoding at the same time or waiting for preceding frames,
+     * 			0 means twice of workers
+     */
+    public synchronized void setDecoderOptions(final int workers, final int maxInFlight) {
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetDecoderOptions(mNativePtr, workers, maxInFlight);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set decoder options");
+    	}
+    }
+
+    /**
+     * set how often MJPEG frames are decoded for preview display while IFrameCallback
+     * receives the JPEG data as it is (PIXEL_FORMAT_RAW with FRAME_FORMAT_MJPEG).
+     * this has no effect with other pixel formats because they need decoding anyway
+     * @param interval 0: never decode for preview, 1: every frame(default), n: every n-th frame
+     */
+    public synchronized void setPreviewDecodeInterval(final int interval) {
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetPreviewDecodeInterval(mNativePtr, interval);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set preview decode interval");
+    	}
+    }
+
+    /**
+     * set the smallest output size that the preview display or IFrameCallback needs.
+     * in MJPEG mode, frames are decoded at 1/2, 1/4 or 1/8 of the frame size
+     * when every consumer of the decoded frames is satisfied with it, which skips most of the decoding work.
+     * the preview Surface is resized to the decoded size and the view scales it,
+     * IFrameCallback receives the decoded size(see FrameInfo#width/#height).
+     * the capture Surface always needs the full size. this has no effect in YUYV mode.
+     * this can be changed while preview is running
+     * @param target OUTPUT_TARGET_PREVIEW or OUTPUT_TARGET_FRAME_CALLBACK
+     * @param width 0 means the frame size(default)
+     * @param height 0 means the frame size(default)
+     */
+    public synchronized void setOutputSize(final int target, final int width, final int height) {
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetOutputSize(mNativePtr, target, width, height);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set output size");
+    	}
+    }
+
+    /**
+     * set the region of the frame that the preview display and IFrameCallback receive, e.g. for digital zoom.
+     * in MJPEG mode only the blocks around the region are decoded, and in YUYV mode the region is cropped
+     * before converting, so the work is proportional to the region instead of the frame.
+     * the region is aligned to 16 pixels and combined with #setOutputSize(the region is scaled down while decoding).
+     * the preview Surface is resized to the region and the view scales it,
+     * IFrameCallback receives the size of the region(see FrameInfo#width/#height).
+     * the capture Surface always needs the whole frame, so frames are not cropped while it is set.
+     * this can be changed while preview is running
+     * @param x left of the region in pixels of the frame
+     * @param y top of the region in pixels of the frame
+     * @param width 0 means the whole frame(default)
+     * @param height 0 means the whole frame(default)
+     */
+    public synchronized void setCropRegion(final int x, final int y, final int width, final int height) {
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetCropRegion(mNativePtr, x, y, width, height);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set crop region");
+    	}
+    }
+
+    /**
+     * zoom by cropping the center of the frame with #setCropRegion,
+     * for cameras that do not support CTRL_ZOOM_ABS
+     * @param zoom [%], 0 shows the whole frame and 100 magnifies it MAX_DIGITAL_ZOOM times
+     */
+    public synchronized void setDigitalZoom(final int zoom) {
+    	mDigitalZoom = zoom < 0 ? 0 : (zoom > 100 ? 100 : zoom);
+    	updateDigitalZoom();
+    }
+
+    /**
+     * @return zoom[%] of #setDigitalZoom
+     */
+    public synchronized int getDigitalZoom() {
+    	return mDigitalZoom;
+    }
+
+    private synchronized void updateDigitalZoom() {
+    	if (mDigitalZoom > 0) {
+    		final float scale = 1.0f + (MAX_DIGITAL_ZOOM - 1.0f) * mDigitalZoom / 100.f;
+    		final int width = (int)(mCurrentWidth / scale);
+    		final int height = (int)(mCurrentHeight / scale);
+    		setCropRegion((mCurrentWidth - width) / 2, (mCurrentHeight - height) / 2, width, height);
+    	} else {
+    		setCropRegion(0, 0, 0, 0);
+    	}
+    }
+
+    /**
+     * set sizing of the native frame pool that holds received, decoded and converted frames.
+     * frames are allocated before streaming starts and reused, so steady-state streaming does not
+     * allocate any frame as long as PreviewStatistics#poolMisses stays 0
+     * (PreviewStatistics#frameReallocs counts frame buffers that were reallocated instead).
+     * 0 for each value means the default that is derived from the frame queue depth and decoder options.
+     * this should be called while preview is not running
+     * @param initialFrames frames allocated before streaming starts
+     * @param maxFrames maximum number of frames alive, frames are dropped when exceeded, 0: unlimited
+     * @param lowWatermark number of frames allocated at once when the pool is empty
+     * @param highWatermark maximum number of free frames kept in the pool, frames over this are freed
+     * @param flags 0 or FRAME_POOL_HUGEPAGE
+     */
+    public synchronized void setFramePoolPolicy(final int initialFrames, final int maxFrames,
+    	final int lowWatermark, final int highWatermark, final int flags) {
+
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetFramePoolPolicy(mNativePtr,
+    			initialFrames, maxFrames, lowWatermark, highWatermark, flags);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set frame pool policy");
+    	}
+    }
+
+    /**
+     * set the USB transfer setup of the preview stream, this is applied when the preview starts next time.
+     * 0 for each value sizes it from the negotiated frame size, payload size and frame interval(default).
+     * use fewer/smaller buffers on low-memory devices and more transfers when
+     * PreviewStatistics#isoMissed or PreviewStatistics#minInFlight shows the host controller ran dry.
+     * @param numTransfers number of transfers submitted at the same time, [0, MAX_TRANSFERS]
+     * @param packetsPerTransfer number of packets of each isochronous transfer, [0, MAX_PACKETS_PER_TRANSFER],
+     *        ignored for bulk transfer
+     * @param frameBufSize size of the two buffers that assemble a frame in bytes
+     */
+    public synchronized void setTransferConfig(final int numTransfers,
+    	final int packetsPerTransfer, final int frameBufSize) {
+
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetTransferConfig(mNativePtr,
+    			numTransfers, packetsPerTransfer, frameBufSize);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set transfer config");
+    	}
+    }
+
+    /**
+     * get the USB transfer setup that the running preview actually uses,
+     * the requested values while preview is not running
+     * @return TRANSFER_CONFIG_NUM values, see TRANSFER_CONFIG_XXX, null if the camera is not opened
+     */
+    public synchronized int[] getTransferConfig() {
+    	if (mNativePtr != 0) {
+    		final int[] values = new int[TRANSFER_CONFIG_NUM];
+    		if (nativeGetTransferConfig(mNativePtr, values) == 0) {
+    			return values;
+    		}
+    	}
+    	return null;
+    }
+
+    /**
+     * record raw payload transfers of the preview stream into the file,
+     * the recording can be replayed on host with libuvc's replay_bench without a camera
+     * this should call while previewing
+     * @param path
+     */
+    public synchronized void startPayloadRecording(final String path) {
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetPayloadRecording(mNativePtr, path);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to start payload recording");
+    	}
+    }
+
+    /**
+     * stop recording payload transfers
+     */
+    public synchronized void stopPayloadRecording() {
+    	if (mNativePtr != 0) {
+    		nativeSetPayloadRecording(mNativePtr, null);
+    	}
+    }
+
+    /**
+     * get counters and latency histograms of the native preview pipeline,
+     * they are updated without locking so this is cheap enough to call periodically while previewing
+     * @return null if the camera is not opened
+     */
+    public synchronized PreviewStatistics getStatistics() {
+    	if (mNativePtr != 0) {
+    		final long[] values = new long[PreviewStatistics.SNAPSHOT_NUM];
+    		if (nativeGetStatistics(mNativePtr, values) == 0) {
+    			return new PreviewStatistics(values);
+    		}
+    	}
+    	return null;
+    }
+
     /**
      * start preview
      */
@@ -424,6 +1039,7 @@ public class UVCCamera {
      * stop preview
      */
     public synchronized void stopPreview() {
+    	// IFrameCallback and IFrameCallback2 share the same native slot, this clears both of them
     	setFrameCallback(null, 0);
     	if (mCtrlBlock != null) {
     		nativeStopPreview(mNativePtr);
@@ -435,9 +1051,12 @@ public class UVCCamera {
      */
     public synchronized void destroy() {
     	close();
-    	if (mNativePtr != 0) {
-    		nativeDestroy(mNativePtr);
-    		mNativePtr = 0;
+    	mFrameMetadata = null;
+    	synchronized (mReleaseFrameSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeDestroy(mNativePtr);
+	    		mNativePtr = 0;
+	    	}
     	}
     }
 
@@ -451,6 +1070,104 @@ public class UVCCamera {
     		return (mControlSupports & flag) == flag;
     }
 
+	/**
+	 * set multiple controls with one native call, e.g. to apply a profile at startup.
+	 * values are absolute values of the controls, not percentage like #setBrightness.
+	 * CTRL_XXX/PU_XXX that have a single value are supported(relative, pan/tilt and window controls are not).
+	 * min/max of the controls are fetched only once, and values that are same as the value set/read last
+	 * are not written again unless force is true
+	 * @param ids CTRL_XXX/PU_XXX
+	 * @param values same length as ids
+	 * @param results null or same length as ids, receives CONTROL_RESULT_XXX or negative error code for each control
+	 * @param force write all values even if they are same as the value set/read last
+	 * @return number of controls written to the camera
+	 */
+	public int setControls(final int[] ids, final int[] values, final int[] results, final boolean force) {
+		return setControls(ids, values, results, force ? CONTROL_FLAG_FORCE : 0);
+	}
+
+	/**
+	 * @param flags CONTROL_FLAG_XXX
+	 * @see #setControls(int[], int[], int[], boolean)
+	 */
+	/*package*/synchronized int setControls(final int[] ids, final int[] values, final int[] results, final int flags) {
+		if ((ids.length != values.length) || ((results != null) && (results.length < ids.length)))
+			throw new IllegalArgumentException("length of ids, values and results should be same");
+		int result = 0;
+		if (mNativePtr != 0) {
+			result = nativeSetControls(mNativePtr, ids, values, results, flags);
+			if (result < 0)
+				throw new IllegalArgumentException("Failed to set controls");
+		} else if (results != null) {
+			Arrays.fill(results, 0, ids.length, CONTROL_RESULT_NO_DEVICE);
+		}
+		return result;
+	}
+
+	/**
+	 * set multiple controls with one native call, see #setControls(int[], int[], int[], boolean)
+	 * @param controls map of CTRL_XXX/PU_XXX to the absolute value
+	 * @return map of CTRL_XXX/PU_XXX to CONTROL_RESULT_XXX or negative error code
+	 */
+	public Map<Integer, Integer> setControls(final Map<Integer, Integer> controls) {
+		final int n = controls.size();
+		final int[] ids = new int[n];
+		final int[] values = new int[n];
+		final int[] results = new int[n];
+		int i = 0;
+		for (final Map.Entry<Integer, Integer> entry: controls.entrySet()) {
+			ids[i] = entry.getKey();
+			values[i++] = entry.getValue();
+		}
+		setControls(ids, values, results, false);
+		final Map<Integer, Integer> result = new LinkedHashMap<Integer, Integer>(n);
+		for (i = 0; i < n; i++) {
+			result.put(ids[i], results[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * read current values of multiple controls with one native call,
+	 * read values are also used to skip same values in #setControls
+	 * @param ids CTRL_XXX/PU_XXX
+	 * @param values same length as ids, values are written only when the result is CONTROL_RESULT_OK
+	 * @param results null or same length as ids, receives CONTROL_RESULT_OK or negative error code for each control
+	 * @return number of controls read successfully
+	 */
+	public synchronized int getControls(final int[] ids, final int[] values, final int[] results) {
+		if ((ids.length != values.length) || ((results != null) && (results.length < ids.length)))
+			throw new IllegalArgumentException("length of ids, values and results should be same");
+		int result = 0;
+		if (mNativePtr != 0) {
+			result = nativeGetControls(mNativePtr, ids, values, results);
+			if (result < 0)
+				throw new IllegalArgumentException("Failed to get controls");
+		} else if (results != null) {
+			Arrays.fill(results, 0, ids.length, CONTROL_RESULT_NO_DEVICE);
+		}
+		return result;
+	}
+
+	/**
+	 * read current values of multiple controls with one native call
+	 * @param ids CTRL_XXX/PU_XXX
+	 * @return map of CTRL_XXX/PU_XXX to the absolute value, controls that failed are not included
+	 */
+	public Map<Integer, Integer> getControls(final int... ids) {
+		final int n = ids.length;
+		final int[] values = new int[n];
+		final int[] results = new int[n];
+		getControls(ids, values, results);
+		final Map<Integer, Integer> result = new LinkedHashMap<Integer, Integer>(n);
+		for (int i = 0; i < n; i++) {
+			if (results[i] == CONTROL_RESULT_OK) {
+				result.put(ids[i], values[i]);
+			}
+		}
+		return result;
+	}
+
 //================================================================================
 	public synchronized void setAutoFocus(final boolean autoFocus) {
     	if (mNativePtr != 0) {
@@ -1036,14 +1753,33 @@ public class UVCCamera {
     private static final native int nativeRelease(final long id_camera);
 
 	private static final native int nativeSetStatusCallback(final long mNativePtr, final IStatusCallback callback);
+	private static final native int nativeSetControlCallback(final long mNativePtr, final IControlCallback callback);
 	private static final native int nativeSetButtonCallback(final long mNativePtr, final IButtonCallback callback);
 
     private static final native int nativeSetPreviewSize(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode, final float bandwidth);
+    private static final native int nativeProbeStreamMode(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode, final long[] values);
     private static final native String nativeGetSupportedSize(final long id_camera);
+    private static final native int[] nativeGetSupportedModes(final long id_camera);
     private static final native int nativeStartPreview(final long id_camera);
     private static final native int nativeStopPreview(final long id_camera);
     private static final native int nativeSetPreviewDisplay(final long id_camera, final Surface surface);
     private static final native int nativeSetFrameCallback(final long mNativePtr, final IFrameCallback callback, final int pixelFormat);
+    // this is not static method to pass this UVCCamera object to FrameInfo
+    private final native int nativeSetFrameCallback2(final long mNativePtr, final IFrameCallback2 callback, final int pixelFormat);
+    private static final native int nativeReleaseFrame(final long mNativePtr, final int slot, final long frameId);
+    private static final native ByteBuffer nativeGetFrameMetadata(final long mNativePtr);
+    private static final native int nativeSetFrameQueue(final long mNativePtr, final int depth, final int policy);
+    private static final native int nativeSetDecoderOptions(final long mNativePtr, final int workers, final int maxInFlight);
+    private static final native int nativeSetPreviewDecodeInterval(final long mNativePtr, final int interval);
+    private static final native int nativeSetOutputSize(final long mNativePtr, final int target, final int width, final int height);
+    private static final native int nativeSetCropRegion(final long mNativePtr, final int x, final int y, final int width, final int height);
+    private static final native int nativeSetFramePoolPolicy(final long mNativePtr,
+    	final int initialFrames, final int maxFrames, final int lowWatermark, final int highWatermark, final int flags);
+    private static final native int nativeSetTransferConfig(final long mNativePtr,
+    	final int numTransfers, final int packetsPerTransfer, final int frameBufSize);
+    private static final native int nativeGetTransferConfig(final long mNativePtr, final int[] values);
+    private static final native int nativeSetPayloadRecording(final long mNativePtr, final String path);
+    private static final native int nativeGetStatistics(final long mNativePtr, final long[] values);
 
 //**********************************************************************
     /**
@@ -1067,8 +1803,26 @@ public class UVCCamera {
     }
     private static final native int nativeSetCaptureDisplay(final long id_camera, final Surface surface);
 
+    /**
+     * pass the frames to the pipeline instead of the capture thread(IFrameCallback and startCapture).
+     * the pipeline should be started before calling this, see PipelineBuilder.
+     * the camera does not use the previous pipeline when this returns.
+     * in MJPEG mode the pipeline receives the MJPEG frames as they are, use ConvertPipeline to decode them.
+     * @param pipeline null to pass the frames to the capture thread again
+     */
+    public synchronized void setCapturePipeline(final IPipeline pipeline) {
+    	if (mNativePtr != 0) {
+    		nativeSetCapturePipeline(mNativePtr, pipeline);
+    	}
+    }
+    private static final native int nativeSetCapturePipeline(final long id_camera, final IPipeline pipeline);
+
     private static final native long nativeGetCtrlSupports(final long id_camera);
     private static final native long nativeGetProcSupports(final long id_camera);
+    private static final native int nativeSetControls(final long id_camera, final int[] ids, final int[] values, final int[] results, final int flags);
+    private static final native int[] nativeGetCtrlLimits(final long id_camera);
+    private static final native int nativeSetCtrlLimits(final long id_camera, final int[] values);
+    private static final native int nativeGetControls(final long id_camera, final int[] ids, final int[] values, final int[] results);
 
     private final native int nativeUpdateScanningModeLimit(final long id_camera);
     private static final native int nativeSetScanningMode(final long id_camera, final int scanning_mode);
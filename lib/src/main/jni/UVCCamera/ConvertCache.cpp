@@ -0,0 +1,186 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: ConvertCache.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include <stdlib.h>
+#include <string.h>
+#include "utilbase.h"
+#include "ConvertCache.h"
+
+ConvertCache::ConvertCache()
+:	mCount(0) {
+
+	ENTER();
+	pthread_mutex_init(&mMutex, NULL);
+	memset(mEntries, 0, sizeof(mEntries));
+	EXIT();
+}
+
+ConvertCache::~ConvertCache() {
+	ENTER();
+	// the owner should recycle the frames with #releaseAny before destroying,
+	// they may be allocated by FramePool that frees them differently
+	if (UNLIKELY(!isEmpty())) {
+		LOGW("converted frames are not released");
+	}
+	pthread_mutex_destroy(&mMutex);
+	EXIT();
+}
+
+/**
+ * should be called while holding mMutex
+ * @return index of the entry, -1 if not found
+ */
+int ConvertCache::find(const uvc_frame_t *src, const enum uvc_frame_format format) {
+	for (int i = 0; i < CONVERT_CACHE_SIZE; i++) {
+		const entry_t &e = mEntries[i];
+		if (e.converted && (e.src == src) && (e.sequence == src->sequence)
+			&& (e.converted->frame_format == format)) {
+
+			return i;
+		}
+	}
+	return -1;
+}
+
+/**
+ * keep the frame converted from src, the format is taken from the converted frame
+ * @return false if the cache is full or already has the format of src,
+ * 	the caller still owns the converted frame then
+ */
+bool ConvertCache::put(const uvc_frame_t *src, uvc_frame_t *converted) {
+	bool result = false;
+	pthread_mutex_lock(&mMutex);
+	{
+		if (find(src, converted->frame_format) < 0) {
+			for (int i = 0; i < CONVERT_CACHE_SIZE; i++) {
+				entry_t &e = mEntries[i];
+				if (!e.converted) {
+					e.src = src;
+					e.sequence = src->sequence;
+					e.converted = converted;
+					__atomic_add_fetch(&mCount, 1, __ATOMIC_RELAXED);
+					result = true;
+					break;
+				}
+			}
+		}
+	}
+	pthread_mutex_unlock(&mMutex);
+	return result;
+}
+
+/**
+ * get the converted frame without taking it, the frame is valid until #release of src
+ * @return NULL if src has not been converted into the format
+ */
+uvc_frame_t *ConvertCache::get(const uvc_frame_t *src, const enum uvc_frame_format format) {
+	if (isEmpty()) return NULL;
+	uvc_frame_t *result = NULL;
+	pthread_mutex_lock(&mMutex);
+	{
+		const int ix = find(src, format);
+		if (ix >= 0) {
+			result = mEntries[ix].converted;
+		}
+	}
+	pthread_mutex_unlock(&mMutex);
+	return result;
+}
+
+/**
+ * take the converted frame from the cache, the caller should recycle it
+ * @return NULL if src has not been converted into the format
+ */
+uvc_frame_t *ConvertCache::take(const uvc_frame_t *src, const enum uvc_frame_format format) {
+	if (isEmpty()) return NULL;
+	uvc_frame_t *result = NULL;
+	pthread_mutex_lock(&mMutex);
+	{
+		const int ix = find(src, format);
+		if (ix >= 0) {
+			result = mEntries[ix].converted;
+			mEntries[ix].converted = NULL;
+			__atomic_sub_fetch(&mCount, 1, __ATOMIC_RELAXED);
+		}
+	}
+	pthread_mutex_unlock(&mMutex);
+	return result;
+}
+
+/**
+ * remove one of the frames converted from src, call repeatedly until this returns NULL
+ * @return converted frame that the caller should recycle, NULL if no more frame
+ */
+uvc_frame_t *ConvertCache::release(const uvc_frame_t *src) {
+	if (isEmpty()) return NULL;
+	uvc_frame_t *result = NULL;
+	pthread_mutex_lock(&mMutex);
+	{
+		for (int i = 0; i < CONVERT_CACHE_SIZE; i++) {
+			entry_t &e = mEntries[i];
+			if (e.converted && (e.src == src)) {
+				result = e.converted;
+				e.converted = NULL;
+				__atomic_sub_fetch(&mCount, 1, __ATOMIC_RELAXED);
+				break;
+			}
+		}
+	}
+	pthread_mutex_unlock(&mMutex);
+	return result;
+}
+
+/**
+ * remove any one of the converted frames, call repeatedly until this returns NULL
+ * @return converted frame that the caller should recycle, NULL if no more frame
+ */
+uvc_frame_t *ConvertCache::releaseAny() {
+	if (isEmpty()) return NULL;
+	uvc_frame_t *result = NULL;
+	pthread_mutex_lock(&mMutex);
+	{
+		for (int i = 0; i < CONVERT_CACHE_SIZE; i++) {
+			entry_t &e = mEntries[i];
+			if (e.converted) {
+				result = e.converted;
+				e.converted = NULL;
+				__atomic_sub_fetch(&mCount, 1, __ATOMIC_RELAXED);
+				break;
+			}
+		}
+	}
+	pthread_mutex_unlock(&mMutex);
+	return result;
+}
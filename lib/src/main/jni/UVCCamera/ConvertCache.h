@@ -0,0 +1,70 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: ConvertCache.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef CONVERTCACHE_H_
+#define CONVERTCACHE_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+
+#define CONVERT_CACHE_SIZE 8		// source frames in flight between the preview and the capture thread are few
+
+/**
+ * keeps frames converted from a source frame for each frame format,
+ * so that the preview, the capture Surface and IFrameCallback convert each (frame, format) pair
+ * at most once. the converted frames belong to this cache until they are taken with #take,
+ * #release must be called before the source frame is recycled.
+ * a source frame is identified by its address and sequence because pooled frames are reused.
+ */
+class ConvertCache {
+private:
+	typedef struct entry {
+		const uvc_frame_t *src;
+		uint32_t sequence;
+		uvc_frame_t *converted;
+	} entry_t;
+	pthread_mutex_t mMutex;
+	entry_t mEntries[CONVERT_CACHE_SIZE];
+	volatile int32_t mCount;
+	// force inhibiting copy/assignment
+	ConvertCache(const ConvertCache &src);
+	void operator =(const ConvertCache &src);
+
+	int find(const uvc_frame_t *src, const enum uvc_frame_format format);
+public:
+	ConvertCache();
+	~ConvertCache();
+
+	bool put(const uvc_frame_t *src, uvc_frame_t *converted);
+	uvc_frame_t *get(const uvc_frame_t *src, const enum uvc_frame_format format);
+	uvc_frame_t *take(const uvc_frame_t *src, const enum uvc_frame_format format);
+	uvc_frame_t *release(const uvc_frame_t *src);
+	uvc_frame_t *releaseAny();
+	/**
+	 * whether any converted frame is kept, can be called without lock
+	 */
+	inline bool isEmpty() const { return !__atomic_load_n(&mCount, __ATOMIC_RELAXED); }
+};
+
+#endif /* CONVERTCACHE_H_ */
@@ -0,0 +1,176 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: DecodePool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include <stdlib.h>
+#include <string.h>
+#include "utilbase.h"
+#include "DecodePool.h"
+#include "PreviewStatistics.h"
+
+DecodePool::DecodePool(const int workers, const int max_in_flight,
+	void (*on_done)(void *arg), void *on_done_arg)
+:	mWorkers(workers > 0 ? (workers < MAX_DECODE_WORKERS ? workers : MAX_DECODE_WORKERS) : 1),
+	mMaxInFlight(max_in_flight > mWorkers ? max_in_flight : mWorkers),
+	mThreads(NULL),
+	mStarted(0),
+	mJobs(NULL),
+	mHead(0),
+	mTail(0),
+	mQueue(mMaxInFlight + mWorkers, FRAME_RING_DROP_NEWEST),	// + quit jobs
+	mOnDone(on_done),
+	mOnDoneArg(on_done_arg) {
+
+	ENTER();
+	mJobs = new decode_job_t[mMaxInFlight];
+	memset(mJobs, 0, sizeof(decode_job_t) * mMaxInFlight);
+	memset(&mQuitJob, 0, sizeof(mQuitJob));
+	mThreads = new pthread_t[mWorkers];
+	pthread_mutex_init(&mDoneMutex, NULL);
+	pthread_cond_init(&mDoneSync, NULL);
+	EXIT();
+}
+
+DecodePool::~DecodePool() {
+	ENTER();
+	stop();
+	SAFE_DELETE_ARRAY(mThreads);
+	SAFE_DELETE_ARRAY(mJobs);
+	pthread_mutex_destroy(&mDoneMutex);
+	pthread_cond_destroy(&mDoneSync);
+	EXIT();
+}
+
+int DecodePool::start() {
+	ENTER();
+	int result = mStarted ? -1 : 0;	// already started
+	for ( ; !result && (mStarted < mWorkers) ; ) {
+		result = pthread_create(&mThreads[mStarted], NULL, worker_thread_func, (void *)this);
+		if (LIKELY(!result)) {
+			mStarted++;
+		} else {
+			LOGW("failed to create decode worker thread:%d", result);
+			stop();
+		}
+	}
+	RETURN(result, int);
+}
+
+void DecodePool::stop() {
+	ENTER();
+	// workers quit after decoding all jobs queued before the quit jobs
+	for (int i = 0; i < mStarted; i++) {
+		mQueue.push(&mQuitJob);
+	}
+	for (int i = 0; i < mStarted; i++) {
+		if (pthread_join(mThreads[i], NULL) != EXIT_SUCCESS) {
+			LOGW("DecodePool::terminate worker thread: pthread_join failed");
+		}
+	}
+	mStarted = 0;
+	EXIT();
+}
+
+bool DecodePool::submit(uvc_frame_t *in, uvc_frame_t *out, decodeFunc_t decode, const decode_region_t &region) {
+	if (UNLIKELY(isFull() || !mStarted)) return false;
+	decode_job_t *job = &mJobs[mTail % mMaxInFlight];
+	job->in = in;
+	job->out = out;
+	job->decode = decode;
+	job->region = region;
+	job->result = UVC_SUCCESS;
+	job->elapsed_ns = 0;
+	__atomic_store_n(&job->done, 0, __ATOMIC_RELAXED);
+	mTail++;
+	if (UNLIKELY(!mQueue.push(job))) {
+		// never happens because the queue has room for all jobs in flight
+		job->result = UVC_ERROR_BUSY;
+		__atomic_store_n(&job->done, 1, __ATOMIC_RELEASE);
+	}
+	return true;
+}
+
+bool DecodePool::take(uvc_frame_t **in, uvc_frame_t **out, uvc_error_t *result, const bool block,
+	int64_t *elapsed_ns) {
+	if (mHead == mTail) return false;
+	decode_job_t *job = &mJobs[mHead % mMaxInFlight];
+	if (!__atomic_load_n(&job->done, __ATOMIC_ACQUIRE)) {
+		if (!block) return false;
+		pthread_mutex_lock(&mDoneMutex);
+		for ( ; !__atomic_load_n(&job->done, __ATOMIC_ACQUIRE) ; ) {
+			pthread_cond_wait(&mDoneSync, &mDoneMutex);
+		}
+		pthread_mutex_unlock(&mDoneMutex);
+	}
+	*in = job->in;
+	*out = job->out;
+	*result = job->result;
+	if (elapsed_ns) {
+		*elapsed_ns = job->elapsed_ns;
+	}
+	job->in = job->out = NULL;
+	mHead++;
+	return true;
+}
+
+/*static*/
+void *DecodePool::worker_thread_func(void *vptr_args) {
+	DecodePool *pool = reinterpret_cast<DecodePool *>(vptr_args);
+	if (LIKELY(pool)) {
+		pool->do_work();
+	}
+	pthread_exit(NULL);
+}
+
+void DecodePool::do_work() {
+	ENTER();
+	for ( ; ; ) {
+		decode_job_t *job = mQueue.wait();
+		if (UNLIKELY(!job)) continue;
+		if (UNLIKELY(job == &mQuitJob)) break;
+		const int64_t start = PreviewStatistics::now();
+		job->result = job->decode(job->in, job->out, &job->region);
+		job->elapsed_ns = PreviewStatistics::now() - start;
+		pthread_mutex_lock(&mDoneMutex);
+		{
+			__atomic_store_n(&job->done, 1, __ATOMIC_RELEASE);
+			pthread_cond_broadcast(&mDoneSync);
+		}
+		pthread_mutex_unlock(&mDoneMutex);
+		if (mOnDone) {
+			mOnDone(mOnDoneArg);
+		}
+	}
+	EXIT();
+}
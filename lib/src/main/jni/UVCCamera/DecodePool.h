@@ -0,0 +1,115 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: DecodePool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef DECODEPOOL_H_
+#define DECODEPOOL_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "framering.h"
+
+#define DEFAULT_DECODE_WORKERS 1	// 1: decode on the preview thread without the pool
+#define MAX_DECODE_WORKERS 8
+
+/** region of the frame to decode and its scale, see UVCPreview#mjpegDecodeRegion */
+typedef struct decode_region {
+	int x, y, width, height;	// in pixels of the frame
+	int scale_denom;			// 1, 2, 4 or 8
+} decode_region_t;
+
+typedef uvc_error_t (*decodeFunc_t)(uvc_frame_t *in, uvc_frame_t *out, const decode_region_t *region);
+
+typedef struct decode_job {
+	uvc_frame_t *in;
+	uvc_frame_t *out;
+	decodeFunc_t decode;
+	decode_region_t region;
+	uvc_error_t result;
+	int64_t elapsed_ns;		// time the decode function took
+	volatile int32_t done;
+} decode_job_t;
+
+/**
+ * decodes frames on several worker threads in parallel
+ * and returns them in the order they were submitted.
+ * frames are submitted in the order libuvc delivered them (ascending sequence),
+ * so the decoded frames come out in the order of the sequence even if
+ * a worker finishes later than the one that decodes the next frame.
+ * submit/take/isFull are supposed to be called only from one thread(the preview thread).
+ */
+class DecodePool {
+private:
+	const int mWorkers;
+	const int mMaxInFlight;
+	pthread_t *mThreads;
+	int mStarted;
+	decode_job_t *mJobs;	// jobs in flight, indexed by submission order
+	uint32_t mHead;			// next job to return
+	uint32_t mTail;			// next job to submit
+	FrameRing<decode_job_t *> mQueue;	// jobs waiting for workers
+	decode_job_t mQuitJob;
+	pthread_mutex_t mDoneMutex;
+	pthread_cond_t mDoneSync;
+	void (*mOnDone)(void *arg);
+	void *mOnDoneArg;
+	// force inhibiting copy/assignment
+	DecodePool(const DecodePool &src);
+	void operator =(const DecodePool &src);
+
+	static void *worker_thread_func(void *vptr_args);
+	void do_work();
+public:
+	/**
+	 * @param workers number of worker threads
+	 * @param max_in_flight maximum number of frames submitted and not taken yet, at least workers
+	 * @param on_done called on the worker thread every time a frame was decoded, can be NULL
+	 */
+	DecodePool(const int workers, const int max_in_flight,
+		void (*on_done)(void *arg) = NULL, void *on_done_arg = NULL);
+	~DecodePool();
+
+	int start();
+	/** finish decoding all submitted frames and terminate worker threads, these frames are still able to take */
+	void stop();
+	inline int workers() const { return mWorkers; };
+	inline int inFlight() const { return (int)(mTail - mHead); };
+	inline bool isFull() const { return inFlight() >= mMaxInFlight; };
+	/**
+	 * queue a frame to decode
+	 * @param region copied into the job
+	 * @return false if too many frames are in flight, in and out are not queued
+	 */
+	bool submit(uvc_frame_t *in, uvc_frame_t *out, decodeFunc_t decode, const decode_region_t &region);
+	/**
+	 * return the oldest submitted frame if its decoding finished
+	 * @param block wait until decoding of the oldest frame finishes
+	 * @param result result of the decode function
+	 * @param elapsed_ns time the decode function took, can be NULL
+	 * @return false if there is no frame in flight or the oldest one is still decoding(block=false)
+	 */
+	bool take(uvc_frame_t **in, uvc_frame_t **out, uvc_error_t *result, const bool block,
+		int64_t *elapsed_ns = NULL);
+};
+
+#endif /* DECODEPOOL_H_ */
@@ -0,0 +1,223 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FrameBufferPool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include <string.h>
+#include "utilbase.h"
+#include "FrameBufferPool.h"
+
+FrameBufferPool::FrameBufferPool()
+:	mNextBuffer(0),
+	mFrameId(0),
+	mCamera(NULL),
+	mFrameInfoClass(NULL),
+	mBufferClear(NULL),
+	mBufferLimit(NULL) {
+
+	ENTER();
+	memset(mSlots, 0, sizeof(mSlots));
+	memset(mBuffers, 0, sizeof(mBuffers));
+	memset(&frameinfo_fields, 0, sizeof(frameinfo_fields));
+	EXIT();
+}
+
+FrameBufferPool::~FrameBufferPool() {
+	ENTER();
+	JNIEnv *env = getEnv();
+	if (env) {
+		clear(env);
+	}
+	EXIT();
+}
+
+int FrameBufferPool::init(JNIEnv *env, jobject camera) {
+	ENTER();
+
+	clear(env);
+	jclass clazz = env->FindClass("com/serenegiant/usb/FrameInfo");
+	if (LIKELY(clazz)) {
+		frameinfo_fields.init = env->GetMethodID(clazz, "<init>", "(Lcom/serenegiant/usb/UVCCamera;IJ)V");
+		frameinfo_fields.width = env->GetFieldID(clazz, "width", "I");
+		frameinfo_fields.height = env->GetFieldID(clazz, "height", "I");
+		frameinfo_fields.pixelFormat = env->GetFieldID(clazz, "pixelFormat", "I");
+		frameinfo_fields.size = env->GetFieldID(clazz, "size", "I");
+		frameinfo_fields.sequence = env->GetFieldID(clazz, "sequence", "J");
+		frameinfo_fields.pts = env->GetFieldID(clazz, "pts", "J");
+		frameinfo_fields.scr = env->GetFieldID(clazz, "scr", "J");
+		frameinfo_fields.hostTimestampNs = env->GetFieldID(clazz, "hostTimestampNs", "J");
+		frameinfo_fields.actualBytes = env->GetFieldID(clazz, "actualBytes", "I");
+		frameinfo_fields.dropped = env->GetFieldID(clazz, "dropped", "I");
+		jclass buffer_clazz = env->FindClass("java/nio/Buffer");
+		if (LIKELY(buffer_clazz)) {
+			mBufferClear = env->GetMethodID(buffer_clazz, "clear", "()Ljava/nio/Buffer;");
+			mBufferLimit = env->GetMethodID(buffer_clazz, "limit", "(I)Ljava/nio/Buffer;");
+			env->DeleteLocalRef(buffer_clazz);
+		}
+		if (frameinfo_fields.init && frameinfo_fields.width
+			&& frameinfo_fields.height && frameinfo_fields.pixelFormat && frameinfo_fields.size
+			&& frameinfo_fields.sequence && frameinfo_fields.pts && frameinfo_fields.scr
+			&& frameinfo_fields.hostTimestampNs && frameinfo_fields.actualBytes && frameinfo_fields.dropped
+			&& mBufferClear && mBufferLimit) {
+
+			mFrameInfoClass = (jclass)env->NewGlobalRef(clazz);
+			mCamera = env->NewGlobalRef(camera);
+		}
+		env->DeleteLocalRef(clazz);
+	}
+	env->ExceptionClear();
+	if (!mFrameInfoClass) {
+		LOGE("Can't find FrameInfo");
+	}
+
+	RETURN(mFrameInfoClass ? 0 : -1, int);
+}
+
+void FrameBufferPool::clear(JNIEnv *env) {
+	ENTER();
+
+	for (int i = 0; i < BUFFER_CACHE_SZ; i++) {
+		if (mBuffers[i].buf) {
+			env->DeleteGlobalRef(mBuffers[i].buf);
+		}
+	}
+	memset(mBuffers, 0, sizeof(mBuffers));
+	mNextBuffer = 0;
+	if (mFrameInfoClass) {
+		env->DeleteGlobalRef(mFrameInfoClass);
+		mFrameInfoClass = NULL;
+	}
+	if (mCamera) {
+		env->DeleteGlobalRef(mCamera);
+		mCamera = NULL;
+	}
+
+	EXIT();
+}
+
+/**
+ * get direct ByteBuffer that wraps whole buffer of the frame
+ * frame buffers are exchanged between the stream and the frame pool(zero copy)
+ * or reallocated when the size changes, so ByteBuffer is looked up by address and capacity.
+ */
+jobject FrameBufferPool::getBuffer(JNIEnv *env, uvc_frame_t *frame) {
+	for (int i = 0; i < BUFFER_CACHE_SZ; i++) {
+		if ((mBuffers[i].data == frame->data) && (mBuffers[i].capacity == frame->data_bytes)) {
+			return mBuffers[i].buf;
+		}
+	}
+	// replace the oldest one
+	cached_buffer_t *cache = &mBuffers[mNextBuffer];
+	mNextBuffer = (mNextBuffer + 1) % BUFFER_CACHE_SZ;
+	if (cache->buf) {
+		env->DeleteGlobalRef(cache->buf);
+		cache->buf = NULL;
+	}
+	jobject buf = env->NewDirectByteBuffer(frame->data, frame->data_bytes);
+	if (LIKELY(buf)) {
+		cache->buf = env->NewGlobalRef(buf);
+		cache->data = frame->data;
+		cache->capacity = frame->data_bytes;
+		env->DeleteLocalRef(buf);
+	}
+	return cache->buf;
+}
+
+int FrameBufferPool::acquire(JNIEnv *env, uvc_frame_t *frame, const size_t bytes, const int pixel_format,
+	jobject &buf, jobject &info) {
+
+	if (UNLIKELY(!mFrameInfoClass)) return -1;
+	int slot = -1;
+	for (int i = 0; i < MAX_HELD_FRAMES; i++) {
+		if (!__atomic_load_n(&mSlots[i].held_id, __ATOMIC_ACQUIRE)) {
+			slot = i;
+			break;
+		}
+	}
+	if (UNLIKELY(slot < 0)) return -1;
+	slot_t *s = &mSlots[slot];
+	buf = getBuffer(env, frame);
+	if (UNLIKELY(!buf)) {
+		env->ExceptionClear();
+		return -1;
+	}
+	const int64_t id = ++mFrameId;
+	// FrameInfo is created for each frame, a shared one would release the next frame
+	// of the slot if FrameInfo#release is called again after the slot is reused
+	info = env->NewObject(mFrameInfoClass, frameinfo_fields.init, mCamera, slot, (jlong)id);
+	if (UNLIKELY(!info)) {
+		env->ExceptionClear();
+		return -1;
+	}
+	// limit is the size of the frame data, this does not create new object
+	env->CallObjectMethod(buf, mBufferClear);
+	env->CallObjectMethod(buf, mBufferLimit, (jint)bytes);
+	env->SetIntField(info, frameinfo_fields.width, frame->width);
+	env->SetIntField(info, frameinfo_fields.height, frame->height);
+	env->SetIntField(info, frameinfo_fields.pixelFormat, pixel_format);
+	env->SetIntField(info, frameinfo_fields.size, (jint)bytes);
+	env->SetLongField(info, frameinfo_fields.sequence, frame->sequence);
+	env->SetLongField(info, frameinfo_fields.pts, frame->meta.pts);
+	env->SetLongField(info, frameinfo_fields.scr, frame->meta.scr);
+	env->SetLongField(info, frameinfo_fields.hostTimestampNs, (jlong)frame->meta.host_ts_ns);
+	env->SetIntField(info, frameinfo_fields.actualBytes, (jint)frame->meta.received_bytes);
+	env->SetIntField(info, frameinfo_fields.dropped, frame->meta.dropped);
+	env->ExceptionClear();
+	s->frame = frame;
+	__atomic_store_n(&s->held_id, id, __ATOMIC_RELEASE);
+	return slot;
+}
+
+uvc_frame_t *FrameBufferPool::release(const int slot, const int64_t frame_id) {
+	if (UNLIKELY((slot < 0) || (slot >= MAX_HELD_FRAMES) || !frame_id)) return NULL;
+	slot_t *s = &mSlots[slot];
+	if (__atomic_load_n(&s->held_id, __ATOMIC_ACQUIRE) != frame_id) return NULL;
+	uvc_frame_t *frame = s->frame;
+	int64_t expected = frame_id;
+	if (__atomic_compare_exchange_n(&s->held_id, &expected, 0,
+		false, __ATOMIC_ACQ_REL, __ATOMIC_RELAXED)) {
+		return frame;
+	}
+	return NULL;
+}
+
+uvc_frame_t *FrameBufferPool::releaseAny() {
+	for (int i = 0; i < MAX_HELD_FRAMES; i++) {
+		const int64_t id = __atomic_load_n(&mSlots[i].held_id, __ATOMIC_ACQUIRE);
+		if (id) {
+			uvc_frame_t *frame = release(i, id);
+			if (frame) return frame;
+		}
+	}
+	return NULL;
+}
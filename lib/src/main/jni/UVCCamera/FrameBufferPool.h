@@ -0,0 +1,105 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FrameBufferPool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMEBUFFERPOOL_H_
+#define FRAMEBUFFERPOOL_H_
+
+#include <stdint.h>
+#include "libUVCCamera.h"
+
+#define MAX_HELD_FRAMES 4		// number of frames IFrameCallback2 can hold at the same time
+#define BUFFER_CACHE_SZ 16		// number of direct ByteBuffers to keep
+
+/**
+ * direct ByteBuffers and FrameInfo objects for IFrameCallback2.
+ * ByteBuffers are created once for each frame buffer and reused while the buffer is alive,
+ * so passing a frame to Java creates only FrameInfo.
+ * frames passed with #acquire are owned by this pool until Java calls FrameInfo#release,
+ * #release can be called from any thread.
+ */
+class FrameBufferPool {
+private:
+	typedef struct {
+		volatile int64_t held_id;	// id of the frame held by Java, 0 if the slot is free
+		uvc_frame_t *frame;
+	} slot_t;
+	typedef struct {
+		void *data;
+		size_t capacity;
+		jobject buf;				// global reference of direct ByteBuffer
+	} cached_buffer_t;
+	slot_t mSlots[MAX_HELD_FRAMES];
+	cached_buffer_t mBuffers[BUFFER_CACHE_SZ];
+	int mNextBuffer;
+	int64_t mFrameId;
+	jobject mCamera;
+	jclass mFrameInfoClass;
+	struct {
+		jmethodID init;
+		jfieldID width;
+		jfieldID height;
+		jfieldID pixelFormat;
+		jfieldID size;
+		jfieldID sequence;
+		jfieldID pts;
+		jfieldID scr;
+		jfieldID hostTimestampNs;
+		jfieldID actualBytes;
+		jfieldID dropped;
+	} frameinfo_fields;
+	jmethodID mBufferClear;
+	jmethodID mBufferLimit;
+	// force inhibiting copy/assignment
+	FrameBufferPool(const FrameBufferPool &src);
+	void operator =(const FrameBufferPool &src);
+
+	jobject getBuffer(JNIEnv *env, uvc_frame_t *frame);
+public:
+	FrameBufferPool();
+	~FrameBufferPool();
+	/**
+	 * look up FrameInfo class, this should be called on the thread that came from Java
+	 * (JNIEnv of the native thread can not find classes of the application)
+	 * @param camera UVCCamera object that FrameInfo#release calls back
+	 */
+	int init(JNIEnv *env, jobject camera);
+	/** delete all global references, frames held by Java are kept until they are released */
+	void clear(JNIEnv *env);
+	inline bool isInitialized() const { return mFrameInfoClass != NULL; };
+	/**
+	 * take over frame and get ByteBuffer/FrameInfo for it
+	 * @param info new local reference of FrameInfo, caller should delete it
+	 * @return slot number, -1 if all slots are held by Java
+	 */
+	int acquire(JNIEnv *env, uvc_frame_t *frame, const size_t bytes, const int pixel_format,
+		jobject &buf, jobject &info);
+	/**
+	 * @return frame that was held by Java, NULL if the frame was already released
+	 */
+	uvc_frame_t *release(const int slot, const int64_t frame_id);
+	/** take back all frames including held ones, caller should make sure Java never accesses them */
+	uvc_frame_t *releaseAny();
+};
+
+#endif /* FRAMEBUFFERPOOL_H_ */
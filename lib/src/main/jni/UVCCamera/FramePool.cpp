@@ -0,0 +1,208 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FramePool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include "utilbase.h"
+#include "FramePool.h"
+
+FramePool::FramePool(const frame_pool_policy_t &policy)
+:	mFrames(1, FRAME_RING_DROP_NEWEST),
+	mFrameBytes(0),
+	mAlive(0) {
+
+	ENTER();
+	memset(&mPolicy, 0, sizeof(mPolicy));
+	resetCounters();
+	setPolicy(policy);
+	EXIT();
+}
+
+FramePool::~FramePool() {
+	ENTER();
+	clear();
+	EXIT();
+}
+
+int FramePool::setPolicy(const frame_pool_policy_t &policy) {
+	ENTER();
+
+	if (UNLIKELY((policy.initial_frames < 0) || (policy.max_frames < 0)
+		|| (policy.low_watermark < 0) || (policy.high_watermark < 0))) {
+		RETURN(-1, int);
+	}
+	clear();
+	mPolicy = policy;
+	// keep at least the initial frames and the frames allocated at once
+	if (mPolicy.high_watermark < mPolicy.initial_frames) {
+		mPolicy.high_watermark = mPolicy.initial_frames;
+	}
+	if (mPolicy.high_watermark < mPolicy.low_watermark) {
+		mPolicy.high_watermark = mPolicy.low_watermark;
+	}
+	if (mPolicy.high_watermark < 1) {
+		mPolicy.high_watermark = 1;
+	}
+	if (mPolicy.max_frames && (mPolicy.initial_frames > mPolicy.max_frames)) {
+		mPolicy.initial_frames = mPolicy.max_frames;
+	}
+	mFrames.resize(mPolicy.high_watermark, FRAME_RING_DROP_NEWEST);
+
+	RETURN(0, int);
+}
+
+int FramePool::init(const size_t data_bytes) {
+	ENTER();
+
+	int result = 0;
+	clear();
+	mFrameBytes = data_bytes;
+	for (int i = 0; i < mPolicy.initial_frames; i++) {
+		uvc_frame_t *frame = allocate(data_bytes);
+		if (UNLIKELY(!frame)) {
+			LOGW("failed to allocate frame:%d/%d", i, mPolicy.initial_frames);
+			result = -1;
+			break;
+		}
+		if (UNLIKELY(!mFrames.push(frame))) {
+			release(frame);
+			break;
+		}
+	}
+
+	RETURN(result, int);
+}
+
+void FramePool::clear() {
+	ENTER();
+
+	for (uvc_frame_t *frame = mFrames.pop(); frame; frame = mFrames.pop()) {
+		release(frame);
+	}
+
+	EXIT();
+}
+
+uvc_frame_t *FramePool::get(const size_t data_bytes) {
+	uvc_frame_t *frame = mFrames.pop();
+	if (LIKELY(frame)) {
+		count(FRAME_POOL_HIT);
+		return frame;
+	}
+	// allocate the frames at once up to the low watermark,
+	// all of them have the size for init so that they fit any frame of the owner
+	const size_t bytes = data_bytes > mFrameBytes ? data_bytes : mFrameBytes;
+	const int n = mPolicy.low_watermark > 1 ? mPolicy.low_watermark : 1;
+	for (int i = 0; i < n; i++) {
+		uvc_frame_t *f = allocate(bytes);
+		if (!f) break;
+		if (!frame) {
+			frame = f;
+		} else if (UNLIKELY(!mFrames.push(f))) {
+			release(f);
+			break;
+		}
+	}
+	if (LIKELY(frame)) {
+		LOGD("allocate new frame:alive=%d", mAlive);
+		count(FRAME_POOL_MISS);
+	} else {
+		count(FRAME_POOL_EXHAUSTED);
+	}
+	return frame;
+}
+
+void FramePool::recycle(uvc_frame_t *frame) {
+	if (LIKELY(frame)) {
+		if (UNLIKELY(!mFrames.push(frame))) {
+			count(FRAME_POOL_RELEASED);
+			release(frame);
+		}
+	}
+}
+
+/**
+ * allocate new frame unless max_frames frames are alive
+ */
+uvc_frame_t *FramePool::allocate(size_t data_bytes) {
+	const int32_t alive = __atomic_add_fetch(&mAlive, 1, __ATOMIC_RELAXED);
+	if (UNLIKELY(mPolicy.max_frames && (alive > mPolicy.max_frames))) {
+		__atomic_sub_fetch(&mAlive, 1, __ATOMIC_RELAXED);
+		return NULL;
+	}
+	uvc_frame_t *frame = NULL;
+	if (mPolicy.flags & FRAME_POOL_HUGEPAGE) {
+		data_bytes = (data_bytes + FRAME_POOL_HUGEPAGE_SZ - 1) & ~((size_t)FRAME_POOL_HUGEPAGE_SZ - 1);
+		void *data = NULL;
+		if (LIKELY(data_bytes && !posix_memalign(&data, FRAME_POOL_HUGEPAGE_SZ, data_bytes))) {
+			// this is just a hint, the kernel may not support transparent huge pages
+			madvise(data, data_bytes, MADV_HUGEPAGE);
+			frame = uvc_allocate_frame(0);
+			if (LIKELY(frame)) {
+				memset(frame, 0, sizeof(*frame));
+				frame->library_owns_data = 1;	// uvc_free_frame frees the buffer
+				frame->data = data;
+				frame->actual_bytes = frame->data_bytes = data_bytes;
+			} else {
+				free(data);
+			}
+		}
+	} else {
+		frame = uvc_allocate_frame(data_bytes);
+	}
+	if (LIKELY(frame)) {
+		count(FRAME_POOL_ALLOCATED);
+	} else {
+		__atomic_sub_fetch(&mAlive, 1, __ATOMIC_RELAXED);
+	}
+	return frame;
+}
+
+void FramePool::release(uvc_frame_t *frame) {
+	__atomic_sub_fetch(&mAlive, 1, __ATOMIC_RELAXED);
+	uvc_free_frame(frame);
+}
+
+void FramePool::snapshot(int64_t *values) const {
+	for (int i = 0; i < FRAME_POOL_COUNTER_NUM; i++) {
+		values[i] = __atomic_load_n(&mCounters[i], __ATOMIC_RELAXED);
+	}
+	values[FRAME_POOL_ALIVE] = __atomic_load_n(&mAlive, __ATOMIC_RELAXED);
+}
+
+void FramePool::resetCounters() {
+	memset((void *)mCounters, 0, sizeof(mCounters));
+}
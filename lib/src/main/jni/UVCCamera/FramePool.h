@@ -0,0 +1,110 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FramePool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMEPOOL_H_
+#define FRAMEPOOL_H_
+
+#include <stdint.h>
+#include "libUVCCamera.h"
+#include "framering.h"
+
+#define FRAME_POOL_HUGEPAGE 0x01	// allocate frame buffers aligned to and rounded up to huge pages
+#define FRAME_POOL_HUGEPAGE_SZ (2 * 1024 * 1024)
+
+// counters, see #snapshot
+#define FRAME_POOL_HIT 0			// frames taken from the pool
+#define FRAME_POOL_MISS 1			// pool was empty and new frames were allocated
+#define FRAME_POOL_EXHAUSTED 2		// pool was empty and max_frames frames were alive, #get returned NULL
+#define FRAME_POOL_RELEASED 3		// frames freed by #recycle because free frames exceeded high watermark
+#define FRAME_POOL_ALLOCATED 4		// frames allocated including #init
+#define FRAME_POOL_ALIVE 5			// frames currently allocated(not a counter)
+#define FRAME_POOL_COUNTER_NUM 6
+
+/**
+ * pool sizing, 0 for each value means the default of the owner
+ */
+typedef struct frame_pool_policy {
+	int initial_frames;		// frames allocated by #init
+	int max_frames;			// maximum number of frames alive, #get returns NULL when exceeded, 0: unlimited
+	int low_watermark;		// when the pool is empty, allocate frames until this number of frames are free at once
+	int high_watermark;		// maximum number of free frames in the pool, #recycle frees the others
+	int flags;				// FRAME_POOL_HUGEPAGE
+} frame_pool_policy_t;
+
+/**
+ * lock free pool of uvc_frame_t.
+ * frames are allocated by #init before streaming starts and are reused with #get/#recycle,
+ * so streaming does not allocate any frame while the initial frames cover the frames in flight
+ * (FRAME_POOL_MISS stays 0).
+ * #get/#recycle can be called from any thread, the others only while nobody uses the pool.
+ */
+class FramePool {
+private:
+	frame_pool_policy_t mPolicy;
+	FrameRing<uvc_frame_t *> mFrames;	// free frames, depth is the high watermark
+	size_t mFrameBytes;					// buffer size of new frames
+	volatile int32_t mAlive;
+	volatile int64_t mCounters[FRAME_POOL_COUNTER_NUM];
+	// force inhibiting copy/assignment
+	FramePool(const FramePool &src);
+	void operator =(const FramePool &src);
+
+	inline void count(const int counter, const int64_t n = 1) {
+		__atomic_add_fetch(&mCounters[counter], n, __ATOMIC_RELAXED);
+	}
+	uvc_frame_t *allocate(size_t data_bytes);
+	void release(uvc_frame_t *frame);
+public:
+	FramePool(const frame_pool_policy_t &policy);
+	~FramePool();
+
+	/**
+	 * change the policy, this releases all free frames
+	 * @return 0: success, -1: invalid policy
+	 */
+	int setPolicy(const frame_pool_policy_t &policy);
+	inline const frame_pool_policy_t &getPolicy() const { return mPolicy; };
+	/**
+	 * release all free frames and allocate initial frames
+	 * @param data_bytes buffer size of the frames, this should be the largest size the owner needs
+	 * 			so that conversions do not reallocate the buffers.
+	 */
+	int init(const size_t data_bytes);
+	/** release all free frames */
+	void clear();
+	/**
+	 * take a free frame, allocate new frames if the pool is empty
+	 * this does not confirm the size of the frame
+	 * @return NULL if no frame is available
+	 */
+	uvc_frame_t *get(const size_t data_bytes);
+	/** return the frame to the pool, free it if the pool is full */
+	void recycle(uvc_frame_t *frame);
+	inline int available() const { return mFrames.size(); };
+	/** @param values at least FRAME_POOL_COUNTER_NUM */
+	void snapshot(int64_t *values) const;
+	void resetCounters();
+};
+
+#endif /* FRAMEPOOL_H_ */
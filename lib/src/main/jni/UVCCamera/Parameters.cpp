@@ -23,6 +23,8 @@
 */
 #define LOG_TAG "Parameters"
 
+#include <string.h>
+
 #include "Parameters.h"
 #include "rapidjson/rapidjson.h"
 #include "rapidjson/stringbuffer.h"
@@ -392,3 +394,67 @@ char *UVCDiags::getSupportedSize(const uvc_device_handle_t *deviceHandle) {
 	writer.EndObject();
 	RETURN(strdup(buffer.GetString()), char *);
 }
+
+/**
+ * write all formats, frame sizes and frame intervals of the device into values
+ * without building JSON, see SUPPORTED_MODE_XXX in Parameters.h for the layout.
+ * formats that do not have frame descriptors(still image etc.) are skipped
+ * @param values can be NULL to get required length
+ * @return number of values required, only first max_num values are written
+ */
+int UVCDiags::getSupportedModes(const uvc_device_handle_t *deviceHandle, int32_t *values, const int max_num) {
+	ENTER();
+	int n = SUPPORTED_MODES_HEADER;
+	int num_modes = 0;
+	uvc_streaming_interface_t *stream_if;
+	uvc_format_desc_t *fmt_desc;
+	uvc_frame_desc_t *frame_desc;
+
+#define PUT(v) do { if (values && (n < max_num)) values[n] = (int32_t)(v); n++; } while (0)
+
+	if (deviceHandle->info->stream_ifs) {
+		DL_FOREACH(deviceHandle->info->stream_ifs, stream_if) {
+			DL_FOREACH(stream_if->format_descs, fmt_desc) {
+				int32_t fourcc = 0;
+				if (fmt_desc->bDescriptorSubtype != UVC_VS_FORMAT_MJPEG) {
+					memcpy(&fourcc, fmt_desc->guidFormat, sizeof(fourcc));
+				}
+				DL_FOREACH(fmt_desc->frame_descs, frame_desc) {
+					int num_intervals = 0;
+					if (frame_desc->bFrameIntervalType) {
+						for (uint32_t *interval = frame_desc->intervals; interval && *interval; interval++) {
+							num_intervals++;
+						}
+					} else {
+						num_intervals = 3;
+					}
+					PUT(fmt_desc->bDescriptorSubtype);
+					PUT(fourcc);
+					PUT(fmt_desc->bFormatIndex);
+					PUT(frame_desc->bFrameIndex);
+					PUT(frame_desc->wWidth);
+					PUT(frame_desc->wHeight);
+					PUT(frame_desc->dwDefaultFrameInterval);
+					PUT(frame_desc->bFrameIntervalType);
+					PUT(num_intervals);
+					if (frame_desc->bFrameIntervalType) {
+						for (int i = 0; i < num_intervals; i++) {
+							PUT(frame_desc->intervals[i]);
+						}
+					} else {
+						PUT(frame_desc->dwMinFrameInterval);
+						PUT(frame_desc->dwMaxFrameInterval);
+						PUT(frame_desc->dwFrameIntervalStep);
+					}
+					num_modes++;
+				}
+			}
+		}
+	}
+#undef PUT
+	if (values && (max_num >= SUPPORTED_MODES_HEADER)) {
+		values[0] = SUPPORTED_MODES_VERSION;
+		values[1] = num_modes;
+	}
+	RETURN(n, int);
+}
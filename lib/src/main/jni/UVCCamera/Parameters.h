@@ -28,6 +28,21 @@
 
 #include "libUVCCamera.h"
 
+// layout of the array from UVCDiags::getSupportedModes, keep same as UVCCamera.java
+#define SUPPORTED_MODES_VERSION 1
+#define SUPPORTED_MODES_HEADER 2	// version, number of modes
+// each mode starts with these values and SUPPORTED_MODE_INTERVAL_NUM intervals follows
+#define SUPPORTED_MODE_TYPE 0			// bDescriptorSubtype of the format descriptor
+#define SUPPORTED_MODE_FOURCC 1			// first 4 bytes of guidFormat, 0 for MJPEG
+#define SUPPORTED_MODE_FORMAT_INDEX 2
+#define SUPPORTED_MODE_FRAME_INDEX 3
+#define SUPPORTED_MODE_WIDTH 4
+#define SUPPORTED_MODE_HEIGHT 5
+#define SUPPORTED_MODE_DEFAULT_INTERVAL 6
+#define SUPPORTED_MODE_INTERVAL_TYPE 7	// bFrameIntervalType, 0 means continuous(min, max, step)
+#define SUPPORTED_MODE_INTERVAL_NUM 8
+#define SUPPORTED_MODE_FIELDS 9
+
 class UVCDiags {
 private:
 public:
@@ -36,6 +51,7 @@ public:
 	char *getDescriptions(const uvc_device_handle_t *deviceHandle);
 	char *getCurrentStream(const uvc_stream_ctrl_t *ctrl);
 	char *getSupportedSize(const uvc_device_handle_t *deviceHandle);
+	int getSupportedModes(const uvc_device_handle_t *deviceHandle, int32_t *values, const int max_num);
 };
 
 #endif /* PARAMETERS_H_ */
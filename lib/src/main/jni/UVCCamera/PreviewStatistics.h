@@ -0,0 +1,152 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: PreviewStatistics.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef PREVIEWSTATISTICS_H_
+#define PREVIEWSTATISTICS_H_
+
+#include <stdint.h>
+#include <string.h>
+#include <time.h>
+
+// counters, the order is same as the snapshot that UVCCamera#getStatistics reads
+#define STAT_RECEIVED 0				// frames libuvc passed to the preview
+#define STAT_BROKEN 1				// frames with unexpected size
+#define STAT_STREAM_DROPPED 2		// frames libuvc dropped before passing to the preview
+#define STAT_NO_FRAME 3				// frames dropped because no pool frame was available
+#define STAT_PREVIEW_QUEUE_DROPPED 4	// frames dropped by the queue to the preview thread
+#define STAT_CAPTURE_QUEUE_DROPPED 5	// frames dropped by the queue to the capture thread
+#define STAT_DECODE_ERROR 6			// MJPEG frames that could not be decoded
+#define STAT_CALLBACK_DROPPED 7		// frames not passed to IFrameCallback(conversion failure, all frames held)
+// counters of the frame pool, these are copied from FramePool by UVCPreview#getStatistics
+#define STAT_POOL_HIT 8				// frames taken from the pool
+#define STAT_POOL_MISS 9			// frames allocated while streaming because the pool was empty
+#define STAT_POOL_EXHAUSTED 10		// frames not allocated because max_frames frames were alive
+#define STAT_POOL_RELEASED 11		// frames freed because free frames exceeded the high watermark
+// counters of the USB transfers, these are copied from libuvc by UVCPreview#getStatistics
+#define STAT_XFER_COMPLETED 12		// transfers completed successfully
+#define STAT_XFER_ERRORS 13			// transfers completed with error or failed to resubmit
+#define STAT_ISO_PACKETS 14			// isochronous packets received
+#define STAT_ISO_MISSED 15			// isochronous packets with error status
+#define STAT_XFER_RESUBMITTED 16	// transfers resubmitted
+#define STAT_XFER_RESUBMIT_TOTAL_NS 17	// total time from completion to resubmission
+#define STAT_XFER_RESUBMIT_MAX_NS 18	// max time from completion to resubmission
+#define STAT_XFER_MIN_IN_FLIGHT 19	// lowest number of transfers still submitted on completion
+// frame buffers reallocated because they were too small(uvc_get_frame_reallocs), copied by UVCPreview#getStatistics
+#define STAT_FRAME_REALLOCS 20
+#define STAT_COUNTER_NUM 21
+
+// timers
+#define STAT_DECODE 0				// MJPEG decoding
+#define STAT_DRAW 1					// conversion and copy to the preview Surface
+#define STAT_CALLBACK 2				// conversion and IFrameCallback#onFrame
+#define STAT_TIMER_NUM 3
+
+// bucket i counts durations in [2^(i-1), 2^i) microseconds, the last bucket counts all longer ones
+#define STAT_HISTOGRAM_BUCKETS 16
+// count, total nanoseconds, max nanoseconds and the buckets
+#define STAT_TIMER_VALUES (3 + STAT_HISTOGRAM_BUCKETS)
+#define STAT_SNAPSHOT_NUM (STAT_COUNTER_NUM + STAT_TIMER_NUM * STAT_TIMER_VALUES)
+
+/**
+ * counters and latency histograms of the preview pipeline.
+ * every update is a relaxed atomic add on its own value without any lock,
+ * so this can be updated from any thread and left enabled.
+ * a snapshot is not atomic as a whole, values may be off by the frames in progress.
+ */
+class PreviewStatistics {
+private:
+	typedef struct {
+		volatile int64_t count;
+		volatile int64_t total_ns;
+		volatile int64_t max_ns;
+		volatile int64_t buckets[STAT_HISTOGRAM_BUCKETS];
+	} stat_timer_t;
+	volatile int64_t mCounters[STAT_COUNTER_NUM];
+	stat_timer_t mTimers[STAT_TIMER_NUM];
+	// force inhibiting copy/assignment
+	PreviewStatistics(const PreviewStatistics &src);
+	void operator =(const PreviewStatistics &src);
+
+	static inline int bucket(const int64_t ns) {
+		const uint64_t us = ns > 0 ? (uint64_t)ns / 1000 : 0;
+		const int b = us ? 64 - __builtin_clzll(us) : 0;
+		return b < STAT_HISTOGRAM_BUCKETS ? b : STAT_HISTOGRAM_BUCKETS - 1;
+	}
+public:
+	PreviewStatistics() { reset(); }
+
+	/** CLOCK_MONOTONIC in nanoseconds, pass this to #record */
+	static inline int64_t now() {
+		struct timespec ts;
+		clock_gettime(CLOCK_MONOTONIC, &ts);
+		return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+	}
+
+	inline void count(const int counter, const int64_t n = 1) {
+		__atomic_add_fetch(&mCounters[counter], n, __ATOMIC_RELAXED);
+	}
+
+	/** add the duration from start(value of #now) to the timer */
+	inline void record(const int timer, const int64_t start) {
+		recordDuration(timer, now() - start);
+	}
+
+	void recordDuration(const int timer, const int64_t ns) {
+		stat_timer_t *t = &mTimers[timer];
+		__atomic_add_fetch(&t->count, 1, __ATOMIC_RELAXED);
+		__atomic_add_fetch(&t->total_ns, ns, __ATOMIC_RELAXED);
+		__atomic_add_fetch(&t->buckets[bucket(ns)], 1, __ATOMIC_RELAXED);
+		int64_t max = __atomic_load_n(&t->max_ns, __ATOMIC_RELAXED);
+		for ( ; (ns > max)
+			&& !__atomic_compare_exchange_n(&t->max_ns, &max, ns,
+				true, __ATOMIC_RELAXED, __ATOMIC_RELAXED) ; );
+	}
+
+	/**
+	 * copy all values, counters first and then count/total/max/buckets of each timer
+	 * @param values at least STAT_SNAPSHOT_NUM
+	 */
+	void snapshot(int64_t *values) const {
+		for (int i = 0; i < STAT_COUNTER_NUM; i++) {
+			*values++ = __atomic_load_n(&mCounters[i], __ATOMIC_RELAXED);
+		}
+		for (int i = 0; i < STAT_TIMER_NUM; i++) {
+			const stat_timer_t *t = &mTimers[i];
+			*values++ = __atomic_load_n(&t->count, __ATOMIC_RELAXED);
+			*values++ = __atomic_load_n(&t->total_ns, __ATOMIC_RELAXED);
+			*values++ = __atomic_load_n(&t->max_ns, __ATOMIC_RELAXED);
+			for (int j = 0; j < STAT_HISTOGRAM_BUCKETS; j++) {
+				*values++ = __atomic_load_n(&t->buckets[j], __ATOMIC_RELAXED);
+			}
+		}
+	}
+
+	/** this is not atomic, updates during reset may be lost */
+	void reset() {
+		memset((void *)mCounters, 0, sizeof(mCounters));
+		memset((void *)mTimers, 0, sizeof(mTimers));
+	}
+};
+
+#endif /* PREVIEWSTATISTICS_H_ */
@@ -67,6 +67,7 @@ UVCCamera::UVCCamera()
 	mPUSupports(0) {
 
 	ENTER();
+	memset(mFrameMeta, 0, sizeof(mFrameMeta));
 	clearCameraParams();
 	EXIT();
 }
@@ -90,44 +91,44 @@ UVCCamera::~UVCCamera() {
 
 void UVCCamera::clearCameraParams() {
 	mCtrlSupports = mPUSupports = 0;
-	mScanningMode.min = mScanningMode.max = mScanningMode.def = 0;
-	mExposureMode.min = mExposureMode.max = mExposureMode.def = 0;
-	mExposurePriority.min = mExposurePriority.max = mExposurePriority.def = 0;
-	mExposureAbs.min = mExposureAbs.max = mExposureAbs.def = 0;
-	mAutoFocus.min = mAutoFocus.max = mAutoFocus.def = 0;
-	mAutoWhiteBlance.min = mAutoWhiteBlance.max = mAutoWhiteBlance.def = 0;
-	mWhiteBlance.min = mWhiteBlance.max = mWhiteBlance.def = 0;
-	mAutoWhiteBlanceCompo.min = mAutoWhiteBlanceCompo.max = mAutoWhiteBlanceCompo.def = 0;
-	mWhiteBlanceCompo.min = mWhiteBlanceCompo.max = mWhiteBlanceCompo.def = 0;
-	mBacklightComp.min = mBacklightComp.max = mBacklightComp.def = 0;
-	mBrightness.min = mBrightness.max = mBrightness.def = 0;
-	mContrast.min = mContrast.max = mContrast.def = 0;
-	mAutoContrast.min = mAutoContrast.max = mAutoContrast.def = 0;
-	mSharpness.min = mSharpness.max = mSharpness.def = 0;
-	mGain.min = mGain.max = mGain.def = 0;
-	mGamma.min = mGamma.max = mGamma.def = 0;
-	mSaturation.min = mSaturation.max = mSaturation.def = 0;
-	mHue.min = mHue.max = mHue.def = 0;
-	mAutoHue.min = mAutoHue.max = mAutoHue.def = 0;
-	mZoom.min = mZoom.max = mZoom.def = 0;
-	mZoomRel.min = mZoomRel.max = mZoomRel.def = 0;
-	mFocus.min = mFocus.max = mFocus.def = 0;
-	mFocusRel.min = mFocusRel.max = mFocusRel.def = 0;
-	mFocusSimple.min = mFocusSimple.max = mFocusSimple.def = 0;
-	mIris.min = mIris.max = mIris.def = 0;
-	mIrisRel.min = mIrisRel.max = mIrisRel.def = 0;
-	mPan.min = mPan.max = mPan.def = 0; mPan.current = -1;
-	mTilt.min = mTilt.max = mTilt.def = 0; mTilt.current = -1;
-	mRoll.min = mRoll.max = mRoll.def = 0;
-	mPanRel.min = mPanRel.max = mPanRel.def = 0; mPanRel.current = -1;
-	mTiltRel.min = mTiltRel.max = mTiltRel.def = 0; mTiltRel.current = -1;
-	mRollRel.min = mRollRel.max = mRollRel.def = 0;
-	mPrivacy.min = mPrivacy.max = mPrivacy.def = 0;
-	mPowerlineFrequency.min = mPowerlineFrequency.max = mPowerlineFrequency.def = 0;
-	mMultiplier.min = mMultiplier.max = mMultiplier.def = 0;
-	mMultiplierLimit.min = mMultiplierLimit.max = mMultiplierLimit.def = 0;
-	mAnalogVideoStandard.min = mAnalogVideoStandard.max = mAnalogVideoStandard.def = 0;
-	mAnalogVideoLockState.min = mAnalogVideoLockState.max = mAnalogVideoLockState.def = 0;
+	mScanningMode.min = mScanningMode.max = mScanningMode.def = 0; mScanningMode.cur_valid = 0;
+	mExposureMode.min = mExposureMode.max = mExposureMode.def = 0; mExposureMode.cur_valid = 0;
+	mExposurePriority.min = mExposurePriority.max = mExposurePriority.def = 0; mExposurePriority.cur_valid = 0;
+	mExposureAbs.min = mExposureAbs.max = mExposureAbs.def = 0; mExposureAbs.cur_valid = 0;
+	mAutoFocus.min = mAutoFocus.max = mAutoFocus.def = 0; mAutoFocus.cur_valid = 0;
+	mAutoWhiteBlance.min = mAutoWhiteBlance.max = mAutoWhiteBlance.def = 0; mAutoWhiteBlance.cur_valid = 0;
+	mWhiteBlance.min = mWhiteBlance.max = mWhiteBlance.def = 0; mWhiteBlance.cur_valid = 0;
+	mAutoWhiteBlanceCompo.min = mAutoWhiteBlanceCompo.max = mAutoWhiteBlanceCompo.def = 0; mAutoWhiteBlanceCompo.cur_valid = 0;
+	mWhiteBlanceCompo.min = mWhiteBlanceCompo.max = mWhiteBlanceCompo.def = 0; mWhiteBlanceCompo.cur_valid = 0;
+	mBacklightComp.min = mBacklightComp.max = mBacklightComp.def = 0; mBacklightComp.cur_valid = 0;
+	mBrightness.min = mBrightness.max = mBrightness.def = 0; mBrightness.cur_valid = 0;
+	mContrast.min = mContrast.max = mContrast.def = 0; mContrast.cur_valid = 0;
+	mAutoContrast.min = mAutoContrast.max = mAutoContrast.def = 0; mAutoContrast.cur_valid = 0;
+	mSharpness.min = mSharpness.max = mSharpness.def = 0; mSharpness.cur_valid = 0;
+	mGain.min = mGain.max = mGain.def = 0; mGain.cur_valid = 0;
+	mGamma.min = mGamma.max = mGamma.def = 0; mGamma.cur_valid = 0;
+	mSaturation.min = mSaturation.max = mSaturation.def = 0; mSaturation.cur_valid = 0;
+	mHue.min = mHue.max = mHue.def = 0; mHue.cur_valid = 0;
+	mAutoHue.min = mAutoHue.max = mAutoHue.def = 0; mAutoHue.cur_valid = 0;
+	mZoom.min = mZoom.max = mZoom.def = 0; mZoom.cur_valid = 0;
+	mZoomRel.min = mZoomRel.max = mZoomRel.def = 0; mZoomRel.cur_valid = 0;
+	mFocus.min = mFocus.max = mFocus.def = 0; mFocus.cur_valid = 0;
+	mFocusRel.min = mFocusRel.max = mFocusRel.def = 0; mFocusRel.cur_valid = 0;
+	mFocusSimple.min = mFocusSimple.max = mFocusSimple.def = 0; mFocusSimple.cur_valid = 0;
+	mIris.min = mIris.max = mIris.def = 0; mIris.cur_valid = 0;
+	mIrisRel.min = mIrisRel.max = mIrisRel.def = 0; mIrisRel.cur_valid = 0;
+	mPan.min = mPan.max = mPan.def = 0; mPan.cur_valid = 0; mPan.current = -1;
+	mTilt.min = mTilt.max = mTilt.def = 0; mTilt.cur_valid = 0; mTilt.current = -1;
+	mRoll.min = mRoll.max = mRoll.def = 0; mRoll.cur_valid = 0;
+	mPanRel.min = mPanRel.max = mPanRel.def = 0; mPanRel.cur_valid = 0; mPanRel.current = -1;
+	mTiltRel.min = mTiltRel.max = mTiltRel.def = 0; mTiltRel.cur_valid = 0; mTiltRel.current = -1;
+	mRollRel.min = mRollRel.max = mRollRel.def = 0; mRollRel.cur_valid = 0;
+	mPrivacy.min = mPrivacy.max = mPrivacy.def = 0; mPrivacy.cur_valid = 0;
+	mPowerlineFrequency.min = mPowerlineFrequency.max = mPowerlineFrequency.def = 0; mPowerlineFrequency.cur_valid = 0;
+	mMultiplier.min = mMultiplier.max = mMultiplier.def = 0; mMultiplier.cur_valid = 0;
+	mMultiplierLimit.min = mMultiplierLimit.max = mMultiplierLimit.def = 0; mMultiplierLimit.cur_valid = 0;
+	mAnalogVideoStandard.min = mAnalogVideoStandard.max = mAnalogVideoStandard.def = 0; mAnalogVideoStandard.cur_valid = 0;
+	mAnalogVideoLockState.min = mAnalogVideoLockState.max = mAnalogVideoLockState.def = 0; mAnalogVideoLockState.cur_valid = 0;
 }
 
 //======================================================================
@@ -165,8 +166,9 @@ int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const
 #endif
 				mFd = fd;
 				mStatusCallback = new UVCStatusCallback(mDeviceHandle);
+				mStatusCallback->setListener(status_listener, this);
 				mButtonCallback = new UVCButtonCallback(mDeviceHandle);
-				mPreview = new UVCPreview(mDeviceHandle);
+				mPreview = new UVCPreview(mDeviceHandle, mFrameMeta);
 			} else {
 				// open出来なかった時
 				LOGE("could not open camera:err=%d", result);
@@ -228,6 +230,15 @@ int UVCCamera::setStatusCallback(JNIEnv *env, jobject status_callback_obj) {
 	RETURN(result, int);
 }
 
+int UVCCamera::setControlCallback(JNIEnv *env, jobject control_callback_obj) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mStatusCallback) {
+		result = mStatusCallback->setControlCallback(env, control_callback_obj);
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::setButtonCallback(JNIEnv *env, jobject button_callback_obj) {
 	ENTER();
 	int result = EXIT_FAILURE;
@@ -246,6 +257,15 @@ char *UVCCamera::getSupportedSize() {
 	RETURN(NULL, char *);
 }
 
+int UVCCamera::getSupportedModes(int32_t *values, const int max_num) {
+	ENTER();
+	if (mDeviceHandle) {
+		UVCDiags params;
+		RETURN(params.getSupportedModes(mDeviceHandle, values, max_num), int);
+	}
+	RETURN(0, int);
+}
+
 int UVCCamera::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
 	ENTER();
 	int result = EXIT_FAILURE;
@@ -255,6 +275,15 @@ int UVCCamera::setPreviewSize(int width, int height, int min_fps, int max_fps, i
 	RETURN(result, int);
 }
 
+int UVCCamera::probeStreamMode(int width, int height, int min_fps, int max_fps, int mode, int64_t *values) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->probeStreamMode(width, height, min_fps, max_fps, mode, values);
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::setPreviewDisplay(ANativeWindow *preview_window) {
 	ENTER();
 	int result = EXIT_FAILURE;
@@ -264,11 +293,118 @@ int UVCCamera::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(result, int);
 }
 
-int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, jobject camera_obj) {
 	ENTER();
 	int result = EXIT_FAILURE;
 	if (mPreview) {
-		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format);
+		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format, camera_obj);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::releaseCallbackFrame(int slot, int64_t frame_id) {
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->releaseCallbackFrame(slot, frame_id);
+	}
+	return result;
+}
+
+int UVCCamera::setFrameQueue(int depth, int policy) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFrameQueue(depth, policy);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setDecoderOptions(int workers, int max_in_flight) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setDecoderOptions(workers, max_in_flight);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setPreviewDecodeInterval(int interval) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setPreviewDecodeInterval(interval);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setOutputSize(int target, int width, int height) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setOutputSize(target, width, height);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setCropRegion(int x, int y, int width, int height) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setCropRegion(x, y, width, height);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setFramePoolPolicy(int initial_frames, int max_frames, int low_watermark, int high_watermark, int flags) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFramePoolPolicy(initial_frames, max_frames, low_watermark, high_watermark, flags);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setTransferConfig(int num_transfers, int packets_per_transfer, int frame_buf_size) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setTransferConfig(num_transfers, packets_per_transfer, frame_buf_size);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getTransferConfig(int *values) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->getTransferConfig(values);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setPayloadRecording(const char *path) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setPayloadRecording(path);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getStatistics(int64_t *values) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->getStatistics(values);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setCapturePipeline(IPipeline *pipeline) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setCapturePipeline(pipeline);
 	}
 	RETURN(result, int);
 }
@@ -676,6 +812,28 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 		MARK("failed to UPDATE_CTRL_VALUES"); \
 	} \
 
+/**
+ * 設定/取得した値を保持する(#setControlsでの重複チェックと各getterの戻り値として使う)
+ * 値が変化したときはIControlCallbackへ通知する
+ */
+void UVCCamera::updateCurrent(control_value_t &values, const int ret, const int value, const int source,
+	const bool from_read) {
+
+	// setters and the status interrupt thread write the shadow concurrently
+	lockControl();
+	// the first read only fills the shadow, that is not a change of the value
+	const bool changed = !ret && (values.cur_valid ? (values.current != value) : !from_read);
+	values.current = value;
+	values.cur_valid = !ret;
+	unlockControl();
+	if (changed && mStatusCallback) {
+		const uint32_t ctrl_id = findCtrlId(&values);
+		if (ctrl_id) {
+			mStatusCallback->notifyControlChanged(ctrl_id, value, source);
+		}
+	}
+}
+
 /**
  * カメラコントロール設定の下請け
  */
@@ -686,7 +844,8 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		ret = set_func(mDeviceHandle, value);
+		updateCurrent(values, ret, value);
 	}
 	RETURN(ret, int);
 }
@@ -698,7 +857,8 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint8_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		ret = set_func(mDeviceHandle, value);
+		updateCurrent(values, ret, value);
 	}
 	RETURN(ret, int);
 }
@@ -775,7 +935,8 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int16_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		ret = set_func(mDeviceHandle, value);
+		updateCurrent(values, ret, value);
 	}
 	RETURN(ret, int);
 }
@@ -790,7 +951,8 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint16_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		ret = set_func(mDeviceHandle, value);
+		updateCurrent(values, ret, value);
 	}
 	RETURN(ret, int);
 }
@@ -805,7 +967,8 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int32_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		ret = set_func(mDeviceHandle, value);
+		updateCurrent(values, ret, value);
 	}
 	RETURN(ret, int);
 }
@@ -820,7 +983,8 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint32_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		ret = set_func(mDeviceHandle, value);
+		updateCurrent(values, ret, value);
 	}
 	RETURN(ret, int);
 }
@@ -843,6 +1007,7 @@ int UVCCamera::setScanningMode(int mode) {
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_SCANNING)) {
 //		LOGI("ae:%d", mode);
 		r = uvc_set_scanning_mode(mDeviceHandle, mode/* & 0xff*/);
+		updateCurrent(mScanningMode, r, mode);
 	}
 	RETURN(r, int);
 }
@@ -854,7 +1019,7 @@ int UVCCamera::getScanningMode() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_SCANNING)) {
 		uint8_t mode;
-		r = uvc_get_scanning_mode(mDeviceHandle, &mode, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_SCANNING, mode);
 //		LOGI("ae:%d", mode);
 		if (LIKELY(!r)) {
 			r = mode;
@@ -881,6 +1046,7 @@ int UVCCamera::setExposureMode(int mode) {
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE)) {
 //		LOGI("ae:%d", mode);
 		r = uvc_set_ae_mode(mDeviceHandle, mode/* & 0xff*/);
+		updateCurrent(mExposureMode, r, mode);
 	}
 	RETURN(r, int);
 }
@@ -892,7 +1058,7 @@ int UVCCamera::getExposureMode() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE)) {
 		uint8_t mode;
-		r = uvc_get_ae_mode(mDeviceHandle, &mode, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_AE, mode);
 //		LOGI("ae:%d", mode);
 		if (LIKELY(!r)) {
 			r = mode;
@@ -919,6 +1085,7 @@ int UVCCamera::setExposurePriority(int priority) {
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE_PRIORITY)) {
 //		LOGI("ae priority:%d", priority);
 		r = uvc_set_ae_priority(mDeviceHandle, priority/* & 0xff*/);
+		updateCurrent(mExposurePriority, r, priority);
 	}
 	RETURN(r, int);
 }
@@ -930,7 +1097,7 @@ int UVCCamera::getExposurePriority() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE_PRIORITY)) {
 		uint8_t priority;
-		r = uvc_get_ae_priority(mDeviceHandle, &priority, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_AE_PRIORITY, priority);
 //		LOGI("ae priority:%d", priority);
 		if (LIKELY(!r)) {
 			r = priority;
@@ -957,6 +1124,7 @@ int UVCCamera::setExposure(int ae_abs) {
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE_ABS)) {
 //		LOGI("ae_abs:%d", ae_abs);
 		r = uvc_set_exposure_abs(mDeviceHandle, ae_abs/* & 0xff*/);
+		updateCurrent(mExposureAbs, r, ae_abs);
 	}
 	RETURN(r, int);
 }
@@ -968,7 +1136,7 @@ int UVCCamera::getExposure() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE_ABS)) {
 		int ae_abs;
-		r = uvc_get_exposure_abs(mDeviceHandle, &ae_abs, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_AE_ABS, ae_abs);
 //		LOGI("ae_abs:%d", ae_abs);
 		if (LIKELY(!r)) {
 			r = ae_abs;
@@ -1033,6 +1201,7 @@ int UVCCamera::setAutoFocus(bool autoFocus) {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_FOCUS_AUTO)) {
 		r = uvc_set_focus_auto(mDeviceHandle, autoFocus);
+		updateCurrent(mAutoFocus, r, autoFocus);
 	}
 	RETURN(r, int);
 }
@@ -1043,7 +1212,7 @@ bool UVCCamera::getAutoFocus() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_FOCUS_AUTO)) {
 		uint8_t autoFocus;
-		r = uvc_get_focus_auto(mDeviceHandle, &autoFocus, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_FOCUS_AUTO, autoFocus);
 		if (LIKELY(!r))
 			r = autoFocus;
 	}
@@ -1078,7 +1247,7 @@ int UVCCamera::getFocus() {
 		int ret = update_ctrl_values(mDeviceHandle, mFocus, uvc_get_focus_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
-			ret = uvc_get_focus_abs(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_FOCUS_ABS, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1189,7 +1358,7 @@ int UVCCamera::getIris() {
 		int ret = update_ctrl_values(mDeviceHandle, mIris, uvc_get_iris_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_iris_abs(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_IRIS_ABS, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1361,7 +1530,7 @@ int UVCCamera::getRoll() {
 		int ret = update_ctrl_values(mDeviceHandle, mRoll, uvc_get_roll_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t roll;
-			ret = uvc_get_roll_abs(mDeviceHandle, &roll, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ROLL_ABS, roll);
 			if (LIKELY(!ret)) {
 				mRoll.current = roll;
 				return roll;
@@ -1456,7 +1625,7 @@ int UVCCamera::getPrivacy() {
 		int ret = update_ctrl_values(mDeviceHandle, mPrivacy, uvc_get_privacy);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t privacy;
-			ret = uvc_get_privacy(mDeviceHandle, &privacy, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_PRIVACY, privacy);
 			if (LIKELY(!ret))
 				return privacy;
 		}
@@ -1540,7 +1709,7 @@ int UVCCamera::getBacklightComp() {
 		int ret = update_ctrl_values(mDeviceHandle, mBacklightComp, uvc_get_backlight_compensation);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
-			ret = uvc_get_backlight_compensation(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_BACKLIGHT, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1576,7 +1745,7 @@ int UVCCamera::getBrightness() {
 		int ret = update_ctrl_values(mDeviceHandle, mBrightness, uvc_get_brightness);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
-			ret = uvc_get_brightness(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_BRIGHTNESS, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1612,7 +1781,7 @@ int UVCCamera::getContrast() {
 		int ret = update_ctrl_values(mDeviceHandle, mContrast, uvc_get_contrast);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_contrast(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_CONTRAST, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1638,6 +1807,7 @@ int UVCCamera::setAutoContrast(bool autoContrast) {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_CONTRAST_AUTO)) {
 		r = uvc_set_contrast_auto(mDeviceHandle, autoContrast);
+		updateCurrent(mAutoContrast, r, autoContrast);
 	}
 	RETURN(r, int);
 }
@@ -1648,7 +1818,7 @@ bool UVCCamera::getAutoContrast() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_CONTRAST_AUTO)) {
 		uint8_t autoContrast;
-		r = uvc_get_contrast_auto(mDeviceHandle, &autoContrast, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_ID_PU | PU_CONTRAST_AUTO, autoContrast);
 		if (LIKELY(!r))
 			r = autoContrast;
 	}
@@ -1683,7 +1853,7 @@ int UVCCamera::getSharpness() {
 		int ret = update_ctrl_values(mDeviceHandle, mSharpness, uvc_get_sharpness);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_sharpness(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_SHARPNESS, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1720,7 +1890,7 @@ int UVCCamera::getGain() {
 		int ret = update_ctrl_values(mDeviceHandle, mGain, uvc_get_gain);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_gain(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_GAIN, value);
 //			LOGI("gain:%d", value);
 			if (LIKELY(!ret))
 				return value;
@@ -1746,6 +1916,7 @@ int UVCCamera::setAutoWhiteBlance(bool autoWhiteBlance) {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_WB_TEMP_AUTO)) {
 		r = uvc_set_white_balance_temperature_auto(mDeviceHandle, autoWhiteBlance);
+		updateCurrent(mAutoWhiteBlance, r, autoWhiteBlance);
 	}
 	RETURN(r, int);
 }
@@ -1756,7 +1927,7 @@ bool UVCCamera::getAutoWhiteBlance() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_WB_TEMP_AUTO)) {
 		uint8_t autoWhiteBlance;
-		r = uvc_get_white_balance_temperature_auto(mDeviceHandle, &autoWhiteBlance, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_ID_PU | PU_WB_TEMP_AUTO, autoWhiteBlance);
 		if (LIKELY(!r))
 			r = autoWhiteBlance;
 	}
@@ -1780,6 +1951,7 @@ int UVCCamera::setAutoWhiteBlanceCompo(bool autoWhiteBlanceCompo) {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_WB_COMPO_AUTO)) {
 		r = uvc_set_white_balance_component_auto(mDeviceHandle, autoWhiteBlanceCompo);
+		updateCurrent(mAutoWhiteBlanceCompo, r, autoWhiteBlanceCompo);
 	}
 	RETURN(r, int);
 }
@@ -1790,7 +1962,7 @@ bool UVCCamera::getAutoWhiteBlanceCompo() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_WB_COMPO_AUTO)) {
 		uint8_t autoWhiteBlanceCompo;
-		r = uvc_get_white_balance_component_auto(mDeviceHandle, &autoWhiteBlanceCompo, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_ID_PU | PU_WB_COMPO_AUTO, autoWhiteBlanceCompo);
 		if (LIKELY(!r))
 			r = autoWhiteBlanceCompo;
 	}
@@ -1826,7 +1998,7 @@ int UVCCamera::getWhiteBlance() {
 		int ret = update_ctrl_values(mDeviceHandle, mWhiteBlance, uvc_get_white_balance_temperature);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_white_balance_temperature(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_WB_TEMP, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1863,7 +2035,7 @@ int UVCCamera::getWhiteBlanceCompo() {
 		int ret = update_ctrl_values(mDeviceHandle, mWhiteBlanceCompo, uvc_get_white_balance_component);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint32_t white_blance_compo;
-			ret = uvc_get_white_balance_component(mDeviceHandle, &white_blance_compo, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_WB_COMPO, white_blance_compo);
 			if (LIKELY(!ret))
 				return white_blance_compo;
 		}
@@ -1900,7 +2072,7 @@ int UVCCamera::getGamma() {
 		int ret = update_ctrl_values(mDeviceHandle, mGamma, uvc_get_gamma);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_gamma(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_GAMMA, value);
 //			LOGI("gamma:%d", ret);
 			if (LIKELY(!ret))
 				return value;
@@ -1937,7 +2109,7 @@ int UVCCamera::getSaturation() {
 		int ret = update_ctrl_values(mDeviceHandle, mSaturation, uvc_get_saturation);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_saturation(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_SATURATION, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1973,7 +2145,7 @@ int UVCCamera::getHue() {
 		int ret = update_ctrl_values(mDeviceHandle, mHue, uvc_get_hue);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
-			ret = uvc_get_hue(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_HUE, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -1999,6 +2171,7 @@ int UVCCamera::setAutoHue(bool autoHue) {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_HUE_AUTO)) {
 		r = uvc_set_hue_auto(mDeviceHandle, autoHue);
+		updateCurrent(mAutoHue, r, autoHue);
 	}
 	RETURN(r, int);
 }
@@ -2009,7 +2182,7 @@ bool UVCCamera::getAutoHue() {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_HUE_AUTO)) {
 		uint8_t autoHue;
-		r = uvc_get_hue_auto(mDeviceHandle, &autoHue, UVC_GET_CUR);
+		r = getCurrentCtrl(CTRL_ID_PU | PU_HUE_AUTO, autoHue);
 		if (LIKELY(!r))
 			r = autoHue;
 	}
@@ -2042,6 +2215,7 @@ int UVCCamera::setPowerlineFrequency(int frequency) {
 		}
 		LOGD("frequency:%d", frequency);
 		ret = uvc_set_powerline_freqency(mDeviceHandle, frequency);
+		updateCurrent(mPowerlineFrequency, ret, frequency);
 	}
 
 	RETURN(ret, int);
@@ -2052,7 +2226,7 @@ int UVCCamera::getPowerlineFrequency() {
 	ENTER();
 	if (mPUSupports & PU_POWER_LF) {
 		uint8_t value;
-		int ret = uvc_get_powerline_freqency(mDeviceHandle, &value, UVC_GET_CUR);
+		int ret = getCurrentCtrl(CTRL_ID_PU | PU_POWER_LF, value);
 		LOGD("frequency:%d", ret);
 		if (LIKELY(!ret))
 			return value;
@@ -2088,7 +2262,7 @@ int UVCCamera::getZoom() {
 		int ret = update_ctrl_values(mDeviceHandle, mZoom, uvc_get_zoom_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
-			ret = uvc_get_zoom_abs(mDeviceHandle, &value, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ZOOM_ABS, value);
 			if (LIKELY(!ret))
 				return value;
 		}
@@ -2165,7 +2339,7 @@ int UVCCamera::getDigitalMultiplier() {
 		int ret = update_ctrl_values(mDeviceHandle, mMultiplier, uvc_get_digital_multiplier);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t multiplier;
-			ret = uvc_get_digital_multiplier(mDeviceHandle, &multiplier, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_DIGITAL_MULT, multiplier);
 //			LOGI("multiplier:%d", multiplier);
 			if (LIKELY(!ret))
 				return multiplier;
@@ -2203,7 +2377,7 @@ int UVCCamera::getDigitalMultiplierLimit() {
 		int ret = update_ctrl_values(mDeviceHandle, mMultiplierLimit, uvc_get_digital_multiplier_limit);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t multiplier_limit;
-			ret = uvc_get_digital_multiplier_limit(mDeviceHandle, &multiplier_limit, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_DIGITAL_LIMIT, multiplier_limit);
 //			LOGI("multiplier_limit:%d", multiplier_limit);
 			if (LIKELY(!ret))
 				return multiplier_limit;
@@ -2239,7 +2413,7 @@ int UVCCamera::getAnalogVideoStandard() {
 		int ret = update_ctrl_values(mDeviceHandle, mAnalogVideoStandard, uvc_get_analog_video_standard);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t standard;
-			ret = uvc_get_analog_video_standard(mDeviceHandle, &standard, UVC_GET_CUR);
+			ret = getCurrentCtrl(CTRL_ID_PU | PU_AVIDEO_STD, standard);
 //			LOGI("standard:%d", standard);
 			if (LIKELY(!ret))
 				return standard;
@@ -2283,3 +2457,467 @@ int UVCCamera::getAnalogVideoLockState() {
 	}
 	RETURN(0, int);
 }
+
+//======================================================================
+// 複数のコントロールを1回の呼び出しで設定/取得する
+// relative/pan-tilt/window controls are not included because they have multiple values
+#define CTRL_KIND_RAW	0	// value is written as it is
+#define CTRL_KIND_CLAMP	1	// value is clamped with min/max by #internalSetCtrlValue
+#define CTRL_KIND_BOOL	2	// value is on/off
+
+#define CTRL_LIST(ENTRY) \
+	ENTRY(CTRL_SCANNING,				mScanningMode,			CTRL_KIND_RAW,		uint8_t,	uvc_get_scanning_mode,			setScanningMode) \
+	ENTRY(CTRL_AE,						mExposureMode,			CTRL_KIND_RAW,		uint8_t,	uvc_get_ae_mode,				setExposureMode) \
+	ENTRY(CTRL_AE_PRIORITY,				mExposurePriority,		CTRL_KIND_RAW,		uint8_t,	uvc_get_ae_priority,			setExposurePriority) \
+	ENTRY(CTRL_AE_ABS,					mExposureAbs,			CTRL_KIND_RAW,		int,		uvc_get_exposure_abs,			setExposure) \
+	ENTRY(CTRL_FOCUS_AUTO,				mAutoFocus,				CTRL_KIND_BOOL,		uint8_t,	uvc_get_focus_auto,				setAutoFocus) \
+	ENTRY(CTRL_FOCUS_ABS,				mFocus,					CTRL_KIND_CLAMP,	short,		uvc_get_focus_abs,				setFocus) \
+	ENTRY(CTRL_IRIS_ABS,				mIris,					CTRL_KIND_CLAMP,	uint16_t,	uvc_get_iris_abs,				setIris) \
+	ENTRY(CTRL_ZOOM_ABS,				mZoom,					CTRL_KIND_CLAMP,	uint16_t,	uvc_get_zoom_abs,				setZoom) \
+	ENTRY(CTRL_ROLL_ABS,				mRoll,					CTRL_KIND_CLAMP,	int16_t,	uvc_get_roll_abs,				setRoll) \
+	ENTRY(CTRL_PRIVACY,					mPrivacy,				CTRL_KIND_CLAMP,	uint8_t,	uvc_get_privacy,				setPrivacy) \
+	ENTRY(CTRL_ID_PU | PU_BRIGHTNESS,	mBrightness,			CTRL_KIND_CLAMP,	int16_t,	uvc_get_brightness,				setBrightness) \
+	ENTRY(CTRL_ID_PU | PU_CONTRAST,		mContrast,				CTRL_KIND_CLAMP,	uint16_t,	uvc_get_contrast,				setContrast) \
+	ENTRY(CTRL_ID_PU | PU_HUE,			mHue,					CTRL_KIND_CLAMP,	int16_t,	uvc_get_hue,					setHue) \
+	ENTRY(CTRL_ID_PU | PU_SATURATION,	mSaturation,			CTRL_KIND_CLAMP,	uint16_t,	uvc_get_saturation,				setSaturation) \
+	ENTRY(CTRL_ID_PU | PU_SHARPNESS,	mSharpness,				CTRL_KIND_CLAMP,	uint16_t,	uvc_get_sharpness,				setSharpness) \
+	ENTRY(CTRL_ID_PU | PU_GAMMA,		mGamma,					CTRL_KIND_CLAMP,	uint16_t,	uvc_get_gamma,					setGamma) \
+	ENTRY(CTRL_ID_PU | PU_WB_TEMP,		mWhiteBlance,			CTRL_KIND_CLAMP,	uint16_t,	uvc_get_white_balance_temperature,	setWhiteBlance) \
+	ENTRY(CTRL_ID_PU | PU_WB_COMPO,		mWhiteBlanceCompo,		CTRL_KIND_CLAMP,	uint32_t,	uvc_get_white_balance_component,	setWhiteBlanceCompo) \
+	ENTRY(CTRL_ID_PU | PU_BACKLIGHT,	mBacklightComp,			CTRL_KIND_CLAMP,	int16_t,	uvc_get_backlight_compensation,	setBacklightComp) \
+	ENTRY(CTRL_ID_PU | PU_GAIN,			mGain,					CTRL_KIND_CLAMP,	uint16_t,	uvc_get_gain,					setGain) \
+	ENTRY(CTRL_ID_PU | PU_POWER_LF,		mPowerlineFrequency,	CTRL_KIND_RAW,		uint8_t,	uvc_get_powerline_freqency,		setPowerlineFrequency) \
+	ENTRY(CTRL_ID_PU | PU_HUE_AUTO,		mAutoHue,				CTRL_KIND_BOOL,		uint8_t,	uvc_get_hue_auto,				setAutoHue) \
+	ENTRY(CTRL_ID_PU | PU_WB_TEMP_AUTO,	mAutoWhiteBlance,		CTRL_KIND_BOOL,		uint8_t,	uvc_get_white_balance_temperature_auto,	setAutoWhiteBlance) \
+	ENTRY(CTRL_ID_PU | PU_WB_COMPO_AUTO,	mAutoWhiteBlanceCompo,	CTRL_KIND_BOOL,		uint8_t,	uvc_get_white_balance_component_auto,	setAutoWhiteBlanceCompo) \
+	ENTRY(CTRL_ID_PU | PU_DIGITAL_MULT,	mMultiplier,			CTRL_KIND_CLAMP,	uint16_t,	uvc_get_digital_multiplier,		setDigitalMultiplier) \
+	ENTRY(CTRL_ID_PU | PU_DIGITAL_LIMIT,	mMultiplierLimit,		CTRL_KIND_CLAMP,	uint16_t,	uvc_get_digital_multiplier_limit,	setDigitalMultiplierLimit) \
+	ENTRY(CTRL_ID_PU | PU_AVIDEO_STD,	mAnalogVideoStandard,	CTRL_KIND_CLAMP,	uint8_t,	uvc_get_analog_video_standard,	setAnalogVideoStandard) \
+	ENTRY(CTRL_ID_PU | PU_CONTRAST_AUTO,	mAutoContrast,			CTRL_KIND_BOOL,		uint8_t,	uvc_get_contrast_auto,			setAutoContrast)
+
+/**
+ * find cached values of the control
+ * @param ctrl_id same as UVCCamera.CTRL_XXX/PU_XXX in Java
+ * @param kind CTRL_KIND_XXX
+ * @return NULL if the control is not supported by #setControls/#getControls
+ */
+control_value_t *UVCCamera::findCtrlValue(const uint32_t ctrl_id, int &kind) {
+#define FIND_ENTRY(ID, VAL, KIND, TYPE, GET_FUNC, SET_FUNC) \
+	case (uint32_t)(ID): kind = KIND; return &VAL;
+
+	switch (ctrl_id) {
+	CTRL_LIST(FIND_ENTRY)
+	default:
+		return NULL;
+	}
+#undef FIND_ENTRY
+}
+
+int UVCCamera::internalSetCtrl(const uint32_t ctrl_id, const int value) {
+#define SET_ENTRY(ID, VAL, KIND, TYPE, GET_FUNC, SET_FUNC) \
+	case (uint32_t)(ID): return SET_FUNC(value);
+
+	switch (ctrl_id) {
+	CTRL_LIST(SET_ENTRY)
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+#undef SET_ENTRY
+}
+
+int UVCCamera::internalGetCtrl(const uint32_t ctrl_id, int &value) {
+	uvc_error_t ret = UVC_ERROR_NOT_SUPPORTED;
+#define GET_ENTRY(ID, VAL, KIND, TYPE, GET_FUNC, SET_FUNC) \
+	case (uint32_t)(ID): { \
+		TYPE v; \
+		ret = GET_FUNC(mDeviceHandle, &v, UVC_GET_CUR); \
+		if (LIKELY(!ret)) value = v; \
+		break; \
+	}
+
+	switch (ctrl_id) {
+	CTRL_LIST(GET_ENTRY)
+	default:
+		break;
+	}
+#undef GET_ENTRY
+	return ret;
+}
+
+int UVCCamera::internalUpdateCtrlLimits(const uint32_t ctrl_id) {
+#define LIMITS_ENTRY(ID, VAL, KIND, TYPE, GET_FUNC, SET_FUNC) \
+	case (uint32_t)(ID): return update_ctrl_values(mDeviceHandle, VAL, GET_FUNC);
+
+	switch (ctrl_id) {
+	CTRL_LIST(LIMITS_ENTRY)
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+#undef LIMITS_ENTRY
+}
+
+/**
+ * find the control id of the cached values
+ * @return 0 if the control is not supported by #setControls/#getControls
+ */
+uint32_t UVCCamera::findCtrlId(const control_value_t *values) {
+#define ID_ENTRY(ID, VAL, KIND, TYPE, GET_FUNC, SET_FUNC) \
+	if (values == &VAL) return (uint32_t)(ID);
+
+	CTRL_LIST(ID_ENTRY)
+#undef ID_ENTRY
+	return 0;
+}
+
+/**
+ * whether the camera supports the control
+ * @param ctrl_id same as UVCCamera.CTRL_XXX/PU_XXX in Java
+ */
+static inline bool is_ctrl_supported(const uint32_t ctrl_id, const uint64_t ctrl_supports, const uint64_t pu_supports) {
+	return (ctrl_id & CTRL_ID_PU)
+		? (pu_supports & (ctrl_id & ~CTRL_ID_PU)) != 0
+		: (ctrl_supports & ctrl_id) != 0;
+}
+
+/**
+ * whether the camera changes the value of the control by itself now,
+ * e.g. exposure time in auto exposure mode or white balance temperature with auto white balance
+ * @return true also when the auto control can not be read
+ */
+bool UVCCamera::isAutoControlled(const uint32_t ctrl_id) {
+	uint32_t auto_id;
+	int auto_mask;	// bits of the auto control value that make the control automatic
+	switch (ctrl_id) {
+	case CTRL_AE_ABS:					auto_id = CTRL_AE; auto_mask = 0x0a; break;	// auto, aperture priority
+	case CTRL_IRIS_ABS:					auto_id = CTRL_AE; auto_mask = 0x06; break;	// auto, shutter priority
+	case CTRL_FOCUS_ABS:				auto_id = CTRL_FOCUS_AUTO; auto_mask = 1; break;
+	case CTRL_ID_PU | PU_WB_TEMP:		auto_id = CTRL_ID_PU | PU_WB_TEMP_AUTO; auto_mask = 1; break;
+	case CTRL_ID_PU | PU_WB_COMPO:		auto_id = CTRL_ID_PU | PU_WB_COMPO_AUTO; auto_mask = 1; break;
+	case CTRL_ID_PU | PU_HUE:			auto_id = CTRL_ID_PU | PU_HUE_AUTO; auto_mask = 1; break;
+	case CTRL_ID_PU | PU_CONTRAST:		auto_id = CTRL_ID_PU | PU_CONTRAST_AUTO; auto_mask = 1; break;
+	default:
+		return false;
+	}
+	if (!is_ctrl_supported(auto_id, mCtrlSupports, mPUSupports)) {
+		return false;
+	}
+	int mode;
+	return internalGetCurrent(auto_id, mode) || (mode & auto_mask);
+}
+
+/**
+ * get current value of the control from the shadow that is kept with #updateCurrent,
+ * the camera is accessed only when the shadow does not have the value yet
+ * (first read or after INFO_CHANGE/write failure) or while the camera changes the value
+ * by itself(#isAutoControlled), the shadow would never be updated without VALUE_CHANGE interrupts
+ */
+int UVCCamera::internalGetCurrent(const uint32_t ctrl_id, int &value) {
+	int kind;
+	control_value_t *cv = findCtrlValue(ctrl_id, kind);
+	if (UNLIKELY(!cv)) {
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+	if (!isAutoControlled(ctrl_id)) {
+		lockControl();
+		const bool valid = cv->cur_valid;
+		if (valid) {
+			value = cv->current;
+		}
+		unlockControl();
+		if (valid) {
+			return 0;
+		}
+	}
+	const int ret = internalGetCtrl(ctrl_id, value);
+	if (LIKELY(!ret)) {
+		updateCurrent(*cv, ret, value, CTRL_SOURCE_DEVICE, true);
+	}
+	return ret;
+}
+
+/**
+ * set multiple controls with one call
+ * values that are same as the value set/read last are skipped unless CTRL_FLAG_FORCE is set,
+ * values of controls that have range are clamped to min/max, min/max are fetched
+ * on first use and reused
+ * @param ids UVCCamera.CTRL_XXX/PU_XXX in Java
+ * @param values values to set, percentage of min-max range if CTRL_FLAG_PERCENT is set(only for controls that have range)
+ * @param results can be NULL, 0 when the value is written, CTRL_RESULT_SKIPPED or negative uvc_error_t
+ * @return number of control transfers that are issued, negative value if the camera is not opened
+ */
+int UVCCamera::setControls(const int num, const int32_t *ids, const int32_t *values, int32_t *results, const int flags) {
+	ENTER();
+	if (UNLIKELY(!mDeviceHandle)) {
+		RETURN(UVC_ERROR_NO_DEVICE, int);
+	}
+	getCtrlSupports(NULL);
+	getProcSupports(NULL);
+	int written = 0;
+	for (int i = 0; i < num; i++) {
+		const uint32_t ctrl_id = (uint32_t)ids[i];
+		int kind, result;
+		control_value_t *cv = findCtrlValue(ctrl_id, kind);
+		if (!cv || !is_ctrl_supported(ctrl_id, mCtrlSupports, mPUSupports)) {
+			result = UVC_ERROR_NOT_SUPPORTED;
+		} else {
+			int value = values[i];
+			result = 0;
+			if (kind == CTRL_KIND_BOOL) {
+				value = value ? 1 : 0;
+			} else if (kind == CTRL_KIND_CLAMP) {
+				// fetch min/max if they are not cached yet, this does nothing when they are
+				const int limits = internalUpdateCtrlLimits(ctrl_id);
+				if (flags & CTRL_FLAG_PERCENT) {
+					// percentage can not be converted without the limits
+					result = limits;
+					// same calculation as UVCCamera#setZoom etc. in Java
+					value = (int)(value / 100.f * abs(cv->max - cv->min)) + cv->min;
+				}
+				if (LIKELY(!limits)) {
+					value = value < cv->min ? cv->min : (value > cv->max ? cv->max : value);
+				}
+			}
+			lockControl();
+			bool same = cv->cur_valid && (cv->current == value);
+			unlockControl();
+			if (same && isAutoControlled(ctrl_id)) {
+				same = false;	// the shadow may be stale
+			}
+			if (UNLIKELY(result)) {
+				LOGD("failed to get limits:id=0x%08x,err=%d", ctrl_id, result);
+			} else if (!(flags & CTRL_FLAG_FORCE) && same) {
+				result = CTRL_RESULT_SKIPPED;
+			} else {
+				result = internalSetCtrl(ctrl_id, value);
+				written++;
+			}
+		}
+		if (results) {
+			results[i] = result;
+		}
+	}
+	RETURN(written, int);
+}
+
+/**
+ * read current values of multiple controls with one call, read values are kept for #setControls
+ * @param ids UVCCamera.CTRL_XXX/PU_XXX in Java
+ * @param values values are written only when the result is 0
+ * @param results can be NULL, 0 or negative uvc_error_t
+ * @return number of controls that are read successfully, negative value if the camera is not opened
+ */
+int UVCCamera::getControls(const int num, const int32_t *ids, int32_t *values, int32_t *results) {
+	ENTER();
+	if (UNLIKELY(!mDeviceHandle)) {
+		RETURN(UVC_ERROR_NO_DEVICE, int);
+	}
+	getCtrlSupports(NULL);
+	getProcSupports(NULL);
+	int count = 0;
+	for (int i = 0; i < num; i++) {
+		const uint32_t ctrl_id = (uint32_t)ids[i];
+		int kind, result, value = 0;
+		control_value_t *cv = findCtrlValue(ctrl_id, kind);
+		if (!cv || !is_ctrl_supported(ctrl_id, mCtrlSupports, mPUSupports)) {
+			result = UVC_ERROR_NOT_SUPPORTED;
+		} else {
+			result = internalGetCtrl(ctrl_id, value);
+			if (LIKELY(!result)) {
+				if (kind == CTRL_KIND_BOOL) {
+					value = value ? 1 : 0;
+				}
+				values[i] = value;
+				updateCurrent(*cv, result, value, CTRL_SOURCE_DEVICE, true);
+				count++;
+			}
+		}
+		if (results) {
+			results[i] = result;
+		}
+	}
+	RETURN(count, int);
+}
+
+//======================================================================
+// コントロールの最小値/最大値/デフォルト値を一括で取得/設定する
+// the order should not be changed without changing CTRL_LIMITS_VERSION
+#define CTRL_LIMITS_LIST(ENTRY) \
+	ENTRY(mScanningMode,			UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_SCANNING_MODE_CONTROL) \
+	ENTRY(mExposureMode,			UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_AE_MODE_CONTROL) \
+	ENTRY(mExposurePriority,		UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_AE_PRIORITY_CONTROL) \
+	ENTRY(mExposureAbs,				UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_EXPOSURE_TIME_ABSOLUTE_CONTROL) \
+	ENTRY(mAutoFocus,				UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_FOCUS_AUTO_CONTROL) \
+	ENTRY(mAutoWhiteBlance,			UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_WHITE_BALANCE_TEMPERATURE_AUTO_CONTROL) \
+	ENTRY(mAutoWhiteBlanceCompo,	UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_WHITE_BALANCE_COMPONENT_AUTO_CONTROL) \
+	ENTRY(mWhiteBlance,				UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_WHITE_BALANCE_TEMPERATURE_CONTROL) \
+	ENTRY(mWhiteBlanceCompo,		UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_WHITE_BALANCE_COMPONENT_CONTROL) \
+	ENTRY(mBacklightComp,			UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_BACKLIGHT_COMPENSATION_CONTROL) \
+	ENTRY(mBrightness,				UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_BRIGHTNESS_CONTROL) \
+	ENTRY(mContrast,				UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_CONTRAST_CONTROL) \
+	ENTRY(mAutoContrast,			UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_CONTRAST_AUTO_CONTROL) \
+	ENTRY(mSharpness,				UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_SHARPNESS_CONTROL) \
+	ENTRY(mGain,					UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_GAIN_CONTROL) \
+	ENTRY(mGamma,					UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_GAMMA_CONTROL) \
+	ENTRY(mSaturation,				UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_SATURATION_CONTROL) \
+	ENTRY(mHue,						UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_HUE_CONTROL) \
+	ENTRY(mAutoHue,					UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_HUE_AUTO_CONTROL) \
+	ENTRY(mZoom,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_ZOOM_ABSOLUTE_CONTROL) \
+	ENTRY(mZoomRel,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_ZOOM_RELATIVE_CONTROL) \
+	ENTRY(mFocus,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_FOCUS_ABSOLUTE_CONTROL) \
+	ENTRY(mFocusRel,				UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_FOCUS_RELATIVE_CONTROL) \
+	ENTRY(mFocusSimple,				UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_FOCUS_SIMPLE_CONTROL) \
+	ENTRY(mIris,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_IRIS_ABSOLUTE_CONTROL) \
+	ENTRY(mIrisRel,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_IRIS_RELATIVE_CONTROL) \
+	ENTRY(mPan,						UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_PANTILT_ABSOLUTE_CONTROL) \
+	ENTRY(mTilt,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_PANTILT_ABSOLUTE_CONTROL) \
+	ENTRY(mRoll,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_ROLL_ABSOLUTE_CONTROL) \
+	ENTRY(mPanRel,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_PANTILT_RELATIVE_CONTROL) \
+	ENTRY(mTiltRel,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_PANTILT_RELATIVE_CONTROL) \
+	ENTRY(mRollRel,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_ROLL_RELATIVE_CONTROL) \
+	ENTRY(mPrivacy,					UVC_STATUS_CLASS_CONTROL_CAMERA,		UVC_CT_PRIVACY_CONTROL) \
+	ENTRY(mPowerlineFrequency,		UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_POWER_LINE_FREQUENCY_CONTROL) \
+	ENTRY(mMultiplier,				UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_DIGITAL_MULTIPLIER_CONTROL) \
+	ENTRY(mMultiplierLimit,			UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_DIGITAL_MULTIPLIER_LIMIT_CONTROL) \
+	ENTRY(mAnalogVideoStandard,		UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_ANALOG_VIDEO_STANDARD_CONTROL) \
+	ENTRY(mAnalogVideoLockState,	UVC_STATUS_CLASS_CONTROL_PROCESSING,	UVC_PU_ANALOG_LOCK_STATUS_CONTROL)
+
+#define COUNT_ENTRY(VAL, CLASS, SELECTOR) + 1
+static const int CTRL_LIMITS_NUM = 0 CTRL_LIMITS_LIST(COUNT_ENTRY);
+#undef COUNT_ENTRY
+
+/**
+ * get min/max/def of all controls to save them for next open
+ * controls whose limits are not fetched yet have 0 for all of min/max/def
+ * @param values can be NULL to get required length
+ * @return number of values required, only first max_num values are written
+ */
+int UVCCamera::getCtrlLimits(int32_t *values, const int max_num) {
+	ENTER();
+	const int n = CTRL_LIMITS_HEADER + CTRL_LIMITS_NUM * 3;
+	if (values && (max_num >= n)) {
+		int32_t *p = values;
+		*p++ = CTRL_LIMITS_VERSION;
+		*p++ = CTRL_LIMITS_NUM;
+#define GET_ENTRY(VAL, CLASS, SELECTOR) \
+		*p++ = VAL.min; *p++ = VAL.max; *p++ = VAL.def;
+
+		CTRL_LIMITS_LIST(GET_ENTRY)
+#undef GET_ENTRY
+	}
+	RETURN(n, int);
+}
+
+/**
+ * set min/max/def of all controls that were saved with #getCtrlLimits,
+ * controls that have limits do not issue GET_MIN/GET_MAX/GET_DEF requests after this
+ * @return 0 on success, UVC_ERROR_INVALID_PARAM if the values are for other version
+ */
+int UVCCamera::setCtrlLimits(const int32_t *values, const int num) {
+	ENTER();
+	if (UNLIKELY(!values || (num != CTRL_LIMITS_HEADER + CTRL_LIMITS_NUM * 3)
+		|| (values[0] != CTRL_LIMITS_VERSION) || (values[1] != CTRL_LIMITS_NUM))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	const int32_t *p = values + CTRL_LIMITS_HEADER;
+#define SET_ENTRY(VAL, CLASS, SELECTOR) \
+	if (p[0] || p[1]) { VAL.min = p[0]; VAL.max = p[1]; VAL.def = p[2]; } \
+	p += 3;
+
+	CTRL_LIMITS_LIST(SET_ENTRY)
+#undef SET_ENTRY
+	RETURN(0, int);
+}
+
+/**
+ * clear min/max/def of the control whose capabilities changed(INFO_CHANGE)
+ * so that they are fetched from the camera again
+ * @param selector clear all controls if the control is unknown
+ */
+void UVCCamera::invalidateCtrlLimits(const int status_class, const int selector) {
+	ENTER();
+	lockControl();
+	bool found = false;
+#define CLEAR_ENTRY(VAL, CLASS, SELECTOR) \
+	if ((status_class == CLASS) && (selector == SELECTOR)) { \
+		VAL.min = VAL.max = VAL.def = 0; VAL.cur_valid = 0; found = true; \
+	}
+
+	CTRL_LIMITS_LIST(CLEAR_ENTRY)
+#undef CLEAR_ENTRY
+	if (!found) {
+		LOGD("unknown control changed, clear all:class=%d,selector=%d", status_class, selector);
+#define CLEAR_ALL_ENTRY(VAL, CLASS, SELECTOR) \
+		VAL.min = VAL.max = VAL.def = 0; VAL.cur_valid = 0;
+
+		CTRL_LIMITS_LIST(CLEAR_ALL_ENTRY)
+#undef CLEAR_ALL_ENTRY
+	}
+	unlockControl();
+	EXIT();
+}
+
+/**
+ * read little endian value of the control from the payload of status interrupt
+ */
+template<typename T>
+static inline T le_value(const void *data) {
+	const uint8_t *p = (const uint8_t *)data;
+	uint32_t v = 0;
+	for (size_t i = 0; i < sizeof(T); i++) {
+		v |= ((uint32_t)p[i]) << (i * 8);
+	}
+	return (T)v;
+}
+
+/**
+ * update the shadow with the value that the camera notified with VALUE_CHANGE,
+ * controls that have multiple values(pan/tilt etc.) are ignored
+ */
+void UVCCamera::updateCurrentFromStatus(const int status_class, const int selector,
+	const void *data, const size_t data_len) {
+
+	ENTER();
+	control_value_t *target = NULL;
+#define STATUS_ENTRY(VAL, CLASS, SELECTOR) \
+	if (!target && (status_class == CLASS) && (selector == SELECTOR)) target = &VAL;
+
+	CTRL_LIMITS_LIST(STATUS_ENTRY)
+#undef STATUS_ENTRY
+	const uint32_t ctrl_id = target ? findCtrlId(target) : 0;
+	if (!ctrl_id || !data) {
+		EXIT();
+	}
+#define DECODE_ENTRY(ID, VAL, KIND, TYPE, GET_FUNC, SET_FUNC) \
+	case (uint32_t)(ID): \
+		if (data_len >= sizeof(TYPE)) { \
+			const int value = le_value<TYPE>(data); \
+			updateCurrent(VAL, 0, KIND == CTRL_KIND_BOOL ? (value ? 1 : 0) : value, CTRL_SOURCE_DEVICE); \
+		} \
+		break;
+
+	switch (ctrl_id) {
+	CTRL_LIST(DECODE_ENTRY)
+	default:
+		break;
+	}
+#undef DECODE_ENTRY
+	EXIT();
+}
+
+/*static*/
+void UVCCamera::status_listener(void *owner, uvc_status_class status_class, int event, int selector,
+	uvc_status_attribute status_attribute, void *data, size_t data_len) {
+
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(owner);
+	switch (status_attribute) {
+	case UVC_STATUS_ATTRIBUTE_VALUE_CHANGE:
+		camera->updateCurrentFromStatus(status_class, selector, data, data_len);
+		break;
+	case UVC_STATUS_ATTRIBUTE_INFO_CHANGE:
+		camera->invalidateCtrlLimits(status_class, selector);
+		break;
+	default:
+		break;
+	}
+}
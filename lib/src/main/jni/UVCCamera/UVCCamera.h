@@ -77,12 +77,28 @@
 #define PU_AVIDEO_LOCK		0x020000	// D17: Analog Video Lock Status
 #define PU_CONTRAST_AUTO	0x040000	// D18: Contrast, Auto
 
+// flag of the control id for #setControls/#getControls, same as UVCCamera.PU_XXX in Java
+#define CTRL_ID_PU			0x80000000
+// result of #setControls when the value is same as the cached current value
+#define CTRL_RESULT_SKIPPED	1
+// flag of #setControls, write values even if they are same as cached current values
+#define CTRL_FLAG_FORCE		0x01
+// flag of #setControls, values are percentage of min-max range like UVCCamera#setZoom in Java
+#define CTRL_FLAG_PERCENT	0x02
+// source of the change that is notified to IControlCallback, same as UVCCamera.CONTROL_SOURCE_XXX in Java
+#define CTRL_SOURCE_DEVICE	0	// value change interrupt or value read from the camera
+#define CTRL_SOURCE_APP		1	// value written by this app
+// layout of the array of #getCtrlLimits/#setCtrlLimits, version, number of controls and min/max/def of each control
+#define CTRL_LIMITS_VERSION	1
+#define CTRL_LIMITS_HEADER	2
+
 typedef struct control_value {
 	int res;	// unused
 	int min;
 	int max;
 	int def;
 	int current;
+	int cur_valid;	// whether current has the value that was set/read last
 } control_value_t;
 
 typedef uvc_error_t (*paramget_func_i8)(uvc_device_handle_t *devh, int8_t *value, enum uvc_req_code req_code);
@@ -117,6 +133,7 @@ class UVCCamera {
 	UVCButtonCallback *mButtonCallback;
 	// プレビュー用
 	UVCPreview *mPreview;
+	int64_t mFrameMeta[FRAME_META_NUM];	// see UVCPreview#set_frame_meta
 	uint64_t mCtrlSupports;
 	uint64_t mPUSupports;
 	control_value_t mScanningMode;
@@ -177,6 +194,27 @@ class UVCCamera {
 		paramget_func_i32 get_func, paramset_func_i32 set_func);
 	int internalSetCtrlValue(control_value_t &values, uint32_t value,
 		paramget_func_u32 get_func, paramset_func_u32 set_func);
+	control_value_t *findCtrlValue(const uint32_t ctrl_id, int &kind);
+	int internalSetCtrl(const uint32_t ctrl_id, const int value);
+	int internalGetCtrl(const uint32_t ctrl_id, int &value);
+	int internalUpdateCtrlLimits(const uint32_t ctrl_id);
+	uint32_t findCtrlId(const control_value_t *values);
+	void updateCurrent(control_value_t &values, const int ret, const int value, const int source = CTRL_SOURCE_APP,
+		const bool from_read = false);
+	inline void lockControl() { if (mStatusCallback) mStatusCallback->lockControl(); };
+	inline void unlockControl() { if (mStatusCallback) mStatusCallback->unlockControl(); };
+	bool isAutoControlled(const uint32_t ctrl_id);
+	int internalGetCurrent(const uint32_t ctrl_id, int &value);
+	template<typename T> int getCurrentCtrl(const uint32_t ctrl_id, T &value) {
+		int v;
+		const int ret = internalGetCurrent(ctrl_id, v);
+		if (LIKELY(!ret)) value = (T)v;
+		return ret;
+	}
+	void updateCurrentFromStatus(const int status_class, const int selector, const void *data, const size_t data_len);
+	void invalidateCtrlLimits(const int status_class, const int selector);
+	static void status_listener(void *owner, uvc_status_class status_class, int event, int selector,
+		uvc_status_attribute status_attribute, void *data, size_t data_len);
 public:
 	UVCCamera();
 	~UVCCamera();
@@ -185,18 +223,39 @@ public:
 	int release();
 
 	int setStatusCallback(JNIEnv *env, jobject status_callback_obj);
+	int setControlCallback(JNIEnv *env, jobject control_callback_obj);
 	int setButtonCallback(JNIEnv *env, jobject button_callback_obj);
 
 	char *getSupportedSize();
+	int getSupportedModes(int32_t *values, const int max_num);
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH);
+	int probeStreamMode(int width, int height, int min_fps, int max_fps, int mode, int64_t *values);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, jobject camera_obj = NULL);
+	int releaseCallbackFrame(int slot, int64_t frame_id);
+	/** metadata of the frame passed to IFrameCallback, this is valid while this object is alive */
+	inline int64_t *getFrameMetadata() { return mFrameMeta; };
+	int setFrameQueue(int depth, int policy);
+	int setDecoderOptions(int workers, int max_in_flight);
+	int setPreviewDecodeInterval(int interval);
+	int setOutputSize(int target, int width, int height);
+	int setCropRegion(int x, int y, int width, int height);
+	int setFramePoolPolicy(int initial_frames, int max_frames, int low_watermark, int high_watermark, int flags);
+	int setTransferConfig(int num_transfers, int packets_per_transfer, int frame_buf_size);
+	int getTransferConfig(int *values);
+	int setPayloadRecording(const char *path);
+	int getStatistics(int64_t *values);
 	int startPreview();
 	int stopPreview();
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	int setCapturePipeline(IPipeline *pipeline);
 
 	int getCtrlSupports(uint64_t *supports);
 	int getProcSupports(uint64_t *supports);
+	int setControls(const int num, const int32_t *ids, const int32_t *values, int32_t *results, const int flags);
+	int getControls(const int num, const int32_t *ids, int32_t *values, int32_t *results);
+	int getCtrlLimits(int32_t *values, const int max_num);
+	int setCtrlLimits(const int32_t *values, const int num);
 
 	int updateScanningModeLimit(int &min, int &max, int &def);
 	int setScanningMode(int mode);
@@ -39,14 +39,23 @@
 
 #include "utilbase.h"
 #include "UVCPreview.h"
+#include "IPipeline.h"
 #include "libuvc_internal.h"
 
 #define	LOCAL_DEBUG 0
 #define MAX_FRAME 4
 #define PREVIEW_PIXEL_BYTES 4	// RGBA/RGBX
-#define FRAME_POOL_SZ MAX_FRAME + 2
+#define FRAME_POOL_SZ(n) ((n) + 2)
 
-UVCPreview::UVCPreview(uvc_device_handle_t *devh)
+static const frame_pool_policy_t DEFAULT_POOL_POLICY = {
+	FRAME_POOL_SZ(MAX_FRAME),	// initial_frames
+	0,							// max_frames
+	0,							// low_watermark
+	FRAME_POOL_SZ(MAX_FRAME),	// high_watermark
+	0,							// flags
+};
+
+UVCPreview::UVCPreview(uvc_device_handle_t *devh, int64_t *frame_meta)
 :	mPreviewWindow(NULL),
 	mCaptureWindow(NULL),
 	mDeviceHandle(devh),
@@ -63,20 +72,42 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 	previewBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * PREVIEW_PIXEL_BYTES),
 	previewFormat(WINDOW_FORMAT_RGBA_8888),
 	mIsRunning(false),
+	previewFrames(MAX_FRAME, FRAME_RING_DROP_NEWEST),
 	mIsCapturing(false),
-	captureQueu(NULL),
+	captureQueue(1, FRAME_RING_DROP_OLDEST),
+	mFramePool(DEFAULT_POOL_POLICY),
+	mDecodeWorkers(DEFAULT_DECODE_WORKERS),
+	mDecodeInFlight(0),
+	mPreviewDecodeInterval(1),
+	mPreviewDecodeCount(0),
+	mPreviewOutputWidth(0),
+	mPreviewOutputHeight(0),
+	mCallbackOutputWidth(0),
+	mCallbackOutputHeight(0),
+	mCropX(0),
+	mCropY(0),
+	mCropWidth(0),
+	mCropHeight(0),
 	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
-	callbackPixelBytes(2) {
+	callbackPixelBytes(2),
+	mCallbackFrameFormat(UVC_FRAME_FORMAT_UNKNOWN),
+	mFrameMeta(frame_meta),
+	mCapturePipeline(NULL),
+	mStreamHandle(NULL) {
 
 	ENTER();
-	pthread_cond_init(&preview_sync, NULL);
 	pthread_mutex_init(&preview_mutex, NULL);
+	pthread_mutex_init(&pipeline_mutex, NULL);
+	pthread_mutex_init(&stream_mutex, NULL);
+	memset(&mTransferConfig, 0, sizeof(mTransferConfig));
+	memset(&mTransferStats, 0, sizeof(mTransferStats));
+	mFrameReallocsBase = 0;
 //
 	pthread_cond_init(&capture_sync, NULL);
 	pthread_mutex_init(&capture_mutex, NULL);
-//	
-	pthread_mutex_init(&pool_mutex, NULL);
+	memset(&mPoolPolicy, 0, sizeof(mPoolPolicy));
+	updatePoolPolicy();
 	EXIT();
 }
 
@@ -91,61 +122,52 @@ UVCPreview::~UVCPreview() {
 	mCaptureWindow = NULL;
 	clearPreviewFrame();
 	clearCaptureFrame();
+	// Java should not access the frames held by IFrameCallback2 after destroying the camera
+	for (uvc_frame_t *frame = mCallbackBuffers.releaseAny(); frame; frame = mCallbackBuffers.releaseAny()) {
+		recycle_frame(frame);
+	}
+	for (uvc_frame_t *frame = mConvertCache.releaseAny(); frame; frame = mConvertCache.releaseAny()) {
+		recycle_frame(frame);
+	}
 	clear_pool();
 	pthread_mutex_destroy(&preview_mutex);
-	pthread_cond_destroy(&preview_sync);
 	pthread_mutex_destroy(&capture_mutex);
+	pthread_mutex_destroy(&pipeline_mutex);
+	pthread_mutex_destroy(&stream_mutex);
 	pthread_cond_destroy(&capture_sync);
-	pthread_mutex_destroy(&pool_mutex);
 	EXIT();
 }
 
 /**
  * get uvc_frame_t from frame pool
- * if pool is empty, create new frame
+ * if pool is empty, create new frame(counted as FRAME_POOL_MISS)
  * this function does not confirm the frame size
  * and you may need to confirm the size
+ * @return NULL if max_frames of the pool policy frames are in use
  */
 uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&pool_mutex);
-	{
-		if (!mFramePool.isEmpty()) {
-			frame = mFramePool.last();
-		}
-	}
-	pthread_mutex_unlock(&pool_mutex);
-	if UNLIKELY(!frame) {
-		LOGW("allocate new frame");
-		frame = uvc_allocate_frame(data_bytes);
-	}
-	return frame;
+	return mFramePool.get(data_bytes);
 }
 
+/**
+ * return the frame to the pool with the frames converted from it
+ */
 void UVCPreview::recycle_frame(uvc_frame_t *frame) {
-	pthread_mutex_lock(&pool_mutex);
-	if (LIKELY(mFramePool.size() < FRAME_POOL_SZ)) {
-		mFramePool.put(frame);
-		frame = NULL;
-	}
-	pthread_mutex_unlock(&pool_mutex);
-	if (UNLIKELY(frame)) {
-		uvc_free_frame(frame);
+	for (uvc_frame_t *converted = mConvertCache.release(frame); converted; converted = mConvertCache.release(frame)) {
+		mFramePool.recycle(converted);
 	}
+	mFramePool.recycle(frame);
 }
 
-
+/**
+ * allocate initial frames of the pool,
+ * data_bytes should be the largest frame size of the preview session
+ * so that no frame is reallocated while streaming
+ */
 void UVCPreview::init_pool(size_t data_bytes) {
 	ENTER();
 
-	clear_pool();
-	pthread_mutex_lock(&pool_mutex);
-	{
-		for (int i = 0; i < FRAME_POOL_SZ; i++) {
-			mFramePool.put(uvc_allocate_frame(data_bytes));
-		}
-	}
-	pthread_mutex_unlock(&pool_mutex);
+	mFramePool.init(data_bytes);
 
 	EXIT();
 }
@@ -153,15 +175,29 @@ void UVCPreview::init_pool(size_t data_bytes) {
 void UVCPreview::clear_pool() {
 	ENTER();
 
-	pthread_mutex_lock(&pool_mutex);
-	{
-		const int n = mFramePool.size();
-		for (int i = 0; i < n; i++) {
-			uvc_free_frame(mFramePool[i]);
-		}
-		mFramePool.clear();
-	}
-	pthread_mutex_unlock(&pool_mutex);
+	mFramePool.clear();
+
+	EXIT();
+}
+
+/**
+ * apply the pool policy, the values that are not set by #setFramePoolPolicy
+ * are derived from the frames in flight: the preview queue, the decode pool and a few for conversion.
+ */
+void UVCPreview::updatePoolPolicy() {
+	ENTER();
+
+	// each frame in flight of the decode pool holds MJPEG frame and decoded frame
+	const int n = FRAME_POOL_SZ(previewFrames.depth() + mDecodeInFlight * 2);
+	frame_pool_policy_t policy;
+	policy.initial_frames = mPoolPolicy.initial_frames ? mPoolPolicy.initial_frames : n;
+	policy.max_frames = mPoolPolicy.max_frames;
+	policy.low_watermark = mPoolPolicy.low_watermark;
+	policy.high_watermark = mPoolPolicy.high_watermark ? mPoolPolicy.high_watermark
+		: (n > policy.initial_frames ? n : policy.initial_frames);
+	policy.flags = mPoolPolicy.flags;
+	mFramePool.setPolicy(policy);
+
 	EXIT();
 }
 
@@ -171,13 +207,15 @@ int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps,
 	ENTER();
 	
 	int result = 0;
-	if ((requestWidth != width) || (requestHeight != height) || (requestMode != mode)) {
+	// bandwidth is used only when streaming starts, so this does not need negotiation
+	requestBandwidth = bandwidth;
+	if ((requestWidth != width) || (requestHeight != height) || (requestMode != mode)
+		|| (requestMinFps != min_fps) || (requestMaxFps != max_fps)) {
 		requestWidth = width;
 		requestHeight = height;
 		requestMinFps = min_fps;
 		requestMaxFps = max_fps;
 		requestMode = mode;
-		requestBandwidth = bandwidth;
 
 		uvc_stream_ctrl_t ctrl;
 		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
@@ -188,6 +226,266 @@ int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps,
 	RETURN(result, int);
 }
 
+/**
+ * negotiate the mode with the camera without changing the requested preview size
+ * and get the parameters to estimate the bus bandwidth the stream will reserve.
+ * this can be called only while preview is not running
+ * @param values at least PROBE_VALUES_NUM, see PROBE_XXX
+ * @return 0: success, otherwise the mode is not supported or preview is running
+ */
+int UVCPreview::probeStreamMode(int width, int height, int min_fps, int max_fps, int mode, int64_t *values) {
+	ENTER();
+
+	int result = -1;
+	if (!isRunning()) {
+		uvc_stream_ctrl_t ctrl;
+		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
+			!mode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
+			width, height, min_fps, max_fps);
+		if (LIKELY(!result)) {
+			uint32_t packet_bytes[PROBE_MAX_ALT], intervals[PROBE_MAX_ALT];
+			const int num = uvc_get_stream_altsettings(mDeviceHandle, &ctrl,
+				packet_bytes, intervals, PROBE_MAX_ALT);
+			if (LIKELY(num >= 0)) {
+				values[PROBE_PAYLOAD_BYTES] = ctrl.dwMaxPayloadTransferSize;
+				values[PROBE_FRAME_BYTES] = ctrl.dwMaxVideoFrameSize;
+				values[PROBE_FRAME_INTERVAL] = ctrl.dwFrameInterval;
+				values[PROBE_ALT_NUM] = num;
+				values[PROBE_SPEED] = libusb_get_device_speed(
+					libusb_get_device(uvc_get_libusb_handle(mDeviceHandle)));
+				for (int i = 0; i < num; i++) {
+					values[PROBE_ALT_TOP + i * 2] = packet_bytes[i];
+					values[PROBE_ALT_TOP + i * 2 + 1] = intervals[i];
+				}
+			} else {
+				result = num;
+			}
+		}
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * set depth and overflow policy of the preview frame queue
+ * this can be changed only while preview is not running
+ * @param depth maximum number of frames waiting for preview thread
+ * @param policy FRAME_RING_DROP_NEWEST or FRAME_RING_DROP_OLDEST
+ */
+int UVCPreview::setFrameQueue(int depth, int policy) {
+	ENTER();
+
+	int result = -1;
+	if (!isRunning() && (depth > 0)
+		&& ((policy == FRAME_RING_DROP_NEWEST) || (policy == FRAME_RING_DROP_OLDEST))) {
+
+		clearPreviewFrame();
+		previewFrames.resize(depth, policy);
+		updatePoolPolicy();
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * set number of threads that decode MJPEG frames
+ * this should be called while preview is not running
+ * @param workers 1: decode on the preview thread(default), 2-MAX_DECODE_WORKERS: decode on worker threads in parallel
+ * @param max_in_flight maximum number of frames decoding on worker threads or waiting for their preceding frames,
+ * 			0 means twice of workers. This is ignored if workers is 1.
+ */
+int UVCPreview::setDecoderOptions(int workers, int max_in_flight) {
+	ENTER();
+
+	int result = -1;
+	if (!isRunning() && (workers > 0) && (workers <= MAX_DECODE_WORKERS) && (max_in_flight >= 0)) {
+		mDecodeWorkers = workers;
+		mDecodeInFlight = workers > 1
+			? (max_in_flight ? (max_in_flight > workers ? max_in_flight : workers) : workers * 2)
+			: 0;
+		updatePoolPolicy();
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * set how often MJPEG frames are decoded for preview display
+ * while MJPEG frames are passed to IFrameCallback as they are(PIXEL_FORMAT_RAW in MJPEG mode).
+ * decoding is always needed for the other pixel formats, so this has no effect on them.
+ * @param interval 0: never decode(preview display is not updated), 1: decode every frame(default),
+ * 			n: decode every n-th frame
+ */
+int UVCPreview::setPreviewDecodeInterval(int interval) {
+	ENTER();
+
+	int result = -1;
+	if (interval >= 0) {
+		mPreviewDecodeInterval = interval;
+		mPreviewDecodeCount = 0;
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * set the smallest output size that the consumer needs,
+ * MJPEG frames are decoded at the smallest scale that satisfies all consumers, see #mjpegScaleShift.
+ * this can be changed while preview is running, it is applied from the next frame
+ * @param target OUTPUT_TARGET_PREVIEW or OUTPUT_TARGET_FRAME_CALLBACK
+ * @param width 0 means the frame size
+ * @param height 0 means the frame size
+ */
+int UVCPreview::setOutputSize(int target, int width, int height) {
+	ENTER();
+
+	int result = -1;
+	if ((width >= 0) && (height >= 0)) {
+		switch (target) {
+		case OUTPUT_TARGET_PREVIEW:
+			pthread_mutex_lock(&preview_mutex);
+			{
+				mPreviewOutputWidth = width;
+				mPreviewOutputHeight = height;
+			}
+			pthread_mutex_unlock(&preview_mutex);
+			result = 0;
+			break;
+		case OUTPUT_TARGET_FRAME_CALLBACK:
+			mCallbackOutputWidth = width;
+			mCallbackOutputHeight = height;
+			result = 0;
+			break;
+		}
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * set the region of the frame that the preview and IFrameCallback receive(e.g. for digital zoom),
+ * MJPEG frames are decoded only around the region and YUYV frames are cropped before converting,
+ * see #cropRegion. this can be changed while preview is running, it is applied from the next frame
+ * @param x left of the region in pixels of the frame
+ * @param y top of the region in pixels of the frame
+ * @param width 0 means the whole frame
+ * @param height 0 means the whole frame
+ */
+int UVCPreview::setCropRegion(int x, int y, int width, int height) {
+	ENTER();
+
+	int result = -1;
+	if ((x >= 0) && (y >= 0) && (width >= 0) && (height >= 0)) {
+		mCropX = x;
+		mCropY = y;
+		mCropWidth = width;
+		mCropHeight = height;
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * set sizing of the frame pool, this can be changed only while preview is not running
+ * @param initial_frames frames allocated before streaming starts, 0: frames in flight(default)
+ * @param max_frames maximum number of frames alive, frames are dropped when exceeded, 0: unlimited(default)
+ * @param low_watermark number of frames allocated at once when the pool is empty, 0: one by one(default)
+ * @param high_watermark maximum number of free frames kept in the pool, 0: frames in flight(default)
+ * @param flags FRAME_POOL_HUGEPAGE
+ */
+int UVCPreview::setFramePoolPolicy(int initial_frames, int max_frames, int low_watermark, int high_watermark, int flags) {
+	ENTER();
+
+	int result = -1;
+	if (!isRunning() && (initial_frames >= 0) && (max_frames >= 0)
+		&& (low_watermark >= 0) && (high_watermark >= 0)
+		&& (!max_frames || (max_frames >= FRAME_POOL_SZ(0)))) {
+
+		mPoolPolicy.initial_frames = initial_frames;
+		mPoolPolicy.max_frames = max_frames;
+		mPoolPolicy.low_watermark = low_watermark;
+		mPoolPolicy.high_watermark = high_watermark;
+		mPoolPolicy.flags = flags;
+		updatePoolPolicy();
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * record payload transfers of the running preview stream into the file
+ * the recording can be replayed without a camera with uvc_replay_open
+ * @param path file to write, NULL to stop recording
+ */
+int UVCPreview::setPayloadRecording(const char *path) {
+	ENTER();
+
+	int result = -1;
+	pthread_mutex_lock(&stream_mutex);
+	{
+		if (isRunning() && mStreamHandle) {
+			if (path) {
+				result = uvc_stream_start_recording(mStreamHandle, path);
+			} else {
+				uvc_stream_stop_recording(mStreamHandle);
+				result = 0;
+			}
+		}
+	}
+	pthread_mutex_unlock(&stream_mutex);
+
+	RETURN(result, int);
+}
+
+/**
+ * set the number of USB transfers, packets per isochronous transfer and size of
+ * the frame assembling buffers of libuvc, these are applied when the preview starts next time.
+ * 0 sizes the value from the negotiated frame size, payload size and frame interval
+ */
+int UVCPreview::setTransferConfig(int num_transfers, int packets_per_transfer, int frame_buf_size) {
+	ENTER();
+
+	int result = -1;
+	if ((num_transfers >= 0) && (num_transfers <= UVC_MAX_TRANSFER_BUFS)
+		&& (packets_per_transfer >= 0) && (packets_per_transfer <= UVC_MAX_PACKETS_PER_TRANSFER)
+		&& (frame_buf_size >= 0)) {
+
+		mTransferConfig.num_transfers = num_transfers;
+		mTransferConfig.packets_per_transfer = packets_per_transfer;
+		mTransferConfig.frame_buf_size = frame_buf_size;
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * get the transfer setup that the running stream actually uses,
+ * the requested values while not previewing
+ */
+int UVCPreview::getTransferConfig(int *values) {
+	ENTER();
+
+	uvc_transfer_config_t config = mTransferConfig;
+	pthread_mutex_lock(&stream_mutex);
+	{
+		if (mStreamHandle) {
+			uvc_stream_get_transfer_config(mStreamHandle, &config);
+		}
+	}
+	pthread_mutex_unlock(&stream_mutex);
+	values[0] = config.num_transfers;
+	values[1] = config.packets_per_transfer;
+	values[2] = config.frame_buf_size;
+
+	RETURN(0, int);
+}
+
 int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
 	ENTER();
 	pthread_mutex_lock(&preview_mutex);
@@ -206,7 +504,11 @@ int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(0, int);
 }
 
-int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+/**
+ * @param frame_callback_obj global reference of IFrameCallback or IFrameCallback2
+ * @param camera_obj UVCCamera object, this is necessary for IFrameCallback2 so that FrameInfo#release can return the frame
+ */
+int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, jobject camera_obj) {
 	
 	ENTER();
 	pthread_mutex_lock(&capture_mutex);
@@ -214,22 +516,36 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 		if (isRunning() && isCapturing()) {
 			mIsCapturing = false;
 			if (mFrameCallbackObj) {
-				pthread_cond_signal(&capture_sync);
+				captureQueue.interrupt();
 				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
 			}
 		}
 		if (!env->IsSameObject(mFrameCallbackObj, frame_callback_obj))	{
 			iframecallback_fields.onFrame = NULL;
+			iframecallback_fields.withInfo = false;
 			if (mFrameCallbackObj) {
 				env->DeleteGlobalRef(mFrameCallbackObj);
 			}
+			mCallbackBuffers.clear(env);
 			mFrameCallbackObj = frame_callback_obj;
 			if (frame_callback_obj) {
 				// get method IDs of Java object for callback
 				jclass clazz = env->GetObjectClass(frame_callback_obj);
 				if (LIKELY(clazz)) {
-					iframecallback_fields.onFrame = env->GetMethodID(clazz,
-						"onFrame",	"(Ljava/nio/ByteBuffer;)V");
+					if (camera_obj) {
+						iframecallback_fields.onFrame = env->GetMethodID(clazz,
+							"onFrame",	"(Ljava/nio/ByteBuffer;Lcom/serenegiant/usb/FrameInfo;)V");
+						env->ExceptionClear();
+						iframecallback_fields.withInfo = iframecallback_fields.onFrame
+							&& !mCallbackBuffers.init(env, camera_obj);
+						if (!iframecallback_fields.withInfo) {
+							iframecallback_fields.onFrame = NULL;
+						}
+					}
+					if (!iframecallback_fields.onFrame) {
+						iframecallback_fields.onFrame = env->GetMethodID(clazz,
+							"onFrame",	"(Ljava/nio/ByteBuffer;)V");
+					}
 				} else {
 					LOGW("failed to get object class");
 				}
@@ -250,8 +566,39 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 	RETURN(0, int);
 }
 
+/**
+ * return the frame held by IFrameCallback2, this is called from FrameInfo#release on any thread
+ * @return 0 if the frame was released, -1 if it was already released
+ */
+int UVCPreview::releaseCallbackFrame(int slot, int64_t frame_id) {
+	uvc_frame_t *frame = mCallbackBuffers.release(slot, frame_id);
+	if (LIKELY(frame)) {
+		recycle_frame(frame);
+		return 0;
+	}
+	return -1;
+}
+
+/**
+ * bytes of the frame of the pixel format
+ * @param pixels width x height
+ */
+static size_t pixelFormatBytes(const int pixel_format, const size_t pixels) {
+	switch (pixel_format) {
+	case PIXEL_FORMAT_RGBX:
+		return pixels * 4;
+	case PIXEL_FORMAT_YUV20SP:
+	case PIXEL_FORMAT_NV21:
+		return (pixels * 3) / 2;
+	default:
+		// PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV(yuyv), PIXEL_FORMAT_RGB565
+		return pixels * 2;
+	}
+}
+
 void UVCPreview::callbackPixelFormatChanged() {
 	mFrameCallbackFunc = NULL;
+	mCallbackFrameFormat = UVC_FRAME_FORMAT_UNKNOWN;
 	const size_t sz = requestWidth * requestHeight;
 	switch (mPixelFormat) {
 	  case PIXEL_FORMAT_RAW:
@@ -265,26 +612,192 @@ void UVCPreview::callbackPixelFormatChanged() {
 	  case PIXEL_FORMAT_RGB565:
 		LOGI("PIXEL_FORMAT_RGB565:");
 		mFrameCallbackFunc = uvc_any2rgb565;
+		mCallbackFrameFormat = UVC_FRAME_FORMAT_RGB565;
 		callbackPixelBytes = sz * 2;
 		break;
 	  case PIXEL_FORMAT_RGBX:
 		LOGI("PIXEL_FORMAT_RGBX:");
 		mFrameCallbackFunc = uvc_any2rgbx;
+		mCallbackFrameFormat = UVC_FRAME_FORMAT_RGBX;
 		callbackPixelBytes = sz * 4;
 		break;
 	  case PIXEL_FORMAT_YUV20SP:
 		LOGI("PIXEL_FORMAT_YUV20SP:");
-		mFrameCallbackFunc = uvc_yuyv2iyuv420SP;
+		mFrameCallbackFunc = uvc_any2iyuv420SP;
+		mCallbackFrameFormat = UVC_FRAME_FORMAT_NV21;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	  case PIXEL_FORMAT_NV21:
 		LOGI("PIXEL_FORMAT_NV21:");
-		mFrameCallbackFunc = uvc_yuyv2yuv420SP;
+		mFrameCallbackFunc = uvc_any2yuv420SP;
+		mCallbackFrameFormat = UVC_FRAME_FORMAT_NV12;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	}
 }
 
+// decode functions of the region that libuvc scales down while decoding, see #mjpegDecodeRegion
+template<uvc_error_t (*decode)(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom)>
+static uvc_error_t mjpeg_region(uvc_frame_t *in, uvc_frame_t *out, const decode_region_t *region) {
+	return decode(in, out, region->x, region->y, region->width, region->height, region->scale_denom);
+}
+
+static const decodeFunc_t mjpeg2rgbx_region = mjpeg_region<uvc_mjpeg2rgbx_crop>;
+static const decodeFunc_t mjpeg2iyuv420SP_region = mjpeg_region<uvc_mjpeg2iyuv420SP_crop>;
+static const decodeFunc_t mjpeg2yuv420SP_region = mjpeg_region<uvc_mjpeg2yuv420SP_crop>;
+static const decodeFunc_t mjpeg2yuyv_region = mjpeg_region<uvc_mjpeg2yuyv_crop>;
+
+#define SCALED_SIZE(size, shift) (((size) + (1 << (shift)) - 1) >> (shift))
+// the region of #setCropRegion is aligned to the MCU of 4:2:x MJPEG(16x16 pixels),
+// it stays aligned to the scaled MCU after scaling down by up to 1/8
+#define CROP_ALIGN 16
+
+/**
+ * the region of the frame set by #setCropRegion, aligned to CROP_ALIGN pixels
+ * so that libjpeg decodes no extra columns and the region is even for YUYV and 4:2:0.
+ * the capture Surface and the capture pipeline keep receiving the whole frame(e.g. for recording),
+ * so only the preview display of MJPEG frames that are passed through(see #passThroughMJPEG) is cropped while they are set
+ * @param preview_only the cropped frame is used only for the preview display
+ * @param region [out] the whole frame if the frame should not be cropped, scale_denom is set to 1
+ * @return true if the frame should be cropped
+ */
+bool UVCPreview::cropRegion(const uvc_frame_t *frame, const bool preview_only, decode_region_t &region) {
+	const int frame_width = frame->width;
+	const int frame_height = frame->height;
+	region.x = region.y = 0;
+	region.width = frame_width;
+	region.height = frame_height;
+	region.scale_denom = 1;
+
+	int width = mCropWidth, height = mCropHeight;
+	if (!width || !height
+		|| (frame_width < CROP_ALIGN * 2) || (frame_height < CROP_ALIGN * 2)
+		|| (!preview_only && (mCaptureWindow || mCapturePipeline))) {
+
+		return false;
+	}
+	int x = mCropX, y = mCropY;
+	if (x > frame_width - CROP_ALIGN) x = frame_width - CROP_ALIGN;
+	if (y > frame_height - CROP_ALIGN) y = frame_height - CROP_ALIGN;
+	x &= ~(CROP_ALIGN - 1);
+	y &= ~(CROP_ALIGN - 1);
+	width = (width + CROP_ALIGN - 1) & ~(CROP_ALIGN - 1);
+	height = (height + CROP_ALIGN - 1) & ~(CROP_ALIGN - 1);
+	if (x + width > frame_width) width = (frame_width - x) & ~(CROP_ALIGN - 1);
+	if (y + height > frame_height) height = (frame_height - y) & ~(CROP_ALIGN - 1);
+	if ((width + CROP_ALIGN > frame_width) && (height + CROP_ALIGN > frame_height)) {
+		// the region covers the whole frame
+		return false;
+	}
+	region.x = x;
+	region.y = y;
+	region.width = width;
+	region.height = height;
+	return true;
+}
+
+/**
+ * copy the region of the uncompressed frame(see #cropRegion) into a new frame,
+ * the preview display and the capture thread convert only the region after this.
+ * the copy costs the size of the region because libuvc reads the rows of the region at the step of the frame
+ * @return the cropped frame and the frame is recycled, or the frame as it is when it should not be cropped
+ */
+uvc_frame_t *UVCPreview::cropFrame(uvc_frame_t *frame) {
+	decode_region_t region;
+	if (cropRegion(frame, false, region)) {
+		uvc_frame_t *cropped = get_frame(region.width * region.height * 2);
+		if (LIKELY(cropped)) {
+			if (LIKELY(!uvc_crop_frame(frame, cropped, region.x, region.y, region.width, region.height))) {
+				recycle_frame(frame);
+				return cropped;
+			}
+			recycle_frame(cropped);
+		}
+	}
+	return frame;
+}
+
+/**
+ * select the scale to decode MJPEG frame at, libjpeg skips most of IDCT for the scaled down output.
+ * the smallest scale that is not smaller than the output size every consumer of the decoded frame wants
+ * (see #setOutputSize) is selected, the capture Surface always needs the frame size.
+ * the scaled width should be a multiple of 8 and the height should be even
+ * so that all decode functions and the 4:2:0 conversions can handle it.
+ * @param frame_width width of the region to decode, see #cropRegion
+ * @param frame_height height of the region to decode
+ * @param preview_only only the preview display uses the decoded frame(MJPEG frame is passed to IFrameCallback as it is)
+ * @return shift of the scale, 0 means the size of the region
+ */
+int UVCPreview::mjpegScaleShift(const uint32_t frame_width, const uint32_t frame_height, const bool preview_only) {
+	// the largest size of the consumers, 0 when there is no consumer
+	uint32_t width = 0, height = 0;
+	pthread_mutex_lock(&preview_mutex);
+	if (mPreviewWindow) {
+		const uint32_t w = mPreviewOutputWidth, h = mPreviewOutputHeight;
+		width = w ? w : frame_width;
+		height = h ? h : frame_height;
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	if (!preview_only) {
+		if (mCaptureWindow) {
+			width = frame_width;
+			height = frame_height;
+		}
+		if (mFrameCallbackObj) {
+			const uint32_t w = mCallbackOutputWidth ? mCallbackOutputWidth : frame_width;
+			const uint32_t h = mCallbackOutputHeight ? mCallbackOutputHeight : frame_height;
+			if (w > width) width = w;
+			if (h > height) height = h;
+		}
+	}
+	int shift = MAX_MJPEG_SCALE_SHIFT;
+	for ( ; shift > 0; shift--) {
+		const uint32_t w = SCALED_SIZE(frame_width, shift);
+		const uint32_t h = SCALED_SIZE(frame_height, shift);
+		if ((w >= width) && (h >= height) && !(w & 7) && !(h & 1)) break;
+	}
+	return shift;
+}
+
+/**
+ * select the region(see #cropRegion) and the scale(see #mjpegScaleShift) to decode MJPEG frame at
+ * @return bytes of the decoded RGBX frame
+ */
+size_t UVCPreview::mjpegDecodeRegion(const uvc_frame_t *frame, const bool preview_only, decode_region_t &region) {
+	cropRegion(frame, preview_only, region);
+	const int shift = mjpegScaleShift(region.width, region.height, preview_only);
+	region.scale_denom = 1 << shift;
+	return SCALED_SIZE(region.width, shift) * SCALED_SIZE(region.height, shift) * 4;
+}
+
+/**
+ * select how to decode MJPEG frame.
+ * MJPEG frame is decoded directly into the format that IFrameCallback wants if possible,
+ * so the capture thread does not need to convert the frame again and the intermediate YUYV frame is not needed.
+ * @param region [out] region of the frame and scale to decode at
+ * @param bytes [out] bytes of the decoded frame
+ */
+decodeFunc_t UVCPreview::mjpegDecodeFunc(const uvc_frame_t *frame, decode_region_t &region, size_t &bytes) {
+	const size_t sz = mjpegDecodeRegion(frame, false, region) / 4;
+	const int pixel_format = mFrameCallbackObj ? mPixelFormat : PIXEL_FORMAT_RGBX;
+	switch (pixel_format) {
+	case PIXEL_FORMAT_RGBX:
+		bytes = sz * 4;
+		return mjpeg2rgbx_region;
+	case PIXEL_FORMAT_YUV20SP:
+		bytes = (sz * 3) / 2;
+		return mjpeg2iyuv420SP_region;
+	case PIXEL_FORMAT_NV21:
+		bytes = (sz * 3) / 2;
+		return mjpeg2yuv420SP_region;
+	default:
+		// PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV(callback wants yuyv), PIXEL_FORMAT_RGB565
+		bytes = sz * 2;
+		return mjpeg2yuyv_region;
+	}
+}
+
 void UVCPreview::clearDisplay() {
 	ENTER();
 
@@ -330,6 +843,13 @@ int UVCPreview::startPreview() {
 
 	int result = EXIT_FAILURE;
 	if (!isRunning()) {
+		// statistics are for each preview session
+		mStatistics.reset();
+		mFramePool.resetCounters();
+		pthread_mutex_lock(&stream_mutex);
+		memset(&mTransferStats, 0, sizeof(mTransferStats));
+		pthread_mutex_unlock(&stream_mutex);
+		mFrameReallocsBase = uvc_get_frame_reallocs();
 		mIsRunning = true;
 		pthread_mutex_lock(&preview_mutex);
 		{
@@ -341,11 +861,6 @@ int UVCPreview::startPreview() {
 		if (UNLIKELY(result != EXIT_SUCCESS)) {
 			LOGW("UVCCamera::window does not exist/already running/could not create thread etc.");
 			mIsRunning = false;
-			pthread_mutex_lock(&preview_mutex);
-			{
-				pthread_cond_signal(&preview_sync);
-			}
-			pthread_mutex_unlock(&preview_mutex);
 		}
 	}
 	RETURN(result, int);
@@ -356,8 +871,8 @@ int UVCPreview::stopPreview() {
 	bool b = isRunning();
 	if (LIKELY(b)) {
 		mIsRunning = false;
-		pthread_cond_signal(&preview_sync);
-		pthread_cond_signal(&capture_sync);
+		previewFrames.interrupt();
+		captureQueue.interrupt();
 		if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
 			LOGW("UVCPreview::terminate capture thread: pthread_join failed");
 		}
@@ -383,12 +898,51 @@ int UVCPreview::stopPreview() {
 	RETURN(0, int);
 }
 
+/**
+ * copy the counters and the latency histograms of the current preview session,
+ * this can be called on any thread while previewing
+ */
+int UVCPreview::getStatistics(int64_t *values) {
+	int64_t pool[FRAME_POOL_COUNTER_NUM];
+	mStatistics.snapshot(values);
+	mFramePool.snapshot(pool);
+	values[STAT_POOL_HIT] = pool[FRAME_POOL_HIT];
+	values[STAT_POOL_MISS] = pool[FRAME_POOL_MISS];
+	values[STAT_POOL_EXHAUSTED] = pool[FRAME_POOL_EXHAUSTED];
+	values[STAT_POOL_RELEASED] = pool[FRAME_POOL_RELEASED];
+	uvc_transfer_stats_t xfer;
+	pthread_mutex_lock(&stream_mutex);
+	{
+		if (mStreamHandle) {
+			uvc_stream_get_transfer_stats(mStreamHandle, &xfer);
+		} else {
+			xfer = mTransferStats;
+		}
+	}
+	pthread_mutex_unlock(&stream_mutex);
+	values[STAT_XFER_COMPLETED] = xfer.completed;
+	values[STAT_XFER_ERRORS] = xfer.errors;
+	values[STAT_ISO_PACKETS] = xfer.iso_packets;
+	values[STAT_ISO_MISSED] = xfer.iso_missed;
+	values[STAT_XFER_RESUBMITTED] = xfer.resubmitted;
+	values[STAT_XFER_RESUBMIT_TOTAL_NS] = xfer.resubmit_total_ns;
+	values[STAT_XFER_RESUBMIT_MAX_NS] = xfer.resubmit_max_ns;
+	values[STAT_XFER_MIN_IN_FLIGHT] = xfer.min_in_flight;
+	// the counter of libuvc is for the whole process, this includes the other cameras
+	values[STAT_FRAME_REALLOCS] = uvc_get_frame_reallocs() - mFrameReallocsBase;
+	return 0;
+}
+
 //**********************************************************************
 //
 //**********************************************************************
 void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args) {
 	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
 	if UNLIKELY(!preview->isRunning() || !frame || !frame->frame_format || !frame->data || !frame->data_bytes) return;
+	preview->mStatistics.count(STAT_RECEIVED);
+	if (UNLIKELY(frame->meta.dropped)) {
+		preview->mStatistics.count(STAT_STREAM_DROPPED, frame->meta.dropped);
+	}
 	if (UNLIKELY(
 		((frame->frame_format != UVC_FRAME_FORMAT_MJPEG) && (frame->actual_bytes < preview->frameBytes))
 		|| (frame->width != preview->frameWidth) || (frame->height != preview->frameHeight) )) {
@@ -398,18 +952,27 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 			frame->frame_format, frame->actual_bytes, preview->frameBytes,
 			frame->width, frame->height, preview->frameWidth, preview->frameHeight);
 #endif
+		preview->mStatistics.count(STAT_BROKEN);
 		return;
 	}
 	if (LIKELY(preview->isRunning())) {
-		uvc_frame_t *copy = preview->get_frame(frame->data_bytes);
+		// the pool frame only lends its buffer to the stream in exchange
+		// for the received one, so this does not need to confirm the size
+		uvc_frame_t *copy = preview->get_frame(frame->actual_bytes);
 		if (UNLIKELY(!copy)) {
 #if LOCAL_DEBUG
 			LOGE("uvc_callback:unable to allocate duplicate frame!");
 #endif
+			preview->mStatistics.count(STAT_NO_FRAME);
 			return;
 		}
-		uvc_error_t ret = uvc_duplicate_frame(frame, copy);
+		// take over the received buffer without copying, fall back to copying
+		uvc_error_t ret = uvc_swap_frame_data(frame, copy);
+		if (UNLIKELY(ret)) {
+			ret = uvc_duplicate_frame(frame, copy);
+		}
 		if (UNLIKELY(ret)) {
+			preview->mStatistics.count(STAT_NO_FRAME);
 			preview->recycle_frame(copy);
 			return;
 		}
@@ -419,41 +982,35 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 
 void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 
-	pthread_mutex_lock(&preview_mutex);
-	if (isRunning() && (previewFrames.size() < MAX_FRAME)) {
-		previewFrames.put(frame);
-		frame = NULL;
-		pthread_cond_signal(&preview_sync);
+	if (LIKELY(isRunning())) {
+		// returns the frame that was dropped by the queue policy if the queue is full
+		frame = previewFrames.put(frame);
+		if (UNLIKELY(frame)) {
+			mStatistics.count(STAT_PREVIEW_QUEUE_DROPPED);
+		}
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	if (frame) {
 		recycle_frame(frame);
 	}
 }
 
 uvc_frame_t *UVCPreview::waitPreviewFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&preview_mutex);
-	{
-		if (!previewFrames.size()) {
-			pthread_cond_wait(&preview_sync, &preview_mutex);
-		}
-		if (LIKELY(isRunning() && previewFrames.size() > 0)) {
-			frame = previewFrames.remove(0);
-		}
+	uvc_frame_t *frame = previewFrames.wait();
+	if (UNLIKELY(frame && !isRunning())) {
+		recycle_frame(frame);
+		frame = NULL;
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	return frame;
 }
 
+/**
+ * this should be called only from the thread that consumes previewFrames
+ * or when nobody consumes them
+ */
 void UVCPreview::clearPreviewFrame() {
-	pthread_mutex_lock(&preview_mutex);
-	{
-		for (int i = 0; i < previewFrames.size(); i++)
-			recycle_frame(previewFrames[i]);
-		previewFrames.clear();
+	for (uvc_frame_t *frame = previewFrames.pop(); frame; frame = previewFrames.pop()) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&preview_mutex);
 }
 
 void *UVCPreview::preview_thread_func(void *vptr_args) {
@@ -503,6 +1060,13 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
 		frameMode = requestMode;
 		frameBytes = frameWidth * frameHeight * (!requestMode ? 2 : 4);
 		previewBytes = frameWidth * frameHeight * PREVIEW_PIXEL_BYTES;
+		// the frames are swapped with the stream buffers and reused for every conversion,
+		// so allocate them with the largest size of them not to reallocate while streaming
+		size_t pool_bytes = frameBytes > previewBytes ? frameBytes : previewBytes;
+		if (pool_bytes < ctrl->dwMaxVideoFrameSize) {
+			pool_bytes = ctrl->dwMaxVideoFrameSize;
+		}
+		init_pool(pool_bytes);
 	} else {
 		LOGE("could not negotiate with camera:err=%d", result);
 	}
@@ -513,11 +1077,20 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 	ENTER();
 
 	uvc_frame_t *frame = NULL;
-	uvc_frame_t *frame_mjpeg = NULL;
-	uvc_error_t result = uvc_start_streaming_bandwidth(
-		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+	uvc_stream_handle_t *strmh = NULL;
+	uvc_error_t result = uvc_stream_open_ctrl(mDeviceHandle, &strmh, ctrl);
+	if (LIKELY(!result)) {
+		result = uvc_stream_set_transfer_config(strmh, &mTransferConfig);
+	}
+	if (LIKELY(!result)) {
+		result = uvc_stream_start_bandwidth(strmh,
+			uvc_preview_frame_callback, (void *)this, requestBandwidth, UVC_STREAM_FLAG_ZERO_COPY);
+	}
 
 	if (LIKELY(!result)) {
+		pthread_mutex_lock(&stream_mutex);
+		mStreamHandle = strmh;
+		pthread_mutex_unlock(&stream_mutex);
 		clearPreviewFrame();
 		pthread_create(&capture_thread, NULL, capture_thread_func, (void *)this);
 
@@ -526,52 +1099,200 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 #endif
 		if (frameMode) {
 			// MJPEG mode
-			for ( ; LIKELY(isRunning()) ; ) {
-				frame_mjpeg = waitPreviewFrame();
-				if (LIKELY(frame_mjpeg)) {
-					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-					recycle_frame(frame_mjpeg);
-					if (LIKELY(!result)) {
-						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
-						addCaptureFrame(frame);
-					} else {
-						recycle_frame(frame);
-					}
-				}
+			if (mDecodeWorkers > 1) {
+				do_preview_mjpeg_pool();
+			} else {
+				do_preview_mjpeg();
 			}
 		} else {
 			// yuvyv mode
 			for ( ; LIKELY(isRunning()) ; ) {
 				frame = waitPreviewFrame();
 				if (LIKELY(frame)) {
+					frame = cropFrame(frame);
 					frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
 					addCaptureFrame(frame);
 				}
 			}
 		}
-		pthread_cond_signal(&capture_sync);
+		captureQueue.interrupt();
 #if LOCAL_DEBUG
 		LOGI("preview_thread_func:wait for all callbacks complete");
 #endif
+		pthread_mutex_lock(&stream_mutex);
+		{
+			// keep the counters of this stream readable after it is closed
+			uvc_stream_get_transfer_stats(mStreamHandle, &mTransferStats);
+			mStreamHandle = NULL;
+		}
+		pthread_mutex_unlock(&stream_mutex);
 		uvc_stop_streaming(mDeviceHandle);
 #if LOCAL_DEBUG
 		LOGI("Streaming finished");
 #endif
 	} else {
 		uvc_perror(result, "failed start_streaming");
+		if (strmh)
+			uvc_stream_close(strmh);
+	}
+
+	EXIT();
+}
+
+/**
+ * decode MJPEG frames on the preview thread
+ */
+void UVCPreview::do_preview_mjpeg() {
+	ENTER();
+
+	uvc_frame_t *frame_mjpeg, *frame;
+	decode_region_t region;
+	size_t bytes;
+	for ( ; LIKELY(isRunning()) ; ) {
+		frame_mjpeg = waitPreviewFrame();
+		if (LIKELY(frame_mjpeg) && !passThroughMJPEG(frame_mjpeg)) {
+			const decodeFunc_t decode_func = mjpegDecodeFunc(frame_mjpeg, region, bytes);
+			frame = get_frame(bytes);
+			if (UNLIKELY(!frame)) {
+				// max_frames of the pool policy frames are in use
+				mStatistics.count(STAT_NO_FRAME);
+				recycle_frame(frame_mjpeg);
+				continue;
+			}
+			const int64_t start = PreviewStatistics::now();
+			const uvc_error_t result = decode_func(frame_mjpeg, frame, &region);   // MJPEG => rgbx/yuv420sp/yuyv
+			mStatistics.record(STAT_DECODE, start);
+			recycle_frame(frame_mjpeg);
+			addDecodedFrame(frame, result);
+		}
 	}
 
 	EXIT();
 }
 
+/**
+ * decode MJPEG frames on the worker threads of DecodePool in parallel,
+ * decoded frames are drawn and passed to the capture thread in the order they were received
+ */
+void UVCPreview::do_preview_mjpeg_pool() {
+	ENTER();
+
+	DecodePool pool(mDecodeWorkers, mDecodeInFlight, decode_done_callback, this);
+	if (UNLIKELY(pool.start())) {
+		LOGW("failed to start decode workers, decode on the preview thread");
+		do_preview_mjpeg();
+		EXIT();
+	}
+	uvc_frame_t *frame_mjpeg, *frame;
+	uvc_error_t result;
+	int64_t elapsed_ns;
+	decode_region_t region;
+	size_t bytes;
+	for ( ; LIKELY(isRunning()) ; ) {
+		// this also returns NULL when a worker finished decoding
+		frame_mjpeg = waitPreviewFrame();
+		if (LIKELY(frame_mjpeg) && !passThroughMJPEG(frame_mjpeg)) {
+			if (pool.isFull()) {
+				// wait for the oldest frame to keep the number of frames in flight
+				uvc_frame_t *in;
+				if (LIKELY(pool.take(&in, &frame, &result, true, &elapsed_ns))) {
+					mStatistics.recordDuration(STAT_DECODE, elapsed_ns);
+					recycle_frame(in);
+					addDecodedFrame(frame, result);
+				}
+			}
+			const decodeFunc_t decode_func = mjpegDecodeFunc(frame_mjpeg, region, bytes);
+			frame = get_frame(bytes);
+			if (UNLIKELY(!frame)) {
+				mStatistics.count(STAT_NO_FRAME);
+				recycle_frame(frame_mjpeg);
+			} else if (UNLIKELY(!pool.submit(frame_mjpeg, frame, decode_func, region))) {
+				recycle_frame(frame_mjpeg);
+				recycle_frame(frame);
+			}
+		}
+		// pass all decoded frames in order
+		for ( ; ; ) {
+			uvc_frame_t *in;
+			if (!pool.take(&in, &frame, &result, false, &elapsed_ns)) break;
+			mStatistics.recordDuration(STAT_DECODE, elapsed_ns);
+			recycle_frame(in);
+			addDecodedFrame(frame, result);
+		}
+	}
+	pool.stop();
+	// discard frames that were decoded after stopping preview
+	for ( ; ; ) {
+		uvc_frame_t *in;
+		if (!pool.take(&in, &frame, &result, false)) break;
+		recycle_frame(in);
+		recycle_frame(frame);
+	}
+
+	EXIT();
+}
+
+/*static*/
+void UVCPreview::decode_done_callback(void *vptr_args) {
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	// wake up the preview thread waiting for next MJPEG frame
+	preview->previewFrames.interrupt();
+}
+
+/**
+ * pass MJPEG frame to the capture thread without decoding if IFrameCallback wants compressed frames,
+ * the frame is decoded only for preview display at the interval of #setPreviewDecodeInterval
+ * @return true if the frame was passed, false if the frame needs decoding
+ */
+bool UVCPreview::passThroughMJPEG(uvc_frame_t *frame_mjpeg) {
+	// the capture pipeline receives MJPEG frames as they are, ConvertPipeline decodes them if needed
+	if (!mCapturePipeline && (!mFrameCallbackObj || (mPixelFormat != PIXEL_FORMAT_RAW))) {
+		return false;
+	}
+	const int interval = mPreviewDecodeInterval;
+	if (interval && (++mPreviewDecodeCount >= interval)) {
+		mPreviewDecodeCount = 0;
+		// decode the region for the preview display only, the capture thread receives the whole MJPEG frame
+		decode_region_t region;
+		pthread_mutex_lock(&preview_mutex);
+		const bool has_window = mPreviewWindow != NULL;
+		pthread_mutex_unlock(&preview_mutex);
+		uvc_frame_t *rgbx = has_window ? get_frame(mjpegDecodeRegion(frame_mjpeg, true, region)) : NULL;
+		if (LIKELY(rgbx)) {
+			if (LIKELY(!mjpeg2rgbx_region(frame_mjpeg, rgbx, &region))) {
+				rgbx = draw_preview_one(rgbx, &mPreviewWindow, NULL, 4);
+			} else {
+				mStatistics.count(STAT_DECODE_ERROR);
+			}
+			recycle_frame(rgbx);
+		}
+	}
+	addCaptureFrame(frame_mjpeg);
+	return true;
+}
+
+/**
+ * draw the decoded frame and pass it to the capture thread
+ */
+void UVCPreview::addDecodedFrame(uvc_frame_t *frame, uvc_error_t result) {
+	if (LIKELY(!result)) {
+		// RGBX frame can be copied to the preview Surface as it is
+		frame = draw_preview_one(frame, &mPreviewWindow,
+			frame->frame_format == UVC_FRAME_FORMAT_RGBX ? NULL : uvc_any2rgbx, 4);
+		addCaptureFrame(frame);
+	} else {
+		mStatistics.count(STAT_DECODE_ERROR);
+		recycle_frame(frame);
+	}
+}
+
 static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int height, const int stride_src, const int stride_dest) {
 	const int h8 = height % 8;
 	for (int i = 0; i < h8; i++) {
 		memcpy(dest, src, width);
 		dest += stride_dest; src += stride_src;
 	}
-	for (int i = 0; i < height; i += 8) {
+	for (int i = h8; i < height; i += 8) {
 		memcpy(dest, src, width);
 		dest += stride_dest; src += stride_src;
 		memcpy(dest, src, width);
@@ -623,6 +1344,78 @@ int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 	return result; //RETURN(result, int);
 }
 
+/**
+ * convert the frame directly into the locked buffer of the Surface(ANativeWindow) with its stride,
+ * this saves writing and reading the intermediate RGBX frame of #copyToSurface
+ * (width x height x 4 bytes each, about 7MB per frame at 720p and 16MB at 1080p)
+ * @return 0 if the frame was drawn, 1 if the frame can not be converted directly
+ * 	and the caller should fall back to #copyToSurface, negative value on failure
+ */
+static int convertToSurface(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func) {
+	// MJPEG decoding may fail on the way but the locked buffer can not be discarded without posting it,
+	// and without step of the source the converters ignore the stride of the buffer.
+	// RGBX frames are copied by #copyToSurface as they are, they must stay alive for the capture thread
+	if (UNLIKELY(!convert_func || !frame->step
+		|| (frame->frame_format == UVC_FRAME_FORMAT_MJPEG)
+		|| (frame->frame_format == UVC_FRAME_FORMAT_RGBX))) {
+		return 1;
+	}
+	ANativeWindow *w = *window;
+	if (UNLIKELY(!w)) {
+		return -1;
+	}
+	const int32_t format = ANativeWindow_getFormat(w);
+	if ((ANativeWindow_getWidth(w) < (int32_t)frame->width)
+		|| (ANativeWindow_getHeight(w) < (int32_t)frame->height)
+		|| ((format != WINDOW_FORMAT_RGBA_8888) && (format != WINDOW_FORMAT_RGBX_8888))) {
+
+		return 1;
+	}
+	int result = -1;
+	ANativeWindow_Buffer buffer;
+	if (LIKELY(ANativeWindow_lock(w, &buffer, NULL) == 0)) {
+		if (LIKELY((buffer.width >= (int32_t)frame->width) && (buffer.height >= (int32_t)frame->height))) {
+			// wrap the buffer with uvc_frame_t that libuvc does not own,
+			// converters keep its step and write each row at the stride of the buffer
+			uvc_frame_t dest;
+			memset(&dest, 0, sizeof(dest));
+			dest.data = buffer.bits;
+			dest.data_bytes = dest.actual_bytes = buffer.stride * buffer.height * PREVIEW_PIXEL_BYTES;
+			dest.width = buffer.width;
+			dest.height = buffer.height;
+			dest.step = buffer.stride * PREVIEW_PIXEL_BYTES;
+			dest.library_owns_data = 0;
+			result = convert_func(frame, &dest);
+		}
+		// the buffer is posted even on failure because the lock can not be cancelled
+		ANativeWindow_unlockAndPost(w);
+	}
+	return result;
+}
+
+/**
+ * whether the capture thread also converts the frames into RGBX(for the capture Surface or IFrameCallback),
+ * this is only a hint and is read without lock
+ */
+bool UVCPreview::isRGBXShared() {
+	return !mCapturePipeline
+		&& ((mCaptureWindow && isCapturing())
+			|| (mFrameCallbackObj && mFrameCallbackFunc && (mCallbackFrameFormat == UVC_FRAME_FORMAT_RGBX)));
+}
+
+/**
+ * resize the buffers of the preview Surface to the frame when the frame was scaled down while decoding,
+ * the Surface scales the buffer to the view. this should be called while holding preview_mutex
+ */
+void UVCPreview::fitPreviewGeometry(ANativeWindow *window, const uvc_frame_t *frame) {
+	if (LIKELY(window)
+		&& UNLIKELY((ANativeWindow_getWidth(window) != (int32_t)frame->width)
+			|| (ANativeWindow_getHeight(window) != (int32_t)frame->height))) {
+
+		ANativeWindow_setBuffersGeometry(window, frame->width, frame->height, previewFormat);
+	}
+}
+
 // changed to return original frame instead of returning converted frame even if convert_func is not null.
 uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func, int pixcelBytes) {
 	// ENTER();
@@ -634,25 +1427,54 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 	}
 	pthread_mutex_unlock(&preview_mutex);
 	if (LIKELY(b)) {
+		const int64_t start = PreviewStatistics::now();
 		uvc_frame_t *converted;
-		if (convert_func) {
-			converted = get_frame(frame->width * frame->height * pixcelBytes);
-			if LIKELY(converted) {
-				b = convert_func(frame, converted);
-				if (!b) {
-					pthread_mutex_lock(&preview_mutex);
-					copyToSurface(converted, window);
-					pthread_mutex_unlock(&preview_mutex);
-				} else {
-					LOGE("failed converting");
+		// when the capture thread converts the same frame into RGBX, convert into the intermediate frame
+		// and share it through mConvertCache instead of converting directly into the window
+		const bool share = convert_func && isRGBXShared();
+		b = 1;
+		if (!share) {
+			pthread_mutex_lock(&preview_mutex);
+			{
+				if (frame->frame_format != UVC_FRAME_FORMAT_MJPEG) {
+					fitPreviewGeometry(*window, frame);
 				}
-				recycle_frame(converted);
+				b = convertToSurface(frame, window, convert_func);
 			}
-		} else {
-			pthread_mutex_lock(&preview_mutex);
-			copyToSurface(frame, window);
 			pthread_mutex_unlock(&preview_mutex);
 		}
+		if (b > 0) {
+			// fall back to conversion into the intermediate frame and copy
+			if (convert_func) {
+				converted = get_frame(frame->width * frame->height * pixcelBytes);
+				if LIKELY(converted) {
+					b = convert_func(frame, converted);
+					if (!b) {
+						pthread_mutex_lock(&preview_mutex);
+						fitPreviewGeometry(*window, converted);
+						copyToSurface(converted, window);
+						pthread_mutex_unlock(&preview_mutex);
+						if (share && mConvertCache.put(frame, converted)) {
+							// recycled with the frame
+							converted = NULL;
+						}
+					} else {
+						LOGE("failed converting");
+					}
+					if (converted) {
+						recycle_frame(converted);
+					}
+				}
+			} else {
+				pthread_mutex_lock(&preview_mutex);
+				fitPreviewGeometry(*window, frame);
+				copyToSurface(frame, window);
+				pthread_mutex_unlock(&preview_mutex);
+			}
+		} else if (UNLIKELY(b < 0)) {
+			LOGE("failed converting");
+		}
+		mStatistics.record(STAT_DRAW, start);
 	}
 	return frame; //RETURN(frame, uvc_frame_t *);
 }
@@ -669,7 +1491,7 @@ int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 		if (isRunning() && isCapturing()) {
 			mIsCapturing = false;
 			if (mCaptureWindow) {
-				pthread_cond_signal(&capture_sync);
+				captureQueue.interrupt();
 				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
 			}
 		}
@@ -700,35 +1522,59 @@ int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 	RETURN(0, int);
 }
 
+/**
+ * pass the frames to the pipeline instead of the capture thread,
+ * the pipeline should be started before passing it and copies the frames into its own buffers
+ * so the frame can be recycled immediately.
+ * the pipeline is not used any more when this returns,
+ * so the caller can release the previous one after calling this with NULL.
+ * @param pipeline NULL to pass the frames to the capture thread again
+ */
+int UVCPreview::setCapturePipeline(IPipeline *pipeline) {
+	ENTER();
+	pthread_mutex_lock(&pipeline_mutex);
+	{
+		mCapturePipeline = pipeline;
+	}
+	pthread_mutex_unlock(&pipeline_mutex);
+	if (pipeline) {
+		clearCaptureFrame();
+	}
+	RETURN(0, int);
+}
+
 void UVCPreview::addCaptureFrame(uvc_frame_t *frame) {
-	pthread_mutex_lock(&capture_mutex);
 	if (LIKELY(isRunning())) {
-		// keep only latest one
-		if (captureQueu) {
-			recycle_frame(captureQueu);
+		pthread_mutex_lock(&pipeline_mutex);
+		IPipeline *pipeline = mCapturePipeline;
+		if (pipeline) {
+			if (UNLIKELY(pipeline->queueFrame(frame))) {
+				mStatistics.count(STAT_CAPTURE_QUEUE_DROPPED);
+			}
+		}
+		pthread_mutex_unlock(&pipeline_mutex);
+		if (!pipeline) {
+			// keep only latest one, the queue drops the oldest one
+			frame = captureQueue.put(frame);
+			if (UNLIKELY(frame)) {
+				mStatistics.count(STAT_CAPTURE_QUEUE_DROPPED);
+			}
 		}
-		captureQueu = frame;
-		pthread_cond_broadcast(&capture_sync);
 	}
-	pthread_mutex_unlock(&capture_mutex);
+	if (frame) {
+		recycle_frame(frame);
+	}
 }
 
 /**
  * get frame data for capturing, if not exist, block and wait
  */
 uvc_frame_t *UVCPreview::waitCaptureFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&capture_mutex);
-	{
-		if (!captureQueu) {
-			pthread_cond_wait(&capture_sync, &capture_mutex);
-		}
-		if (LIKELY(isRunning() && captureQueu)) {
-			frame = captureQueu;
-			captureQueu = NULL;
-		}
+	uvc_frame_t *frame = captureQueue.wait();
+	if (UNLIKELY(frame && !isRunning())) {
+		recycle_frame(frame);
+		frame = NULL;
 	}
-	pthread_mutex_unlock(&capture_mutex);
 	return frame;
 }
 
@@ -736,13 +1582,9 @@ uvc_frame_t *UVCPreview::waitCaptureFrame() {
  * clear drame data for capturing
  */
 void UVCPreview::clearCaptureFrame() {
-	pthread_mutex_lock(&capture_mutex);
-	{
-		if (captureQueu)
-			recycle_frame(captureQueu);
-		captureQueu = NULL;
+	for (uvc_frame_t *frame = captureQueue.pop(); frame; frame = captureQueue.pop()) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&capture_mutex);
 }
 
 //======================================================================
@@ -814,8 +1656,31 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	for (; isRunning() && isCapturing() ;) {
 		frame = waitCaptureFrame();
 		if (LIKELY(frame)) {
-			// frame data is always YUYV format.
-			if LIKELY(isCapturing()) {
+			// frame data is YUYV format, or RGBX/NV12/NV21 when decoded from MJPEG,
+			// or MJPEG when IFrameCallback wants compressed frames(uvc_any2rgbx decodes it).
+			// reuse RGBX frame that the preview thread converted for the preview window
+			uvc_frame_t *rgbx = mConvertCache.get(frame, UVC_FRAME_FORMAT_RGBX);
+			if (!rgbx && mFrameCallbackObj && mFrameCallbackFunc && (mCallbackFrameFormat == UVC_FRAME_FORMAT_RGBX)) {
+				// IFrameCallback also wants RGBX, convert once and share it with #do_capture_callback
+				rgbx = get_frame(previewBytes);
+				if (LIKELY(rgbx)) {
+					if (LIKELY(!uvc_any2rgbx(frame, rgbx))) {
+						if (UNLIKELY(!mConvertCache.put(frame, rgbx))) {
+							recycle_frame(rgbx);
+							rgbx = NULL;
+						}
+					} else {
+						recycle_frame(rgbx);
+						rgbx = NULL;
+					}
+				}
+			}
+			if (rgbx) {
+				if (LIKELY(isCapturing() && mCaptureWindow)) {
+					copyToSurface(rgbx, &mCaptureWindow);
+				}
+			} else if (LIKELY(isCapturing()) && (convertToSurface(frame, &mCaptureWindow, uvc_any2rgbx) > 0)) {
+				// convert into the buffer of the Surface directly if possible, otherwise convert and copy
 				if (UNLIKELY(!converted)) {
 					converted = get_frame(previewBytes);
 				}
@@ -842,6 +1707,18 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	EXIT();
 }
 
+/**
+ * copy metadata of the frame to the buffer that Java reads with UVCCamera#getFrameMetadata
+ */
+static void set_frame_meta(int64_t *meta, const uvc_frame_t *frame) {
+	meta[FRAME_META_SEQUENCE] = frame->sequence;
+	meta[FRAME_META_PTS] = frame->meta.pts;
+	meta[FRAME_META_SCR] = frame->meta.scr;
+	meta[FRAME_META_HOST_TS_NS] = frame->meta.host_ts_ns;
+	meta[FRAME_META_ACTUAL_BYTES] = frame->meta.received_bytes;
+	meta[FRAME_META_DROPPED] = frame->meta.dropped;
+}
+
 /**
 * call IFrameCallback#onFrame if needs
  */
@@ -851,28 +1728,61 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	if (LIKELY(frame)) {
 		uvc_frame_t *callback_frame = frame;
 		if (mFrameCallbackObj) {
-			if (mFrameCallbackFunc) {
-				callback_frame = get_frame(callbackPixelBytes);
-				if (LIKELY(callback_frame)) {
+			const int64_t start = PreviewStatistics::now();
+			// frame may be already decoded into the callback format on the preview thread
+			if (mFrameCallbackFunc && (frame->frame_format != mCallbackFrameFormat)) {
+				// the frame may be already converted into the callback format on the other thread
+				callback_frame = mConvertCache.take(frame, mCallbackFrameFormat);
+				if (callback_frame) {
+					recycle_frame(frame);
+				} else if (LIKELY(callback_frame = get_frame(callbackPixelBytes))) {
 					int b = mFrameCallbackFunc(frame, callback_frame);
 					recycle_frame(frame);
 					if (UNLIKELY(b)) {
 						LOGW("failed to convert for callback frame");
+						mStatistics.count(STAT_CALLBACK_DROPPED);
 						goto SKIP;
 					}
 				} else {
 					LOGW("failed to allocate for callback frame");
+					mStatistics.count(STAT_CALLBACK_DROPPED);
 					callback_frame = frame;
 					goto SKIP;
 				}
 			}
-			jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
-			env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
-			env->ExceptionClear();
-			env->DeleteLocalRef(buf);
+			// compressed frame has variable length, the frame may be scaled down while decoding or cropped
+			const size_t bytes = callback_frame->frame_format == UVC_FRAME_FORMAT_MJPEG
+				? callback_frame->actual_bytes
+				: (LIKELY((callback_frame->width >= (uint32_t)frameWidth) && (callback_frame->height >= (uint32_t)frameHeight))
+					? callbackPixelBytes
+					: pixelFormatBytes(mPixelFormat, callback_frame->width * callback_frame->height));
+			if (iframecallback_fields.withInfo) {
+				// the frame is held until FrameInfo#release is called
+				jobject buf, info;
+				if (LIKELY(mCallbackBuffers.acquire(env, callback_frame, bytes, mPixelFormat, buf, info) >= 0)) {
+					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf, info);
+					env->ExceptionClear();
+					env->DeleteLocalRef(info);
+					callback_frame = NULL;
+				} else {
+					LOGW("all callback frames are held, FrameInfo#release may not be called");
+					mStatistics.count(STAT_CALLBACK_DROPPED);
+				}
+			} else {
+				if (mFrameMeta) {
+					set_frame_meta(mFrameMeta, callback_frame);
+				}
+				jobject buf = env->NewDirectByteBuffer(callback_frame->data, bytes);
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+				env->ExceptionClear();
+				env->DeleteLocalRef(buf);
+			}
+			mStatistics.record(STAT_CALLBACK, start);
 		}
  SKIP:
-		recycle_frame(callback_frame);
+		if (callback_frame) {
+			recycle_frame(callback_frame);
+		}
 	}
 	pthread_mutex_unlock(&capture_mutex);
 	EXIT();
@@ -28,7 +28,14 @@
 #include "libUVCCamera.h"
 #include <pthread.h>
 #include <android/native_window.h>
-#include "objectarray.h"
+#include "framering.h"
+#include "DecodePool.h"
+#include "FrameBufferPool.h"
+#include "PreviewStatistics.h"
+#include "FramePool.h"
+#include "ConvertCache.h"
+
+class IPipeline;
 
 #pragma interface
 
@@ -39,19 +46,30 @@
 #define DEFAULT_PREVIEW_MODE 0
 #define DEFAULT_BANDWIDTH 1.0f
 
-typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
+// index of the frame metadata that is updated before each IFrameCallback#onFrame
+#define FRAME_META_SEQUENCE 0
+#define FRAME_META_PTS 1			// device clock
+#define FRAME_META_SCR 2			// device clock
+#define FRAME_META_HOST_TS_NS 3		// CLOCK_MONOTONIC
+#define FRAME_META_ACTUAL_BYTES 4	// bytes received from the device
+#define FRAME_META_DROPPED 5		// frames dropped since the previous frame
+#define FRAME_META_NUM 6
 
-#define PIXEL_FORMAT_RAW 0		// same as PIXEL_FORMAT_YUV
-#define PIXEL_FORMAT_YUV 1
-#define PIXEL_FORMAT_RGB565 2
-#define PIXEL_FORMAT_RGBX 3
-#define PIXEL_FORMAT_YUV20SP 4
-#define PIXEL_FORMAT_NV21 5		// YVU420SemiPlanar
+// consumers of the decoded frames, see #setOutputSize
+#define OUTPUT_TARGET_PREVIEW 0
+#define OUTPUT_TARGET_FRAME_CALLBACK 1
+// MJPEG frames are decoded at 1/(1 << shift) of the frame size, up to 1/8
+#define MAX_MJPEG_SCALE_SHIFT 3
 
-// for callback to Java object
-typedef struct {
-	jmethodID onFrame;
-} Fields_iframecallback;
+// index of the values of #probeStreamMode
+#define PROBE_PAYLOAD_BYTES 0		// negotiated dwMaxPayloadTransferSize
+#define PROBE_FRAME_BYTES 1			// negotiated dwMaxVideoFrameSize
+#define PROBE_FRAME_INTERVAL 2		// negotiated dwFrameInterval in 100ns
+#define PROBE_ALT_NUM 3				// number of isochronous altsettings, 0 for bulk transfer
+#define PROBE_SPEED 4				// libusb_speed of the device
+#define PROBE_ALT_TOP 5				// packet bytes and service intervals per second of each altsetting follow
+#define PROBE_MAX_ALT 16
+#define PROBE_VALUES_NUM (PROBE_ALT_TOP + PROBE_MAX_ALT * 2)
 
 class UVCPreview {
 private:
@@ -66,8 +84,7 @@ private:
 	size_t frameBytes;
 	pthread_t preview_thread;
 	pthread_mutex_t preview_mutex;
-	pthread_cond_t preview_sync;
-	ObjectArray<uvc_frame_t *> previewFrames;
+	FrameRing<uvc_frame_t *> previewFrames;
 	int previewFormat;
 	size_t previewBytes;
 //
@@ -76,19 +93,37 @@ private:
 	pthread_t capture_thread;
 	pthread_mutex_t capture_mutex;
 	pthread_cond_t capture_sync;
-	uvc_frame_t *captureQueu;			// keep latest frame
+	FrameRing<uvc_frame_t *> captureQueue;	// keep latest frame
 	jobject mFrameCallbackObj;
 	convFunc_t mFrameCallbackFunc;
 	Fields_iframecallback iframecallback_fields;
 	int mPixelFormat;
 	size_t callbackPixelBytes;
+	enum uvc_frame_format mCallbackFrameFormat;	// frame format that mFrameCallbackFunc produces
+	FrameBufferPool mCallbackBuffers;	// for IFrameCallback2
+	int64_t *mFrameMeta;	// FRAME_META_NUM values, owned by UVCCamera, for IFrameCallback
+	pthread_mutex_t pipeline_mutex;
+	IPipeline *mCapturePipeline;	// receives the frames instead of the capture thread, see #setCapturePipeline
 // improve performance by reducing memory allocation
-	pthread_mutex_t pool_mutex;
-	ObjectArray<uvc_frame_t *> mFramePool;
+	FramePool mFramePool;
+	frame_pool_policy_t mPoolPolicy;	// requested by #setFramePoolPolicy, 0 means auto
+	ConvertCache mConvertCache;		// frames converted on the preview/capture thread that the other consumers reuse
+	int mDecodeWorkers, mDecodeInFlight;	// see #setDecoderOptions
+	int mPreviewDecodeInterval, mPreviewDecodeCount;	// see #setPreviewDecodeInterval
+	volatile int mPreviewOutputWidth, mPreviewOutputHeight;		// see #setOutputSize, 0 means the frame size
+	volatile int mCallbackOutputWidth, mCallbackOutputHeight;	// see #setOutputSize, 0 means the frame size
+	volatile int mCropX, mCropY, mCropWidth, mCropHeight;		// see #setCropRegion, 0 size means the whole frame
+	PreviewStatistics mStatistics;
+	uvc_transfer_config_t mTransferConfig;	// requested by #setTransferConfig, 0 means auto
+	pthread_mutex_t stream_mutex;			// guards mStreamHandle and mTransferStats
+	uvc_stream_handle_t *mStreamHandle;		// while streaming
+	uvc_transfer_stats_t mTransferStats;	// of the last stream after it stopped
+	uint64_t mFrameReallocsBase;			// uvc_get_frame_reallocs when the preview started
 	uvc_frame_t *get_frame(size_t data_bytes);
 	void recycle_frame(uvc_frame_t *frame);
 	void init_pool(size_t data_bytes);
 	void clear_pool();
+	void updatePoolPolicy();
 //
 	void clearDisplay();
 	static void uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args);
@@ -98,6 +133,13 @@ private:
 	static void *preview_thread_func(void *vptr_args);
 	int prepare_preview(uvc_stream_ctrl_t *ctrl);
 	void do_preview(uvc_stream_ctrl_t *ctrl);
+	void do_preview_mjpeg();
+	void do_preview_mjpeg_pool();
+	static void decode_done_callback(void *vptr_args);
+	void addDecodedFrame(uvc_frame_t *frame, uvc_error_t result);
+	bool passThroughMJPEG(uvc_frame_t *frame_mjpeg);
+	bool isRGBXShared();
+	void fitPreviewGeometry(ANativeWindow *window, const uvc_frame_t *frame);
 	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes);
 //
 	void addCaptureFrame(uvc_frame_t *frame);
@@ -109,18 +151,38 @@ private:
 	void do_capture_idle_loop(JNIEnv *env);
 	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame);
 	void callbackPixelFormatChanged();
+	bool cropRegion(const uvc_frame_t *frame, const bool preview_only, decode_region_t &region);
+	uvc_frame_t *cropFrame(uvc_frame_t *frame);
+	int mjpegScaleShift(const uint32_t frame_width, const uint32_t frame_height, const bool preview_only);
+	size_t mjpegDecodeRegion(const uvc_frame_t *frame, const bool preview_only, decode_region_t &region);
+	decodeFunc_t mjpegDecodeFunc(const uvc_frame_t *frame, decode_region_t &region, size_t &bytes);
 public:
-	UVCPreview(uvc_device_handle_t *devh);
+	UVCPreview(uvc_device_handle_t *devh, int64_t *frame_meta = NULL);
 	~UVCPreview();
 
 	inline const bool isRunning() const;
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = 1.0f);
+	int probeStreamMode(int width, int height, int min_fps, int max_fps, int mode, int64_t *values);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format, jobject camera_obj = NULL);
+	int releaseCallbackFrame(int slot, int64_t frame_id);
+	int setFrameQueue(int depth, int policy);
+	int setDecoderOptions(int workers, int max_in_flight);
+	int setPreviewDecodeInterval(int interval);
+	int setOutputSize(int target, int width, int height);
+	int setCropRegion(int x, int y, int width, int height);
+	int setFramePoolPolicy(int initial_frames, int max_frames, int low_watermark, int high_watermark, int flags);
+	int setTransferConfig(int num_transfers, int packets_per_transfer, int frame_buf_size);
+	/** @param values num_transfers, packets_per_transfer and frame_buf_size */
+	int getTransferConfig(int *values);
+	int setPayloadRecording(const char *path);
+	/** @param values at least STAT_SNAPSHOT_NUM */
+	int getStatistics(int64_t *values);
 	int startPreview();
 	int stopPreview();
 	inline const bool isCapturing() const;
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	int setCapturePipeline(IPipeline *pipeline);
 };
 
 #endif /* UVCPREVIEW_H_ */
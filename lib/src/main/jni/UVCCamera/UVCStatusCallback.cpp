@@ -9,10 +9,14 @@
 
 UVCStatusCallback::UVCStatusCallback(uvc_device_handle_t *devh)
 :	mDeviceHandle(devh),
-	mStatusCallbackObj(NULL) {
+	mStatusCallbackObj(NULL),
+	mListener(NULL),
+	mListenerOwner(NULL),
+	mControlCallbackObj(NULL) {
 
 	ENTER();
 	pthread_mutex_init(&status_mutex, NULL);
+	pthread_mutex_init(&control_mutex, NULL);
 
 	uvc_set_status_callback(mDeviceHandle, uvc_status_callback, (void *)this);
 	EXIT();
@@ -21,6 +25,12 @@ UVCStatusCallback::UVCStatusCallback(uvc_device_handle_t *devh)
 UVCStatusCallback::~UVCStatusCallback() {
 
 	ENTER();
+	JNIEnv *env = getEnv();
+	if (env && mControlCallbackObj) {
+		env->DeleteGlobalRef(mControlCallbackObj);
+	}
+	mControlCallbackObj = NULL;
+	pthread_mutex_destroy(&control_mutex);
 	pthread_mutex_destroy(&status_mutex);
 	EXIT();
 }
@@ -58,10 +68,86 @@ int UVCStatusCallback::setCallback(JNIEnv *env, jobject status_callback_obj) {
 	RETURN(0, int);
 }
 
+void UVCStatusCallback::setListener(status_listener_t listener, void *owner) {
+
+	ENTER();
+	pthread_mutex_lock(&status_mutex);
+	{
+		mListener = listener;
+		mListenerOwner = owner;
+	}
+	pthread_mutex_unlock(&status_mutex);
+	EXIT();
+}
+
+int UVCStatusCallback::setControlCallback(JNIEnv *env, jobject control_callback_obj) {
+
+	ENTER();
+	pthread_mutex_lock(&control_mutex);
+	{
+		if (!env->IsSameObject(mControlCallbackObj, control_callback_obj)) {
+			icontrolcallback_fields.onControlChanged = NULL;
+			if (mControlCallbackObj) {
+				env->DeleteGlobalRef(mControlCallbackObj);
+			}
+			mControlCallbackObj = control_callback_obj;
+			if (control_callback_obj) {
+				// get method IDs of Java object for callback
+				jclass clazz = env->GetObjectClass(control_callback_obj);
+				if (LIKELY(clazz)) {
+					icontrolcallback_fields.onControlChanged = env->GetMethodID(clazz,
+						"onControlChanged",	"(III)V");
+				} else {
+					LOGW("failed to get object class");
+				}
+				env->ExceptionClear();
+				if (!icontrolcallback_fields.onControlChanged) {
+					LOGE("Can't find IControlCallback#onControlChanged");
+					env->DeleteGlobalRef(control_callback_obj);
+					mControlCallbackObj = control_callback_obj = NULL;
+				}
+			}
+		}
+	}
+	pthread_mutex_unlock(&control_mutex);
+	RETURN(0, int);
+}
+
+/**
+ * notify the change of the control value to IControlCallback,
+ * this is called on the thread that is attached to JavaVM(status interrupt or caller of setter/getter)
+ * the callback is called without control_mutex because it may call setters of UVCCamera
+ * that take the lock of UVCCamera object and then control_mutex
+ */
+void UVCStatusCallback::notifyControlChanged(const uint32_t ctrl_id, const int value, const int source) {
+
+	JNIEnv *env = getEnv();
+	if (UNLIKELY(!env)) return;
+	jobject callback_obj = NULL;
+	jmethodID on_control_changed = NULL;
+	pthread_mutex_lock(&control_mutex);
+	{
+		if (mControlCallbackObj) {
+			// local reference keeps the object alive even if #setControlCallback replaces it
+			callback_obj = env->NewLocalRef(mControlCallbackObj);
+			on_control_changed = icontrolcallback_fields.onControlChanged;
+		}
+	}
+	pthread_mutex_unlock(&control_mutex);
+	if (callback_obj) {
+		env->CallVoidMethod(callback_obj, on_control_changed, (jint)ctrl_id, value, source);
+		env->ExceptionClear();
+		env->DeleteLocalRef(callback_obj);
+	}
+}
+
 void UVCStatusCallback::notifyStatusCallback(JNIEnv* env, uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len) {
 
 	pthread_mutex_lock(&status_mutex);
 	{
+		if (mListener) {
+			mListener(mListenerOwner, status_class, event, selector, status_attribute, data, data_len);
+		}
 		if (mStatusCallbackObj) {
 			jobject buf = env->NewDirectByteBuffer(data, data_len);
 			env->CallVoidMethod(mStatusCallbackObj, istatuscallback_fields.onStatus, (int)status_class, event, selector, (int)status_attribute, buf);
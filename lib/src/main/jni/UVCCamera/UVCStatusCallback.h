@@ -13,12 +13,28 @@ typedef struct {
 	jmethodID onStatus;
 } Fields_istatuscallback;
 
+typedef struct {
+	jmethodID onControlChanged;
+} Fields_icontrolcallback;
+
+/**
+ * native listener that is called on the thread receiving status interrupts before the Java callback,
+ * this should not block
+ */
+typedef void (*status_listener_t)(void *owner, uvc_status_class status_class, int event, int selector,
+	uvc_status_attribute status_attribute, void *data, size_t data_len);
+
 class UVCStatusCallback {
 private:
 	uvc_device_handle_t *mDeviceHandle;
  	pthread_mutex_t status_mutex;
  	jobject mStatusCallbackObj;
  	Fields_istatuscallback istatuscallback_fields;
+ 	status_listener_t mListener;
+ 	void *mListenerOwner;
+ 	pthread_mutex_t control_mutex;
+ 	jobject mControlCallbackObj;
+ 	Fields_icontrolcallback icontrolcallback_fields;
  	void notifyStatusCallback(JNIEnv *env, uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len);
  	static void uvc_status_callback(uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len, void *user_ptr);
 public:
@@ -26,6 +42,12 @@ public:
 	~UVCStatusCallback();
 
 	int setCallback(JNIEnv *env, jobject status_callback_obj);
+	void setListener(status_listener_t listener, void *owner);
+	int setControlCallback(JNIEnv *env, jobject control_callback_obj);
+	void notifyControlChanged(const uint32_t ctrl_id, const int value, const int source);
+	// guards the control shadow of UVCCamera, same mutex as the control callback
+	inline void lockControl() { pthread_mutex_lock(&control_mutex); };
+	inline void unlockControl() { pthread_mutex_unlock(&control_mutex); };
 };
 
 #endif /* UVCSTATUSCALLBACK_H_ */
@@ -28,6 +28,13 @@
 #define LOCAL_DEBUG 0
 
 extern int register_uvccamera(JNIEnv *env);
+extern int register_pipeline(JNIEnv *env);
+extern int register_simple_buffered_pipeline(JNIEnv *env);
+extern int register_mmap_buffered_pipeline(JNIEnv *env);
+extern int register_distribute_pipeline(JNIEnv *env);
+extern int register_convert_pipeline(JNIEnv *env);
+extern int register_callback_pipeline(JNIEnv *env);
+extern int register_preview_pipeline(JNIEnv *env);
 
 jint JNI_OnLoad(JavaVM *vm, void *reserved) {
 #if LOCAL_DEBUG
@@ -40,6 +47,19 @@ jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     }
     // register native methods
     int result = register_uvccamera(env);
+    if (!result) result = register_pipeline(env);
+    if (!result) result = register_simple_buffered_pipeline(env);
+    if (!result) result = register_mmap_buffered_pipeline(env);
+    if (!result) result = register_distribute_pipeline(env);
+    if (!result) result = register_convert_pipeline(env);
+    if (!result) result = register_callback_pipeline(env);
+    if (!result) result = register_preview_pipeline(env);
+    if (UNLIKELY(result)) {
+        // System#loadLibrary throws UnsatisfiedLinkError instead of leaving the methods unregistered
+        LOGE("JNI_OnLoad:failed to register native methods");
+        env->ExceptionClear();
+        return JNI_ERR;
+    }
 	setVM(vm);
 #if LOCAL_DEBUG
     LOGD("JNI_OnLoad:finshed:result=%d", result);
@@ -0,0 +1,255 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: framering.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMERING_H_
+#define FRAMERING_H_
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <limits.h>
+#include <unistd.h>
+#include <sys/syscall.h>
+#include <linux/futex.h>
+
+#include "utilbase.h"
+
+#define FRAME_RING_DROP_NEWEST 0	// discard the frame that is about to be queued when full
+#define FRAME_RING_DROP_OLDEST 1	// discard the oldest queued frame when full
+
+/**
+ * bounded lock free ring of pointers
+ * each slot has its own sequence number, so pushing/popping never takes a lock
+ * even if there are several producers/consumers.
+ * this is multi producer/multi consumer on purpose, single producer/single consumer is not enough here:
+ *   the free list of FramePool is filled/drained by the event thread, preview thread, capture thread and decode workers,
+ *   the queue of DecodePool is consumed by several decode workers at once,
+ *   FRAME_RING_DROP_OLDEST pops the oldest item on the producer side while the consumer pops.
+ * wait() blocks with futex only while the ring is empty,
+ * push() issues FUTEX_WAKE only when somebody is actually waiting.
+ * capacity is rounded up to power of 2, the number of queued items is limited by depth.
+ */
+template <class T>
+class FrameRing {
+private:
+	typedef struct {
+		volatile uint32_t seq;
+		T item;
+	} slot_t;
+	/**
+	 * counters that are written by producers/consumers,
+	 * each one is on its own cache line to avoid false sharing.
+	 * this is allocated separately with posix_memalign so that
+	 * the owner of FrameRing does not need over-aligned new
+	 */
+	typedef struct {
+		volatile uint32_t head __attribute__((aligned(64)));	// next position to pop
+		volatile uint32_t tail __attribute__((aligned(64)));	// next position to push
+		volatile int32_t signal __attribute__((aligned(64)));	// futex word
+		volatile int32_t waiters;
+		volatile int32_t interrupted;
+	} counters_t;
+	slot_t *m_slots;
+	uint32_t m_mask;
+	int m_depth;
+	int m_policy;
+	counters_t *m_counters;
+	// force inhibiting copy/assignment
+	FrameRing(const FrameRing &src);
+	void operator =(const FrameRing &src);
+
+	static inline void futex_wait(volatile int32_t *addr, const int32_t value) {
+		syscall(__NR_futex, addr, FUTEX_WAIT_PRIVATE, value, NULL, NULL, 0);
+	}
+	static inline void futex_wake(volatile int32_t *addr) {
+		syscall(__NR_futex, addr, FUTEX_WAKE_PRIVATE, INT_MAX, NULL, NULL, 0);
+	}
+	inline void signal() {
+		__atomic_add_fetch(&m_counters->signal, 1, __ATOMIC_SEQ_CST);
+		if (__atomic_load_n(&m_counters->waiters, __ATOMIC_SEQ_CST) > 0) {
+			futex_wake(&m_counters->signal);
+		}
+	}
+	void allocate(const int depth) {
+		uint32_t capacity = 2;
+		for ( ; capacity < (uint32_t)depth; capacity <<= 1) {}
+		SAFE_DELETE_ARRAY(m_slots);
+		m_slots = new slot_t[capacity];
+		LOG_ASSERT(m_slots, "out of memory:depth=%d", depth);
+		for (uint32_t i = 0; i < capacity; i++) {
+			m_slots[i].seq = i;
+			m_slots[i].item = NULL;
+		}
+		m_mask = capacity - 1;
+		m_counters->head = m_counters->tail = 0;
+		m_depth = depth;
+	}
+public:
+	FrameRing(const int depth = 2, const int policy = FRAME_RING_DROP_NEWEST)
+		: m_slots(NULL),
+		  m_mask(0),
+		  m_depth(0),
+		  m_policy(policy),
+		  m_counters(NULL) {
+		void *counters = NULL;
+		if (UNLIKELY(posix_memalign(&counters, 64, sizeof(counters_t)))) {
+			counters = NULL;
+		}
+		LOG_ASSERT(counters, "out of memory:size=%d", (int)sizeof(counters_t));
+		memset(counters, 0, sizeof(counters_t));
+		m_counters = (counters_t *)counters;
+		allocate(depth > 0 ? depth : 1);
+	}
+
+	~FrameRing() {
+		SAFE_DELETE_ARRAY(m_slots);
+		if (m_counters) {
+			free(m_counters);
+			m_counters = NULL;
+		}
+	}
+
+	/**
+	 * change depth and overflow policy.
+	 * this is not thread safe, call only when nobody pushes/pops
+	 * and the ring is empty
+	 */
+	void resize(const int depth, const int policy) {
+		if ((depth > 0) && (depth != m_depth)) {
+			allocate(depth);
+		}
+		m_policy = policy;
+	}
+
+	inline int depth() const { return m_depth; }
+	inline int policy() const { return m_policy; }
+	/** number of queued items, this is just a hint while someone pushes/pops */
+	inline int size() const {
+		return (int)(__atomic_load_n(&m_counters->tail, __ATOMIC_ACQUIRE) - __atomic_load_n(&m_counters->head, __ATOMIC_ACQUIRE));
+	}
+	inline bool isEmpty() const { return size() <= 0; }
+
+	/**
+	 * add item to the tail, never blocks
+	 * @return false if the ring is full
+	 */
+	bool push(T item) {
+		uint32_t pos = __atomic_load_n(&m_counters->tail, __ATOMIC_RELAXED);
+		slot_t *slot;
+		for ( ; ; ) {
+			if (UNLIKELY((int)(pos - __atomic_load_n(&m_counters->head, __ATOMIC_ACQUIRE)) >= m_depth)) {
+				return false;
+			}
+			slot = &m_slots[pos & m_mask];
+			const int32_t diff = (int32_t)(__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) - pos);
+			if (LIKELY(!diff)) {
+				if (__atomic_compare_exchange_n(&m_counters->tail, &pos, pos + 1,
+					true, __ATOMIC_RELAXED, __ATOMIC_RELAXED)) break;
+			} else if (diff < 0) {
+				return false;
+			} else {
+				pos = __atomic_load_n(&m_counters->tail, __ATOMIC_RELAXED);
+			}
+		}
+		slot->item = item;
+		__atomic_store_n(&slot->seq, pos + 1, __ATOMIC_RELEASE);
+		signal();
+		return true;
+	}
+
+	/**
+	 * remove item from the head, never blocks
+	 * @return NULL if the ring is empty
+	 */
+	T pop() {
+		uint32_t pos = __atomic_load_n(&m_counters->head, __ATOMIC_RELAXED);
+		slot_t *slot;
+		for ( ; ; ) {
+			slot = &m_slots[pos & m_mask];
+			const int32_t diff = (int32_t)(__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) - (pos + 1));
+			if (LIKELY(!diff)) {
+				if (__atomic_compare_exchange_n(&m_counters->head, &pos, pos + 1,
+					true, __ATOMIC_RELAXED, __ATOMIC_RELAXED)) break;
+			} else if (diff < 0) {
+				return NULL;
+			} else {
+				pos = __atomic_load_n(&m_counters->head, __ATOMIC_RELAXED);
+			}
+		}
+		T item = slot->item;
+		__atomic_store_n(&slot->seq, pos + m_mask + 1, __ATOMIC_RELEASE);
+		return item;
+	}
+
+	/**
+	 * add item with the overflow policy of this ring
+	 * FRAME_RING_DROP_OLDEST assumes there is only one producer
+	 * @return the item that was discarded (the new one or the oldest one), NULL if nothing was discarded
+	 * caller should recycle the returned item
+	 */
+	T put(T item) {
+		if (LIKELY(push(item))) return NULL;
+		if (m_policy != FRAME_RING_DROP_OLDEST) return item;
+		T oldest = NULL;
+		for ( ; !push(item) ; ) {
+			// push may fail until the consumer releases the slot it is popping now
+			if (!oldest) oldest = pop();
+		}
+		return oldest;
+	}
+
+	/**
+	 * remove item from the head, block while the ring is empty
+	 * @return NULL if interrupted
+	 */
+	T wait() {
+		T item = pop();
+		if (LIKELY(item)) return item;
+		counters_t *c = m_counters;
+		__atomic_add_fetch(&c->waiters, 1, __ATOMIC_SEQ_CST);
+		for ( ; ; ) {
+			// read the futex word before checking the ring so that we never miss the wake up
+			const int32_t sig = __atomic_load_n(&c->signal, __ATOMIC_SEQ_CST);
+			if (__atomic_exchange_n(&c->interrupted, 0, __ATOMIC_SEQ_CST)) break;
+			item = pop();
+			if (item) break;
+			// futex may return without any push/interrupt (spurious wake up/EINTR)
+			// or another consumer may steal the item, so check again
+			futex_wait(&c->signal, sig);
+		}
+		__atomic_sub_fetch(&c->waiters, 1, __ATOMIC_SEQ_CST);
+		return item;
+	}
+
+	/**
+	 * wake up the thread blocking in #wait
+	 * if nobody is waiting now, next #wait returns immediately
+	 */
+	void interrupt() {
+		__atomic_store_n(&m_counters->interrupted, 1, __ATOMIC_SEQ_CST);
+		signal();
+	}
+};
+
+#endif /* FRAMERING_H_ */
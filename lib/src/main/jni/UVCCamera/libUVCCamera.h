@@ -30,4 +30,20 @@
 #include "libuvc.h"
 #include "utilbase.h"
 
+// shared by UVCPreview and the pipelines
+typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+#define PIXEL_FORMAT_RAW 0		// same as PIXEL_FORMAT_YUV, or compressed frame as it is in MJPEG mode
+#define PIXEL_FORMAT_YUV 1
+#define PIXEL_FORMAT_RGB565 2
+#define PIXEL_FORMAT_RGBX 3
+#define PIXEL_FORMAT_YUV20SP 4
+#define PIXEL_FORMAT_NV21 5		// YVU420SemiPlanar
+
+// for callback to Java object
+typedef struct {
+	jmethodID onFrame;
+	bool withInfo;		// IFrameCallback2#onFrame(ByteBuffer, FrameInfo)
+} Fields_iframecallback;
+
 #endif /* LIBUVCCAMERA_H_ */
@@ -16,6 +16,19 @@
 #include "utilbase.h"
 #include "AbstractBufferedPipeline.h"
 
+/**
+ * default pool policy, allocate init_pool_num frames at once up to max_buffer_num frames
+ */
+static frame_pool_policy_t default_pool_policy(const int &max_buffer_num, const int &init_pool_num) {
+	frame_pool_policy_t policy;
+	policy.initial_frames = init_pool_num;
+	policy.max_frames = max_buffer_num;
+	policy.low_watermark = init_pool_num;
+	policy.high_watermark = max_buffer_num;
+	policy.flags = 0;
+	return policy;
+}
+
 /*public*/
 AbstractBufferedPipeline::AbstractBufferedPipeline(const int &_max_buffer_num, const int &_init_pool_num,
 	const size_t &_default_frame_size, const bool &drop_frames_when_buffer_empty)
@@ -23,7 +36,7 @@ AbstractBufferedPipeline::AbstractBufferedPipeline(const int &_max_buffer_num, c
 	max_buffer_num(_max_buffer_num),
 	init_pool_num(_init_pool_num),
 	drop_frames(drop_frames_when_buffer_empty),
-	total_frame_num(0)
+	frame_pool(default_pool_policy(_max_buffer_num, _init_pool_num))
 {
 	ENTER();
 
@@ -89,11 +102,19 @@ int AbstractBufferedPipeline::stop() {
 	if (LIKELY(b)) {
 		setState(PIPELINE_STATE_STOPPING);
 		mIsRunning = false;
-		pool_sync.broadcast();
-		buffer_sync.broadcast();
+		pool_mutex.lock();
+		{
+			pool_sync.broadcast();
+		}
+		pool_mutex.unlock();
+		buffer_mutex.lock();
+		{
+			buffer_sync.broadcast();
+		}
+		buffer_mutex.unlock();
 		LOGD("pthread_join:handler_thread");
 		if (pthread_join(handler_thread, NULL) != EXIT_SUCCESS) {
-			LOGW("PublisherPipeline::terminate publisher thread: pthread_join failed");
+			LOGW("AbstractBufferedPipeline::terminate handler thread: pthread_join failed");
 		}
 		setState(PIPELINE_STATE_INITIALIZED);
 		LOGD("handler_thread finished");
@@ -128,45 +149,53 @@ int AbstractBufferedPipeline::queueFrame(uvc_frame_t *frame) {
 	RETURN(ret, int);
 }
 
+/**
+ * change sizing of the frame pool, this can be called only while this pipeline is not running
+ * @return 0: success, -1: running or invalid policy
+ */
+/*public*/
+int AbstractBufferedPipeline::setFramePoolPolicy(const frame_pool_policy_t &policy) {
+	ENTER();
+
+	int result = -1;
+	if (!isRunning()) {
+		Mutex::Autolock lock(pool_mutex);
+		result = frame_pool.setPolicy(policy);
+	}
+
+	RETURN(result, int);
+}
+
+/*public*/
+int AbstractBufferedPipeline::getFramePoolCounters(int64_t *values) {
+	ENTER();
+
+	frame_pool.snapshot(values);
+
+	RETURN(0, int);
+}
+
 //********************************************************************************
 //
 //********************************************************************************
 /**
  * get uvc_frame_t from frame pool
- * if pool is empty, create new frame
+ * if pool is empty, create new frames up to the low watermark of the pool policy
  * this function does not confirm the frame size
  * and you may need to confirm the size
+ * @return NULL if max_frames frames are in use and this pipeline drops frames
  */
 uvc_frame_t *AbstractBufferedPipeline::get_frame(const size_t &data_bytes) {
-	uvc_frame_t *frame = NULL;
 	Mutex::Autolock lock(pool_mutex);
 
-	if (UNLIKELY(frame_pool.empty() && (total_frame_num < max_buffer_num))) {
-		uint32_t n = total_frame_num * 2;
-		if (n > max_buffer_num) {
-			n = max_buffer_num;
-		}
-		n -= total_frame_num;
-		if (LIKELY(n > 0)) {
-			for (int i = 0; i < n; i++) {
-				frame = uvc_allocate_frame(data_bytes);
-				total_frame_num++;
-			}
-			LOGW("allocate new frame:%d", total_frame_num);
-		} else {
-			LOGW("number of allocated frame exceeds limit");
-		}
-	}
-	if (UNLIKELY(frame_pool.empty() && !drop_frames)) {
+	uvc_frame_t *frame = frame_pool.get(data_bytes);
+	if (UNLIKELY(!frame && !drop_frames)) {
 		// if pool is empty and need to block(avoid dropping frames), wait frame recycling.
-		for (; mIsRunning && frame_pool.empty() ; ) {
+		for (; mIsRunning && !frame ; ) {
 			pool_sync.wait(pool_mutex);
+			frame = frame_pool.get(data_bytes);
 		}
 	}
-	if (!frame_pool.empty()) {
-		frame = frame_pool.front();
-		frame_pool.pop_front();
-	}
 
 	return frame;
 }
@@ -176,15 +205,8 @@ void AbstractBufferedPipeline::recycle_frame(uvc_frame_t *frame) {
 
 	if (LIKELY(frame)) {
 		Mutex::Autolock lock(pool_mutex);
-		if (LIKELY(frame_pool.size() < max_buffer_num)) {
-			frame_pool.push_back(frame);
-			frame = NULL;
-		}
-		if (UNLIKELY(frame)) {
-			// if pool overflowed
-			total_frame_num--;
-			uvc_free_frame(frame);
-		}
+		// frame is freed if free frames exceeds the high watermark
+		frame_pool.recycle(frame);
 		pool_sync.signal();
 	}
 
@@ -194,28 +216,13 @@ void AbstractBufferedPipeline::recycle_frame(uvc_frame_t *frame) {
 void AbstractBufferedPipeline::init_pool(const size_t &data_bytes) {
 	ENTER();
 
-	uvc_frame_t *frame = NULL;
-
-	clear_pool();
-	pool_mutex.lock();
-	{
-
-		size_t frame_sz = data_bytes / 4;	// expects 25%, this will be able to much lower
-		if (!frame_sz) {
-			frame_sz = DEFAULT_FRAME_SZ;
-		}
-		for (uint32_t i = 0; i < init_pool_num; i++) {
-			frame = uvc_allocate_frame(frame_sz);
-			if (LIKELY(frame)) {
-				frame_pool.push_back(frame);
-				total_frame_num++;
-			} else {
-				LOGW("failed to allocate new frame:%d", total_frame_num);
-				break;
-			}
-		}
+	size_t frame_sz = data_bytes / 4;	// expects 25%, this will be able to much lower
+	if (!frame_sz) {
+		frame_sz = DEFAULT_FRAME_SZ;
 	}
-	pool_mutex.unlock();
+	Mutex::Autolock lock(pool_mutex);
+	// frame buffers never shrink, so they fit the incoming frames after the first ones
+	frame_pool.init(frame_sz);
 
 	EXIT();
 }
@@ -224,12 +231,8 @@ void AbstractBufferedPipeline::clear_pool() {
 	ENTER();
 
 	Mutex::Autolock lock(pool_mutex);
-
-	for (auto iter = frame_pool.begin(); iter != frame_pool.end(); iter++) {
-		total_frame_num--;
-		uvc_free_frame(*iter);
-	}
 	frame_pool.clear();
+
 	EXIT();
 }
 
@@ -254,11 +257,9 @@ int AbstractBufferedPipeline::add_frame(uvc_frame_t *frame) {
 		// FIXME as current implementation, transferring frame data on my device is slower than that coming from UVC camera... just drop them now
 		if (frame_buffers.size() > max_buffer_num) {
 			// erase old frames
-			int cnt = 0;
-			for (auto iter = frame_buffers.begin();
-				 (iter != frame_buffers.end()) && (cnt < 5); iter++, cnt++) {
-				recycle_frame(*iter);
-				iter = frame_buffers.erase(iter);
+			for (int cnt = 0; !frame_buffers.empty() && (cnt < 5); cnt++) {
+				recycle_frame(frame_buffers.front());
+				frame_buffers.pop_front();
 			}
 			LOGW("droped frame data");
 		}
@@ -281,7 +282,7 @@ uvc_frame_t *AbstractBufferedPipeline::wait_frame() {
 
 	Mutex::Autolock lock(buffer_mutex);
 
-	if (!frame_buffers.size()) {
+	if (frame_buffers.empty() && isRunning()) {
 		buffer_sync.wait(buffer_mutex);
 	}
 	if (LIKELY(isRunning() && frame_buffers.size() > 0)) {
@@ -28,12 +28,11 @@ private:
 	const uint32_t max_buffer_num;
 	const uint32_t init_pool_num;
 	const bool drop_frames;
-	volatile uint32_t total_frame_num;
 
 // frame buffer pool to improve performance by reducing memory allocation
 	mutable Mutex pool_mutex;
 	Condition pool_sync;
-	std::list<uvc_frame_t *> frame_pool;
+	FramePool frame_pool;
 // frame buffers
 	pthread_t handler_thread;
 	mutable Mutex buffer_mutex;
@@ -64,6 +63,8 @@ public:
 	virtual int start();
 	virtual int stop();
 	virtual int queueFrame(uvc_frame_t *frame);
+	virtual int setFramePoolPolicy(const frame_pool_policy_t &policy);
+	virtual int getFramePoolCounters(int64_t *values);
 };
 
 
@@ -25,12 +25,19 @@
 #define MAX_FRAME_NUM 8
 
 CallbackPipeline::CallbackPipeline(const size_t &_data_bytes)
-:	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+:	IPipeline(_data_bytes),
+	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
+	mPixelFormat(PIXEL_FORMAT_RAW),
 	callbackPixelBytes(0)
 {
 	ENTER();
 
+	iframecallback_fields.onFrame = NULL;
+	iframecallback_fields.withInfo = false;
+
 	setState(PIPELINE_STATE_INITIALIZED);
 
 	EXIT();
@@ -76,6 +83,10 @@ int CallbackPipeline::setFrameCallback(JNIEnv *env, jobject frame_callback_obj,
 				mFrameCallbackObj = frame_callback_obj = NULL;
 			}
 		}
+	} else if (frame_callback_obj) {
+		// same callback, keep current global reference
+		env->DeleteGlobalRef(frame_callback_obj);
+		frame_callback_obj = mFrameCallbackObj;
 	}
 	if (frame_callback_obj) {
 		mPixelFormat = pixel_format;
@@ -151,7 +162,7 @@ void CallbackPipeline::do_capture(JNIEnv *env) {
 							goto SKIP;
 						}
 					}
-					jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
+					jobject buf = env->NewDirectByteBuffer(callback_frame->data, sz);
 					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
 					env->ExceptionClear();
 					env->DeleteLocalRef(buf);
@@ -185,6 +196,7 @@ static void nativeDestroy(JNIEnv *env, jobject thiz,
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (LIKELY(pipeline)) {
 		pipeline->release();
+		pipeline->setFrameCallback(env, NULL, PIXEL_FORMAT_RAW);	// release global reference
 		SAFE_DELETE(pipeline);
 	}
 	EXIT();
@@ -209,8 +221,8 @@ static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
 	jint result = JNI_ERR;
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (pipeline) {
-		IPipeline *pipeline = getPipeline(env, pipeline_obj);
-		result = pipeline->setPipeline(pipeline);
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
 	}
 
 	RETURN(result, jint);
@@ -257,7 +269,7 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 //**********************************************************************
 //
 //**********************************************************************
-static JNINativeMethod methods[] = {
+static const JNINativeMethod methods[] = {
 	{ "nativeCreate",					"()J", (void *) nativeCreate },
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 
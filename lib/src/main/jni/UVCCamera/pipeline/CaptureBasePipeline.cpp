@@ -59,6 +59,24 @@ CaptureBasePipeline::~CaptureBasePipeline() {
 //********************************************************************************
 const bool CaptureBasePipeline::isCapturing() const { return mIsCapturing; }
 
+/**
+ * copy the frame into the latest frame slot on the caller thread,
+ * the frame does not go through the frame buffers of AbstractBufferedPipeline
+ */
+int CaptureBasePipeline::queueFrame(uvc_frame_t *frame) {
+//	ENTER();
+
+	int result = UVC_ERROR_OTHER;
+	if (LIKELY(frame && isRunning())) {
+		result = handle_frame(frame);
+		if (!result) {
+			chain_frame(frame);
+		}
+	}
+
+	return result; // RETURN(result, int);
+}
+
 /**
  * clear frame data for capturing
  */
@@ -97,7 +115,7 @@ uvc_frame_t *CaptureBasePipeline::waitCaptureFrame() {
 	uvc_frame_t *frame = NULL;
 	Mutex::Autolock lock(capture_mutex);
 
-	if (!captureQueue) {
+	if (!captureQueue && isRunning() && isCapturing()) {
 		capture_sync.wait(capture_mutex);
 	}
 	if (LIKELY(isRunning() && captureQueue)) {
@@ -121,10 +139,14 @@ void CaptureBasePipeline::on_start() {
 void CaptureBasePipeline::on_stop() {
 	ENTER();
 
-	mIsCapturing = false;
-	capture_sync.broadcast();
+	capture_mutex.lock();
+	{
+		mIsCapturing = false;
+		capture_sync.broadcast();
+	}
+	capture_mutex.unlock();
 	if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
-		LOGW("UVCCameraControl::terminate capture thread: pthread_join failed");
+		LOGW("CaptureBasePipeline::terminate capture thread: pthread_join failed");
 	}
 	clearCaptureFrame();
 
@@ -157,7 +179,7 @@ int CaptureBasePipeline::handle_frame(uvc_frame_t *frame) {
 
 /*
  * thread function
- * @param vptr_args pointer to UVCCameraControl instance
+ * @param vptr_args pointer to CaptureBasePipeline instance
  */
 // static
 void *CaptureBasePipeline::capture_thread_func(void *vptr_args) {
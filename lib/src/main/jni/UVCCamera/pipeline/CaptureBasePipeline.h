@@ -38,6 +38,7 @@ public:
 	CaptureBasePipeline(const int &_max_buffer_num = DEFAULT_MAX_FRAME_NUM, const int &init_pool_num = DEFAULT_INIT_FRAME_POOL_SZ, const size_t &default_frame_size = DEFAULT_FRAME_SZ);
 	virtual ~CaptureBasePipeline();
 	const bool isCapturing() const;
+	virtual int queueFrame(uvc_frame_t *frame);
 };
 
 
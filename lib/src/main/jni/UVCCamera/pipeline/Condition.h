@@ -0,0 +1,45 @@
+//
+// Created by saki on 15/11/05.
+//
+
+#ifndef PUPILMOBILE_CONDITION_H
+#define PUPILMOBILE_CONDITION_H
+
+#include <errno.h>
+#include <stdint.h>
+#include <time.h>
+#include <pthread.h>
+#include "Mutex.h"
+
+// minimum subset of android libutils Condition on pthread
+namespace android {
+
+class Condition {
+private:
+	pthread_cond_t mCond;
+	// force inhibiting copy/assignment
+	Condition(const Condition &src);
+	void operator =(const Condition &src);
+public:
+	Condition() { pthread_cond_init(&mCond, NULL); }
+	~Condition() { pthread_cond_destroy(&mCond); }
+	inline int wait(Mutex &mutex) { return -pthread_cond_wait(&mCond, &mutex.mMutex); }
+	/**
+	 * @param reltime nanoseconds
+	 * @return 0: signaled, -ETIMEDOUT: timed out
+	 */
+	int waitRelative(Mutex &mutex, int64_t reltime) {
+		struct timespec ts;
+		clock_gettime(CLOCK_REALTIME, &ts);
+		reltime += ts.tv_nsec;
+		ts.tv_sec += reltime / 1000000000LL;
+		ts.tv_nsec = reltime % 1000000000LL;
+		return -pthread_cond_timedwait(&mCond, &mutex.mMutex, &ts);
+	}
+	inline void signal() { pthread_cond_signal(&mCond); }
+	inline void broadcast() { pthread_cond_broadcast(&mCond); }
+};
+
+}	// namespace android
+
+#endif //PUPILMOBILE_CONDITION_H
@@ -26,7 +26,8 @@
 
 /* public */
 ConvertPipeline::ConvertPipeline(const size_t &_data_bytes, const int &_target_pixel_format)
-:	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+:	IPipeline(_data_bytes),
+	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
 	target_pixel_format(_target_pixel_format),
 	mFrameConvFunc(NULL)
 {
@@ -112,6 +113,9 @@ int ConvertPipeline::handle_frame(uvc_frame_t *frame) {
 			}
 		}
 		next_pipeline->queueFrame(copy);
+		if (copy != frame) {
+			recycle_frame(copy);
+		}
 	}
 
 	RETURN(1, int);
@@ -195,7 +199,7 @@ static jint nativeStop(JNIEnv *env, jobject thiz,
 //**********************************************************************
 //
 //**********************************************************************
-static JNINativeMethod methods[] = {
+static const JNINativeMethod methods[] = {
 	{ "nativeCreate",					"(I)J", (void *) nativeCreate },
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 
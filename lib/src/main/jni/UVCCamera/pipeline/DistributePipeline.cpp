@@ -10,9 +10,8 @@
 #include "IPipeline.h"
 #include "DistributePipeline.h"
 
-DistributePipeline::DistributePipeline(const int &_max_buffer_num, const int &init_pool_num,
-		const size_t &default_frame_size, const bool &drop_frames_when_buffer_empty)
-:	AbstractBufferedPipeline(_max_buffer_num, init_pool_num, default_frame_size, drop_frames_when_buffer_empty)
+DistributePipeline::DistributePipeline(const size_t &default_frame_size)
+:	IPipeline(default_frame_size)
 {
 	ENTER();
 
@@ -24,21 +23,52 @@ DistributePipeline::DistributePipeline(const int &_max_buffer_num, const int &in
 DistributePipeline::~DistributePipeline() {
 	ENTER();
 
+	release();
 	Mutex::Autolock lock(pipeline_mutex);
 
 	pipelines.clear();
+	setState(PIPELINE_STATE_UNINITIALIZED);
 
 	EXIT();
 }
 
-void DistributePipeline::on_start() {
+/*public*/
+int DistributePipeline::release() {
 	ENTER();
-	EXIT();
+
+	setState(PIPELINE_STATE_RELEASING);
+	stop();
+	setState(PIPELINE_STATE_UNINITIALIZED);
+
+	RETURN(0, int);
 }
 
-void DistributePipeline::on_stop() {
+/*public*/
+int DistributePipeline::start() {
 	ENTER();
-	EXIT();
+
+	int result = EXIT_FAILURE;
+	if (!isRunning()) {
+		mIsRunning = true;
+		setState(PIPELINE_STATE_RUNNING);
+		result = EXIT_SUCCESS;
+	}
+	RETURN(result, int);
+}
+
+/*public*/
+int DistributePipeline::stop() {
+	ENTER();
+
+	if (LIKELY(isRunning())) {
+		setState(PIPELINE_STATE_STOPPING);
+		mIsRunning = false;
+		// wait for the frame that is being passed on the caller thread
+		Mutex::Autolock lock(pipeline_mutex);
+		setState(PIPELINE_STATE_INITIALIZED);
+	}
+
+	RETURN(0, int);
 }
 
 int DistributePipeline::handle_frame(uvc_frame_t *frame) {
@@ -53,6 +83,24 @@ int DistributePipeline::handle_frame(uvc_frame_t *frame) {
 	RETURN(0, int);
 }
 
+/**
+ * pass the frame to all pipelines on the caller thread without copying it here,
+ * each buffered pipeline copies it into its own queue
+ */
+int DistributePipeline::queueFrame(uvc_frame_t *frame) {
+	ENTER();
+
+	int result = UVC_ERROR_OTHER;
+	if (LIKELY(frame && isRunning())) {
+		result = handle_frame(frame);
+		if (!result) {
+			chain_frame(frame);
+		}
+	}
+
+	RETURN(result, int);
+}
+
 int DistributePipeline::addPipeline(IPipeline *pipeline) {
 	ENTER();
 
@@ -188,7 +236,7 @@ static jint nativeStop(JNIEnv *env, jobject thiz,
 //**********************************************************************
 //
 //**********************************************************************
-static JNINativeMethod methods[] = {
+static const JNINativeMethod methods[] = {
 	{ "nativeCreate",					"()J", (void *) nativeCreate },
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 
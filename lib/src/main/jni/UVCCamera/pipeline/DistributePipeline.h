@@ -5,21 +5,27 @@
 #ifndef PUPILMOBILE_DISTRIBUTEPIPELINE_H
 #define PUPILMOBILE_DISTRIBUTEPIPELINE_H
 
-#include "AbstractBufferedPipeline.h"
+#include <list>
+#include "IPipeline.h"
 
 #pragma interface
 
-class DistributePipeline : virtual public AbstractBufferedPipeline {
+/**
+ * pass each frame to all added pipelines on the caller thread,
+ * this has no frame pool nor buffer thread because the frames are not copied here
+ */
+class DistributePipeline : virtual public IPipeline {
 private:
 	std::list<IPipeline *> pipelines;
 protected:
-	virtual void on_start();
-	virtual void on_stop();
-	virtual int handle_frame(uvc_frame_t *frame);
+	int handle_frame(uvc_frame_t *frame);
 public:
-	DistributePipeline(const int &_max_buffer_num = DEFAULT_MAX_FRAME_NUM, const int &init_pool_num = DEFAULT_INIT_FRAME_POOL_SZ,
-			const size_t &default_frame_size = DEFAULT_FRAME_SZ, const bool &drop_frames_when_buffer_empty = true);
+	DistributePipeline(const size_t &default_frame_size = DEFAULT_FRAME_SZ);
 	virtual ~DistributePipeline();
+	virtual int release();
+	virtual int start();
+	virtual int stop();
+	virtual int queueFrame(uvc_frame_t *frame);
 	virtual int addPipeline(IPipeline *pipeline);
 	virtual int removePipeline(IPipeline *pipeline);
 };
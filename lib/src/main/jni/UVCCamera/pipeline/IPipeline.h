@@ -10,6 +10,7 @@
 #include "Mutex.h"
 
 #include "libUVCCamera.h"
+#include "FramePool.h"
 
 #pragma interface
 
@@ -20,6 +21,7 @@ using namespace android;
 typedef enum pipeline_type {
 	PIPELINE_TYPE_SIMPLE_BUFFERED = 0,
 	PIPELINE_TYPE_SQLITE_BUFFERED = 10,
+	PIPELINE_TYPE_MMAP_BUFFERED = 20,
 	PIPELINE_TYPE_UVC_CONTROL = 100,
 	PIPELINE_TYPE_CALLBACK = 200,
 	PIPELINE_TYPE_CONVERT = 300,
@@ -68,6 +70,10 @@ public:
 	virtual int start() { return 0; };
 	virtual int stop() { return 0; };
 	virtual int queueFrame(uvc_frame_t *frame) = 0;
+	/** @return 0: success, -1: this pipeline has no frame pool or invalid policy */
+	virtual int setFramePoolPolicy(const frame_pool_policy_t &policy) { return -1; };
+	/** @param values at least FRAME_POOL_COUNTER_NUM */
+	virtual int getFramePoolCounters(int64_t *values) { return -1; };
 };
 
 
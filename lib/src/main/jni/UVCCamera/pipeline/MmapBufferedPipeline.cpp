@@ -0,0 +1,584 @@
+//
+// Created by saki on 15/11/09.
+//
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <errno.h>
+#include <fcntl.h>
+#include <inttypes.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <limits.h>
+
+#include "utilbase.h"
+#include "common_utils.h"
+
+#include "libUVCCamera.h"
+#include "pipeline_helper.h"
+#include "IPipeline.h"
+#include "MmapBufferedPipeline.h"
+#include "Mp4Writer.h"
+
+#define INIT_FRAME_POOL_SZ 2
+#define MAX_FRAME_NUM 32	// max approx. 1sec, absorbs stalls of writeback
+
+#define RECORD_ALIGN(n) (((n) + 7) & ~((uint64_t)7))
+
+static inline int64_t clock_ns(const clockid_t &clock) {
+	struct timespec ts;
+	clock_gettime(clock, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+/* public */
+MmapBufferedPipeline::MmapBufferedPipeline(const char *_dir,
+	const uint64_t &_segment_bytes, const int &segment_num, const int64_t &_limit_ns, const bool &clear)
+:	IPipeline(DEFAULT_FRAME_SZ),
+	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, DEFAULT_FRAME_SZ),
+	dir(_dir ? _dir : ""),
+	segment_bytes(_segment_bytes & ~((uint64_t)7)),
+	limit_ns(_limit_ns),
+	current(0),
+	generation(0),
+	dropped(0)
+{
+	ENTER();
+
+	if (LIKELY(!dir.empty() && (segment_bytes > MMAP_SEGMENT_HEADER_SZ)
+		&& (segment_num >= MIN_SEGMENT_NUM))) {
+
+		if (UNLIKELY(open_segments(segment_num, clear))) {
+			close_segments();
+		}
+	}
+	setState(PIPELINE_STATE_INITIALIZED);
+
+	EXIT();
+}
+
+/* public */
+MmapBufferedPipeline::~MmapBufferedPipeline() {
+	ENTER();
+
+	release();
+	close_segments();
+
+	EXIT();
+}
+
+/* public */
+bool MmapBufferedPipeline::isValid() const {
+	return !segments.empty();
+}
+
+/* public */
+int MmapBufferedPipeline::release() {
+	ENTER();
+
+	AbstractBufferedPipeline::release();
+	Mutex::Autolock lock(ring_mutex);
+	if (!segments.empty()) {
+		msync(segments[current].base, segment_bytes, MS_ASYNC);
+	}
+
+	RETURN(0, int);
+}
+
+/* public */
+int MmapBufferedPipeline::clear() {
+	ENTER();
+
+	if (isRunning()) {
+		RETURN(-1, int);
+	}
+	Mutex::Autolock lock(ring_mutex);
+	const int n = segments.size();
+	for (int i = 0; i < n; i++) {
+		if (segments[i].pinned) {
+			// being exported
+			RETURN(-1, int);
+		}
+	}
+	for (int i = 0; i < n; i++) {
+		reset_segment(segments[i], 0);
+	}
+	if (n) {
+		reset_segment(segments[current], ++generation);
+	}
+
+	RETURN(0, int);
+}
+
+/**
+ * open, map and load the segment files, the segment that has the largest generation
+ * is the current one and following frames are appended to it.
+ */
+int MmapBufferedPipeline::open_segments(const int &segment_num, const bool &clear) {
+	ENTER();
+
+	if (UNLIKELY(mkdir(dir.c_str(), 0700) && (errno != EEXIST))) {
+		LOGE("failed to create %s:errno=%d", dir.c_str(), errno);
+		RETURN(-1, int);
+	}
+	segments.resize(segment_num);
+	for (int i = 0; i < segment_num; i++) {
+		segment_t &segment = segments[i];
+		segment.fd = -1;
+		segment.base = NULL;
+		segment.header = NULL;
+		segment.pinned = 0;
+	}
+	char path[PATH_MAX];
+	for (int i = 0; i < segment_num; i++) {
+		segment_t &segment = segments[i];
+		snprintf(path, sizeof(path), "%s/segment-%02d.ring", dir.c_str(), i);
+		segment.fd = open(path, O_RDWR | O_CREAT | O_CLOEXEC, 0600);
+		if (UNLIKELY(segment.fd < 0)) {
+			LOGE("failed to open %s:errno=%d", path, errno);
+			RETURN(-1, int);
+		}
+		struct stat st;
+		if (UNLIKELY(fstat(segment.fd, &st))) {
+			RETURN(-1, int);
+		}
+		if ((uint64_t)st.st_size != segment_bytes) {
+			// allocate blocks now so that writing frames does not fail or fragment the file
+			if (UNLIKELY(ftruncate(segment.fd, segment_bytes))) {
+				LOGE("failed to resize %s:errno=%d", path, errno);
+				RETURN(-1, int);
+			}
+			const int r = posix_fallocate(segment.fd, 0, segment_bytes);
+			if (UNLIKELY(r && (r != EOPNOTSUPP) && (r != EINVAL))) {
+				LOGE("failed to allocate %s:err=%d", path, r);
+				RETURN(-1, int);
+			}
+		}
+		void *base = mmap(NULL, segment_bytes, PROT_READ | PROT_WRITE, MAP_SHARED, segment.fd, 0);
+		if (UNLIKELY(base == MAP_FAILED)) {
+			LOGE("failed to map %s:errno=%d", path, errno);
+			RETURN(-1, int);
+		}
+		madvise(base, segment_bytes, MADV_SEQUENTIAL);
+		segment.base = (uint8_t *)base;
+		segment.header = (mmap_segment_header_t *)base;
+		if (clear || load_segment(segment)) {
+			reset_segment(segment, 0);
+		}
+		if (segment.header->generation > generation) {
+			generation = segment.header->generation;
+			current = i;
+		}
+	}
+	if (!generation) {
+		// all segments are empty
+		current = 0;
+		reset_segment(segments[current], ++generation);
+	}
+	LOGI("segments=%d,current=%d,generation=%" PRIu64, segment_num, current, generation);
+
+	RETURN(0, int);
+}
+
+void MmapBufferedPipeline::close_segments() {
+	ENTER();
+
+	Mutex::Autolock lock(ring_mutex);
+	for (auto iter = segments.begin(); iter != segments.end(); iter++) {
+		if ((*iter).base) {
+			munmap((*iter).base, segment_bytes);
+		}
+		if ((*iter).fd >= 0) {
+			::close((*iter).fd);
+		}
+	}
+	segments.clear();
+
+	EXIT();
+}
+
+/**
+ * validate the segment and rebuild its index from the committed records
+ * @return 0: the segment is valid, -1: the segment should be reset
+ */
+int MmapBufferedPipeline::load_segment(segment_t &segment) {
+	ENTER();
+
+	mmap_segment_header_t *header = segment.header;
+	if ((header->magic != MMAP_SEGMENT_MAGIC) || (header->version != MMAP_SEGMENT_VERSION)
+		|| (header->segment_bytes != segment_bytes)
+		|| (header->committed < MMAP_SEGMENT_HEADER_SZ) || (header->committed > segment_bytes)) {
+		RETURN(-1, int);
+	}
+	segment.index.clear();
+	uint64_t offset = MMAP_SEGMENT_HEADER_SZ;
+	for ( ; offset + sizeof(mmap_record_header_t) <= header->committed ; ) {
+		const mmap_record_header_t *rec = (const mmap_record_header_t *)(segment.base + offset);
+		const uint64_t bytes = RECORD_ALIGN(sizeof(mmap_record_header_t) + rec->data_bytes);
+		if ((rec->magic != MMAP_RECORD_MAGIC) || (offset + bytes > header->committed)) {
+			break;
+		}
+		const frame_index_t index = { rec->pts_ns, offset };
+		segment.index.push_back(index);
+		offset += bytes;
+	}
+	// discard broken records if any
+	header->committed = offset;
+
+	RETURN(0, int);
+}
+
+void MmapBufferedPipeline::reset_segment(segment_t &segment, const uint64_t &_generation) {
+	mmap_segment_header_t *header = segment.header;
+	segment.index.clear();
+	header->magic = MMAP_SEGMENT_MAGIC;
+	header->version = MMAP_SEGMENT_VERSION;
+	header->segment_bytes = segment_bytes;
+	__atomic_store_n(&header->committed, (uint64_t)MMAP_SEGMENT_HEADER_SZ, __ATOMIC_RELEASE);
+	header->generation = _generation;
+}
+
+/**
+ * move to the oldest segment and discard its frames
+ * @return 0: success, -1: the oldest segment is being exported
+ */
+int MmapBufferedPipeline::next_segment() {
+	ENTER();
+
+	Mutex::Autolock lock(ring_mutex);
+	const int next = (current + 1) % segments.size();
+	if (UNLIKELY(segments[next].pinned)) {
+		RETURN(-1, int);
+	}
+	// start writeback of the filled segment, this does not wait for it
+	msync(segments[current].base, segment_bytes, MS_ASYNC);
+	reset_segment(segments[next], ++generation);
+	current = next;
+
+	RETURN(0, int);
+}
+
+/**
+ * append the frame to the current segment, this is called only on the handler thread
+ */
+int MmapBufferedPipeline::append(uvc_frame_t *frame) {
+	const uint64_t bytes = RECORD_ALIGN(sizeof(mmap_record_header_t) + frame->actual_bytes);
+	if (UNLIKELY(bytes > segment_bytes - MMAP_SEGMENT_HEADER_SZ)) {
+		LOGW("frame is larger than segment:%" PRIu64, (uint64_t)frame->actual_bytes);
+		return -1;
+	}
+	segment_t *segment = &segments[current];
+	uint64_t offset = segment->header->committed;
+	if (offset + bytes > segment_bytes) {
+		if (UNLIKELY(next_segment())) {
+			__atomic_add_fetch(&dropped, 1, __ATOMIC_RELAXED);
+			return -1;
+		}
+		segment = &segments[current];
+		offset = segment->header->committed;
+	}
+	// host time stamp is CLOCK_MONOTONIC, keep the wall clock time to survive restarting
+	const int64_t now_ns = clock_ns(CLOCK_MONOTONIC);
+	const int64_t host_ts_ns = frame->meta.host_ts_ns ? (int64_t)frame->meta.host_ts_ns : now_ns;
+	const int64_t pts_ns = clock_ns(CLOCK_REALTIME) - (now_ns - host_ts_ns);
+
+	mmap_record_header_t *rec = (mmap_record_header_t *)(segment->base + offset);
+	rec->magic = MMAP_RECORD_MAGIC;
+	rec->data_bytes = (uint32_t)frame->actual_bytes;
+	rec->pts_ns = pts_ns;
+	rec->device_pts = frame->meta.pts;
+	rec->sequence = frame->sequence;
+	rec->width = frame->width;
+	rec->height = frame->height;
+	rec->frame_format = frame->frame_format;
+	rec->reserved = 0;
+	memcpy(rec + 1, frame->data, frame->actual_bytes);
+	// commit after the data, a record that was being written when the app died is ignored
+	__atomic_store_n(&segment->header->committed, offset + bytes, __ATOMIC_RELEASE);
+
+	Mutex::Autolock lock(ring_mutex);
+	const frame_index_t index = { pts_ns, offset };
+	segment->index.push_back(index);
+
+	return 0;
+}
+
+void MmapBufferedPipeline::on_start() {
+	ENTER();
+	EXIT();
+}
+
+void MmapBufferedPipeline::on_stop() {
+	ENTER();
+
+	Mutex::Autolock lock(ring_mutex);
+	if (!segments.empty()) {
+		msync(segments[current].base, segment_bytes, MS_ASYNC);
+	}
+
+	EXIT();
+}
+
+int MmapBufferedPipeline::handle_frame(uvc_frame_t *frame) {
+	ENTER();
+
+	if (LIKELY(!segments.empty() && frame->actual_bytes)) {
+		append(frame);
+	}
+
+	RETURN(0, int);	// pass the frame to the next pipeline
+}
+
+/* public */
+int MmapBufferedPipeline::exportMp4(const char *path, const int64_t &start_ns, const int64_t &end_ns) {
+	ENTER();
+
+	typedef struct export_frame {
+		int segment;
+		uint64_t offset;
+	} export_frame_t;
+	std::vector<export_frame_t> frames;
+	std::vector<int> pinned;
+
+	ring_mutex.lock();
+	{
+		// segments from the oldest, the generation of the current one is the largest
+		const int n = segments.size();
+		if (UNLIKELY(!n)) {
+			ring_mutex.unlock();
+			RETURN(-1, int);
+		}
+		int64_t lower = start_ns;
+		const std::vector<frame_index_t> &latest = segments[current].index;
+		if (!latest.empty() && (latest.back().pts_ns - limit_ns > lower)) {
+			lower = latest.back().pts_ns - limit_ns;
+		}
+		for (int i = 1; i <= n; i++) {
+			const int ix = (current + i) % n;
+			segment_t &segment = segments[ix];
+			if (!segment.header->generation) continue;
+			bool found = false;
+			for (auto iter = segment.index.begin(); iter != segment.index.end(); iter++) {
+				if (((*iter).pts_ns >= lower) && ((*iter).pts_ns <= end_ns)) {
+					const export_frame_t frame = { ix, (*iter).offset };
+					frames.push_back(frame);
+					found = true;
+				}
+			}
+			if (found) {
+				// keep the segment from being reused while exporting
+				segment.pinned++;
+				pinned.push_back(ix);
+			}
+		}
+	}
+	ring_mutex.unlock();
+
+	int result = 0;
+	if (!frames.empty()) {
+		Mp4Writer writer;
+		bool opened = false;
+		uint32_t width = 0, height = 0;
+		for (auto iter = frames.begin(); iter != frames.end(); iter++) {
+			const mmap_record_header_t *rec
+				= (const mmap_record_header_t *)(segments[(*iter).segment].base + (*iter).offset);
+			if ((rec->magic != MMAP_RECORD_MAGIC) || (rec->frame_format != UVC_FRAME_FORMAT_MJPEG)) {
+				continue;
+			}
+			if (!opened) {
+				width = rec->width;
+				height = rec->height;
+				if (UNLIKELY(writer.open(path, width, height))) {
+					result = -1;
+					break;
+				}
+				opened = true;
+			} else if ((rec->width != width) || (rec->height != height)) {
+				continue;
+			}
+			if (UNLIKELY(writer.write_sample(rec + 1, rec->data_bytes, rec->pts_ns))) {
+				result = -1;
+				break;
+			}
+		}
+		if (opened) {
+			const int r = writer.close();
+			if (!result) {
+				result = r;
+			}
+		}
+	}
+
+	ring_mutex.lock();
+	{
+		for (auto iter = pinned.begin(); iter != pinned.end(); iter++) {
+			segments[*iter].pinned--;
+		}
+	}
+	ring_mutex.unlock();
+
+	RETURN(result, int);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
+	jstring dir_str, jlong segment_bytes, jint segment_num, jlong limit_ms, jboolean clear) {
+
+	ENTER();
+	MmapBufferedPipeline *pipeline = NULL;
+	const char *c_dir = dir_str ? env->GetStringUTFChars(dir_str, JNI_FALSE) : NULL;
+	if (LIKELY(c_dir)) {
+		pipeline = new MmapBufferedPipeline(c_dir,
+			segment_bytes, segment_num, limit_ms * 1000000LL, clear);
+		env->ReleaseStringUTFChars(dir_str, c_dir);
+		if (UNLIKELY(!pipeline->isValid())) {
+			SAFE_DELETE(pipeline);
+		}
+	}
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
+	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->release();
+		SAFE_DELETE(pipeline);
+	}
+	EXIT();
+}
+
+static jint nativeGetState(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jint result = 0;
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (pipeline) {
+		result = pipeline->getState();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jobject pipeline_obj) {
+
+	ENTER();
+	jint result = JNI_ERR;
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (pipeline) {
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeStart(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+
+	int result = JNI_ERR;
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->start();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStop(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->stop();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeExportMp4(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jstring path_str, jlong start_ms, jlong end_ms) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && path_str)) {
+		const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+		result = pipeline->exportMp4(c_path, start_ms * 1000000LL, end_ms * 1000000LL);
+		env->ReleaseStringUTFChars(path_str, c_path);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeClear(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->clear();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetDropped(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = 0;
+	ENTER();
+	MmapBufferedPipeline *pipeline = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->getDropped();
+	}
+	RETURN(result, jint);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static const JNINativeMethod methods[] = {
+	{ "nativeCreate",					"(Ljava/lang/String;JIJZ)J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeGetState",					"(J)I", (void *) nativeGetState },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
+	{ "nativeStart",					"(J)I", (void *) nativeStart },
+	{ "nativeStop",						"(J)I", (void *) nativeStop },
+
+	{ "nativeExportMp4",				"(JLjava/lang/String;JJ)I", (void *) nativeExportMp4 },
+	{ "nativeClear",					"(J)I", (void *) nativeClear },
+	{ "nativeGetDropped",				"(J)I", (void *) nativeGetDropped },
+};
+
+int register_mmap_buffered_pipeline(JNIEnv *env) {
+	LOGV("register_mmap_buffered_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/MmapBufferedPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
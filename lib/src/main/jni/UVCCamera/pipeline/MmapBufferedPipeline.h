@@ -0,0 +1,132 @@
+//
+// Created by saki on 15/11/09.
+//
+
+#ifndef PUPILMOBILE_MMAPBUFFEREDPIPELINE_H
+#define PUPILMOBILE_MMAPBUFFEREDPIPELINE_H
+
+#include <stdlib.h>
+#include <stdint.h>
+#include <pthread.h>
+#include <vector>
+#include <string>
+#include "Mutex.h"
+
+#include "libUVCCamera.h"
+#include "AbstractBufferedPipeline.h"
+
+#pragma interface
+
+using namespace android;
+
+#define MMAP_SEGMENT_MAGIC 0x52435655		// 'UVCR'
+#define MMAP_RECORD_MAGIC 0x4d415246		// 'FRAM'
+#define MMAP_SEGMENT_VERSION 1
+#define MMAP_SEGMENT_HEADER_SZ 4096
+#define DEFAULT_SEGMENT_BYTES (32 * 1024 * 1024)
+#define DEFAULT_SEGMENT_NUM 8
+#define MIN_SEGMENT_NUM 2
+#define DTIME_LIMIT_NSEC 30000000000LL		// 30sec
+
+/**
+ * header at the top of each segment file
+ */
+typedef struct mmap_segment_header {
+	uint32_t magic;
+	uint32_t version;
+	uint64_t generation;		// increases every time a segment is reused, 0: empty
+	uint64_t segment_bytes;
+	uint64_t committed;			// end offset of the last complete record
+} mmap_segment_header_t;
+
+/**
+ * header of each frame, the frame data follows and the record is padded to 8 bytes
+ */
+typedef struct mmap_record_header {
+	uint32_t magic;
+	uint32_t data_bytes;
+	int64_t pts_ns;				// CLOCK_REALTIME when the frame was received
+	uint32_t device_pts;		// PTS from the payload header(device clock)
+	uint32_t sequence;
+	uint32_t width;
+	uint32_t height;
+	uint32_t frame_format;
+	uint32_t reserved;
+} mmap_record_header_t;
+
+/**
+ * keeps the latest frames in memory mapped segment files as a ring buffer
+ * and passes the frames to the next pipeline as they are.
+ * the segments are written only through the page cache(no write/fsync on the handler thread),
+ * the records are committed in the segment header after the data,
+ * so the frames survive restarting the app and #exportMp4 can write the frames as mp4
+ * without decoding them. put this pipeline before conversion to keep MJPEG frames.
+ */
+class MmapBufferedPipeline : virtual public AbstractBufferedPipeline {
+private:
+	typedef struct frame_index {
+		int64_t pts_ns;
+		uint64_t offset;		// offset of mmap_record_header_t in the segment
+	} frame_index_t;
+	typedef struct segment {
+		int fd;
+		uint8_t *base;
+		mmap_segment_header_t *header;
+		std::vector<frame_index_t> index;	// in the order of the records
+		int pinned;				// number of #exportMp4 that read this segment
+	} segment_t;
+
+	const std::string dir;
+	const uint64_t segment_bytes;
+	const int64_t limit_ns;
+	std::vector<segment_t> segments;
+	int current;				// segment that is written now
+	uint64_t generation;		// of the current segment
+	volatile uint32_t dropped;
+	// guards the index, the current segment and pinned
+	mutable Mutex ring_mutex;
+
+	int open_segments(const int &segment_num, const bool &clear);
+	void close_segments();
+	int load_segment(segment_t &segment);
+	void reset_segment(segment_t &segment, const uint64_t &generation);
+	int next_segment();
+	int append(uvc_frame_t *frame);
+protected:
+	virtual void on_start();
+	virtual void on_stop();
+	virtual int handle_frame(uvc_frame_t *frame);
+public:
+	/**
+	 * @param dir directory of the segment files, this is created if it does not exist
+	 * @param segment_bytes size of each segment file
+	 * @param segment_num number of segment files
+	 * @param limit_ns frames older than this from the latest frame are not exported
+	 * @param clear discard frames kept in the segment files
+	 */
+	MmapBufferedPipeline(const char *dir,
+		const uint64_t &segment_bytes = DEFAULT_SEGMENT_BYTES, const int &segment_num = DEFAULT_SEGMENT_NUM,
+		const int64_t &limit_ns = DTIME_LIMIT_NSEC, const bool &clear = false);
+	virtual ~MmapBufferedPipeline();
+	/** @return true if the segment files are ready */
+	bool isValid() const;
+	virtual int release();
+	/**
+	 * discard all frames, this can be called only while the pipeline is not running
+	 * @return 0: success, -1: running or being exported
+	 */
+	int clear();
+	/** number of frames dropped because the segment to reuse was being exported */
+	inline uint32_t getDropped() const { return dropped; };
+	/**
+	 * write MJPEG frames within the range to the mp4 file without decoding them,
+	 * this can be called while the pipeline is running.
+	 * frames of the other formats and frames whose size differs from the first one are skipped
+	 * @param start_ns CLOCK_REALTIME in nanoseconds
+	 * @param end_ns CLOCK_REALTIME in nanoseconds
+	 * @return number of frames written, negative value on error
+	 */
+	int exportMp4(const char *path, const int64_t &start_ns, const int64_t &end_ns);
+};
+
+#endif //PUPILMOBILE_MMAPBUFFEREDPIPELINE_H
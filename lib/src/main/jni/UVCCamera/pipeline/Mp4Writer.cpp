@@ -0,0 +1,364 @@
+//
+// Created by saki on 15/11/09.
+//
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <string.h>
+#include "utilbase.h"
+#include "Mp4Writer.h"
+
+#define DEFAULT_SAMPLE_DURATION (MP4_TIMESCALE / 30)
+#define MOVIE_TIMESCALE 1000
+
+//********************************************************************************
+// helpers to build boxes in memory, all values are big endian
+//********************************************************************************
+typedef std::vector<uint8_t> box_buffer_t;
+
+static inline void put8(box_buffer_t &buf, const uint32_t &v) {
+	buf.push_back((uint8_t)v);
+}
+
+static inline void put16(box_buffer_t &buf, const uint32_t &v) {
+	buf.push_back((uint8_t)(v >> 8));
+	buf.push_back((uint8_t)v);
+}
+
+static inline void put32(box_buffer_t &buf, const uint32_t &v) {
+	buf.push_back((uint8_t)(v >> 24));
+	buf.push_back((uint8_t)(v >> 16));
+	buf.push_back((uint8_t)(v >> 8));
+	buf.push_back((uint8_t)v);
+}
+
+static inline void put64(box_buffer_t &buf, const uint64_t &v) {
+	put32(buf, (uint32_t)(v >> 32));
+	put32(buf, (uint32_t)v);
+}
+
+static inline void put_tag(box_buffer_t &buf, const char *tag) {
+	buf.insert(buf.end(), tag, tag + 4);
+}
+
+static inline void put_zero(box_buffer_t &buf, const size_t &n) {
+	buf.insert(buf.end(), n, 0);
+}
+
+/** @return position of the box to pass to #end_box */
+static size_t begin_box(box_buffer_t &buf, const char *tag) {
+	const size_t pos = buf.size();
+	put32(buf, 0);
+	put_tag(buf, tag);
+	return pos;
+}
+
+static size_t begin_full_box(box_buffer_t &buf, const char *tag, const uint32_t &version, const uint32_t &flags) {
+	const size_t pos = begin_box(buf, tag);
+	put32(buf, (version << 24) | (flags & 0xffffff));
+	return pos;
+}
+
+static void end_box(box_buffer_t &buf, const size_t &pos) {
+	const uint32_t sz = (uint32_t)(buf.size() - pos);
+	buf[pos] = (uint8_t)(sz >> 24);
+	buf[pos + 1] = (uint8_t)(sz >> 16);
+	buf[pos + 2] = (uint8_t)(sz >> 8);
+	buf[pos + 3] = (uint8_t)sz;
+}
+
+static void put_matrix(box_buffer_t &buf) {
+	// unity matrix
+	put32(buf, 0x00010000); put32(buf, 0); put32(buf, 0);
+	put32(buf, 0); put32(buf, 0x00010000); put32(buf, 0);
+	put32(buf, 0); put32(buf, 0); put32(buf, 0x40000000);
+}
+
+//********************************************************************************
+//
+//********************************************************************************
+Mp4Writer::Mp4Writer()
+:	fp(NULL),
+	width(0), height(0),
+	mdat_offset(0),
+	mdat_bytes(0),
+	first_pts_ns(0), last_pts_ns(0)
+{
+	ENTER();
+	EXIT();
+}
+
+Mp4Writer::~Mp4Writer() {
+	ENTER();
+
+	if (fp) {
+		fclose(fp);
+		fp = NULL;
+	}
+
+	EXIT();
+}
+
+int Mp4Writer::open(const char *path, const uint32_t &_width, const uint32_t &_height) {
+	ENTER();
+
+	fp = fopen(path, "wb");
+	if (UNLIKELY(!fp)) {
+		LOGE("failed to create %s", path);
+		RETURN(-1, int);
+	}
+	width = _width;
+	height = _height;
+	sample_sizes.clear();
+	sample_durations.clear();
+
+	box_buffer_t buf;
+	size_t pos = begin_box(buf, "ftyp");
+	put_tag(buf, "isom");
+	put32(buf, 0x200);
+	put_tag(buf, "isom");
+	put_tag(buf, "iso2");
+	put_tag(buf, "mp41");
+	end_box(buf, pos);
+	// mdat with 64-bit size, the size is written by #close
+	mdat_offset = buf.size();
+	put32(buf, 1);
+	put_tag(buf, "mdat");
+	put64(buf, 0);
+	mdat_bytes = 16;
+	if (UNLIKELY(fwrite(&buf[0], 1, buf.size(), fp) != buf.size())) {
+		LOGE("failed to write header");
+		fclose(fp);
+		fp = NULL;
+		RETURN(-1, int);
+	}
+
+	RETURN(0, int);
+}
+
+int Mp4Writer::write_sample(const void *data, const size_t &bytes, const int64_t &pts_ns) {
+	if (UNLIKELY(!fp)) return -1;
+
+	if (UNLIKELY(fwrite(data, 1, bytes, fp) != bytes)) {
+		LOGE("failed to write sample");
+		return -1;
+	}
+	if (sample_sizes.empty()) {
+		first_pts_ns = pts_ns;
+	} else {
+		// duration of the previous sample
+		int64_t duration = (pts_ns - last_pts_ns) * MP4_TIMESCALE / 1000000000LL;
+		if (duration <= 0) duration = 1;
+		sample_durations.push_back((uint32_t)duration);
+	}
+	last_pts_ns = pts_ns;
+	sample_sizes.push_back((uint32_t)bytes);
+	mdat_bytes += bytes;
+	return 0;
+}
+
+int Mp4Writer::close() {
+	ENTER();
+
+	int result = -1;
+	if (LIKELY(fp)) {
+		if (!sample_sizes.empty()) {
+			// last sample has the same duration as the previous one
+			sample_durations.push_back(sample_durations.empty()
+				? DEFAULT_SAMPLE_DURATION : sample_durations.back());
+			write_moov();
+			fseeko(fp, mdat_offset + 8, SEEK_SET);
+			const uint8_t sz[8] = {
+				(uint8_t)(mdat_bytes >> 56), (uint8_t)(mdat_bytes >> 48),
+				(uint8_t)(mdat_bytes >> 40), (uint8_t)(mdat_bytes >> 32),
+				(uint8_t)(mdat_bytes >> 24), (uint8_t)(mdat_bytes >> 16),
+				(uint8_t)(mdat_bytes >> 8), (uint8_t)mdat_bytes };
+			fwrite(sz, 1, sizeof(sz), fp);
+		}
+		result = ferror(fp) ? -1 : sample_count();
+		if (fclose(fp)) {
+			result = -1;
+		}
+		fp = NULL;
+	}
+
+	RETURN(result, int);
+}
+
+void Mp4Writer::write_moov() {
+	ENTER();
+
+	uint64_t media_duration = 0;
+	for (auto iter = sample_durations.begin(); iter != sample_durations.end(); iter++) {
+		media_duration += *iter;
+	}
+	const uint32_t movie_duration = (uint32_t)(media_duration * MOVIE_TIMESCALE / MP4_TIMESCALE);
+	const uint32_t n = (uint32_t)sample_sizes.size();
+
+	box_buffer_t buf;
+	buf.reserve(1024 + n * 12);
+	const size_t moov = begin_box(buf, "moov");
+	{
+		const size_t mvhd = begin_full_box(buf, "mvhd", 0, 0);
+		put32(buf, 0);					// creation_time
+		put32(buf, 0);					// modification_time
+		put32(buf, MOVIE_TIMESCALE);
+		put32(buf, movie_duration);
+		put32(buf, 0x00010000);			// rate 1.0
+		put16(buf, 0x0100);				// volume 1.0
+		put_zero(buf, 10);				// reserved
+		put_matrix(buf);
+		put_zero(buf, 24);				// pre_defined
+		put32(buf, 2);					// next_track_ID
+		end_box(buf, mvhd);
+	}
+	const size_t trak = begin_box(buf, "trak");
+	{
+		const size_t tkhd = begin_full_box(buf, "tkhd", 0, 0x03);	// enabled, in movie
+		put32(buf, 0);					// creation_time
+		put32(buf, 0);					// modification_time
+		put32(buf, 1);					// track_ID
+		put32(buf, 0);					// reserved
+		put32(buf, movie_duration);
+		put_zero(buf, 8);				// reserved
+		put16(buf, 0);					// layer
+		put16(buf, 0);					// alternate_group
+		put16(buf, 0);					// volume
+		put16(buf, 0);					// reserved
+		put_matrix(buf);
+		put32(buf, width << 16);
+		put32(buf, height << 16);
+		end_box(buf, tkhd);
+	}
+	const size_t mdia = begin_box(buf, "mdia");
+	{
+		const size_t mdhd = begin_full_box(buf, "mdhd", 0, 0);
+		put32(buf, 0);					// creation_time
+		put32(buf, 0);					// modification_time
+		put32(buf, MP4_TIMESCALE);
+		put32(buf, (uint32_t)media_duration);
+		put16(buf, 0x55c4);				// language 'und'
+		put16(buf, 0);					// pre_defined
+		end_box(buf, mdhd);
+
+		const size_t hdlr = begin_full_box(buf, "hdlr", 0, 0);
+		put32(buf, 0);					// pre_defined
+		put_tag(buf, "vide");
+		put_zero(buf, 12);				// reserved
+		static const char name[] = "VideoHandler";
+		buf.insert(buf.end(), name, name + sizeof(name));	// with terminating null
+		end_box(buf, hdlr);
+	}
+	const size_t minf = begin_box(buf, "minf");
+	{
+		const size_t vmhd = begin_full_box(buf, "vmhd", 0, 1);
+		put16(buf, 0);					// graphicsmode
+		put_zero(buf, 6);				// opcolor
+		end_box(buf, vmhd);
+
+		const size_t dinf = begin_box(buf, "dinf");
+		const size_t dref = begin_full_box(buf, "dref", 0, 0);
+		put32(buf, 1);					// entry_count
+		const size_t url = begin_full_box(buf, "url ", 0, 1);	// data is in this file
+		end_box(buf, url);
+		end_box(buf, dref);
+		end_box(buf, dinf);
+	}
+	const size_t stbl = begin_box(buf, "stbl");
+	{
+		const size_t stsd = begin_full_box(buf, "stsd", 0, 0);
+		put32(buf, 1);					// entry_count
+		const size_t mp4v = begin_box(buf, "mp4v");
+		put_zero(buf, 6);				// reserved
+		put16(buf, 1);					// data_reference_index
+		put_zero(buf, 16);				// pre_defined, reserved
+		put16(buf, width);
+		put16(buf, height);
+		put32(buf, 0x00480000);			// horizresolution 72dpi
+		put32(buf, 0x00480000);			// vertresolution 72dpi
+		put32(buf, 0);					// reserved
+		put16(buf, 1);					// frame_count
+		put_zero(buf, 32);				// compressorname
+		put16(buf, 0x0018);				// depth
+		put16(buf, 0xffff);				// pre_defined
+		{
+			const size_t esds = begin_full_box(buf, "esds", 0, 0);
+			put8(buf, 0x03);			// ES_DescrTag
+			put8(buf, 3 + 15 + 3);
+			put16(buf, 1);				// ES_ID
+			put8(buf, 0);				// flags
+			put8(buf, 0x04);			// DecoderConfigDescrTag
+			put8(buf, 13);
+			put8(buf, 0x6c);			// objectTypeIndication, JPEG
+			put8(buf, (0x04 << 2) | 1);	// streamType visual
+			put8(buf, 0); put16(buf, 0);	// bufferSizeDB
+			put32(buf, 0);				// maxBitrate
+			put32(buf, 0);				// avgBitrate
+			put8(buf, 0x06);			// SLConfigDescrTag
+			put8(buf, 1);
+			put8(buf, 0x02);			// predefined for mp4
+			end_box(buf, esds);
+		}
+		end_box(buf, mp4v);
+		end_box(buf, stsd);
+
+		// run length of the sample durations
+		const size_t stts = begin_full_box(buf, "stts", 0, 0);
+		const size_t stts_count = buf.size();
+		put32(buf, 0);
+		uint32_t entries = 0;
+		for (uint32_t i = 0; i < n; ) {
+			uint32_t j = i + 1;
+			for (; (j < n) && (sample_durations[j] == sample_durations[i]); j++) {}
+			put32(buf, j - i);
+			put32(buf, sample_durations[i]);
+			entries++;
+			i = j;
+		}
+		buf[stts_count] = (uint8_t)(entries >> 24);
+		buf[stts_count + 1] = (uint8_t)(entries >> 16);
+		buf[stts_count + 2] = (uint8_t)(entries >> 8);
+		buf[stts_count + 3] = (uint8_t)entries;
+		end_box(buf, stts);
+
+		// all samples are in one chunk
+		const size_t stsc = begin_full_box(buf, "stsc", 0, 0);
+		put32(buf, 1);					// entry_count
+		put32(buf, 1);					// first_chunk
+		put32(buf, n);					// samples_per_chunk
+		put32(buf, 1);					// sample_description_index
+		end_box(buf, stsc);
+
+		const size_t stsz = begin_full_box(buf, "stsz", 0, 0);
+		put32(buf, 0);					// sample_size, 0: each sample has its own size
+		put32(buf, n);
+		for (uint32_t i = 0; i < n; i++) {
+			put32(buf, sample_sizes[i]);
+		}
+		end_box(buf, stsz);
+
+		const size_t co64 = begin_full_box(buf, "co64", 0, 0);
+		put32(buf, 1);					// entry_count
+		put64(buf, mdat_offset + 16);
+		end_box(buf, co64);
+		// no stss, every JPEG frame is a sync sample
+	}
+	end_box(buf, stbl);
+	end_box(buf, minf);
+	end_box(buf, mdia);
+	end_box(buf, trak);
+	end_box(buf, moov);
+
+	fwrite(&buf[0], 1, buf.size(), fp);
+
+	EXIT();
+}
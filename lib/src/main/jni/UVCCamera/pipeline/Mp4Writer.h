@@ -0,0 +1,48 @@
+//
+// Created by saki on 15/11/09.
+//
+
+#ifndef PUPILMOBILE_MP4WRITER_H
+#define PUPILMOBILE_MP4WRITER_H
+
+#include <stdio.h>
+#include <stdint.h>
+#include <vector>
+
+#define MP4_TIMESCALE 90000
+
+/**
+ * minimum ISO base media file(mp4) writer for a single Motion JPEG track.
+ * JPEG frames are written as they are without decoding,
+ * the sample entry is 'mp4v' with objectTypeIndication 0x6C(ISO/IEC 10918-1).
+ * samples are written into one mdat chunk and moov is appended by #close.
+ */
+class Mp4Writer {
+private:
+	FILE *fp;
+	uint32_t width, height;
+	uint64_t mdat_offset;
+	uint64_t mdat_bytes;
+	int64_t first_pts_ns, last_pts_ns;
+	std::vector<uint32_t> sample_sizes;
+	std::vector<uint32_t> sample_durations;
+	// force inhibiting copy/assignment
+	Mp4Writer(const Mp4Writer &src);
+	void operator =(const Mp4Writer &src);
+	void write_moov();
+public:
+	Mp4Writer();
+	~Mp4Writer();
+	/** @return 0: success, -1: failed to create the file */
+	int open(const char *path, const uint32_t &width, const uint32_t &height);
+	/**
+	 * append one JPEG frame
+	 * @param pts_ns presentation time, must not decrease
+	 */
+	int write_sample(const void *data, const size_t &bytes, const int64_t &pts_ns);
+	/** write moov and close the file, @return number of samples or -1 */
+	int close();
+	inline int sample_count() const { return (int)sample_sizes.size(); };
+};
+
+#endif //PUPILMOBILE_MP4WRITER_H
@@ -0,0 +1,42 @@
+//
+// Created by saki on 15/11/05.
+//
+
+#ifndef PUPILMOBILE_MUTEX_H
+#define PUPILMOBILE_MUTEX_H
+
+#include <pthread.h>
+
+// minimum subset of android libutils Mutex on pthread,
+// libutils is not a public NDK library
+namespace android {
+
+class Condition;
+
+class Mutex {
+private:
+	friend class Condition;
+	pthread_mutex_t mMutex;
+	// force inhibiting copy/assignment
+	Mutex(const Mutex &src);
+	void operator =(const Mutex &src);
+public:
+	Mutex() { pthread_mutex_init(&mMutex, NULL); }
+	~Mutex() { pthread_mutex_destroy(&mMutex); }
+	inline int lock() { return -pthread_mutex_lock(&mMutex); }
+	inline void unlock() { pthread_mutex_unlock(&mMutex); }
+	inline int tryLock() { return -pthread_mutex_trylock(&mMutex); }
+
+	class Autolock {
+	private:
+		Mutex &mLock;
+	public:
+		inline Autolock(Mutex &mutex) : mLock(mutex) { mLock.lock(); }
+		inline Autolock(Mutex *mutex) : mLock(*mutex) { mLock.lock(); }
+		inline ~Autolock() { mLock.unlock(); }
+	};
+};
+
+}	// namespace android
+
+#endif //PUPILMOBILE_MUTEX_H
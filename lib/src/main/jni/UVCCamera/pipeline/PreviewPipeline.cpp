@@ -13,6 +13,7 @@
 	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
 #endif
 
+#include <string.h>
 #include <android/native_window_jni.h>
 
 #include "utilbase.h"
@@ -29,7 +30,9 @@
 #define CAPTURE_PIXEL_BYTES 2	// RGB565
 
 PreviewPipeline::PreviewPipeline(const size_t &_data_bytes)
-:	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+:	IPipeline(_data_bytes),
+	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
 	mCaptureWindow(NULL)
 {
 	ENTER();
@@ -60,7 +63,7 @@ static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int he
 		memcpy(dest, src, width);
 		dest += stride_dest; src += stride_src;
 	}
-	for (int i = 0; i < height; i += 8) {
+	for (int i = h8; i < height; i += 8) {
 		memcpy(dest, src, width);
 		dest += stride_dest; src += stride_src;
 		memcpy(dest, src, width);
@@ -99,7 +102,7 @@ static int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 			// use lower transfer bytes
 			const int w = src_w < dest_w ? src_w : dest_w;
 			// use lower height
-			const int h = frame->height < buffer.height ? frame->height : buffer.height;
+			const int h = (int)frame->height < buffer.height ? (int)frame->height : buffer.height;
 			// transfer from frame data to the Surface
 			copyFrame(src, dest, w, h, src_step, dest_step);
 			ANativeWindow_unlockAndPost(*window);
@@ -301,7 +304,7 @@ static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 //**********************************************************************
 //
 //**********************************************************************
-static JNINativeMethod methods[] = {
+static const JNINativeMethod methods[] = {
 	{ "nativeCreate",					"()J", (void *) nativeCreate },
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 
@@ -309,7 +309,7 @@ static jint nativeStop(JNIEnv *env, jobject thiz,
 }
 
 //================================================================================
-static JNINativeMethod methods_publisher_pipeline[] = {
+static const JNINativeMethod methods_publisher_pipeline[] = {
 	{ "nativeCreate", 		"(Ljava/lang/String;Ljava/lang/String;)J", (void *) nativeCreate},
 	{ "nativeDestroy",		"(J)V", (void *) nativeDestroy},
 	{ "nativeSetPipeline",	"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
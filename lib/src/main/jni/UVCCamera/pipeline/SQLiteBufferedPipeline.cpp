@@ -447,7 +447,7 @@ static jint nativeStop(JNIEnv *env, jobject thiz,
 //**********************************************************************
 //
 //**********************************************************************
-static JNINativeMethod methods[] = {
+static const JNINativeMethod methods[] = {
 	{"nativeCreate", "(Ljava/lang/String;Z)J", (void *) nativeCreate},
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 
@@ -3,15 +3,12 @@
 //
 
 #include "utilbase.h"
-#include "Timers.h"
 #include "SimpleBufferedPipeline.h"
-#include "SQLiteBufferedPipeline.h"
-#include "UVCCameraControl.h"
 #include "CallbackPipeline.h"
 #include "ConvertPipeline.h"
 #include "PreviewPipeline.h"
-#include "PublisherPipeline.h"
 #include "DistributePipeline.h"
+#include "MmapBufferedPipeline.h"
 #include "pipeline_helper.h"
 
 IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
@@ -26,11 +23,8 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_SIMPLE_BUFFERED:
 			result = reinterpret_cast<SimpleBufferedPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_SQLITE_BUFFERED:
-			result = reinterpret_cast<SQLiteBufferedPipeline *>(id_pipeline);
-			break;
-		case PIPELINE_TYPE_UVC_CONTROL:
-			result = reinterpret_cast<UVCCameraControl *>(id_pipeline);
+		case PIPELINE_TYPE_MMAP_BUFFERED:
+			result = reinterpret_cast<MmapBufferedPipeline *>(id_pipeline);
 			break;
 		case PIPELINE_TYPE_CALLBACK:
 			result = reinterpret_cast<CallbackPipeline *>(id_pipeline);
@@ -41,9 +35,6 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_PREVIEW:
 			result = reinterpret_cast<PreviewPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_PUBLISHER:
-			result = reinterpret_cast<PublisherPipeline *>(id_pipeline);
-			break;
 		case PIPELINE_TYPE_DISTRIBUTE:
 			result = reinterpret_cast<DistributePipeline *>(id_pipeline);
 			break;
@@ -54,3 +45,54 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 
 	RETURN(result, IPipeline *);
 }
+
+//**********************************************************************
+// native methods common to all pipelines, these are registered to IPipeline
+//**********************************************************************
+static jint nativeSetFramePoolPolicy(JNIEnv *env, jobject thiz,
+	jint initial_frames, jint max_frames, jint low_watermark, jint high_watermark, jint flags) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	IPipeline *pipeline = getPipeline(env, thiz);
+	if (LIKELY(pipeline)) {
+		frame_pool_policy_t policy;
+		policy.initial_frames = initial_frames;
+		policy.max_frames = max_frames;
+		policy.low_watermark = low_watermark;
+		policy.high_watermark = high_watermark;
+		policy.flags = flags;
+		result = pipeline->setFramePoolPolicy(policy);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetFramePoolCounters(JNIEnv *env, jobject thiz, jlongArray values_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	IPipeline *pipeline = getPipeline(env, thiz);
+	if (LIKELY(pipeline && values_array && (env->GetArrayLength(values_array) >= FRAME_POOL_COUNTER_NUM))) {
+		int64_t values[FRAME_POOL_COUNTER_NUM];
+		result = pipeline->getFramePoolCounters(values);
+		if (LIKELY(!result)) {
+			env->SetLongArrayRegion(values_array, 0, FRAME_POOL_COUNTER_NUM, (const jlong *)values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static const JNINativeMethod methods[] = {
+	{ "nativeSetFramePoolPolicy",		"(IIIII)I", (void *) nativeSetFramePoolPolicy },
+	{ "nativeGetFramePoolCounters",		"([J)I", (void *) nativeGetFramePoolCounters },
+};
+
+int register_pipeline(JNIEnv *env) {
+	LOGV("register_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/IPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
@@ -0,0 +1,281 @@
+/* Benchmarks FrameRing (framering.h) against a mutex/condition variable queue
+ * like the one it replaced, and checks that every item is delivered exactly once.
+ *
+ * usage: ring_bench [items] [depth] [frames] [interval_us]
+ *
+ * Each throughput case moves <items> pointers from the producers to the consumers,
+ * consumers block in wait() while the queue is empty, and prints the
+ * throughput in Mitems/s. "drop-oldest" pushes with FRAME_RING_DROP_OLDEST
+ * like the capture queue does, so it counts the dropped items instead of
+ * requiring that all of them arrive.
+ * Each latency case pushes <frames> items one at a time every <interval_us>
+ * like a camera delivers frames, so the consumers are asleep in wait() when an item
+ * arrives, and prints the median/99th percentile/max time from push to the
+ * return of wait() in microseconds. This is what a preview frame sees on the way
+ * through the queues, the throughput cases never let the consumers sleep.
+ * Exits with 1 if an item is lost, duplicated or delivered out of order for a single producer. */
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdint.h>
+#include <time.h>
+#include <unistd.h>
+#include <algorithm>
+#include <pthread.h>
+#include <sched.h>
+
+#include "framering.h"
+
+#define MAX_THREADS 4
+
+/* queue with the same interface that is protected by a mutex */
+class LockedQueue {
+private:
+	void **m_items;
+	int m_depth;
+	int m_head;
+	int m_size;
+	bool m_interrupted;
+	pthread_mutex_t m_mutex;
+	pthread_cond_t m_cond;
+public:
+	LockedQueue(const int depth)
+		: m_items(new void *[depth]), m_depth(depth), m_head(0), m_size(0), m_interrupted(false) {
+		pthread_mutex_init(&m_mutex, NULL);
+		pthread_cond_init(&m_cond, NULL);
+	}
+	~LockedQueue() {
+		pthread_cond_destroy(&m_cond);
+		pthread_mutex_destroy(&m_mutex);
+		delete [] m_items;
+	}
+	bool push(void *item) {
+		pthread_mutex_lock(&m_mutex);
+		const bool result = m_size < m_depth;
+		if (result) {
+			m_items[(m_head + m_size++) % m_depth] = item;
+			pthread_cond_signal(&m_cond);
+		}
+		pthread_mutex_unlock(&m_mutex);
+		return result;
+	}
+	void *wait() {
+		void *item = NULL;
+		pthread_mutex_lock(&m_mutex);
+		while (!m_size && !m_interrupted) {
+			pthread_cond_wait(&m_cond, &m_mutex);
+		}
+		if (m_size) {
+			item = m_items[m_head];
+			m_head = (m_head + 1) % m_depth;
+			m_size--;
+		} else {
+			m_interrupted = false;
+		}
+		pthread_mutex_unlock(&m_mutex);
+		return item;
+	}
+	void interrupt() {
+		pthread_mutex_lock(&m_mutex);
+		m_interrupted = true;
+		pthread_cond_broadcast(&m_cond);
+		pthread_mutex_unlock(&m_mutex);
+	}
+};
+
+typedef struct bench {
+	FrameRing<void *> *ring;
+	LockedQueue *locked;
+	int drop_oldest;
+	int items;				// items per producer
+	int producers;
+	int interval_us;		// pace of the producer for the latency cases, 0 means as fast as possible
+	unsigned char *seen;	// delivery count of each item
+	int64_t *pushed_ns;		// time each item was pushed at, only for the latency cases
+	int64_t *latency_ns;	// time from push to the return of wait() of each item
+	volatile int errors;
+	volatile int dropped;
+	volatile int finished;	// number of finished consumers
+} bench_t;
+
+typedef struct worker {
+	bench_t *bench;
+	int index;
+} worker_t;
+
+static double now_sec(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+static inline int64_t now_ns(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+/* item values start from 1 because NULL means "nothing" */
+static inline void *to_item(const int producer, const int i, const int items) {
+	return (void *)(intptr_t)(producer * items + i + 1);
+}
+
+static void *producer_func(void *arg) {
+	worker_t *worker = (worker_t *)arg;
+	bench_t *bench = worker->bench;
+	for (int i = 0; i < bench->items; i++) {
+		void *item = to_item(worker->index, i, bench->items);
+		if (bench->interval_us) {
+			// the consumers read this after wait() returns the item, push/pop order the accesses
+			bench->pushed_ns[(intptr_t)item - 1] = now_ns();
+		}
+		if (bench->drop_oldest) {
+			if (bench->ring->put(item)) {
+				__atomic_add_fetch(&bench->dropped, 1, __ATOMIC_RELAXED);
+			}
+		} else if (bench->ring) {
+			for ( ; !bench->ring->push(item) ; ) {
+				sched_yield();
+			}
+		} else {
+			for ( ; !bench->locked->push(item) ; ) {
+				sched_yield();
+			}
+		}
+		if (bench->interval_us) {
+			usleep(bench->interval_us);
+		}
+	}
+	return NULL;
+}
+
+static void *consumer_func(void *arg) {
+	worker_t *worker = (worker_t *)arg;
+	bench_t *bench = worker->bench;
+	intptr_t last = 0;
+	for ( ; ; ) {
+		void *item = bench->ring ? bench->ring->wait() : bench->locked->wait();
+		if (!item) break;	// interrupted, all producers finished and the queue is empty
+		const intptr_t value = (intptr_t)item;
+		if (bench->interval_us) {
+			bench->latency_ns[value - 1] = now_ns() - bench->pushed_ns[value - 1];
+		}
+		if (__atomic_add_fetch(&bench->seen[value - 1], 1, __ATOMIC_RELAXED) != 1) {
+			__atomic_add_fetch(&bench->errors, 1, __ATOMIC_RELAXED);	// duplicated
+		}
+		if ((bench->producers == 1) && (value <= last)) {
+			__atomic_add_fetch(&bench->errors, 1, __ATOMIC_RELAXED);	// out of order
+		}
+		last = value;
+	}
+	__atomic_add_fetch(&bench->finished, 1, __ATOMIC_SEQ_CST);
+	return NULL;
+}
+
+/* returns Mitems/s, or a negative value if an item is lost or duplicated
+ * interval_us is the pace of the producers, the latency is printed instead of the throughput if it is not 0 */
+static double run(const char *name, const int use_ring, const int drop_oldest,
+	const int producers, const int consumers, const int items, const int depth, const int interval_us) {
+
+	bench_t bench;
+	memset(&bench, 0, sizeof(bench));
+	bench.ring = use_ring ? new FrameRing<void *>(depth,
+		drop_oldest ? FRAME_RING_DROP_OLDEST : FRAME_RING_DROP_NEWEST) : NULL;
+	bench.locked = use_ring ? NULL : new LockedQueue(depth);
+	bench.drop_oldest = drop_oldest;
+	bench.items = items / producers;
+	bench.producers = producers;
+	bench.interval_us = interval_us;
+	const int total = bench.items * producers;
+	bench.seen = (unsigned char *)calloc(total, 1);
+	if (interval_us) {
+		bench.pushed_ns = (int64_t *)calloc(total, sizeof(int64_t));
+		bench.latency_ns = (int64_t *)calloc(total, sizeof(int64_t));
+	}
+
+	pthread_t threads[MAX_THREADS * 2];
+	worker_t workers[MAX_THREADS * 2];
+	const double start = now_sec();
+	for (int i = 0; i < consumers; i++) {
+		workers[i].bench = &bench;
+		workers[i].index = i;
+		pthread_create(&threads[i], NULL, consumer_func, &workers[i]);
+	}
+	for (int i = 0; i < producers; i++) {
+		workers[consumers + i].bench = &bench;
+		workers[consumers + i].index = i;
+		pthread_create(&threads[consumers + i], NULL, producer_func, &workers[consumers + i]);
+	}
+	for (int i = 0; i < producers; i++) {
+		pthread_join(threads[consumers + i], NULL);
+	}
+	// wake up the consumers until all of them see the empty queue and leave
+	for ( ; __atomic_load_n(&bench.finished, __ATOMIC_SEQ_CST) < consumers ; ) {
+		if (bench.ring) {
+			if (bench.ring->isEmpty()) bench.ring->interrupt();
+		} else {
+			bench.locked->interrupt();
+		}
+		sched_yield();
+	}
+	for (int i = 0; i < consumers; i++) {
+		pthread_join(threads[i], NULL);
+	}
+	const double elapsed = now_sec() - start;
+
+	int delivered = 0;
+	for (int i = 0; i < total; i++) {
+		if (bench.seen[i]) delivered++;
+	}
+	const int lost = total - delivered - bench.dropped;
+	const bool ok = !bench.errors && !lost;
+	if (interval_us) {
+		// items are never dropped in the latency cases, so all of them have the latency
+		int64_t *latency = bench.latency_ns;
+		std::sort(latency, latency + total);
+		printf("%-12s %-12s %dx%d p50=%7.1fus p99=%7.1fus max=%8.1fus %s\n",
+			name, "latency", producers, consumers,
+			latency[total / 2] / 1e3, latency[(total * 99) / 100] / 1e3, latency[total - 1] / 1e3,
+			ok ? "ok" : "LOST/DUPLICATED");
+	} else {
+		printf("%-12s %-12s %dx%d %8.2f Mitems/s dropped=%-8d %s\n",
+			name, drop_oldest ? "drop-oldest" : "blocking", producers, consumers,
+			total / elapsed / 1e6, bench.dropped, ok ? "ok" : "LOST/DUPLICATED");
+	}
+
+	free(bench.seen);
+	free(bench.pushed_ns);
+	free(bench.latency_ns);
+	delete bench.ring;
+	delete bench.locked;
+	return ok ? total / elapsed / 1e6 : -1;
+}
+
+int main(int argc, char **argv) {
+	const int items = argc > 1 ? atoi(argv[1]) : 1000000;
+	const int depth = argc > 2 ? atoi(argv[2]) : 8;
+	const int frames = argc > 3 ? atoi(argv[3]) : 2000;
+	const int interval_us = argc > 4 ? atoi(argv[4]) : 1000;
+	int failed = 0;
+
+	printf("%-12s %-12s %s %17s\n", "queue", "mode", "PxC", "throughput");
+	static const int threads[][2] = { { 1, 1 }, { 1, 4 }, { 4, 1 }, { 4, 4 }, };
+	for (size_t i = 0; i < sizeof(threads) / sizeof(threads[0]); i++) {
+		if (run("mutex", 0, 0, threads[i][0], threads[i][1], items, depth, 0) < 0) failed = 1;
+		if (run("FrameRing", 1, 0, threads[i][0], threads[i][1], items, depth, 0) < 0) failed = 1;
+	}
+	// FRAME_RING_DROP_OLDEST assumes only one producer
+	if (run("FrameRing", 1, 1, 1, 1, items, depth, 0) < 0) failed = 1;
+
+	// one producer like the event thread, one consumer like the preview thread
+	// or several like the decode workers
+	if (interval_us > 0) {
+		static const int consumers[] = { 1, 4, };
+		for (size_t i = 0; i < sizeof(consumers) / sizeof(consumers[0]); i++) {
+			if (run("mutex", 0, 0, 1, consumers[i], frames, depth, interval_us) < 0) failed = 1;
+			if (run("FrameRing", 1, 0, 1, consumers[i], frames, depth, interval_us) < 0) failed = 1;
+		}
+	}
+
+	return failed;
+}
@@ -37,7 +37,9 @@
 #include <android/native_window_jni.h>
 
 #include "libUVCCamera.h"
+#include "common_utils.h"
 #include "UVCCamera.h"
+#include "pipeline_helper.h"
 
 /**
  * set the value into the long field
@@ -46,7 +48,7 @@
  * @param field_name
  * @params val
  */
-static jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
+jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
 #if LOCAL_DEBUG
 	LOGV("setField_long:");
 #endif
@@ -117,6 +119,52 @@ jint setField_int(JNIEnv *env, jobject java_obj, const char *field_name, jint va
 	return val;
 }
 
+/**
+ * get the value of the long field
+ * @param env: this param should not be null
+ * @param java_obj: this param should not be null
+ * @param field_name
+ * @return 0 if the field was not found
+ */
+jlong getField_long(JNIEnv *env, jobject java_obj, const char *field_name) {
+	jlong result = 0;
+	jclass clazz = env->GetObjectClass(java_obj);
+	jfieldID field = env->GetFieldID(clazz, field_name, "J");
+	if (LIKELY(field))
+		result = env->GetLongField(java_obj, field);
+	else {
+		LOGE("getField_long:field '%s' not found", field_name);
+		env->ExceptionClear();	// clear java.lang.NoSuchFieldError exception
+	}
+#ifdef ANDROID_NDK
+	env->DeleteLocalRef(clazz);
+#endif
+	return result;
+}
+
+/**
+ * get the value of the int field
+ * @param env: this param should not be null
+ * @param java_obj: this param should not be null
+ * @param field_name
+ * @return 0 if the field was not found
+ */
+jint getField_int(JNIEnv *env, jobject java_obj, const char *field_name) {
+	jint result = 0;
+	jclass clazz = env->GetObjectClass(java_obj);
+	jfieldID field = env->GetFieldID(clazz, field_name, "I");
+	if (LIKELY(field))
+		result = env->GetIntField(java_obj, field);
+	else {
+		LOGE("getField_int:field '%s' not found", field_name);
+		env->ExceptionClear();	// clear java.lang.NoSuchFieldError exception
+	}
+#ifdef ANDROID_NDK
+	env->DeleteLocalRef(clazz);
+#endif
+	return result;
+}
+
 static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz) {
 
 	ENTER();
@@ -184,6 +232,19 @@ static jint nativeSetStatusCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeSetControlCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIControlCallback) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject control_callback_obj = env->NewGlobalRef(jIControlCallback);
+		result = camera->setControlCallback(env, control_callback_obj);
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetButtonCallback(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jIButtonCallback) {
 
@@ -213,6 +274,30 @@ static jobject nativeGetSupportedSize(JNIEnv *env, jobject thiz,
 	RETURN(result, jobject);
 }
 
+// 対応している全てのフォーマット/解像度/フレームインターバルをJSONを経由せずに取得
+static jintArray nativeGetSupportedModes(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const int n = camera->getSupportedModes(NULL, 0);
+		if (LIKELY(n > 0)) {
+			int32_t *values = (int32_t *)malloc(sizeof(int32_t) * n);
+			if (LIKELY(values)) {
+				camera->getSupportedModes(values, n);
+				result = env->NewIntArray(n);
+				if (LIKELY(result)) {
+					env->SetIntArrayRegion(result, 0, n, (const jint *)values);
+				}
+				free(values);
+			}
+		}
+	}
+	RETURN(result, jintArray);
+}
+
 //======================================================================
 // プレビュー画面の大きさをセット
 static jint nativeSetPreviewSize(JNIEnv *env, jobject thiz,
@@ -226,6 +311,23 @@ static jint nativeSetPreviewSize(JNIEnv *env, jobject thiz,
 	RETURN(JNI_ERR, jint);
 }
 
+static jint nativeProbeStreamMode(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint width, jint height, jint min_fps, jint max_fps, jint mode, jlongArray values_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && values_array && (env->GetArrayLength(values_array) >= PROBE_VALUES_NUM))) {
+		int64_t values[PROBE_VALUES_NUM];
+		memset(values, 0, sizeof(values));
+		result = camera->probeStreamMode(width, height, min_fps, max_fps, mode, values);
+		if (LIKELY(!result)) {
+			env->SetLongArrayRegion(values_array, 0, PROBE_VALUES_NUM, (const jlong *)values);
+		}
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeStartPreview(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera) {
 
@@ -276,6 +378,187 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+// this is not static method of UVCCamera, thiz is UVCCamera object that FrameInfo#release calls back
+static jint nativeSetFrameCallback2(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIFrameCallback2, jint pixel_format) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject frame_callback_obj = env->NewGlobalRef(jIFrameCallback2);
+		result = camera->setFrameCallback(env, frame_callback_obj, pixel_format, thiz);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeReleaseFrame(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint slot, jlong frame_id) {
+
+	jint result = JNI_ERR;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->releaseCallbackFrame(slot, frame_id);
+	}
+	return result;
+}
+
+static jobject nativeGetFrameMetadata(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jobject result = NULL;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = env->NewDirectByteBuffer(camera->getFrameMetadata(), sizeof(int64_t) * FRAME_META_NUM);
+	}
+	RETURN(result, jobject);
+}
+
+static jint nativeSetFrameQueue(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint depth, jint policy) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setFrameQueue(depth, policy);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetDecoderOptions(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint workers, jint max_in_flight) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setDecoderOptions(workers, max_in_flight);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPreviewDecodeInterval(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint interval) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setPreviewDecodeInterval(interval);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetOutputSize(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint target, jint width, jint height) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setOutputSize(target, width, height);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetCropRegion(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint x, jint y, jint width, jint height) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setCropRegion(x, y, width, height);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetFramePoolPolicy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint initial_frames, jint max_frames, jint low_watermark, jint high_watermark, jint flags) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setFramePoolPolicy(initial_frames, max_frames, low_watermark, high_watermark, flags);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetTransferConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_transfers, jint packets_per_transfer, jint frame_buf_size) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setTransferConfig(num_transfers, packets_per_transfer, frame_buf_size);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetTransferConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray values_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && values_array && (env->GetArrayLength(values_array) >= 3))) {
+		jint values[3];
+		result = camera->getTransferConfig((int *)values);
+		if (LIKELY(!result)) {
+			env->SetIntArrayRegion(values_array, 0, 3, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPayloadRecording(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring path_str) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const char *c_path = path_str ? env->GetStringUTFChars(path_str, JNI_FALSE) : NULL;
+		result = camera->setPayloadRecording(c_path);
+		if (c_path)
+			env->ReleaseStringUTFChars(path_str, c_path);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetStatistics(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jlongArray values_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && values_array && (env->GetArrayLength(values_array) >= STAT_SNAPSHOT_NUM))) {
+		int64_t values[STAT_SNAPSHOT_NUM];
+		result = camera->getStatistics(values);
+		if (LIKELY(!result)) {
+			env->SetLongArrayRegion(values_array, 0, STAT_SNAPSHOT_NUM, (const jlong *)values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetCapturePipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject pipeline_obj) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		IPipeline *pipeline = getPipeline(env, pipeline_obj);
+		result = camera->setCapturePipeline(pipeline);
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -322,6 +605,92 @@ static jlong nativeGetProcSupports(JNIEnv *env, jobject thiz,
 	RETURN(result, jlong);
 }
 
+// 複数のコントロールを一括で設定する
+static jint nativeSetControls(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray ids_array, jintArray values_array, jintArray results_array, jint flags) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	const int num = ids_array ? env->GetArrayLength(ids_array) : 0;
+	if (LIKELY(camera && values_array && (env->GetArrayLength(values_array) >= num)
+		&& (!results_array || (env->GetArrayLength(results_array) >= num)))) {
+
+		jint *ids = env->GetIntArrayElements(ids_array, NULL);
+		jint *values = env->GetIntArrayElements(values_array, NULL);
+		jint *results = results_array ? env->GetIntArrayElements(results_array, NULL) : NULL;
+		result = camera->setControls(num, (const int32_t *)ids, (const int32_t *)values, (int32_t *)results, flags);
+		if (results) {
+			env->ReleaseIntArrayElements(results_array, results, 0);
+		}
+		env->ReleaseIntArrayElements(values_array, values, JNI_ABORT);
+		env->ReleaseIntArrayElements(ids_array, ids, JNI_ABORT);
+	}
+	RETURN(result, jint);
+}
+
+// 複数のコントロールの現在値を一括で取得する
+static jint nativeGetControls(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray ids_array, jintArray values_array, jintArray results_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	const int num = ids_array ? env->GetArrayLength(ids_array) : 0;
+	if (LIKELY(camera && values_array && (env->GetArrayLength(values_array) >= num)
+		&& (!results_array || (env->GetArrayLength(results_array) >= num)))) {
+
+		jint *ids = env->GetIntArrayElements(ids_array, NULL);
+		jint *values = env->GetIntArrayElements(values_array, NULL);
+		jint *results = results_array ? env->GetIntArrayElements(results_array, NULL) : NULL;
+		result = camera->getControls(num, (const int32_t *)ids, (int32_t *)values, (int32_t *)results);
+		if (results) {
+			env->ReleaseIntArrayElements(results_array, results, 0);
+		}
+		env->ReleaseIntArrayElements(values_array, values, 0);
+		env->ReleaseIntArrayElements(ids_array, ids, JNI_ABORT);
+	}
+	RETURN(result, jint);
+}
+
+// 全てのコントロールの最小値/最大値/デフォルト値を取得する
+static jintArray nativeGetCtrlLimits(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const int n = camera->getCtrlLimits(NULL, 0);
+		int32_t *values = (int32_t *)malloc(sizeof(int32_t) * n);
+		if (LIKELY(values)) {
+			camera->getCtrlLimits(values, n);
+			result = env->NewIntArray(n);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, n, (const jint *)values);
+			}
+			free(values);
+		}
+	}
+	RETURN(result, jintArray);
+}
+
+// 保存しておいた最小値/最大値/デフォルト値をセットする
+static jint nativeSetCtrlLimits(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray values_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && values_array)) {
+		const int n = env->GetArrayLength(values_array);
+		jint *values = env->GetIntArrayElements(values_array, NULL);
+		result = camera->setCtrlLimits((const int32_t *)values, n);
+		env->ReleaseIntArrayElements(values_array, values, JNI_ABORT);
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 // Java mnethod correspond to this function should not be a static mathod
 static jint nativeUpdateScanningModeLimit(JNIEnv *env, jobject thiz,
@@ -1997,22 +2366,25 @@ static jint nativeGetPrivacy(JNIEnv *env, jobject thiz,
 //**********************************************************************
 //
 //**********************************************************************
-jint registerNativeMethods(JNIEnv* env, const char *class_name, JNINativeMethod *methods, int num_methods) {
-	int result = 0;
+jint registerNativeMethods(JNIEnv* env, const char *class_name, const JNINativeMethod *methods, int num_methods) {
+	int result = JNI_ERR;
 
 	jclass clazz = env->FindClass(class_name);
 	if (LIKELY(clazz)) {
-		int result = env->RegisterNatives(clazz, methods, num_methods);
+		result = env->RegisterNatives(clazz, methods, num_methods);
 		if (UNLIKELY(result < 0)) {
 			LOGE("registerNativeMethods failed(class=%s)", class_name);
 		}
+		env->DeleteLocalRef(clazz);
 	} else {
 		LOGE("registerNativeMethods: class'%s' not found", class_name);
 	}
+	// FindClass/RegisterNatives throw on failure, clear it so that the caller can keep calling JNI
+	env->ExceptionClear();
 	return result;
 }
 
-static JNINativeMethod methods[] = {
+static const JNINativeMethod methods[] = {
 	{ "nativeCreate",					"()J", (void *) nativeCreate },
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 	//
@@ -2020,19 +2392,40 @@ static JNINativeMethod methods[] = {
 	{ "nativeRelease",					"(J)I", (void *) nativeRelease },
 
 	{ "nativeSetStatusCallback",		"(JLcom/serenegiant/usb/IStatusCallback;)I", (void *) nativeSetStatusCallback },
+	{ "nativeSetControlCallback",		"(JLcom/serenegiant/usb/IControlCallback;)I", (void *) nativeSetControlCallback },
 	{ "nativeSetButtonCallback",		"(JLcom/serenegiant/usb/IButtonCallback;)I", (void *) nativeSetButtonCallback },
 
 	{ "nativeGetSupportedSize",			"(J)Ljava/lang/String;", (void *) nativeGetSupportedSize },
+	{ "nativeGetSupportedModes",		"(J)[I", (void *) nativeGetSupportedModes },
 	{ "nativeSetPreviewSize",			"(JIIIIIF)I", (void *) nativeSetPreviewSize },
+	{ "nativeProbeStreamMode",			"(JIIIII[J)I", (void *) nativeProbeStreamMode },
 	{ "nativeStartPreview",				"(J)I", (void *) nativeStartPreview },
 	{ "nativeStopPreview",				"(J)I", (void *) nativeStopPreview },
 	{ "nativeSetPreviewDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetPreviewDisplay },
 	{ "nativeSetFrameCallback",			"(JLcom/serenegiant/usb/IFrameCallback;I)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetFrameCallback2",		"(JLcom/serenegiant/usb/IFrameCallback2;I)I", (void *) nativeSetFrameCallback2 },
+	{ "nativeReleaseFrame",				"(JIJ)I", (void *) nativeReleaseFrame },
+	{ "nativeGetFrameMetadata",			"(J)Ljava/nio/ByteBuffer;", (void *) nativeGetFrameMetadata },
+	{ "nativeSetFrameQueue",			"(JII)I", (void *) nativeSetFrameQueue },
+	{ "nativeSetDecoderOptions",		"(JII)I", (void *) nativeSetDecoderOptions },
+	{ "nativeSetPreviewDecodeInterval",	"(JI)I", (void *) nativeSetPreviewDecodeInterval },
+	{ "nativeSetOutputSize",			"(JIII)I", (void *) nativeSetOutputSize },
+	{ "nativeSetCropRegion",			"(JIIII)I", (void *) nativeSetCropRegion },
+	{ "nativeSetFramePoolPolicy",		"(JIIIII)I", (void *) nativeSetFramePoolPolicy },
+	{ "nativeSetTransferConfig",		"(JIII)I", (void *) nativeSetTransferConfig },
+	{ "nativeGetTransferConfig",		"(J[I)I", (void *) nativeGetTransferConfig },
+	{ "nativeSetPayloadRecording",		"(JLjava/lang/String;)I", (void *) nativeSetPayloadRecording },
+	{ "nativeGetStatistics",			"(J[J)I", (void *) nativeGetStatistics },
 
 	{ "nativeSetCaptureDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetCaptureDisplay },
+	{ "nativeSetCapturePipeline",		"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetCapturePipeline },
 
 	{ "nativeGetCtrlSupports",			"(J)J", (void *) nativeGetCtrlSupports },
 	{ "nativeGetProcSupports",			"(J)J", (void *) nativeGetProcSupports },
+	{ "nativeSetControls",				"(J[I[I[II)I", (void *) nativeSetControls },
+	{ "nativeGetControls",				"(J[I[I[I)I", (void *) nativeGetControls },
+	{ "nativeGetCtrlLimits",			"(J)[I", (void *) nativeGetCtrlLimits },
+	{ "nativeSetCtrlLimits",			"(J[I)I", (void *) nativeSetCtrlLimits },
 
 	{ "nativeUpdateScanningModeLimit",	"(J)I", (void *) nativeUpdateScanningModeLimit },
 	{ "nativeSetScanningMode",			"(JI)I", (void *) nativeSetScanningMode },
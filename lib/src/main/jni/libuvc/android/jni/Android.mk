@@ -56,6 +56,7 @@ LOCAL_CFLAGS += -DUVC_DEBUGGING
 LOCAL_EXPORT_LDLIBS := -llog
 
 LOCAL_ARM_MODE := arm
+LOCAL_ARM_NEON := true
 
 #LOCAL_STATIC_LIBRARIES += jpeg-turbo1500_static
 LOCAL_SHARED_LIBRARIES += jpeg-turbo1500
@@ -68,6 +69,7 @@ LOCAL_SRC_FILES := \
 	src/frame.c \
 	src/frame-mjpeg.c \
 	src/init.c \
+	src/replay.c \
 	src/stream.c
 
 LOCAL_MODULE := libuvc_static
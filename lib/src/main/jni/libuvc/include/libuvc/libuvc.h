@@ -105,6 +105,10 @@ enum uvc_frame_format {
 	UVC_FRAME_FORMAT_MJPEG,
 	UVC_FRAME_FORMAT_GRAY8,
 	UVC_FRAME_FORMAT_BY8,
+	/** XXX formats only produced by conversions */
+	UVC_FRAME_FORMAT_NV12,		// YUV420SemiPlanar, Y plane + interleaved UV plane
+	UVC_FRAME_FORMAT_NV21,		// YVU420SemiPlanar, Y plane + interleaved VU plane
+	UVC_FRAME_FORMAT_I420,		// YUV420Planar, Y, U and V planes
 	/** Number of formats understood */
 	UVC_FRAME_FORMAT_COUNT,
 };
@@ -449,6 +453,23 @@ typedef struct uvc_device_descriptor {
 	const char *product;
 } uvc_device_descriptor_t;
 
+/** XXX Timing attributes of a frame, copied along with the frame by the conversion functions
+ * @ingroup streaming
+ */
+typedef struct uvc_frame_meta {
+	/** Presentation time stamp from the payload header (device clock), 0 if the device does not send it */
+	uint32_t pts;
+	/** Source clock (STC part of SCR) from the payload header, 0 if the device does not send it */
+	uint32_t scr;
+	/** CLOCK_MONOTONIC time in nanoseconds when the last payload of the frame arrived */
+	uint64_t host_ts_ns;
+	/** Bytes received from the device for the frame, actual_bytes is replaced by the conversion functions */
+	size_t received_bytes;
+	/** Number of frames the stream completed but did not deliver since the previous frame
+	 * (broken frames and frames overwritten while the callback was busy) */
+	uint32_t dropped;
+} uvc_frame_meta_t;
+
 /** An image frame received from the UVC device
  * @ingroup streaming
  */
@@ -472,6 +493,8 @@ typedef struct uvc_frame {
 	uint32_t sequence;
 	/** Estimate of system time when the device started capturing the image */
 	struct timeval capture_time;
+	/** XXX PTS/SCR, host time stamp and dropped frames */
+	uvc_frame_meta_t meta;
 	/** Handle on the device that produced the image.
 	 * @warning You must not call any uvc_* functions during a callback. */
 	uvc_device_handle_t *source;
@@ -489,6 +512,61 @@ typedef struct uvc_frame {
  */
 typedef void(uvc_frame_callback_t)(struct uvc_frame *frame, void *user_ptr);
 
+/** Flags for uvc_start_streaming* / uvc_stream_start*
+ * @ingroup streaming
+ * XXX bit 0 is reserved for backward compatibility
+ */
+enum uvc_stream_flags {
+	/** hand the received buffer to the frame callback without copying it.
+	 * The callback may take the buffer with uvc_swap_frame_data, the stream keeps
+	 * the buffer it gets back in exchange as its next receive buffer */
+	UVC_STREAM_FLAG_ZERO_COPY = 0x02,
+};
+
+/** XXX upper limit of uvc_transfer_config.num_transfers */
+#define UVC_MAX_TRANSFER_BUFS 32
+/** XXX upper limit of uvc_transfer_config.packets_per_transfer(usbfs limit of iso packets per URB) */
+#define UVC_MAX_PACKETS_PER_TRANSFER 128
+
+/** XXX Transfer setup of a stream, see uvc_stream_set_transfer_config
+ * @ingroup streaming
+ * zero selects the value sized on start from the negotiated dwMaxVideoFrameSize,
+ * dwMaxPayloadTransferSize and frame interval
+ */
+typedef struct uvc_transfer_config {
+	/** number of transfers submitted at the same time, [1, UVC_MAX_TRANSFER_BUFS] */
+	uint32_t num_transfers;
+	/** number of packets of each isochronous transfer, ignored for bulk transfer */
+	uint32_t packets_per_transfer;
+	/** size of the two buffers that assemble a frame */
+	uint32_t frame_buf_size;
+} uvc_transfer_config_t;
+
+/** XXX Transfer counters of a stream, see uvc_stream_get_transfer_stats
+ * @ingroup streaming
+ */
+typedef struct uvc_transfer_stats {
+	/** transfers completed successfully */
+	uint64_t completed;
+	/** transfers completed with error status(timed out, stall, overflow) or failed to resubmit */
+	uint64_t errors;
+	/** isochronous packets received */
+	uint64_t iso_packets;
+	/** isochronous packets with error status, the data of these packets was lost */
+	uint64_t iso_missed;
+	/** transfers resubmitted */
+	uint64_t resubmitted;
+	/** total/max time from completion to resubmission of a transfer in nanoseconds */
+	uint64_t resubmit_total_ns;
+	uint64_t resubmit_max_ns;
+	/** lowest number of transfers still submitted when a transfer completed,
+	 * 0 means the host controller ran out of transfers and could drop data */
+	uint32_t min_in_flight;
+	/** frames copied from the receive buffer for the frame callback,
+	 * stays 0 with UVC_STREAM_FLAG_ZERO_COPY */
+	uint64_t copied_frames;
+} uvc_transfer_stats_t;
+
 /** Streaming mode, includes all information needed to select stream
  * @ingroup streaming
  */
@@ -579,6 +657,9 @@ uvc_error_t uvc_probe_stream_ctrl(uvc_device_handle_t *devh,
 
 uvc_error_t uvc_get_frame_desc(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_desc_t **desc);
+// XXX for planning bus bandwidth of multiple cameras
+int uvc_get_stream_altsettings(uvc_device_handle_t *devh, const uvc_stream_ctrl_t *ctrl,
+		uint32_t *packet_bytes, uint32_t *intervals_per_sec, int max_num);
 
 uvc_error_t uvc_start_streaming(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
@@ -605,9 +686,24 @@ uvc_error_t uvc_stream_start_iso(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr);
 uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 		uvc_frame_t **frame, int32_t timeout_us);
+// XXX transfer setup and counters
+uvc_error_t uvc_stream_set_transfer_config(uvc_stream_handle_t *strmh,
+		const uvc_transfer_config_t *config);
+uvc_error_t uvc_stream_get_transfer_config(uvc_stream_handle_t *strmh,
+		uvc_transfer_config_t *config);
+void uvc_stream_get_transfer_stats(uvc_stream_handle_t *strmh,
+		uvc_transfer_stats_t *stats);
 uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh);
 void uvc_stream_close(uvc_stream_handle_t *strmh);
 
+// XXX recording/replaying payload transfers, see replay.c
+uvc_error_t uvc_stream_start_recording(uvc_stream_handle_t *strmh, const char *path);
+void uvc_stream_stop_recording(uvc_stream_handle_t *strmh);
+uvc_error_t uvc_replay_open(const char *path, uvc_stream_handle_t **strmh);
+uvc_error_t uvc_replay_start(uvc_stream_handle_t *strmh,
+		uvc_frame_callback_t *cb, void *user_ptr, float speed, uint8_t flags);
+uvc_error_t uvc_replay_wait(uvc_stream_handle_t *strmh);
+
 // Generic Controls
 int uvc_get_ctrl_len(uvc_device_handle_t *devh, uint8_t unit, uint8_t ctrl);
 int uvc_get_ctrl(uvc_device_handle_t *devh, uint8_t unit, uint8_t ctrl,
@@ -786,6 +882,10 @@ uvc_frame_t *uvc_allocate_frame(size_t data_bytes);
 void uvc_free_frame(uvc_frame_t *frame);
 
 uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out);
+uvc_error_t uvc_swap_frame_data(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_crop_frame(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height);	// XXX
+uvc_error_t uvc_set_simd_enabled(int enable);	// XXX
 //----------------------------------------------------------------------
 uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out);
 uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out);
@@ -801,6 +901,23 @@ uvc_error_t uvc_mjpeg2bgr(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
+uvc_error_t uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_mjpeg2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_mjpeg2i420(uvc_frame_t *in, uvc_frame_t *out);		// XXX
+// XXX scale down by 1/scale_denom(1, 2, 4 or 8) while decoding
+uvc_error_t uvc_mjpeg2rgbx_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom);
+uvc_error_t uvc_mjpeg2yuyv_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom);
+uvc_error_t uvc_mjpeg2yuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom);
+uvc_error_t uvc_mjpeg2iyuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom);
+// XXX decode the region(x, y, width, height in pixels of the frame) only, scaled down by 1/scale_denom
+uvc_error_t uvc_mjpeg2rgbx_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom);
+uvc_error_t uvc_mjpeg2yuyv_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom);
+uvc_error_t uvc_mjpeg2yuv420SP_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom);
+uvc_error_t uvc_mjpeg2iyuv420SP_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom);
 #endif
 
 uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
@@ -811,6 +928,7 @@ uvc_error_t uvc_any2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
+uvc_error_t uvc_yuv420SP2rgbx(uvc_frame_t *in, uvc_frame_t *out);	// XXX NV12/NV21
 uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 
 uvc_error_t uvc_yuyv2yuv420P(uvc_frame_t *in, uvc_frame_t *out);	// XXX
@@ -824,6 +942,7 @@ uvc_error_t uvc_any2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_any2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 
 uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes); // XXX
+uint64_t uvc_get_frame_reallocs(void);	// XXX
 
 //**********************************************************************
 // added for diagnostic
@@ -240,15 +240,15 @@ typedef struct uvc_device_info {
 } uvc_device_info_t;
 
 /*
-  set a high number of transfer buffers. This uses a lot of ram, but
-  avoids problems with scheduling delays on slow boards causing missed
-  transfers. A better approach may be to make the transfer thread FIFO
-  scheduled (if we have root).
-  We could/should change this to allow reduce it to, say, 5 by default
-  and then allow the user to change the number of buffers as required.
+  upper limit of the number of transfer buffers of a stream.
+  the number actually used is set with uvc_stream_set_transfer_config or sized
+  from the negotiated parameters on start, see _uvc_tune_transfers
  */
+#define LIBUVC_MAX_TRANSFER_BUFS UVC_MAX_TRANSFER_BUFS
+// XXX default number of transfer buffers when no frame interval is available
 #define LIBUVC_NUM_TRANSFER_BUFS 10
 
+// XXX upper limit of the frame assembling buffer, also used as is while replaying
 #define LIBUVC_XFER_BUF_SIZE	( 16 * 1024 * 1024 )
 
 struct uvc_stream_handle {
@@ -268,19 +268,30 @@ struct uvc_stream_handle {
   uint32_t seq, hold_seq;
   uint32_t pts, hold_pts;
   uint32_t last_scr, hold_last_scr;
+  uint64_t hold_host_ts_ns;	// XXX CLOCK_MONOTONIC when the hold buffer was completed
   size_t got_bytes, hold_bytes;
   size_t size_buf;	// XXX add for boundary check
   uint8_t *outbuf, *holdbuf;
+  // XXX capacity of outbuf/holdbuf, larger than size_buf when the buffer came from the frame callback
+  // in exchange (UVC_STREAM_FLAG_ZERO_COPY), this is handed back with the buffer
+  size_t outbuf_bytes, holdbuf_bytes;
   pthread_mutex_t cb_mutex;
   pthread_cond_t cb_cond;
   pthread_t cb_thread;
   uint32_t last_polled_seq;
   uvc_frame_callback_t *user_cb;
   void *user_ptr;
-  struct libusb_transfer *transfers[LIBUVC_NUM_TRANSFER_BUFS];
-  uint8_t *transfer_bufs[LIBUVC_NUM_TRANSFER_BUFS];
+  uint8_t flags;	// XXX uvc_stream_flags
+  struct libusb_transfer *transfers[LIBUVC_MAX_TRANSFER_BUFS];
+  uint8_t *transfer_bufs[LIBUVC_MAX_TRANSFER_BUFS];
+  uvc_transfer_config_t xfer_req;	// XXX requested by uvc_stream_set_transfer_config, 0: auto
+  uvc_transfer_config_t xfer_cur;	// XXX actually used by the running stream
+  int in_flight;	// XXX number of submitted transfers, only touched on the event thread
+  uvc_transfer_stats_t xfer_stats;	// XXX updated with relaxed atomics on the event thread
   struct uvc_frame frame;
   enum uvc_frame_format frame_format;
+  uint32_t width, height;	// XXX frame size, cached on start
+  struct uvc_replay *replay;	// XXX payload recorder/player, see replay.c
 };
 
 /** Handle on an open UVC device
@@ -331,6 +342,18 @@ void uvc_start_handler_thread(uvc_context_t *ctx);
 uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx);
 uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx);
 
+// XXX shared between stream.c and replay.c
+uvc_error_t _uvc_stream_start_callback(uvc_stream_handle_t *strmh,
+    uvc_frame_callback_t *cb, void *user_ptr, uint8_t flags);
+size_t _uvc_frame_buf_bytes(uvc_stream_handle_t *strmh, size_t transfer_bytes);
+void _uvc_count_frame_realloc(void);
+void _uvc_stream_process_transfer(uvc_stream_handle_t *strmh,
+    struct libusb_transfer *transfer);
+void _uvc_replay_record(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer);
+void _uvc_replay_frame_done(uvc_stream_handle_t *strmh, uint32_t seq);
+void _uvc_replay_stop(uvc_stream_handle_t *strmh);
+void _uvc_replay_close(uvc_stream_handle_t *strmh);
+
 #endif // !def(LIBUVC_INTERNAL_H)
 /** @endcond */
 
@@ -129,18 +129,166 @@ static const unsigned char ac_chromi_val[] = {
 	0xf9, 0xfa
 };
 
-#define COPY_HUFF_TABLE(dinfo,tbl,name) do { \
-	if (dinfo->tbl == NULL) dinfo->tbl = jpeg_alloc_huff_table((j_common_ptr)dinfo); \
-		memcpy(dinfo->tbl->bits, name##_len, sizeof(name##_len)); \
-		memset(dinfo->tbl->huffval, 0, sizeof(dinfo->tbl->huffval)); \
-		memcpy(dinfo->tbl->huffval, name##_val, sizeof(name##_val)); \
+#define COPY_HUFF_TABLE(tbl,name) do { \
+		memcpy((tbl)->bits, name##_len, sizeof(name##_len)); \
+		memset((tbl)->huffval, 0, sizeof((tbl)->huffval)); \
+		memcpy((tbl)->huffval, name##_val, sizeof(name##_val)); \
 	} while(0)
 
+#define HUFF_DC_LUMI 0
+#define HUFF_DC_CHROMI 1
+#define HUFF_AC_LUMI 2
+#define HUFF_AC_CHROMI 3
+
+/** default Huffman tables, built once from above arrays */
+static JHUFF_TBL default_huff_tables[4];
+
+/** @internal
+ * @brief decoder context that is reused for every frame decoded on the same thread
+ *
+ * UVCPreview decodes on the preview thread, the capture thread and the workers of DecodePool,
+ * and all of them live as long as the stream, so a context for each thread is a context for each stream
+ * without changing the signature of the conversion functions.
+ * The context is destroyed when the thread exits.
+ */
+typedef struct uvc_mjpeg_decoder {
+	struct jpeg_decompress_struct dinfo;
+	struct error_mgr jerr;
+	/** whether Huffman tables of dinfo were overwritten by DHT of the previous frame */
+	int huff_dirty;
+	/** scratch memory for decoded scanlines, reused while it is large enough */
+	uint8_t *scratch;
+	size_t scratch_bytes;
+	/** intermediate frame for _uvc_mjpeg2yuv420_fallback */
+	uvc_frame_t *yuyv;
+} uvc_mjpeg_decoder_t;
+
+static pthread_key_t decoder_key;
+static pthread_once_t decoder_once = PTHREAD_ONCE_INIT;
+
+static void _uvc_mjpeg_free_decoder(void *ptr) {
+	uvc_mjpeg_decoder_t *dec = (uvc_mjpeg_decoder_t *)ptr;
+	if (dec) {
+		jpeg_destroy_decompress(&dec->dinfo);
+		free(dec->scratch);
+		if (dec->yuyv)
+			uvc_free_frame(dec->yuyv);
+		free(dec);
+	}
+}
+
+static void _uvc_mjpeg_init_once(void) {
+	COPY_HUFF_TABLE(&default_huff_tables[HUFF_DC_LUMI], dc_lumi);
+	COPY_HUFF_TABLE(&default_huff_tables[HUFF_DC_CHROMI], dc_chromi);
+	COPY_HUFF_TABLE(&default_huff_tables[HUFF_AC_LUMI], ac_lumi);
+	COPY_HUFF_TABLE(&default_huff_tables[HUFF_AC_CHROMI], ac_chromi);
+	pthread_key_create(&decoder_key, _uvc_mjpeg_free_decoder);
+}
+
+/** copy the default Huffman tables into the decompressor */
 static inline void insert_huff_tables(j_decompress_ptr dinfo) {
-	COPY_HUFF_TABLE(dinfo, dc_huff_tbl_ptrs[0], dc_lumi);
-	COPY_HUFF_TABLE(dinfo, dc_huff_tbl_ptrs[1], dc_chromi);
-	COPY_HUFF_TABLE(dinfo, ac_huff_tbl_ptrs[0], ac_lumi);
-	COPY_HUFF_TABLE(dinfo, ac_huff_tbl_ptrs[1], ac_chromi);
+	*dinfo->dc_huff_tbl_ptrs[0] = default_huff_tables[HUFF_DC_LUMI];
+	*dinfo->dc_huff_tbl_ptrs[1] = default_huff_tables[HUFF_DC_CHROMI];
+	*dinfo->ac_huff_tbl_ptrs[0] = default_huff_tables[HUFF_AC_LUMI];
+	*dinfo->ac_huff_tbl_ptrs[1] = default_huff_tables[HUFF_AC_CHROMI];
+}
+
+/** @internal
+ * @brief get the decoder context of the calling thread, create it if it does not exist yet
+ * @return NULL if failed to create
+ */
+static uvc_mjpeg_decoder_t *_uvc_mjpeg_get_decoder(void) {
+	pthread_once(&decoder_once, _uvc_mjpeg_init_once);
+	uvc_mjpeg_decoder_t *dec = (uvc_mjpeg_decoder_t *)pthread_getspecific(decoder_key);
+	if (LIKELY(dec))
+		return dec;
+
+	dec = (uvc_mjpeg_decoder_t *)calloc(1, sizeof(uvc_mjpeg_decoder_t));
+	if (UNLIKELY(!dec))
+		return NULL;
+	dec->dinfo.err = jpeg_std_error(&dec->jerr.super);
+	dec->jerr.super.error_exit = _error_exit;
+	if (setjmp(dec->jerr.jmp)) {
+		jpeg_destroy_decompress(&dec->dinfo);
+		free(dec);
+		return NULL;
+	}
+	jpeg_create_decompress(&dec->dinfo);
+	// Huffman tables are allocated from the permanent pool and kept across frames
+	dec->dinfo.dc_huff_tbl_ptrs[0] = jpeg_alloc_huff_table((j_common_ptr)&dec->dinfo);
+	dec->dinfo.dc_huff_tbl_ptrs[1] = jpeg_alloc_huff_table((j_common_ptr)&dec->dinfo);
+	dec->dinfo.ac_huff_tbl_ptrs[0] = jpeg_alloc_huff_table((j_common_ptr)&dec->dinfo);
+	dec->dinfo.ac_huff_tbl_ptrs[1] = jpeg_alloc_huff_table((j_common_ptr)&dec->dinfo);
+	insert_huff_tables(&dec->dinfo);
+	if (UNLIKELY(pthread_setspecific(decoder_key, dec))) {
+		_uvc_mjpeg_free_decoder(dec);
+		return NULL;
+	}
+	return dec;
+}
+
+/** @internal
+ * @brief whether the JPEG stream has DHT marker before the first scan
+ * Most of UVC devices omit DHT from MJPEG frames, this only walks the marker segments of the header.
+ */
+static int _uvc_mjpeg_has_dht(const uint8_t *data, const size_t bytes) {
+	size_t i = 2;	// skip SOI
+	for (; i + 4 <= bytes ;) {
+		if (UNLIKELY(data[i] != 0xff))
+			break;	// broken stream, leave it to libjpeg
+		const uint8_t marker = data[i + 1];
+		if (marker == 0xff) {
+			i++;	// fill byte
+		} else if (marker == 0xc4) {
+			return 1;	// DHT
+		} else if (marker == 0xda) {
+			break;	// SOS
+		} else {
+			i += 2 + ((data[i + 2] << 8) | data[i + 3]);
+		}
+	}
+	return 0;
+}
+
+/** @internal
+ * @brief set the MJPEG frame as the source and read it's header
+ * Huffman tables are only restored when the previous frame overwrote them by it's own DHT.
+ * This may longjmp to the caller on error.
+ */
+static void _uvc_mjpeg_read_header(uvc_mjpeg_decoder_t *dec, uvc_frame_t *in) {
+	const int has_dht = _uvc_mjpeg_has_dht((const uint8_t *)in->data, in->actual_bytes);
+	if (!has_dht && dec->huff_dirty) {
+		/* This frame is missing the Huffman tables: fill in the standard ones */
+		insert_huff_tables(&dec->dinfo);
+	}
+	dec->huff_dirty = has_dht;
+	jpeg_mem_src(&dec->dinfo, in->data, in->actual_bytes/*in->data_bytes*/);	// XXX
+	jpeg_read_header(&dec->dinfo, TRUE);
+}
+
+/** @internal
+ * @brief get scratch memory of the decoder context
+ * @return NULL if failed to allocate
+ */
+static uint8_t *_uvc_mjpeg_scratch(uvc_mjpeg_decoder_t *dec, const size_t bytes) {
+	if (UNLIKELY(dec->scratch_bytes < bytes)) {
+		uint8_t *scratch = (uint8_t *)realloc(dec->scratch, bytes);
+		if (UNLIKELY(!scratch))
+			return NULL;
+		dec->scratch = scratch;
+		dec->scratch_bytes = bytes;
+	}
+	return dec->scratch;
+}
+
+/** split the scratch memory into rows */
+static inline uint8_t *_uvc_mjpeg_rows(JSAMPROW *rows, uint8_t *base, const size_t width, const int n) {
+	int i;
+	for (i = 0; i < n; i++) {
+		rows[i] = base;
+		base += width;
+	}
+	return base;
 }
 
 // XXX added to improve the performance of decoding
@@ -158,6 +306,89 @@ static inline void insert_huff_tables(j_decompress_ptr dinfo) {
 #define MAX_READLINE 1
 #endif
 
+// libjpeg scales down by 1/2, 1/4 and 1/8 in DCT domain(scale_num = 1)
+#define VALID_SCALE(denom) (((denom) == 1) || ((denom) == 2) || ((denom) == 4) || ((denom) == 8))
+// same as the output size of libjpeg, jdiv_round_up(size, denom)
+#define SCALED_SIZE(size, denom) (((size) + (denom) - 1) / (denom))
+#if JPEG_LIB_VERSION >= 70
+#define MIN_DCT_SCALED_SIZE(dinfo) ((dinfo)->min_DCT_v_scaled_size)
+#define DCT_SCALED_SIZE(comp) ((comp)->DCT_v_scaled_size)
+#else
+#define MIN_DCT_SCALED_SIZE(dinfo) ((dinfo)->min_DCT_scaled_size)
+#define DCT_SCALED_SIZE(comp) ((comp)->DCT_scaled_size)
+#endif
+
+/** @internal
+ * @brief region of the scaled output that the crop decoders write into the output frame
+ */
+typedef struct _uvc_mjpeg_region {
+	uint32_t x, y, width, height;
+} _uvc_mjpeg_region_t;
+
+/** @internal
+ * @brief scale the region of the frame in pixels of the source frame,
+ * the edges of the region are scaled same as libjpeg scales the frame size
+ * @return 0 if the region is inside of the frame
+ */
+static int _uvc_mjpeg_region(const uvc_frame_t *in, const int x, const int y,
+	const int width, const int height, const int scale_denom, _uvc_mjpeg_region_t *region) {
+
+	if (UNLIKELY((x < 0) || (y < 0) || (width <= 0) || (height <= 0)
+		|| ((uint32_t)(x + width) > in->width) || ((uint32_t)(y + height) > in->height)))
+		return -1;
+	region->x = x / scale_denom;
+	region->y = y / scale_denom;
+	region->width = SCALED_SIZE(x + width, scale_denom) - region->x;
+	region->height = SCALED_SIZE(y + height, scale_denom) - region->y;
+	return 0;
+}
+
+/** @internal
+ * @brief restrict decoding to the region, this should be called just after jpeg_start_decompress.
+ * libjpeg decodes only the iMCU columns that include the region,
+ * and skips IDCT, upsampling and color conversion of the rows above the region
+ * (entropy decoding of them can not be skipped).
+ * jpeg_crop_scanline and jpeg_skip_scanlines need libjpeg-turbo 1.5.0 or later(the bundled one).
+ * dinfo->output_width is the number of decoded columns after this call
+ * @return offset of the region from the first decoded column in pixels, negative value if the region is outside
+ */
+static int _uvc_mjpeg_start_region(j_decompress_ptr dinfo, const _uvc_mjpeg_region_t *region) {
+	if (UNLIKELY((region->x + region->width > dinfo->output_width)
+		|| (region->y + region->height > dinfo->output_height)))
+		return -1;
+	JDIMENSION xoffset = region->x;
+	JDIMENSION width = region->width;
+	if (width < dinfo->output_width) {
+		// include a column on each side of the region so that fancy upsampling of chroma
+		// at the edges of the region uses the neighbors same as decoding the whole width
+		// instead of replicating the edge column
+		if (xoffset) {
+			xoffset--;
+			width++;
+		}
+		if (xoffset + width < dinfo->output_width) {
+			width++;
+		}
+		// xoffset is aligned down to the iMCU boundary and width is widened by the difference
+		jpeg_crop_scanline(dinfo, &xoffset, &width);
+	}
+	if (region->y) {
+		jpeg_skip_scanlines(dinfo, region->y);
+	}
+	return region->x - xoffset;
+}
+
+/** @internal
+ * @brief finish decoding, rows below the region are not read and the decompression is aborted
+ */
+static inline void _uvc_mjpeg_finish_region(j_decompress_ptr dinfo) {
+	if (dinfo->output_scanline < dinfo->output_height) {
+		jpeg_abort_decompress(dinfo);
+	} else {
+		jpeg_finish_decompress(dinfo);
+	}
+}
+
 /** @brief Convert an MJPEG frame to RGB
  * @ingroup frame
  *
@@ -165,8 +396,8 @@ static inline void insert_huff_tables(j_decompress_ptr dinfo) {
  * @param out RGB frame
  */
 uvc_error_t uvc_mjpeg2rgb(uvc_frame_t *in, uvc_frame_t *out) {
-	struct jpeg_decompress_struct dinfo;
-	struct error_mgr jerr;
+	uvc_mjpeg_decoder_t *dec;
+	j_decompress_ptr dinfo;
 	size_t lines_read;
 	// local copy
 	uint8_t *data = out->data;
@@ -189,45 +420,40 @@ uvc_error_t uvc_mjpeg2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 3;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
-	dinfo.err = jpeg_std_error(&jerr.super);
-	jerr.super.error_exit = _error_exit;
+	dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	dinfo = &dec->dinfo;
 
-	if (setjmp(jerr.jmp)) {
+	if (setjmp(dec->jerr.jmp)) {
 		goto fail;
 	}
 
-	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);
-	jpeg_read_header(&dinfo, TRUE);
-
-	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
-		/* This frame is missing the Huffman tables: fill in the standard ones */
-		insert_huff_tables(&dinfo);
-	}
+	_uvc_mjpeg_read_header(dec, in);
 
-	dinfo.out_color_space = JCS_RGB;
-	dinfo.dct_method = JDCT_IFAST;
+	dinfo->out_color_space = JCS_RGB;
+	dinfo->dct_method = JDCT_IFAST;
 
-	jpeg_start_decompress(&dinfo);
+	jpeg_start_decompress(dinfo);
 
-	if (LIKELY(dinfo.output_height == out->height)) {
-		for (; dinfo.output_scanline < dinfo.output_height ;) {
+	if (LIKELY(dinfo->output_height == out->height)) {
+		for (; dinfo->output_scanline < dinfo->output_height ;) {
 			buffer[0] = data + (lines_read) * out_step;
 			for (i = 1; i < MAX_READLINE; i++)
 				buffer[i] = buffer[i-1] + out_step;
-			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
+			num_scanlines = jpeg_read_scanlines(dinfo, buffer, MAX_READLINE);
 			lines_read += num_scanlines;
 		}
 		out->actual_bytes = in->width * in->height * 3;	// XXX
 	}
-	jpeg_finish_decompress(&dinfo);
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_finish_decompress(dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
 
 fail:
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_abort_decompress(dinfo);
 	return UVC_ERROR_OTHER+1;
 }
 
@@ -238,8 +464,8 @@ fail:
  * @param out BGR frame
  */
 uvc_error_t uvc_mjpeg2bgr(uvc_frame_t *in, uvc_frame_t *out) {
-	struct jpeg_decompress_struct dinfo;
-	struct error_mgr jerr;
+	uvc_mjpeg_decoder_t *dec;
+	j_decompress_ptr dinfo;
 	size_t lines_read;
 
 	int num_scanlines, i;
@@ -259,49 +485,44 @@ uvc_error_t uvc_mjpeg2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 3;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
-	dinfo.err = jpeg_std_error(&jerr.super);
-	jerr.super.error_exit = _error_exit;
+	dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	dinfo = &dec->dinfo;
 
-	if (setjmp(jerr.jmp)) {
+	if (setjmp(dec->jerr.jmp)) {
 		goto fail;
 	}
 
-	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);
-	jpeg_read_header(&dinfo, TRUE);
+	_uvc_mjpeg_read_header(dec, in);
 
-	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
-		/* This frame is missing the Huffman tables: fill in the standard ones */
-		insert_huff_tables(&dinfo);
-	}
+	dinfo->out_color_space = JCS_EXT_BGR;
+	dinfo->dct_method = JDCT_IFAST;
 
-	dinfo.out_color_space = JCS_EXT_BGR;
-	dinfo.dct_method = JDCT_IFAST;
-
-	jpeg_start_decompress(&dinfo);
+	jpeg_start_decompress(dinfo);
 
 	// local copy
 	uint8_t *data = out->data;
 	const int out_step = out->step;
 
-	if (LIKELY(dinfo.output_height == out->height)) {
-		for (; dinfo.output_scanline < dinfo.output_height ;) {
+	if (LIKELY(dinfo->output_height == out->height)) {
+		for (; dinfo->output_scanline < dinfo->output_height ;) {
 			buffer[0] = data + (lines_read) * out_step;
 			for (i = 1; i < MAX_READLINE; i++)
 				buffer[i] = buffer[i-1] + out_step;
-			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
+			num_scanlines = jpeg_read_scanlines(dinfo, buffer, MAX_READLINE);
 			lines_read += num_scanlines;
 		}
 		out->actual_bytes = in->width * in->height * 3;	// XXX
 	}
-	jpeg_finish_decompress(&dinfo);
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_finish_decompress(dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
 
 fail:
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_abort_decompress(dinfo);
 	return UVC_ERROR_OTHER+1;
 }
 
@@ -312,8 +533,8 @@ fail:
  * @param out RGB frame
  */
 uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
-	struct jpeg_decompress_struct dinfo;
-	struct error_mgr jerr;
+	uvc_mjpeg_decoder_t *dec;
+	j_decompress_ptr dinfo;
 	size_t lines_read;
 
 	int num_scanlines, i;
@@ -333,49 +554,44 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 2;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
-	dinfo.err = jpeg_std_error(&jerr.super);
-	jerr.super.error_exit = _error_exit;
+	dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	dinfo = &dec->dinfo;
 
-	if (setjmp(jerr.jmp)) {
+	if (setjmp(dec->jerr.jmp)) {
 		goto fail;
 	}
 
-	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);
-	jpeg_read_header(&dinfo, TRUE);
+	_uvc_mjpeg_read_header(dec, in);
 
-	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
-		/* This frame is missing the Huffman tables: fill in the standard ones */
-		insert_huff_tables(&dinfo);
-	}
+	dinfo->out_color_space = JCS_RGB565;
+	dinfo->dct_method = JDCT_IFAST;
 
-	dinfo.out_color_space = JCS_RGB565;
-	dinfo.dct_method = JDCT_IFAST;
-
-	jpeg_start_decompress(&dinfo);
+	jpeg_start_decompress(dinfo);
 
 	// local copy
 	uint8_t *data = out->data;
 	const int out_step = out->step;
 
-	if (LIKELY(dinfo.output_height == out->height)) {
-		for (; dinfo.output_scanline < dinfo.output_height ;) {
+	if (LIKELY(dinfo->output_height == out->height)) {
+		for (; dinfo->output_scanline < dinfo->output_height ;) {
 			buffer[0] = data + (lines_read) * out_step;
 			for (i = 1; i < MAX_READLINE; i++)
 				buffer[i] = buffer[i-1] + out_step;
-			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
+			num_scanlines = jpeg_read_scanlines(dinfo, buffer, MAX_READLINE);
 			lines_read += num_scanlines;
 		}
 		out->actual_bytes = in->width * in->height * 2;	// XXX
 	}
-	jpeg_finish_decompress(&dinfo);
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_finish_decompress(dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
 
 fail:
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_abort_decompress(dinfo);
 	return UVC_ERROR_OTHER+1;
 }
 
@@ -386,69 +602,135 @@ fail:
  * @param out RGBX frame
  */
 uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
-	struct jpeg_decompress_struct dinfo;
-	struct error_mgr jerr;
+	return uvc_mjpeg2rgbx_scaled(in, out, 1);
+}
+
+/** @brief Convert an MJPEG frame to RGBX with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * libjpeg skips most of the IDCT work for the scaled down output,
+ * so this is much faster than decoding at full resolution and then resizing.
+ * @param in MJPEG frame
+ * @param out RGBX frame, width and height are ceil(width / scale_denom), ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2rgbx_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom) {
+	return uvc_mjpeg2rgbx_crop(in, out, 0, 0, in->width, in->height, scale_denom);
+}
+
+/** @brief Decode a region of an MJPEG frame into RGBX with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * Only the iMCU columns that include the region are decoded and the rows below the region are not read,
+ * so the decoding work is roughly proportional to the region(entropy decoding of the rows above is still needed).
+ * The region should be aligned to the MCU(16 pixels for 4:2:x) to avoid decoding extra columns.
+ * @param in MJPEG frame
+ * @param out RGBX frame of the region scaled down by scale_denom
+ * @param x left of the region in pixels of the frame
+ * @param y top of the region in pixels of the frame
+ * @param width width of the region in pixels of the frame
+ * @param height height of the region in pixels of the frame
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2rgbx_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom) {
+
+	uvc_mjpeg_decoder_t *dec;
+	j_decompress_ptr dinfo;
+	_uvc_mjpeg_region_t region;
 	size_t lines_read;
-	// local copy
-	uint8_t *data = out->data;
-	const int out_step = out->step;
 
 	int num_scanlines, i;
 	lines_read = 0;
 	unsigned char *buffer[MAX_READLINE];
 
 	out->actual_bytes = 0;	// XXX
-	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+	if (UNLIKELY((in->frame_format != UVC_FRAME_FORMAT_MJPEG) || !VALID_SCALE(scale_denom)
+		|| _uvc_mjpeg_region(in, x, y, width, height, scale_denom, &region)))
 		return UVC_ERROR_INVALID_PARAM;
 
-	if (uvc_ensure_frame_size(out, in->width * in->height * 4) < 0)
+	if (uvc_ensure_frame_size(out, region.width * region.height * 4) < 0)
 		return UVC_ERROR_NO_MEM;
 
-	out->width = in->width;
-	out->height = in->height;
+	out->width = region.width;
+	out->height = region.height;
 	out->frame_format = UVC_FRAME_FORMAT_RGBX;	// XXX
-	out->step = in->width * 4;
+	if (out->library_owns_data)
+		out->step = region.width * 4;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
-	dinfo.err = jpeg_std_error(&jerr.super);
-	jerr.super.error_exit = _error_exit;
+	dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	dinfo = &dec->dinfo;
 
-	if (setjmp(jerr.jmp)) {
+	if (setjmp(dec->jerr.jmp)) {
 		goto fail;
 	}
 
-	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);	// XXX
-	jpeg_read_header(&dinfo, TRUE);
+	_uvc_mjpeg_read_header(dec, in);
 
-	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
-		/* This frame is missing the Huffman tables: fill in the standard ones */
-		insert_huff_tables(&dinfo);
-	}
+	dinfo->out_color_space = JCS_EXT_RGBA;
+	dinfo->dct_method = JDCT_IFAST;
+	dinfo->scale_num = 1;
+	dinfo->scale_denom = scale_denom;
+
+	jpeg_start_decompress(dinfo);
 
-	dinfo.out_color_space = JCS_EXT_RGBA;
-	dinfo.dct_method = JDCT_IFAST;
+	const int offset = _uvc_mjpeg_start_region(dinfo, &region);
+	if (UNLIKELY(offset < 0)) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_OTHER;
+	}
 
-	jpeg_start_decompress(&dinfo);
+	// local copy, the buffer may be reallocated by uvc_ensure_frame_size
+	uint8_t *data = out->data;
+	const int out_step = out->step;
+	const size_t row_bytes = region.width * 4;
 
-	if (LIKELY(dinfo.output_height == out->height)) {
-		for (; dinfo.output_scanline < dinfo.output_height ;) {
+	if ((offset == 0) && (dinfo->output_width == region.width)) {
+		// decode directly into the output frame
+		for (; lines_read < region.height ;) {
+			const int n = region.height - lines_read < MAX_READLINE ? region.height - lines_read : MAX_READLINE;
 			buffer[0] = data + (lines_read) * out_step;
-			for (i = 1; i < MAX_READLINE; i++)
+			for (i = 1; i < n; i++)
 				buffer[i] = buffer[i-1] + out_step;
-			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
+			num_scanlines = jpeg_read_scanlines(dinfo, buffer, n);
+			if (UNLIKELY(!num_scanlines))
+				break;
+			lines_read += num_scanlines;
+		}
+	} else {
+		// the decoded columns start at the iMCU boundary on the left of the region
+		const size_t row_stride = dinfo->output_width * 4;
+		uint8_t *scratch = _uvc_mjpeg_scratch(dec, row_stride * MAX_READLINE);
+		if (UNLIKELY(!scratch)) {
+			jpeg_abort_decompress(dinfo);
+			return UVC_ERROR_NO_MEM;
+		}
+		_uvc_mjpeg_rows(buffer, scratch, row_stride, MAX_READLINE);
+		for (; lines_read < region.height ;) {
+			const int n = region.height - lines_read < MAX_READLINE ? region.height - lines_read : MAX_READLINE;
+			num_scanlines = jpeg_read_scanlines(dinfo, buffer, n);
+			if (UNLIKELY(!num_scanlines))
+				break;
+			for (i = 0; i < num_scanlines; i++) {
+				memcpy(data + (lines_read + i) * out_step, buffer[i] + offset * 4, row_bytes);
+			}
 			lines_read += num_scanlines;
 		}
-		out->actual_bytes = in->width * in->height * 4;	// XXX
 	}
-	jpeg_finish_decompress(&dinfo);
-	jpeg_destroy_decompress(&dinfo);
+	if (LIKELY(lines_read == region.height)) {
+		out->actual_bytes = region.width * region.height * 4;	// XXX
+	}
+	_uvc_mjpeg_finish_region(dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;	// XXX
 
 fail:
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_abort_decompress(dinfo);
 	return UVC_ERROR_OTHER+1;
 }
 
@@ -465,12 +747,48 @@ static inline unsigned char sat(int i) {
 	}
 
 uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
+	return uvc_mjpeg2yuyv_scaled(in, out, 1);
+}
+
+/** @brief Convert an MJPEG frame to YUYV with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out YUYV frame, width and height are ceil(width / scale_denom), ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8, the scaled width should be a multiple of 8 when scale_denom is not 1
+ */
+uvc_error_t uvc_mjpeg2yuyv_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom) {
+	return uvc_mjpeg2yuyv_crop(in, out, 0, 0, in->width, in->height, scale_denom);
+}
+
+/** @brief Decode a region of an MJPEG frame into YUYV with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * see uvc_mjpeg2rgbx_crop
+ * @param in MJPEG frame
+ * @param out YUYV frame of the region scaled down by scale_denom
+ * @param x left of the region in pixels of the frame
+ * @param y top of the region in pixels of the frame
+ * @param width width of the region in pixels of the frame
+ * @param height height of the region in pixels of the frame
+ * @param scale_denom 1, 2, 4 or 8, the scaled width of the region should be a multiple of 8
+ * 	unless the whole frame is decoded at the frame size
+ */
+uvc_error_t uvc_mjpeg2yuyv_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom) {
+
+	_uvc_mjpeg_region_t region;
 
 	out->actual_bytes = 0;	// XXX
-	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+	if (UNLIKELY((in->frame_format != UVC_FRAME_FORMAT_MJPEG) || !VALID_SCALE(scale_denom)
+		|| _uvc_mjpeg_region(in, x, y, width, height, scale_denom, &region)))
 		return UVC_ERROR_INVALID_PARAM;
 
-	if (uvc_ensure_frame_size(out, in->width * in->height * 2) < 0)
+	// YCbCr => YUYV conversion below processes 8 pixels at once
+	if (UNLIKELY((region.width & 7) && ((scale_denom != 1) || (region.width != in->width))))
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	if (uvc_ensure_frame_size(out, region.width * region.height * 2) < 0)
 		return UVC_ERROR_NO_MEM;
 
 	size_t lines_read = 0;
@@ -478,75 +796,414 @@ uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
 	int num_scanlines;
 	register uint8_t *yuyv, *ycbcr;
 
-	out->width = in->width;
-	out->height = in->height;
+	out->width = region.width;
+	out->height = region.height;
 	out->frame_format = UVC_FRAME_FORMAT_YUYV;
-	out->step = in->width * 2;
+	out->step = region.width * 2;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
-	struct jpeg_decompress_struct dinfo;
-	struct error_mgr jerr;
-	dinfo.err = jpeg_std_error(&jerr.super);
-	jerr.super.error_exit = _error_exit;
+	uvc_mjpeg_decoder_t *dec;
+	j_decompress_ptr dinfo;
+	dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	dinfo = &dec->dinfo;
 
-	if (setjmp(jerr.jmp)) {
+	if (setjmp(dec->jerr.jmp)) {
 		goto fail;
 	}
 
-	jpeg_create_decompress(&dinfo);
-	jpeg_mem_src(&dinfo, in->data, in->actual_bytes/*in->data_bytes*/);	// XXX
-	jpeg_read_header(&dinfo, TRUE);
-
-	if (dinfo.dc_huff_tbl_ptrs[0] == NULL) {
-		/* This frame is missing the Huffman tables: fill in the standard ones */
-		insert_huff_tables(&dinfo);
-	}
+	_uvc_mjpeg_read_header(dec, in);
 
-	dinfo.out_color_space = JCS_YCbCr;
-	dinfo.dct_method = JDCT_IFAST;
+	dinfo->out_color_space = JCS_YCbCr;
+	dinfo->dct_method = JDCT_IFAST;
+	dinfo->scale_num = 1;
+	dinfo->scale_denom = scale_denom;
 
 	// start decompressor
-	jpeg_start_decompress(&dinfo);
+	jpeg_start_decompress(dinfo);
 
-	// these dinfo.xxx valiables are only valid after jpeg_start_decompress
-	const int row_stride = dinfo.output_width * dinfo.output_components;
+	const int offset = _uvc_mjpeg_start_region(dinfo, &region);
+	if (UNLIKELY(offset < 0)) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_OTHER;
+	}
 
-	// allocate buffer
-	register JSAMPARRAY buffer = (*dinfo.mem->alloc_sarray)
-		((j_common_ptr) &dinfo, JPOOL_IMAGE, row_stride, MAX_READLINE);
+	// these dinfo->xxx valiables are only valid after jpeg_start_decompress
+	const int row_stride = dinfo->output_width * dinfo->output_components;
+	// YCbCr bytes of the region in each row
+	const int region_stride = region.width * dinfo->output_components;
+	const int region_offset = offset * dinfo->output_components;
+
+	// scanline buffer, reused across frames
+	JSAMPROW buffer[MAX_READLINE];
+	uint8_t *scratch = _uvc_mjpeg_scratch(dec, row_stride * MAX_READLINE);
+	if (UNLIKELY(!scratch)) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_NO_MEM;
+	}
+	_uvc_mjpeg_rows(buffer, scratch, row_stride, MAX_READLINE);
 
 	// local copy
 	uint8_t *data = out->data;
 	const int out_step = out->step;
 
-	if (LIKELY(dinfo.output_height == out->height)) {
-		for (; dinfo.output_scanline < dinfo.output_height ;) {
-			// convert lines of mjpeg data to YCbCr
-			num_scanlines = jpeg_read_scanlines(&dinfo, buffer, MAX_READLINE);
-			// convert YCbCr to yuyv(YUV422)
-			for (j = 0; j < num_scanlines; j++) {
-				yuyv = data + (lines_read + j) * out_step;
-				ycbcr = buffer[j];
-				for (i = 0; i < row_stride; i += 24) {	// step by YCbCr x 8 pixels = 3 x 8 bytes
-					YCbCr_YUYV_2(ycbcr + i, yuyv);
-					YCbCr_YUYV_2(ycbcr + i + 6, yuyv);
-					YCbCr_YUYV_2(ycbcr + i + 12, yuyv);
-					YCbCr_YUYV_2(ycbcr + i + 18, yuyv);
-				}
+	for (; lines_read < region.height ;) {
+		const int n = region.height - lines_read < MAX_READLINE ? region.height - lines_read : MAX_READLINE;
+		// convert lines of mjpeg data to YCbCr
+		num_scanlines = jpeg_read_scanlines(dinfo, buffer, n);
+		if (UNLIKELY(!num_scanlines))
+			break;
+		// convert YCbCr to yuyv(YUV422)
+		for (j = 0; j < num_scanlines; j++) {
+			yuyv = data + (lines_read + j) * out_step;
+			ycbcr = buffer[j] + region_offset;
+			for (i = 0; i < region_stride; i += 24) {	// step by YCbCr x 8 pixels = 3 x 8 bytes
+				YCbCr_YUYV_2(ycbcr + i, yuyv);
+				YCbCr_YUYV_2(ycbcr + i + 6, yuyv);
+				YCbCr_YUYV_2(ycbcr + i + 12, yuyv);
+				YCbCr_YUYV_2(ycbcr + i + 18, yuyv);
 			}
-			lines_read += num_scanlines;
 		}
-		out->actual_bytes = in->width * in->height * 2;	// XXX
+		lines_read += num_scanlines;
+	}
+	if (LIKELY(lines_read == region.height)) {
+		out->actual_bytes = region.width * region.height * 2;	// XXX
 	}
 
-	jpeg_finish_decompress(&dinfo);
-	jpeg_destroy_decompress(&dinfo);
+	_uvc_mjpeg_finish_region(dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER;
 
 fail:
-	jpeg_destroy_decompress(&dinfo);
+	jpeg_abort_decompress(dinfo);
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER+1;
 }
 
+
+#define YUV420_NV12 0	// Y + UV
+#define YUV420_NV21 1	// Y + VU
+#define YUV420_I420 2	// Y + U + V
+
+/** @internal
+ * @brief decode MJPEG into 4:2:0 YUV without color conversion
+ *
+ * This reads the decoded Y/Cb/Cr planes as they are (raw data output of libjpeg),
+ * so there is no upsampling, no color conversion and no intermediate YUYV frame.
+ * Chroma of 4:2:2 MJPEG (most UVC cameras) is averaged vertically,
+ * chroma of 4:2:0 MJPEG is used as it is.
+ * @param scale_denom 1, 2, 4 or 8, the output is scaled down in DCT domain
+ * @return UVC_ERROR_NOT_SUPPORTED if sampling factors of MJPEG are neither 4:2:2 nor 4:2:0
+ * 	or the sampling factors can not be scaled without resampling chroma
+ */
+static uvc_error_t _uvc_mjpeg2yuv420(uvc_frame_t *in, uvc_frame_t *out, const int layout, const int scale_denom) {
+
+	out->actual_bytes = 0;	// XXX
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+
+	const int width = SCALED_SIZE(in->width, scale_denom);
+	const int height = SCALED_SIZE(in->height, scale_denom);
+	if (UNLIKELY((width & 1) || (height & 1)))
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	if (uvc_ensure_frame_size(out, (width * height * 3) / 2) < 0)
+		return UVC_ERROR_NO_MEM;
+
+	out->width = width;
+	out->height = height;
+	out->frame_format = layout == YUV420_NV12 ? UVC_FRAME_FORMAT_NV12
+		: (layout == YUV420_NV21 ? UVC_FRAME_FORMAT_NV21 : UVC_FRAME_FORMAT_I420);
+	out->step = width;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
+
+	uvc_mjpeg_decoder_t *dec;
+	j_decompress_ptr dinfo;
+	dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	dinfo = &dec->dinfo;
+
+	if (setjmp(dec->jerr.jmp)) {
+		goto fail;
+	}
+
+	_uvc_mjpeg_read_header(dec, in);
+
+	const jpeg_component_info *comp = dinfo->comp_info;
+	if (UNLIKELY((dinfo->num_components != 3)
+		|| (comp[0].h_samp_factor != 2)
+		|| ((comp[0].v_samp_factor != 1) && (comp[0].v_samp_factor != 2))
+		|| (comp[1].h_samp_factor != 1) || (comp[1].v_samp_factor != 1)
+		|| (comp[2].h_samp_factor != 1) || (comp[2].v_samp_factor != 1))) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+
+	dinfo->out_color_space = JCS_YCbCr;
+	dinfo->raw_data_out = TRUE;
+	dinfo->do_fancy_upsampling = FALSE;
+	dinfo->dct_method = JDCT_IFAST;
+	dinfo->scale_num = 1;
+	dinfo->scale_denom = scale_denom;
+
+	// libjpeg scales chroma components up through IDCT when chroma is subsampled vertically(4:2:0),
+	// and 4:2:2 chroma rows can not be averaged in pairs when the scaled DCT block is a single row
+	jpeg_calc_output_dimensions(dinfo);
+	const int dct = MIN_DCT_SCALED_SIZE(dinfo);
+	if (UNLIKELY((DCT_SCALED_SIZE(&comp[1]) != dct) || (DCT_SCALED_SIZE(&comp[2]) != dct)
+		|| ((comp[0].v_samp_factor == 1) && (dct < 2)))) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+
+	jpeg_start_decompress(dinfo);
+
+	if (UNLIKELY((dinfo->output_width != width) || (dinfo->output_height != height))) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_OTHER;
+	}
+
+	// Y rows / chroma rows for each call of jpeg_read_raw_data
+	const int v_samp = comp[0].v_samp_factor;
+	const int rows = v_samp * dct;
+	// width of the decoded planes, these are padded to the multiple of DCT block
+	const int y_width = comp[0].width_in_blocks * dct;
+	const int c_width = width >> 1;
+	// Y rows are decoded directly into the output frame when there is no padding
+	const int direct = y_width == width;
+
+	// decoded rows are kept in the scratch memory of the decoder context, which is reused across frames
+	const int cb_width = comp[1].width_in_blocks * dct;
+	const int cr_width = comp[2].width_in_blocks * dct;
+	uint8_t *scratch = _uvc_mjpeg_scratch(dec, (y_width * rows) + (cb_width + cr_width) * dct);
+	if (UNLIKELY(!scratch)) {
+		jpeg_abort_decompress(dinfo);
+		return UVC_ERROR_NO_MEM;
+	}
+	JSAMPROW ybuf[2 * DCTSIZE], cb[DCTSIZE], cr[DCTSIZE];
+	scratch = _uvc_mjpeg_rows(ybuf, scratch, y_width, rows);
+	scratch = _uvc_mjpeg_rows(cb, scratch, cb_width, dct);
+	_uvc_mjpeg_rows(cr, scratch, cr_width, dct);
+	JSAMPROW yrows[2 * DCTSIZE];
+	JSAMPARRAY planes[3] = { yrows, cb, cr };
+
+	uint8_t *y_plane = out->data;
+	uint8_t *c_plane = y_plane + width * height;
+	// destination of the chroma samples and it's step
+	uint8_t *pu, *pv;
+	int pu_step, c_pitch;
+	switch (layout) {
+	case YUV420_NV12:
+		pu = c_plane; pv = c_plane + 1; pu_step = 2; c_pitch = width;
+		break;
+	case YUV420_NV21:
+		pv = c_plane; pu = c_plane + 1; pu_step = 2; c_pitch = width;
+		break;
+	default:
+		pu = c_plane; pv = c_plane + (width * height) / 4; pu_step = 1; c_pitch = c_width;
+		break;
+	}
+
+	int i, x, c;
+	for (; dinfo->output_scanline < dinfo->output_height ;) {
+		const int y0 = dinfo->output_scanline;
+		for (i = 0; i < rows; i++) {
+			yrows[i] = (direct && (y0 + i < height)) ? y_plane + (y0 + i) * width : ybuf[i];
+		}
+		const int lines = jpeg_read_raw_data(dinfo, planes, rows);
+		if (UNLIKELY(!lines))
+			break;
+		if (!direct) {
+			for (i = 0; (i < lines) && (y0 + i < height); i++) {
+				memcpy(y_plane + (y0 + i) * width, ybuf[i], width);
+			}
+		}
+		if (v_samp == 2) {
+			// 4:2:0, one chroma row for 2 Y rows
+			for (c = 0; (c < dct) && ((y0 >> 1) + c < (height >> 1)); c++) {
+				const JSAMPROW pcb = cb[c], pcr = cr[c];
+				uint8_t *u = pu + ((y0 >> 1) + c) * c_pitch;
+				uint8_t *v = pv + ((y0 >> 1) + c) * c_pitch;
+				for (x = 0; x < c_width; x++) {
+					u[x * pu_step] = pcb[x];
+					v[x * pu_step] = pcr[x];
+				}
+			}
+		} else {
+			// 4:2:2, average chroma of 2 rows
+			for (c = 0; (c < dct) && (((y0 + c) >> 1) < (height >> 1)); c += 2) {
+				const JSAMPROW pcb0 = cb[c], pcb1 = cb[c + 1];
+				const JSAMPROW pcr0 = cr[c], pcr1 = cr[c + 1];
+				uint8_t *u = pu + ((y0 + c) >> 1) * c_pitch;
+				uint8_t *v = pv + ((y0 + c) >> 1) * c_pitch;
+				for (x = 0; x < c_width; x++) {
+					u[x * pu_step] = (pcb0[x] + pcb1[x]) >> 1;
+					v[x * pu_step] = (pcr0[x] + pcr1[x]) >> 1;
+				}
+			}
+		}
+	}
+
+	const int completed = dinfo->output_scanline >= height;
+	if (completed) {
+		jpeg_finish_decompress(dinfo);
+		out->actual_bytes = (width * height * 3) / 2;	// XXX
+	} else {
+		jpeg_abort_decompress(dinfo);
+	}
+	return completed ? UVC_SUCCESS : UVC_ERROR_OTHER;
+
+fail:
+	jpeg_abort_decompress(dinfo);
+	return UVC_ERROR_OTHER+1;
+}
+
+/** @internal
+ * @brief decode through YUYV when _uvc_mjpeg2yuv420 can not handle the sampling factors or scaling,
+ * and to decode a region of the frame(raw data output of libjpeg can not skip columns)
+ */
+static uvc_error_t _uvc_mjpeg2yuv420_fallback(uvc_frame_t *in, uvc_frame_t *out,
+	uvc_error_t (*yuyv2yuv420)(uvc_frame_t *in, uvc_frame_t *out),
+	const int x, const int y, const int width, const int height, const int scale_denom) {
+
+	uvc_mjpeg_decoder_t *dec = _uvc_mjpeg_get_decoder();
+	if (UNLIKELY(!dec))
+		return UVC_ERROR_NO_MEM;
+	// intermediate frame is kept in the decoder context, uvc_mjpeg2yuyv resizes it when required
+	if (!dec->yuyv) {
+		dec->yuyv = uvc_allocate_frame(in->width * in->height * 2);
+		if (UNLIKELY(!dec->yuyv))
+			return UVC_ERROR_NO_MEM;
+	}
+	uvc_frame_t *yuv = dec->yuyv;
+	uvc_error_t result = uvc_mjpeg2yuyv_crop(in, yuv, x, y, width, height, scale_denom);
+	if (LIKELY(!result)) {
+		result = yuyv2yuv420(yuv, out);
+		out->sequence = in->sequence;
+		out->capture_time = in->capture_time;
+		out->meta = in->meta;
+		out->source = in->source;
+	}
+	return result;
+}
+
+/** @brief Convert an MJPEG frame to YUV420SemiPlanar(NV12, same layout as uvc_yuyv2yuv420SP)
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out NV12 frame
+ */
+uvc_error_t uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	uvc_error_t result = _uvc_mjpeg2yuv420(in, out, YUV420_NV12, 1);
+	if (UNLIKELY(result == UVC_ERROR_NOT_SUPPORTED)) {
+		result = _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2yuv420SP, 0, 0, in->width, in->height, 1);
+	}
+	return result;
+}
+
+/** @brief Convert an MJPEG frame to YVU420SemiPlanar(NV21, same layout as uvc_yuyv2iyuv420SP)
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out NV21 frame
+ */
+uvc_error_t uvc_mjpeg2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	uvc_error_t result = _uvc_mjpeg2yuv420(in, out, YUV420_NV21, 1);
+	if (UNLIKELY(result == UVC_ERROR_NOT_SUPPORTED)) {
+		result = _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2iyuv420SP, 0, 0, in->width, in->height, 1);
+	}
+	return result;
+}
+
+/** @brief Convert an MJPEG frame to YUV420Planar(I420)
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out I420 frame
+ */
+uvc_error_t uvc_mjpeg2i420(uvc_frame_t *in, uvc_frame_t *out) {
+	uvc_error_t result = _uvc_mjpeg2yuv420(in, out, YUV420_I420, 1);
+	if (UNLIKELY(result == UVC_ERROR_NOT_SUPPORTED)) {
+		result = _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2yuv420P, 0, 0, in->width, in->height, 1);
+	}
+	return result;
+}
+
+/** @brief Convert an MJPEG frame to YUV420SemiPlanar(NV12) with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * 4:2:0 MJPEG and 1/8 scaling of 4:2:2 MJPEG are decoded through YUYV.
+ * @param in MJPEG frame
+ * @param out NV12 frame, width and height are ceil(width / scale_denom), ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2yuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom) {
+	if (UNLIKELY(!VALID_SCALE(scale_denom)))
+		return UVC_ERROR_INVALID_PARAM;
+	uvc_error_t result = _uvc_mjpeg2yuv420(in, out, YUV420_NV12, scale_denom);
+	if (UNLIKELY(result == UVC_ERROR_NOT_SUPPORTED)) {
+		result = _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2yuv420SP, 0, 0, in->width, in->height, scale_denom);
+	}
+	return result;
+}
+
+/** @brief Convert an MJPEG frame to YVU420SemiPlanar(NV21) with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * @param in MJPEG frame
+ * @param out NV21 frame, width and height are ceil(width / scale_denom), ceil(height / scale_denom)
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2iyuv420SP_scaled(uvc_frame_t *in, uvc_frame_t *out, const int scale_denom) {
+	if (UNLIKELY(!VALID_SCALE(scale_denom)))
+		return UVC_ERROR_INVALID_PARAM;
+	uvc_error_t result = _uvc_mjpeg2yuv420(in, out, YUV420_NV21, scale_denom);
+	if (UNLIKELY(result == UVC_ERROR_NOT_SUPPORTED)) {
+		result = _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2iyuv420SP, 0, 0, in->width, in->height, scale_denom);
+	}
+	return result;
+}
+
+/** @brief Decode a region of an MJPEG frame into YUV420SemiPlanar(NV12) with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * The region is decoded through YUYV, see uvc_mjpeg2rgbx_crop and uvc_mjpeg2yuyv_crop.
+ * @param in MJPEG frame
+ * @param out NV12 frame of the region scaled down by scale_denom
+ * @param x left of the region in pixels of the frame
+ * @param y top of the region in pixels of the frame
+ * @param width width of the region in pixels of the frame
+ * @param height height of the region in pixels of the frame
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2yuv420SP_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom) {
+	if (!x && !y && ((uint32_t)width == in->width) && ((uint32_t)height == in->height))
+		return uvc_mjpeg2yuv420SP_scaled(in, out, scale_denom);
+	return _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2yuv420SP, x, y, width, height, scale_denom);
+}
+
+/** @brief Decode a region of an MJPEG frame into YVU420SemiPlanar(NV21) with scaling down in DCT domain
+ * @ingroup frame
+ *
+ * see uvc_mjpeg2yuv420SP_crop
+ * @param in MJPEG frame
+ * @param out NV21 frame of the region scaled down by scale_denom
+ * @param x left of the region in pixels of the frame
+ * @param y top of the region in pixels of the frame
+ * @param width width of the region in pixels of the frame
+ * @param height height of the region in pixels of the frame
+ * @param scale_denom 1, 2, 4 or 8
+ */
+uvc_error_t uvc_mjpeg2iyuv420SP_crop(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height, const int scale_denom) {
+	if (!x && !y && ((uint32_t)width == in->width) && ((uint32_t)height == in->height))
+		return uvc_mjpeg2iyuv420SP_scaled(in, out, scale_denom);
+	return _uvc_mjpeg2yuv420_fallback(in, out, uvc_yuyv2iyuv420SP, x, y, width, height, scale_denom);
+}
@@ -52,14 +52,68 @@
 #include "libuvc/libuvc_internal.h"
 
 #define USE_STRIDE 1
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+	#define USE_NEON 1	// XXX vectorized conversion kernels
+	#include <arm_neon.h>
+#else
+	#define USE_NEON 0
+#endif
+
+/** XXX 4:2:0 formats, step of these frames is the pitch of Y plane only */
+#define UVC_IS_YUV420_FORMAT(fmt) (((fmt) == UVC_FRAME_FORMAT_NV12) \
+	|| ((fmt) == UVC_FRAME_FORMAT_NV21) || ((fmt) == UVC_FRAME_FORMAT_I420))
+
+/** XXX whether conversions use the vectorized kernels, see uvc_set_simd_enabled */
+static int simd_enabled = USE_NEON;
+
+/** @brief Select vectorized or scalar pixel conversion kernels
+ * @ingroup frame
+ *
+ * Both produce exactly the same output. The scalar kernels are kept as the
+ * reference implementation, this is mainly for verification and benchmark.
+ *
+ * @param enable 0: always use scalar kernels, otherwise use vectorized kernels if available
+ * @return UVC_ERROR_NOT_SUPPORTED if vectorized kernels are not built in
+ */
+uvc_error_t uvc_set_simd_enabled(int enable) {
+	simd_enabled = USE_NEON && enable;
+	return (!enable || USE_NEON) ? UVC_SUCCESS : UVC_ERROR_NOT_SUPPORTED;
+}
+
+/** XXX number of frame buffers (re)allocated because they were too small, see uvc_get_frame_reallocs */
+static volatile uint64_t frame_reallocs;
+
+/** @internal */
+void _uvc_count_frame_realloc(void) {
+	__atomic_add_fetch(&frame_reallocs, 1, __ATOMIC_RELAXED);
+}
+
+/** @brief Get the number of frame buffers that were (re)allocated because they were too small
+ * @ingroup frame
+ *
+ * This counts uvc_ensure_frame_size and the receive buffers of zero copy streams
+ * in the whole process. Frames that are reused while streaming should keep their
+ * capacity, so this should not increase in steady state.
+ */
+uint64_t uvc_get_frame_reallocs(void) {
+	return __atomic_load_n(&frame_reallocs, __ATOMIC_RELAXED);
+}
+
 /** @internal */
 uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
 	if LIKELY(frame->library_owns_data) {
-		if UNLIKELY(!frame->data || frame->data_bytes != need_bytes) {
-			frame->actual_bytes = frame->data_bytes = need_bytes;	// XXX
-			frame->data = realloc(frame->data, frame->data_bytes);
+		// XXX never shrink the buffer, data_bytes is the size of the buffer,
+		// so a frame that is reused for different formats is not reallocated every time
+		if UNLIKELY(!frame->data || frame->data_bytes < need_bytes) {
+			_uvc_count_frame_realloc();
+			void *data = realloc(frame->data, need_bytes);
+			if (UNLIKELY(!data))
+				return UVC_ERROR_NO_MEM;
+			frame->data = data;
+			frame->data_bytes = need_bytes;
 		}
-		if (UNLIKELY(!frame->data || !need_bytes))
+		frame->actual_bytes = need_bytes;	// XXX
+		if (UNLIKELY(!need_bytes))
 			return UVC_ERROR_NO_MEM;
 		return UVC_SUCCESS;
 	} else {
@@ -125,7 +179,7 @@ static inline unsigned char sat(int i) {
  * @param out Duplicate frame
  */
 uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
-	if (UNLIKELY(uvc_ensure_frame_size(out, in->data_bytes) < 0))
+	if (UNLIKELY(uvc_ensure_frame_size(out, in->actual_bytes) < 0))
 		return UVC_ERROR_NO_MEM;
 
 	out->width = in->width;
@@ -135,19 +189,21 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->step;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 	out->actual_bytes = in->actual_bytes;	// XXX
 
 #if USE_STRIDE	 // XXX
-	if (in->step && out->step) {
+	if (in->step && out->step && !UVC_IS_YUV420_FORMAT(in->frame_format)) {
 		const int istep = in->step;
 		const int ostep = out->step;
 		const int hh = in->height < out->height ? in->height : out->height;
 		const int rowbytes = istep < ostep ? istep : ostep;
 		register void *ip = in->data;
 		register void *op = out->data;
+		const int h4 = hh & ~3;	// XXX the rest rows are copied below, height may not be a multiple of 4
 		int h;
-		for (h = 0; h < hh; h += 4) {
+		for (h = 0; h < h4; h += 4) {
 			memcpy(op, ip, rowbytes);
 			ip += istep; op += ostep;
 			memcpy(op, ip, rowbytes);
@@ -157,8 +213,13 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 			memcpy(op, ip, rowbytes);
 			ip += istep; op += ostep;
 		}
+		for (; h < hh; h++) {
+			memcpy(op, ip, rowbytes);
+			ip += istep; op += ostep;
+		}
 	} else {
-		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+		// compressed format or 4:2:0 planes(step is only for Y plane)
+		// XXX if only one of the frame in / out has step, this may lead to crash...
 		memcpy(out->data, in->data, in->actual_bytes);
 	}
 #else
@@ -167,6 +228,116 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 	return UVC_SUCCESS;
 }
 
+/** @brief Copy a region of a frame, preserving color format
+ * @ingroup frame
+ *
+ * Only the rows and columns of the region are read at the step of the input frame,
+ * so this costs the size of the region regardless of the frame size.
+ * Packed formats(YUYV, UYVY, RGB, BGR, RGBX, RGB565, GRAY8) are supported.
+ *
+ * @param in Original frame
+ * @param out Frame of the region
+ * @param x left of the region, should be even for YUYV/UYVY
+ * @param y top of the region
+ * @param width width of the region, should be even for YUYV/UYVY
+ * @param height height of the region
+ */
+uvc_error_t uvc_crop_frame(uvc_frame_t *in, uvc_frame_t *out,
+	const int x, const int y, const int width, const int height) {
+
+	int pixel_bytes;
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+	case UVC_FRAME_FORMAT_UYVY:
+		pixel_bytes = 2;
+		if (UNLIKELY((x & 1) || (width & 1)))
+			return UVC_ERROR_INVALID_PARAM;
+		break;
+	case UVC_FRAME_FORMAT_RGB565:
+		pixel_bytes = 2;
+		break;
+	case UVC_FRAME_FORMAT_RGB:
+	case UVC_FRAME_FORMAT_BGR:
+		pixel_bytes = 3;
+		break;
+	case UVC_FRAME_FORMAT_RGBX:
+		pixel_bytes = 4;
+		break;
+	case UVC_FRAME_FORMAT_GRAY8:
+		pixel_bytes = 1;
+		break;
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+	if (UNLIKELY((x < 0) || (y < 0) || (width <= 0) || (height <= 0)
+		|| ((uint32_t)(x + width) > in->width) || ((uint32_t)(y + height) > in->height)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	const size_t istep = in->step ? in->step : in->width * pixel_bytes;
+	const size_t rowbytes = width * pixel_bytes;
+	// the last row of the region should be received
+	if (UNLIKELY((y + height - 1) * istep + (x + width) * pixel_bytes > in->actual_bytes))
+		return UVC_ERROR_OTHER;
+	if (UNLIKELY(uvc_ensure_frame_size(out, rowbytes * height) < 0))
+		return UVC_ERROR_NO_MEM;
+
+	out->width = width;
+	out->height = height;
+	out->frame_format = in->frame_format;
+	if (out->library_owns_data)
+		out->step = rowbytes;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
+	out->actual_bytes = rowbytes * height;	// XXX
+
+	const size_t ostep = out->step ? out->step : rowbytes;
+	const uint8_t *ip = (const uint8_t *)in->data + y * istep + x * pixel_bytes;
+	uint8_t *op = (uint8_t *)out->data;
+	int h;
+	for (h = 0; h < height; h++) {
+		memcpy(op, ip, rowbytes);
+		ip += istep; op += ostep;
+	}
+	return UVC_SUCCESS;
+}
+
+/** @brief Exchange the image buffers of two frames without copying
+ * @ingroup frame
+ *
+ * out receives the image data and attributes of in, in receives the buffer
+ * previously held by out. Both frames must own their buffers.
+ *
+ * @param in Original frame
+ * @param out Frame that takes over the image data
+ */
+uvc_error_t uvc_swap_frame_data(uvc_frame_t *in, uvc_frame_t *out) {
+	if (UNLIKELY(!in->library_owns_data || !out->library_owns_data))
+		return UVC_ERROR_INVALID_PARAM;
+
+	void *data = out->data;
+	const size_t data_bytes = out->data_bytes;
+
+	out->data = in->data;
+	out->data_bytes = in->data_bytes;
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = in->frame_format;
+	out->step = in->step;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
+	out->actual_bytes = in->actual_bytes;
+
+	in->data = data;
+	in->data_bytes = data_bytes;
+	in->actual_bytes = 0;
+
+	return UVC_SUCCESS;
+}
+
 #define PIXEL_RGB565		2
 #define PIXEL_UYVY			2
 #define PIXEL_YUYV			2
@@ -202,6 +373,168 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 #define PIXEL16_BGR			PIXEL_BGR * 16
 #define PIXEL16_RGBX		PIXEL_RGBX * 16
 
+#if USE_NEON
+/*
+ * XXX vectorized kernels, each converts 16 pixels.
+ * These produce exactly the same output as the scalar macros below
+ * (same fixed point coefficients, arithmetic shift and saturation),
+ * so the remaining pixels at the end of rows are converted with the macros.
+ */
+
+/** chroma to r/g/b offsets, same as (coef * (d - 128)) >> 14 of the macros */
+static inline void neon_uv2rgb(const uint8x8_t u8, const uint8x8_t v8,
+	int16x8_t *r, int16x8_t *g, int16x8_t *b) {
+
+	const int16x8_t u = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(u8)), vdupq_n_s16(128));
+	const int16x8_t v = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(v8)), vdupq_n_s16(128));
+	*r = vcombine_s16(
+		vshrn_n_s32(vmull_n_s16(vget_low_s16(v), 22987), 14),
+		vshrn_n_s32(vmull_n_s16(vget_high_s16(v), 22987), 14));
+	*g = vcombine_s16(
+		vshrn_n_s32(vmlal_n_s16(vmull_n_s16(vget_low_s16(u), -5636), vget_low_s16(v), -11698), 14),
+		vshrn_n_s32(vmlal_n_s16(vmull_n_s16(vget_high_s16(u), -5636), vget_high_s16(v), -11698), 14));
+	*b = vcombine_s16(
+		vshrn_n_s32(vmull_n_s16(vget_low_s16(u), 29049), 14),
+		vshrn_n_s32(vmull_n_s16(vget_high_s16(u), 29049), 14));
+}
+
+/** same as sat(y + c) */
+static inline uint8x8_t neon_sat_add(const uint8x8_t y, const int16x8_t c) {
+	return vqmovun_s16(vaddq_s16(vreinterpretq_s16_u16(vmovl_u8(y)), c));
+}
+
+/**
+ * convert 8 pairs of pixels to rgb
+ * @param y0 luminance of even pixels
+ * @param y1 luminance of odd pixels
+ * @param rgb [0]:r, [1]:g, [2]:b, val[0] of each has pixel 0-7 and val[1] has pixel 8-15
+ */
+static inline void neon_yuv2rgb_16(const uint8x8_t y0, const uint8x8_t u, const uint8x8_t y1, const uint8x8_t v,
+	uint8x8x2_t rgb[3]) {
+
+	int16x8_t r, g, b;
+	neon_uv2rgb(u, v, &r, &g, &b);
+	rgb[0] = vzip_u8(neon_sat_add(y0, r), neon_sat_add(y1, r));
+	rgb[1] = vzip_u8(neon_sat_add(y0, g), neon_sat_add(y1, g));
+	rgb[2] = vzip_u8(neon_sat_add(y0, b), neon_sat_add(y1, b));
+}
+
+/** same as RGB2RGB565, little endian */
+static inline uint8x16_t neon_rgb2rgb565(const uint8x8_t r, const uint8x8_t g, const uint8x8_t b) {
+	uint16x8_t rgb565 = vshll_n_u8(r, 8);
+	rgb565 = vsriq_n_u16(rgb565, vshll_n_u8(g, 8), 5);
+	rgb565 = vsriq_n_u16(rgb565, vshll_n_u8(b, 8), 11);
+	return vreinterpretq_u8_u16(rgb565);
+}
+
+static inline void neon_store_rgb_16(uint8_t *prgb, const uint8x8x2_t rgb[3]) {
+	uint8x8x3_t out;
+	out.val[0] = rgb[0].val[0]; out.val[1] = rgb[1].val[0]; out.val[2] = rgb[2].val[0];
+	vst3_u8(prgb, out);
+	out.val[0] = rgb[0].val[1]; out.val[1] = rgb[1].val[1]; out.val[2] = rgb[2].val[1];
+	vst3_u8(prgb + PIXEL8_RGB, out);
+}
+
+static inline void neon_store_bgr_16(uint8_t *pbgr, const uint8x8x2_t rgb[3]) {
+	uint8x8x3_t out;
+	out.val[0] = rgb[2].val[0]; out.val[1] = rgb[1].val[0]; out.val[2] = rgb[0].val[0];
+	vst3_u8(pbgr, out);
+	out.val[0] = rgb[2].val[1]; out.val[1] = rgb[1].val[1]; out.val[2] = rgb[0].val[1];
+	vst3_u8(pbgr + PIXEL8_BGR, out);
+}
+
+static inline void neon_store_rgbx_16(uint8_t *prgbx, const uint8x8x2_t rgb[3]) {
+	uint8x8x4_t out;
+	out.val[3] = vdup_n_u8(0xff);
+	out.val[0] = rgb[0].val[0]; out.val[1] = rgb[1].val[0]; out.val[2] = rgb[2].val[0];
+	vst4_u8(prgbx, out);
+	out.val[0] = rgb[0].val[1]; out.val[1] = rgb[1].val[1]; out.val[2] = rgb[2].val[1];
+	vst4_u8(prgbx + PIXEL8_RGBX, out);
+}
+
+static inline void neon_store_rgb565_16(uint8_t *prgb565, const uint8x8x2_t rgb[3]) {
+	vst1q_u8(prgb565, neon_rgb2rgb565(rgb[0].val[0], rgb[1].val[0], rgb[2].val[0]));
+	vst1q_u8(prgb565 + PIXEL8_RGB565, neon_rgb2rgb565(rgb[0].val[1], rgb[1].val[1], rgb[2].val[1]));
+}
+
+// YUYV: y0 u y1 v
+#define NEON_YUYV2RGB_16(pyuv, rgb) { \
+		const uint8x8x4_t yuyv = vld4_u8(pyuv); \
+		neon_yuv2rgb_16(yuyv.val[0], yuyv.val[1], yuyv.val[2], yuyv.val[3], rgb); \
+	}
+// UYVY: u y0 v y1
+#define NEON_UYVY2RGB_16(pyuv, rgb) { \
+		const uint8x8x4_t uyvy = vld4_u8(pyuv); \
+		neon_yuv2rgb_16(uyvy.val[1], uyvy.val[0], uyvy.val[3], uyvy.val[2], rgb); \
+	}
+
+static inline void neon_yuyv2rgb_16(const uint8_t *pyuv, uint8_t *prgb) {
+	uint8x8x2_t rgb[3];
+	NEON_YUYV2RGB_16(pyuv, rgb);
+	neon_store_rgb_16(prgb, rgb);
+}
+
+static inline void neon_yuyv2bgr_16(const uint8_t *pyuv, uint8_t *pbgr) {
+	uint8x8x2_t rgb[3];
+	NEON_YUYV2RGB_16(pyuv, rgb);
+	neon_store_bgr_16(pbgr, rgb);
+}
+
+static inline void neon_yuyv2rgbx_16(const uint8_t *pyuv, uint8_t *prgbx) {
+	uint8x8x2_t rgb[3];
+	NEON_YUYV2RGB_16(pyuv, rgb);
+	neon_store_rgbx_16(prgbx, rgb);
+}
+
+static inline void neon_yuyv2rgb565_16(const uint8_t *pyuv, uint8_t *prgb565) {
+	uint8x8x2_t rgb[3];
+	NEON_YUYV2RGB_16(pyuv, rgb);
+	neon_store_rgb565_16(prgb565, rgb);
+}
+
+static inline void neon_uyvy2rgb_16(const uint8_t *pyuv, uint8_t *prgb) {
+	uint8x8x2_t rgb[3];
+	NEON_UYVY2RGB_16(pyuv, rgb);
+	neon_store_rgb_16(prgb, rgb);
+}
+
+static inline void neon_uyvy2bgr_16(const uint8_t *pyuv, uint8_t *pbgr) {
+	uint8x8x2_t rgb[3];
+	NEON_UYVY2RGB_16(pyuv, rgb);
+	neon_store_bgr_16(pbgr, rgb);
+}
+
+static inline void neon_uyvy2rgbx_16(const uint8_t *pyuv, uint8_t *prgbx) {
+	uint8x8x2_t rgb[3];
+	NEON_UYVY2RGB_16(pyuv, rgb);
+	neon_store_rgbx_16(prgbx, rgb);
+}
+
+static inline void neon_uyvy2rgb565_16(const uint8_t *pyuv, uint8_t *prgb565) {
+	uint8x8x2_t rgb[3];
+	NEON_UYVY2RGB_16(pyuv, rgb);
+	neon_store_rgb565_16(prgb565, rgb);
+}
+
+static inline void neon_rgb2rgbx_16(const uint8_t *prgb, uint8_t *prgbx) {
+	const uint8x16x3_t rgb = vld3q_u8(prgb);
+	uint8x16x4_t rgbx;
+	rgbx.val[0] = rgb.val[0];
+	rgbx.val[1] = rgb.val[1];
+	rgbx.val[2] = rgb.val[2];
+	rgbx.val[3] = vdupq_n_u8(0xff);
+	vst4q_u8(prgbx, rgbx);
+}
+
+static inline void neon_rgb2rgb565_16(const uint8_t *prgb, uint8_t *prgb565) {
+	const uint8x16x3_t rgb = vld3q_u8(prgb);
+	vst1q_u8(prgb565, neon_rgb2rgb565(
+		vget_low_u8(rgb.val[0]), vget_low_u8(rgb.val[1]), vget_low_u8(rgb.val[2])));
+	vst1q_u8(prgb565 + PIXEL8_RGB565, neon_rgb2rgb565(
+		vget_high_u8(rgb.val[0]), vget_high_u8(rgb.val[1]), vget_high_u8(rgb.val[2])));
+}
+#endif
+
 #define RGB2RGBX_2(prgb, prgbx, ax, bx) { \
 		(prgbx)[bx+0] = (prgb)[ax+0]; \
 		(prgbx)[bx+1] = (prgb)[ax+1]; \
@@ -241,12 +574,13 @@ uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGBX;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *prgb = in->data;
-	const uint8_t *prgb_end = prgb + in->data_bytes - PIXEL8_RGB;
+	const uint8_t *prgb_end = prgb + in->actual_bytes - PIXEL8_RGB;
 	uint8_t *prgbx = out->data;
-	const uint8_t *prgbx_end = prgbx + out->data_bytes - PIXEL8_RGBX;
+	const uint8_t *prgbx_end = prgbx + out->actual_bytes - PIXEL8_RGBX;
 
 	// RGB888 to RGBX8888
 #if USE_STRIDE
@@ -258,6 +592,15 @@ uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			prgb = in->data + in->step * h;
 			prgbx = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (prgb + PIXEL8_RGB <= prgb_end) && (w + 16 <= ww) ;) {
+				neon_rgb2rgbx_16(prgb, prgbx);
+
+				prgb += PIXEL16_RGB;
+				prgbx += PIXEL16_RGBX;
+				w += 16;
+			}
+#endif
 			for (; (prgbx <= prgbx_end) && (prgb <= prgb_end) && (w < ww) ;) {
 				RGB2RGBX_8(prgb, prgbx, 0, 0);
 
@@ -268,6 +611,14 @@ uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (prgb + PIXEL8_RGB <= prgb_end) ;) {
+			neon_rgb2rgbx_16(prgb, prgbx);
+
+			prgb += PIXEL16_RGB;
+			prgbx += PIXEL16_RGBX;
+		}
+#endif
 		for (; (prgbx <= prgbx_end) && (prgb <= prgb_end) ;) {
 			RGB2RGBX_8(prgb, prgbx, 0, 0);
 
@@ -276,6 +627,14 @@ uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (prgb + PIXEL8_RGB <= prgb_end) ;) {
+		neon_rgb2rgbx_16(prgb, prgbx);
+
+		prgb += PIXEL16_RGB;
+		prgbx += PIXEL16_RGBX;
+	}
+#endif
 	for (; (prgbx <= prgbx_end) && (prgb <= prgb_end) ;) {
 		RGB2RGBX_8(prgb, prgbx, 0, 0);
 
@@ -323,12 +682,13 @@ uvc_error_t uvc_rgb2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB565;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *prgb = in->data;
-	const uint8_t *prgb_end = prgb + in->data_bytes - PIXEL8_RGB;
+	const uint8_t *prgb_end = prgb + in->actual_bytes - PIXEL8_RGB;
 	uint8_t *prgb565 = out->data;
-	const uint8_t *prgb565_end = prgb565 + out->data_bytes - PIXEL8_RGB565;
+	const uint8_t *prgb565_end = prgb565 + out->actual_bytes - PIXEL8_RGB565;
 
 	// RGB888 to RGB565
 #if USE_STRIDE
@@ -340,6 +700,15 @@ uvc_error_t uvc_rgb2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			prgb = in->data + in->step * h;
 			prgb565 = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (prgb + PIXEL8_RGB <= prgb_end) && (w + 16 <= ww) ;) {
+				neon_rgb2rgb565_16(prgb, prgb565);
+
+				prgb += PIXEL16_RGB;
+				prgb565 += PIXEL16_RGB565;
+				w += 16;
+			}
+#endif
 			for (; (prgb565 <= prgb565_end) && (prgb <= prgb_end) && (w < ww) ;) {
 				RGB2RGB565_8(prgb, prgb565, 0, 0);
 
@@ -350,6 +719,14 @@ uvc_error_t uvc_rgb2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (prgb + PIXEL8_RGB <= prgb_end) ;) {
+			neon_rgb2rgb565_16(prgb, prgb565);
+
+			prgb += PIXEL16_RGB;
+			prgb565 += PIXEL16_RGB565;
+		}
+#endif
 		for (; (prgb565 <= prgb565_end) && (prgb <= prgb_end) ;) {
 			RGB2RGB565_8(prgb, prgb565, 0, 0);
 
@@ -358,6 +735,14 @@ uvc_error_t uvc_rgb2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (prgb + PIXEL8_RGB <= prgb_end) ;) {
+		neon_rgb2rgb565_16(prgb, prgb565);
+
+		prgb += PIXEL16_RGB;
+		prgb565 += PIXEL16_RGB565;
+	}
+#endif
 	for (; (prgb565 <= prgb565_end) && (prgb <= prgb_end) ;) {
 		RGB2RGB565_8(prgb, prgb565, 0, 0);
 
@@ -426,12 +811,13 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_YUYV;
 	uint8_t *prgb = out->data;
-	const uint8_t *prgb_end = prgb + out->data_bytes - PIXEL8_RGB;
+	const uint8_t *prgb_end = prgb + out->actual_bytes - PIXEL8_RGB;
 
 #if USE_STRIDE
 	if (in->step && out->step && (in->step != out->step)) {
@@ -442,6 +828,15 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			prgb = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgb + PIXEL8_RGB <= prgb_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_yuyv2rgb_16(pyuv, prgb);
+
+				pyuv += PIXEL16_YUYV;
+				prgb += PIXEL16_RGB;
+				w += 16;
+			}
+#endif
 			for (; (prgb <= prgb_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IYUYV2RGB_8(pyuv, prgb, 0, 0);
 
@@ -452,6 +847,14 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgb + PIXEL8_RGB <= prgb_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+			neon_yuyv2rgb_16(pyuv, prgb);
+
+			pyuv += PIXEL16_YUYV;
+			prgb += PIXEL16_RGB;
+		}
+#endif
 		for (; (prgb <= prgb_end) && (pyuv <= pyuv_end) ;) {
 			IYUYV2RGB_8(pyuv, prgb, 0, 0);
 
@@ -461,6 +864,14 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 	}
 #else
 	// YUYV => RGB888
+#if USE_NEON
+	for (; simd_enabled && (prgb + PIXEL8_RGB <= prgb_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+		neon_yuyv2rgb_16(pyuv, prgb);
+
+		pyuv += PIXEL16_YUYV;
+		prgb += PIXEL16_RGB;
+	}
+#endif
 	for (; (prgb <= prgb_end) && (pyuv <= pyuv_end) ;) {
 		IYUYV2RGB_8(pyuv, prgb, 0, 0);
 
@@ -490,12 +901,13 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB565;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_YUYV;
 	uint8_t *prgb565 = out->data;
-	const uint8_t *prgb565_end = prgb565 + out->data_bytes - PIXEL8_RGB565;
+	const uint8_t *prgb565_end = prgb565 + out->actual_bytes - PIXEL8_RGB565;
 
 	uint8_t tmp[PIXEL8_RGB];	// for temporary rgb888 data(8pixel)
 
@@ -508,33 +920,58 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			prgb565 = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_yuyv2rgb565_16(pyuv, prgb565);
+
+				pyuv += PIXEL16_YUYV;
+				prgb565 += PIXEL16_RGB565;
+				w += 16;
+			}
+#endif
 			for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IYUYV2RGB_8(pyuv, tmp, 0, 0);
 				RGB2RGB565_8(tmp, prgb565, 0, 0);
 
-				prgb565 += PIXEL8_YUYV;
-				pyuv += PIXEL8_RGB565;
+				prgb565 += PIXEL8_RGB565;
+				pyuv += PIXEL8_YUYV;
 				w += 8;
 			}
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+			neon_yuyv2rgb565_16(pyuv, prgb565);
+
+			pyuv += PIXEL16_YUYV;
+			prgb565 += PIXEL16_RGB565;
+		}
+#endif
 		for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
 			IYUYV2RGB_8(pyuv, tmp, 0, 0);
 			RGB2RGB565_8(tmp, prgb565, 0, 0);
 
-			prgb565 += PIXEL8_YUYV;
-			pyuv += PIXEL8_RGB565;
+			prgb565 += PIXEL8_RGB565;
+			pyuv += PIXEL8_YUYV;
 		}
 	}
 #else
 	// YUYV => RGB565
+#if USE_NEON
+	for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+		neon_yuyv2rgb565_16(pyuv, prgb565);
+
+		pyuv += PIXEL16_YUYV;
+		prgb565 += PIXEL16_RGB565;
+	}
+#endif
 	for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
 		IYUYV2RGB_8(pyuv, tmp, 0, 0);
 		RGB2RGB565_8(tmp, prgb565, 0, 0);
 
-		prgb565 += PIXEL8_YUYV;
-		pyuv += PIXEL8_RGB565;
+		prgb565 += PIXEL8_RGB565;
+		pyuv += PIXEL8_YUYV;
 	}
 #endif
 	return UVC_SUCCESS;
@@ -586,12 +1023,13 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGBX;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_YUYV;
 	uint8_t *prgbx = out->data;
-	const uint8_t *prgbx_end = prgbx + out->data_bytes - PIXEL8_RGBX;
+	const uint8_t *prgbx_end = prgbx + out->actual_bytes - PIXEL8_RGBX;
 
 	// YUYV => RGBX8888
 #if USE_STRIDE
@@ -603,6 +1041,15 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			prgbx = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_yuyv2rgbx_16(pyuv, prgbx);
+
+				pyuv += PIXEL16_YUYV;
+				prgbx += PIXEL16_RGBX;
+				w += 16;
+			}
+#endif
 			for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
 
@@ -613,6 +1060,14 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+			neon_yuyv2rgbx_16(pyuv, prgbx);
+
+			pyuv += PIXEL16_YUYV;
+			prgbx += PIXEL16_RGBX;
+		}
+#endif
 		for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
 			IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
 
@@ -621,6 +1076,14 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+		neon_yuyv2rgbx_16(pyuv, prgbx);
+
+		pyuv += PIXEL16_YUYV;
+		prgbx += PIXEL16_RGBX;
+	}
+#endif
 	for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
 		IYUYV2RGBX_8(pyuv, prgbx, 0, 0);
 
@@ -632,8 +1095,8 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 }
 
 #define IYUYV2BGR_2(pyuv, pbgr, ax, bx) { \
-		const int d1 = (pyuv)[1]; \
-		const int d3 = (pyuv)[3]; \
+		const int d1 = (pyuv)[ax+1]; \
+		const int d3 = (pyuv)[ax+3]; \
 	    const int r = (22987 * (d3/*(pyuv)[3]*/ - 128)) >> 14; \
 	    const int g = (-5636 * (d1/*(pyuv)[1]*/ - 128) - 11698 * (d3/*(pyuv)[3]*/ - 128)) >> 14; \
 	    const int b = (29049 * (d1/*(pyuv)[1]*/ - 128)) >> 14; \
@@ -676,12 +1139,13 @@ uvc_error_t uvc_yuyv2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_BGR;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_YUYV;
+	uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_YUYV;
 	uint8_t *pbgr = out->data;
-	uint8_t *pbgr_end = pbgr + out->data_bytes - PIXEL8_BGR;
+	uint8_t *pbgr_end = pbgr + out->actual_bytes - PIXEL8_BGR;
 
 	// YUYV => BGR888
 #if USE_STRIDE
@@ -693,6 +1157,15 @@ uvc_error_t uvc_yuyv2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			pbgr = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (pbgr + PIXEL8_BGR <= pbgr_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_yuyv2bgr_16(pyuv, pbgr);
+
+				pyuv += PIXEL16_YUYV;
+				pbgr += PIXEL16_BGR;
+				w += 16;
+			}
+#endif
 			for (; (pbgr <= pbgr_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IYUYV2BGR_8(pyuv, pbgr, 0, 0);
 
@@ -703,6 +1176,14 @@ uvc_error_t uvc_yuyv2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (pbgr + PIXEL8_BGR <= pbgr_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+			neon_yuyv2bgr_16(pyuv, pbgr);
+
+			pyuv += PIXEL16_YUYV;
+			pbgr += PIXEL16_BGR;
+		}
+#endif
 		for (; (pbgr <= pbgr_end) && (pyuv <= pyuv_end) ;) {
 			IYUYV2BGR_8(pyuv, pbgr, 0, 0);
 
@@ -711,6 +1192,14 @@ uvc_error_t uvc_yuyv2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (pbgr + PIXEL8_BGR <= pbgr_end) && (pyuv + PIXEL8_YUYV <= pyuv_end) ;) {
+		neon_yuyv2bgr_16(pyuv, pbgr);
+
+		pyuv += PIXEL16_YUYV;
+		pbgr += PIXEL16_BGR;
+	}
+#endif
 	for (; (pbgr <= pbgr_end) && (pyuv <= pyuv_end) ;) {
 		IYUYV2BGR_8(pyuv, pbgr, 0, 0);
 
@@ -765,12 +1254,13 @@ uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_UYVY;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_UYVY;
 	uint8_t *prgb = out->data;
-	const uint8_t *prgb_end = prgb + out->data_bytes - PIXEL8_RGB;
+	const uint8_t *prgb_end = prgb + out->actual_bytes - PIXEL8_RGB;
 
 	// UYVY => RGB888
 #if USE_STRIDE
@@ -782,6 +1272,15 @@ uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			prgb = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgb + PIXEL8_RGB <= prgb_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_uyvy2rgb_16(pyuv, prgb);
+
+				pyuv += PIXEL16_UYVY;
+				prgb += PIXEL16_RGB;
+				w += 16;
+			}
+#endif
 			for (; (prgb <= prgb_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IUYVY2RGB_8(pyuv, prgb, 0, 0);
 
@@ -792,6 +1291,14 @@ uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgb + PIXEL8_RGB <= prgb_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+			neon_uyvy2rgb_16(pyuv, prgb);
+
+			pyuv += PIXEL16_UYVY;
+			prgb += PIXEL16_RGB;
+		}
+#endif
 		for (; (prgb <= prgb_end) && (pyuv <= pyuv_end) ;) {
 			IUYVY2RGB_8(pyuv, prgb, 0, 0);
 
@@ -800,6 +1307,14 @@ uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (prgb + PIXEL8_RGB <= prgb_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+		neon_uyvy2rgb_16(pyuv, prgb);
+
+		pyuv += PIXEL16_UYVY;
+		prgb += PIXEL16_RGB;
+	}
+#endif
 	for (; ((prgb <= prgb_end) && (pyuv <= pyuv_end) ;) {
 		IUYVY2RGB_8(pyuv, prgb, 0, 0);
 
@@ -829,12 +1344,13 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB565;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_UYVY;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_UYVY;
 	uint8_t *prgb565 = out->data;
-	const uint8_t *prgb565_end = prgb565 + out->data_bytes - PIXEL8_RGB565;
+	const uint8_t *prgb565_end = prgb565 + out->actual_bytes - PIXEL8_RGB565;
 
 	uint8_t tmp[PIXEL8_RGB];		// for temporary rgb888 data(8pixel)
 
@@ -848,6 +1364,15 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			prgb565 = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_uyvy2rgb565_16(pyuv, prgb565);
+
+				pyuv += PIXEL16_UYVY;
+				prgb565 += PIXEL16_RGB565;
+				w += 16;
+			}
+#endif
 			for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IUYVY2RGB_8(pyuv, tmp, 0, 0);
 				RGB2RGB565_8(tmp, prgb565, 0, 0);
@@ -859,6 +1384,14 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+			neon_uyvy2rgb565_16(pyuv, prgb565);
+
+			pyuv += PIXEL16_UYVY;
+			prgb565 += PIXEL16_RGB565;
+		}
+#endif
 		for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
 			IUYVY2RGB_8(pyuv, tmp, 0, 0);
 			RGB2RGB565_8(tmp, prgb565, 0, 0);
@@ -868,6 +1401,14 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (prgb565 + PIXEL8_RGB565 <= prgb565_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+		neon_uyvy2rgb565_16(pyuv, prgb565);
+
+		pyuv += PIXEL16_UYVY;
+		prgb565 += PIXEL16_RGB565;
+	}
+#endif
 	for (; (prgb565 <= prgb565_end) && (pyuv <= pyuv_end) ;) {
 		IUYVY2RGB_8(pyuv, tmp, 0, 0);
 		RGB2RGB565_8(tmp, prgb565, 0, 0);
@@ -925,12 +1466,13 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGBX;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_UYVY;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_UYVY;
 	uint8_t *prgbx = out->data;
-	const uint8_t *prgbx_end = prgbx + out->data_bytes - PIXEL8_RGBX;
+	const uint8_t *prgbx_end = prgbx + out->actual_bytes - PIXEL8_RGBX;
 
 	// UYVY => RGBX8888
 #if USE_STRIDE
@@ -942,6 +1484,15 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			prgbx = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_uyvy2rgbx_16(pyuv, prgbx);
+
+				pyuv += PIXEL16_UYVY;
+				prgbx += PIXEL16_RGBX;
+				w += 16;
+			}
+#endif
 			for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
 
@@ -952,6 +1503,14 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+			neon_uyvy2rgbx_16(pyuv, prgbx);
+
+			pyuv += PIXEL16_UYVY;
+			prgbx += PIXEL16_RGBX;
+		}
+#endif
 		for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
 			IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
 
@@ -960,6 +1519,14 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (prgbx + PIXEL8_RGBX <= prgbx_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+		neon_uyvy2rgbx_16(pyuv, prgbx);
+
+		pyuv += PIXEL16_UYVY;
+		prgbx += PIXEL16_RGBX;
+	}
+#endif
 	for (; (prgbx <= prgbx_end) && (pyuv <= pyuv_end) ;) {
 		IUYVY2RGBX_8(pyuv, prgbx, 0, 0);
 
@@ -1014,12 +1581,13 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_BGR;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->meta = in->meta;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
-	const uint8_t *pyuv_end = pyuv + in->data_bytes - PIXEL8_UYVY;
+	const uint8_t *pyuv_end = pyuv + in->actual_bytes - PIXEL8_UYVY;
 	uint8_t *pbgr = out->data;
-	const uint8_t *pbgr_end = pbgr + out->data_bytes - PIXEL8_BGR;
+	const uint8_t *pbgr_end = pbgr + out->actual_bytes - PIXEL8_BGR;
 
 	// UYVY => BGR888
 #if USE_STRIDE
@@ -1031,6 +1599,15 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 			w = 0;
 			pyuv = in->data + in->step * h;
 			pbgr = out->data + out->step * h;
+#if USE_NEON
+			for (; simd_enabled && (pbgr + PIXEL8_BGR <= pbgr_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) && (w + 16 <= ww) ;) {
+				neon_uyvy2bgr_16(pyuv, pbgr);
+
+				pyuv += PIXEL16_UYVY;
+				pbgr += PIXEL16_BGR;
+				w += 16;
+			}
+#endif
 			for (; (pbgr <= pbgr_end) && (pyuv <= pyuv_end) && (w < ww) ;) {
 				IUYVY2BGR_8(pyuv, pbgr, 0, 0);
 
@@ -1041,6 +1618,14 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	} else {
 		// compressed format? XXX if only one of the frame in / out has step, this may lead to crash...
+#if USE_NEON
+		for (; simd_enabled && (pbgr + PIXEL8_BGR <= pbgr_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+			neon_uyvy2bgr_16(pyuv, pbgr);
+
+			pyuv += PIXEL16_UYVY;
+			pbgr += PIXEL16_BGR;
+		}
+#endif
 		for (; (pbgr <= pbgr_end) && (pyuv <= pyuv_end) ;) {
 			IUYVY2BGR_8(pyuv, pbgr, 0, 0);
 
@@ -1049,6 +1634,14 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		}
 	}
 #else
+#if USE_NEON
+	for (; simd_enabled && (pbgr + PIXEL8_BGR <= pbgr_end) && (pyuv + PIXEL8_UYVY <= pyuv_end) ;) {
+		neon_uyvy2bgr_16(pyuv, pbgr);
+
+		pyuv += PIXEL16_UYVY;
+		pbgr += PIXEL16_BGR;
+	}
+#endif
 	for (; (pbgr <= pbgr_end) && (pyuv <= pyuv_end) ;) {
 		IUYVY2BGR_8(pyuv, pbgr, 0, 0);
 
@@ -1077,6 +1670,12 @@ int uvc_yuyv2yuv420P(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
 	const int32_t dest_height = out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_I420;
+	out->actual_bytes = (dest_width * dest_height * 3) / 2;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *y = dest;
 	uint8_t *v = dest + dest_width * dest_height;
@@ -1163,6 +1762,12 @@ uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
 	const int32_t dest_height = out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_NV12;
+	out->actual_bytes = (dest_width * dest_height * 3) / 2;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *uv = dest + dest_width * dest_height;
@@ -1171,7 +1776,20 @@ uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 		uint8_t *y0 = dest + width * h;
 		uint8_t *y1 = y0 + width;
 		const uint8_t *yuv = src + src_width * h;
-		for (w = 0; w < width; w += 4) {
+		w = 0;
+#if USE_NEON
+		for (; simd_enabled && (w + 16 <= width) ;) {
+			const uint8x16x2_t yuyv0 = vld2q_u8(yuv);
+			const uint8x16x2_t yuyv1 = vld2q_u8(yuv + src_width);
+			vst1q_u8(y0, yuyv0.val[0]);
+			vst1q_u8(uv, yuyv0.val[1]);
+			vst1q_u8(y1, yuyv1.val[0]);
+			y0 += 16; y1 += 16; uv += 16;
+			yuv += PIXEL16_YUYV;
+			w += 16;
+		}
+#endif
+		for (; w < width; w += 4) {
 			*(y0++) = yuv[0];	// y
 			*(y0++) = yuv[2];	// y'
 			*(y0++) = yuv[4];	// y''
@@ -1208,6 +1826,12 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
 	const int32_t dest_height = out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_NV21;
+	out->actual_bytes = (dest_width * dest_height * 3) / 2;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *uv = dest + dest_width * dest_height;
@@ -1216,7 +1840,20 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 		uint8_t *y0 = dest + width * h;
 		uint8_t *y1 = y0 + width;
 		const uint8_t *yuv = src + src_width * h;
-		for (w = 0; w < width; w += 4) {
+		w = 0;
+#if USE_NEON
+		for (; simd_enabled && (w + 16 <= width) ;) {
+			const uint8x16x2_t yuyv0 = vld2q_u8(yuv);
+			const uint8x16x2_t yuyv1 = vld2q_u8(yuv + src_width);
+			vst1q_u8(y0, yuyv0.val[0]);
+			vst1q_u8(uv, vrev16q_u8(yuyv0.val[1]));
+			vst1q_u8(y1, yuyv1.val[0]);
+			y0 += 16; y1 += 16; uv += 16;
+			yuv += PIXEL16_YUYV;
+			w += 16;
+		}
+#endif
+		for (; w < width; w += 4) {
 			*(y0++) = yuv[0];	// y
 			*(y0++) = yuv[2];	// y'
 			*(y0++) = yuv[4];	// y''
@@ -1236,6 +1873,86 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	RETURN(UVC_SUCCESS, uvc_error_t);
 }
 
+#define IYUV420SP2RGBX_2(py, puv, prgbx, iu, iv) { \
+		const int u = (puv)[iu]; \
+		const int v = (puv)[iv]; \
+		const int r = (22987 * (v - 128)) >> 14; \
+		const int g = (-5636 * (u - 128) - 11698 * (v - 128)) >> 14; \
+		const int b = (29049 * (u - 128)) >> 14; \
+		const int y0 = (py)[0]; \
+		(prgbx)[0] = sat(y0 + r); \
+		(prgbx)[1] = sat(y0 + g); \
+		(prgbx)[2] = sat(y0 + b); \
+		(prgbx)[3] = 0xff; \
+		const int y1 = (py)[1]; \
+		(prgbx)[4] = sat(y1 + r); \
+		(prgbx)[5] = sat(y1 + g); \
+		(prgbx)[6] = sat(y1 + b); \
+		(prgbx)[7] = 0xff; \
+	}
+
+/** @brief Convert a frame from YUV420SemiPlanar(NV12 or NV21) to RGBX8888
+ * @ingroup frame
+ * @param in NV12/NV21 frame
+ * @param out RGBX8888 frame
+ */
+uvc_error_t uvc_yuv420SP2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
+	if (UNLIKELY((in->frame_format != UVC_FRAME_FORMAT_NV12)
+		&& (in->frame_format != UVC_FRAME_FORMAT_NV21)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	if (UNLIKELY(uvc_ensure_frame_size(out, in->width * in->height * PIXEL_RGBX) < 0))
+		return UVC_ERROR_NO_MEM;
+
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_RGBX;
+	if (out->library_owns_data)
+		out->step = in->width * PIXEL_RGBX;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->meta = in->meta;
+	out->source = in->source;
+
+	const int width = in->width & ~1;
+	const int height = in->height;
+	const int istep = in->step ? in->step : in->width;
+	const int ostep = out->step ? out->step : in->width * PIXEL_RGBX;
+	// index of u and v in the interleaved chroma plane
+	const int iu = in->frame_format == UVC_FRAME_FORMAT_NV12 ? 0 : 1;
+	const int iv = 1 - iu;
+	const uint8_t *uv_plane = (const uint8_t *)in->data + istep * height;
+	int h, w;
+	for (h = 0; h < height; h++) {
+		const uint8_t *py = (const uint8_t *)in->data + istep * h;
+		const uint8_t *puv = uv_plane + istep * (h >> 1);
+		uint8_t *prgbx = (uint8_t *)out->data + ostep * h;
+		w = 0;
+#if USE_NEON
+		for (; simd_enabled && (w + 16 <= width) ;) {
+			const uint8x8x2_t y = vld2_u8(py);
+			const uint8x8x2_t c = vld2_u8(puv);
+			uint8x8x2_t rgb[3];
+			neon_yuv2rgb_16(y.val[0], c.val[iu], y.val[1], c.val[iv], rgb);
+			neon_store_rgbx_16(prgbx, rgb);
+
+			py += 16;
+			puv += 16;
+			prgbx += PIXEL16_RGBX;
+			w += 16;
+		}
+#endif
+		for (; w < width; w += 2) {
+			IYUV420SP2RGBX_2(py, puv, prgbx, iu, iv);
+
+			py += 2;
+			puv += 2;
+			prgbx += PIXEL2_RGBX;
+		}
+	}
+	return UVC_SUCCESS;
+}
+
 /** @brief Convert a frame to RGB565
  * @ingroup frame
  *
@@ -1331,6 +2048,9 @@ uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		return uvc_duplicate_frame(in, out);
 	case UVC_FRAME_FORMAT_RGB:
 		return uvc_rgb2rgbx(in, out);
+	case UVC_FRAME_FORMAT_NV12:
+	case UVC_FRAME_FORMAT_NV21:
+		return uvc_yuv420SP2rgbx(in, out);
 	default:
 		return UVC_ERROR_NOT_SUPPORTED;
 	}
@@ -1356,40 +2076,48 @@ uvc_error_t uvc_any2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
 	}
 }
 
-/** @brief Convert a frame to yuv420sp
+/** @brief Convert a frame to yuv420sp(NV12)
  * @ingroup frame
  *
+ * MJPEG frames are decoded directly into NV12 without intermediate YUYV frame.
  * @param in non-yuv420sp frame
  * @param out yuv420sp frame
  */
 uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
-	uvc_error_t result = UVC_ERROR_NO_MEM;
-	uvc_frame_t *yuv = uvc_allocate_frame((in->width * in->height * 3) / 2);
-	if (yuv) {
-		result = uvc_any2yuyv(in, yuv);
-		if (LIKELY(!result)) {
-			result = uvc_yuyv2yuv420SP(yuv, out);
-		}
-		uvc_free_frame(yuv);
+
+	switch (in->frame_format) {
+#ifdef LIBUVC_HAS_JPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		return uvc_mjpeg2yuv420SP(in, out);
+#endif
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2yuv420SP(in, out);
+	case UVC_FRAME_FORMAT_NV12:
+		return uvc_duplicate_frame(in, out);
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
 	}
-	return result;
 }
 
 /** @brief Convert a frame to iyuv420sp(NV21)
  * @ingroup frame
  *
+ * MJPEG frames are decoded directly into NV21 without intermediate YUYV frame.
  * @param in non-iyuv420SP(NV21) frame
  * @param out iyuv420SP(NV21) frame
  */
 uvc_error_t uvc_any2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
-	uvc_error_t result = UVC_ERROR_NO_MEM;
-	uvc_frame_t *yuv = uvc_allocate_frame((in->width * in->height * 3) / 2);
-	if (yuv) {
-		result = uvc_any2yuyv(in, yuv);
-		if (LIKELY(!result)) {
-			result = uvc_yuyv2iyuv420SP(yuv, out);
-		}
-		uvc_free_frame(yuv);
+
+	switch (in->frame_format) {
+#ifdef LIBUVC_HAS_JPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		return uvc_mjpeg2iyuv420SP(in, out);
+#endif
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2iyuv420SP(in, out);
+	case UVC_FRAME_FORMAT_NV21:
+		return uvc_duplicate_frame(in, out);
+	default:
+		return UVC_ERROR_NOT_SUPPORTED;
 	}
-	return result;
 }
@@ -0,0 +1,179 @@
+/* Benchmarks the pixel conversions of frame.c and checks their output
+ * against golden hashes.
+ *
+ * usage: frame_bench [iterations]
+ *
+ * Prints MPix/s for each conversion and resolution, scalar and vectorized
+ * (vectorized kernels are only built for ARM NEON). Both paths are compared
+ * with the golden hashes on every host, and the tool exits with 1 if any
+ * output differs.
+ *
+ * The golden hashes are the FNV-1a hashes of the output of the converters
+ * before the vectorized kernels were added, for the same pseudo random input.
+ * There were no converters from NV12/NV21 then, so their hashes come from the
+ * same input repacked to YUYV and converted with the old uvc_yuyv2rgbx.
+ * The old uvc_yuyv2bgr used the chroma of the wrong pixels (IYUYV2BGR_2
+ * ignored the source offset), so its hashes come from the old uvc_yuyv2rgb
+ * with R and B swapped. */
+#include "libuvc/libuvc.h"
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+typedef uvc_error_t (*convert_func_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+typedef struct conversion {
+  const char *name;
+  enum uvc_frame_format in_format;
+  int in_bits_per_pixel;
+  convert_func_t convert;
+} conversion_t;
+
+static const conversion_t conversions[] = {
+  { "yuyv2rgb", UVC_FRAME_FORMAT_YUYV, 16, uvc_yuyv2rgb },
+  { "yuyv2bgr", UVC_FRAME_FORMAT_YUYV, 16, uvc_yuyv2bgr },
+  { "yuyv2rgbx", UVC_FRAME_FORMAT_YUYV, 16, uvc_yuyv2rgbx },
+  { "yuyv2rgb565", UVC_FRAME_FORMAT_YUYV, 16, uvc_yuyv2rgb565 },
+  { "yuyv2yuv420SP", UVC_FRAME_FORMAT_YUYV, 16, uvc_yuyv2yuv420SP },
+  { "yuyv2iyuv420SP", UVC_FRAME_FORMAT_YUYV, 16, uvc_yuyv2iyuv420SP },
+  { "uyvy2rgb", UVC_FRAME_FORMAT_UYVY, 16, uvc_uyvy2rgb },
+  { "uyvy2bgr", UVC_FRAME_FORMAT_UYVY, 16, uvc_uyvy2bgr },
+  { "uyvy2rgbx", UVC_FRAME_FORMAT_UYVY, 16, uvc_uyvy2rgbx },
+  { "uyvy2rgb565", UVC_FRAME_FORMAT_UYVY, 16, uvc_uyvy2rgb565 },
+  { "rgb2rgbx", UVC_FRAME_FORMAT_RGB, 24, uvc_rgb2rgbx },
+  { "rgb2rgb565", UVC_FRAME_FORMAT_RGB, 24, uvc_rgb2rgb565 },
+  { "nv122rgbx", UVC_FRAME_FORMAT_NV12, 12, uvc_yuv420SP2rgbx },
+  { "nv212rgbx", UVC_FRAME_FORMAT_NV21, 12, uvc_yuv420SP2rgbx },
+};
+
+static const int resolutions[][2] = {
+  { 320, 240 }, { 424, 240 }, { 640, 480 }, { 1280, 720 }, { 1920, 1080 },
+};
+
+#define NUM_CONVERSIONS (sizeof(conversions) / sizeof(conversions[0]))
+#define NUM_RESOLUTIONS (sizeof(resolutions) / sizeof(resolutions[0]))
+
+/* [resolution][conversion], see above */
+static const uint64_t golden[][NUM_CONVERSIONS] = {
+  /* 320x240 */
+  { 0x3fcd0b8e418649ddULL, 0xc42a3ae6c0a2efedULL, 0x0b6b7382fef810cbULL,
+    0x6ee90d51e6c127b2ULL, 0x5152184ec1ec8b60ULL, 0x2459e57f87cc9960ULL,
+    0x48a9a08c88abe3a3ULL, 0x724b1c79b044129bULL, 0x807d3c1b9551a6efULL,
+    0x18776ba80317f0cbULL, 0x816074043cf875cfULL, 0xce6ef3afb4649614ULL,
+    0x118211f317131077ULL, 0xbff42601d345fa1dULL },
+  /* 424x240 */
+  { 0xfb6a78ef14b647ceULL, 0x8a0ac936989c4912ULL, 0x9b39b08d38399ef2ULL,
+    0x07b3da3456b3ae10ULL, 0x921855b81e29c7b3ULL, 0xf8981a55316965d1ULL,
+    0xad2374aa1cc2f883ULL, 0xe9e67e90ef460333ULL, 0x4cbca65afb8f4191ULL,
+    0x6fe0572e901e1af8ULL, 0xc63566269c449703ULL, 0x8fe43ebb691d31faULL,
+    0xbf5a7476b1fe959bULL, 0x685b28d92a365499ULL },
+  /* 640x480 */
+  { 0x619f0809afe42c95ULL, 0x17dfc0a65f9b0199ULL, 0x72fc8a3d3c803ffdULL,
+    0x718035ef97eba943ULL, 0x43d987a6a1dc04e4ULL, 0x34b8ad605b68951aULL,
+    0x361b4467e7e6fd21ULL, 0x6e87ba15d4454265ULL, 0x50f101dd7143fa7dULL,
+    0x9e3f5c34cf6aa9a4ULL, 0xa20619a22336a749ULL, 0xd2bbb7e49eceb2fbULL,
+    0xe9b8f44a371f38a9ULL, 0xacdfeb732ba9e315ULL },
+  /* 1280x720 */
+  { 0x86fa7041ad64fcebULL, 0x62e6bc1047cf84b3ULL, 0x05fee5e3edc5f6afULL,
+    0x4553e283e0e3102cULL, 0x07afc37c933a0e50ULL, 0x7f3b884d1341778aULL,
+    0xbaba0da5bd24b329ULL, 0x73c120fe4af712b9ULL, 0x1601a13cf0bc3587ULL,
+    0xa51a16e92edc97c6ULL, 0x022445a12d1536cbULL, 0x68ea2a7fd599d9d9ULL,
+    0x5b478ead65cce8c5ULL, 0x1a70a3e7fc7a00afULL },
+  /* 1920x1080 */
+  { 0x949754d4dfedbef8ULL, 0xb9cd6457bd8e6d90ULL, 0x398d339f0c6bb474ULL,
+    0x9063353824c8b49dULL, 0x34423bfb778109dbULL, 0xdd94134e6948222fULL,
+    0xd0300a236f98aae4ULL, 0xaf862aadfef3f91cULL, 0x5a226969be2cb104ULL,
+    0xcc21e0bbe95b7ca8ULL, 0xa3ba07fab6706cacULL, 0xc2a308c9c99aa428ULL,
+    0xc08570a696fc919dULL, 0x1c82711b69e658e0ULL }
+};
+
+/* xorshift32, the input must not depend on rand() of the C library */
+static uint32_t next_rand(uint32_t *state) {
+  uint32_t x = *state;
+  x ^= x << 13;
+  x ^= x >> 17;
+  x ^= x << 5;
+  return *state = x;
+}
+
+/* 64 bit FNV-1a */
+static uint64_t hash(const void *data, size_t bytes) {
+  const uint8_t *p = (const uint8_t *) data;
+  uint64_t h = 0xcbf29ce484222325ULL;
+  size_t i;
+
+  for (i = 0; i < bytes; i++) {
+    h ^= p[i];
+    h *= 0x100000001b3ULL;
+  }
+  return h;
+}
+
+static double now_sec(void) {
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+/* returns MPix/s, or a negative value on error */
+static double run(const conversion_t *conv, uvc_frame_t *in, uvc_frame_t *out, int iterations) {
+  double start;
+  int i;
+
+  if (conv->convert(in, out))
+    return -1;
+  start = now_sec();
+  for (i = 0; i < iterations; i++)
+    conv->convert(in, out);
+  return (double)in->width * in->height * iterations / (now_sec() - start) / 1e6;
+}
+
+int main(int argc, char **argv) {
+  const int iterations = argc > 1 ? atoi(argv[1]) : 20;
+  const int has_simd = !uvc_set_simd_enabled(1);
+  size_t c, r, i;
+  int failed = 0;
+
+  printf("%-16s %10s %12s %12s %-8s %s\n", "conversion", "size", "scalar", "simd", "scalar", "simd");
+  for (r = 0; r < NUM_RESOLUTIONS; r++) {
+    const int width = resolutions[r][0];
+    const int height = resolutions[r][1];
+    for (c = 0; c < NUM_CONVERSIONS; c++) {
+      const conversion_t *conv = &conversions[c];
+      uvc_frame_t *in = uvc_allocate_frame(width * height * conv->in_bits_per_pixel / 8);
+      uvc_frame_t *out = uvc_allocate_frame(width * height * 4);
+      uint32_t state = (uint32_t)(width * 65536 + height * 16 + conv->in_format) | 1;
+      double scalar, simd = 0;
+      const char *scalar_exact, *simd_exact = "-";
+
+      in->width = width;
+      in->height = height;
+      /* step of 4:2:0 frames is the pitch of Y plane */
+      in->step = conv->in_bits_per_pixel < 16 ? width : width * conv->in_bits_per_pixel / 8;
+      in->frame_format = conv->in_format;
+      for (i = 0; i < in->data_bytes; i++)
+        ((uint8_t *) in->data)[i] = next_rand(&state) >> 24;
+
+      uvc_set_simd_enabled(0);
+      scalar = run(conv, in, out, iterations);
+      scalar_exact = hash(out->data, out->actual_bytes) == golden[r][c] ? "ok" : "DIFFERS";
+      if (has_simd) {
+        memset(out->data, 0, out->data_bytes);
+        uvc_set_simd_enabled(1);
+        simd = run(conv, in, out, iterations);
+        simd_exact = hash(out->data, out->actual_bytes) == golden[r][c] ? "ok" : "DIFFERS";
+      }
+      if (scalar < 0 || simd < 0 || scalar_exact[0] == 'D' || simd_exact[0] == 'D')
+        failed = 1;
+      printf("%-16s %4dx%-5d %7.1f MP/s %7.1f MP/s %-8s %s\n",
+        conv->name, width, height, scalar, simd, scalar_exact, simd_exact);
+
+      uvc_free_frame(in);
+      uvc_free_frame(out);
+    }
+  }
+  uvc_set_simd_enabled(1);
+
+  return failed;
+}
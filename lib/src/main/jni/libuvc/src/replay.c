@@ -0,0 +1,593 @@
+/*********************************************************************
+ * recording/replaying raw payload transfers of video stream
+ * Copyright (C) 2014-2017 saki@serenegiant All rights reserved.
+ *********************************************************************/
+/*********************************************************************
+ * Software License Agreement (BSD License)
+ *
+ *  Copyright (C) 2010-2012 Ken Tossell
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *   * Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   * Redistributions in binary form must reproduce the above
+ *     copyright notice, this list of conditions and the following
+ *     disclaimer in the documentation and/or other materials provided
+ *     with the distribution.
+ *   * Neither the name of the author nor other contributors may be
+ *     used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *  FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *  COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *  BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *  CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *  LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *  ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************/
+/**
+ * @defgroup replay Recording and replaying payload transfers
+ * @brief Tools for exercising payload processing without a camera
+ *
+ * A recording keeps every completed transfer of a stream as it came from libusb,
+ * including the payload headers, so that replaying it runs exactly the same
+ * payload processing / frame assembling code as a real camera does.
+ *
+ * File layout (all values are little endian):
+ *   uvc_replay_header_t
+ *   repeat {
+ *     uvc_replay_record_t
+ *     isochronous: uvc_replay_packet_t x num_packets, then the received bytes of each packet
+ *     bulk: actual_length bytes
+ *   }
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/replay"
+#if 1	// デバッグ情報を出さない時1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// LOGV/LOGD/MARKを出力しない時
+		#endif
+	#undef USE_LOGALL			// 指定したLOGxだけを出力
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <time.h>
+#include <errno.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#define UVC_REPLAY_MAGIC "UVCR"
+#define UVC_REPLAY_VERSION 1
+#define UVC_REPLAY_MAX_PACKETS 256
+
+#define UVC_REPLAY_MODE_RECORD 1
+#define UVC_REPLAY_MODE_PLAY 2
+
+typedef struct uvc_replay_header {
+	char magic[4];
+	uint16_t version;
+	uint16_t header_size;
+	uint32_t frame_format;	// enum uvc_frame_format
+	uint32_t width;
+	uint32_t height;
+	uint32_t max_frame_size;	// dwMaxVideoFrameSize
+	uint32_t max_payload_size;	// dwMaxPayloadTransferSize
+	uint32_t frame_interval;	// dwFrameInterval
+	uint32_t reserved[7];
+} __attribute__((packed)) uvc_replay_header_t;
+
+typedef struct uvc_replay_record {
+	uint64_t timestamp_ns;	// relative to the first record
+	uint32_t num_packets;	// 0: bulk transfer
+	uint32_t length;	// bulk: received bytes, isochronous: size of each packet
+} __attribute__((packed)) uvc_replay_record_t;
+
+typedef struct uvc_replay_packet {
+	int32_t status;
+	uint32_t actual_length;
+} __attribute__((packed)) uvc_replay_packet_t;
+
+struct uvc_replay {
+	int mode;
+	FILE *fp;
+	pthread_mutex_t lock;	// recording: guards fp
+	uint64_t start_ns;
+	uvc_replay_header_t header;
+	// playback
+	uvc_device_handle_t *devh;	// dummy device handle
+	uvc_streaming_interface_t *stream_if;	// dummy interface
+	pthread_t thread;
+	int has_thread;
+	float speed;
+	volatile int finished;
+	uint32_t done_seq;
+	struct libusb_transfer *transfer;
+	uint8_t *buffer;
+	size_t buffer_bytes;
+};
+
+static uint64_t _uvc_replay_now(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+/** @brief Start writing completed transfers of the stream into the file
+ * @ingroup replay
+ *
+ * The stream must be running. Recording stops with uvc_stream_stop_recording
+ * or when the stream is closed.
+ *
+ * @param strmh UVC stream
+ * @param path file to write
+ */
+uvc_error_t uvc_stream_start_recording(uvc_stream_handle_t *strmh, const char *path) {
+	struct uvc_replay *replay;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!strmh || !path || !strmh->running)) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	replay = strmh->replay;
+	if (!replay) {
+		replay = calloc(1, sizeof(*replay));
+		if (UNLIKELY(!replay)) {
+			UVC_EXIT(UVC_ERROR_NO_MEM);
+			return UVC_ERROR_NO_MEM;
+		}
+		replay->mode = UVC_REPLAY_MODE_RECORD;
+		pthread_mutex_init(&replay->lock, NULL);
+	} else if (UNLIKELY(replay->mode != UVC_REPLAY_MODE_RECORD)) {
+		UVC_EXIT(UVC_ERROR_BUSY);
+		return UVC_ERROR_BUSY;
+	}
+
+	pthread_mutex_lock(&replay->lock);
+	{
+		if (replay->fp) {
+			fclose(replay->fp);
+		}
+		replay->fp = fopen(path, "wb");
+		if (LIKELY(replay->fp)) {
+			uvc_replay_header_t *header = &replay->header;
+			memset(header, 0, sizeof(*header));
+			memcpy(header->magic, UVC_REPLAY_MAGIC, sizeof(header->magic));
+			header->version = UVC_REPLAY_VERSION;
+			header->header_size = sizeof(*header);
+			header->frame_format = strmh->frame_format;
+			header->width = strmh->width;
+			header->height = strmh->height;
+			header->max_frame_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
+			header->max_payload_size = strmh->cur_ctrl.dwMaxPayloadTransferSize;
+			header->frame_interval = strmh->cur_ctrl.dwFrameInterval;
+			fwrite(header, sizeof(*header), 1, replay->fp);
+			replay->start_ns = 0;
+		}
+	}
+	pthread_mutex_unlock(&replay->lock);
+
+	if (UNLIKELY(!replay->fp)) {
+		LOGE("failed to open %s:errno=%d", path, errno);
+		if (!strmh->replay) {
+			pthread_mutex_destroy(&replay->lock);
+			free(replay);
+		}
+		UVC_EXIT(UVC_ERROR_IO);
+		return UVC_ERROR_IO;
+	}
+	strmh->replay = replay;
+
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+}
+
+/** @brief Stop recording transfers
+ * @ingroup replay
+ *
+ * @param strmh UVC stream
+ */
+void uvc_stream_stop_recording(uvc_stream_handle_t *strmh) {
+	struct uvc_replay *replay = strmh ? strmh->replay : NULL;
+
+	UVC_ENTER();
+
+	if (LIKELY(replay && (replay->mode == UVC_REPLAY_MODE_RECORD))) {
+		pthread_mutex_lock(&replay->lock);
+		{
+			if (replay->fp) {
+				fclose(replay->fp);
+				replay->fp = NULL;
+			}
+		}
+		pthread_mutex_unlock(&replay->lock);
+	}
+
+	UVC_EXIT_VOID();
+}
+
+/** @internal
+ * @brief write a completed transfer, called on libusb event handling thread
+ */
+void _uvc_replay_record(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer) {
+	struct uvc_replay *replay = strmh->replay;
+	uvc_replay_record_t record;
+	uvc_replay_packet_t packet;
+	int i;
+
+	if (replay->mode != UVC_REPLAY_MODE_RECORD)
+		return;
+
+	pthread_mutex_lock(&replay->lock);
+	if (LIKELY(replay->fp)) {
+		const uint64_t now = _uvc_replay_now();
+		if (UNLIKELY(!replay->start_ns))
+			replay->start_ns = now;
+		record.timestamp_ns = now - replay->start_ns;
+		record.num_packets = transfer->num_iso_packets;
+		if (!transfer->num_iso_packets) {
+			record.length = transfer->actual_length;
+			fwrite(&record, sizeof(record), 1, replay->fp);
+			fwrite(transfer->buffer, 1, transfer->actual_length, replay->fp);
+		} else {
+			record.length = transfer->iso_packet_desc[0].length;
+			fwrite(&record, sizeof(record), 1, replay->fp);
+			for (i = 0; i < transfer->num_iso_packets; i++) {
+				packet.status = transfer->iso_packet_desc[i].status;
+				packet.actual_length = transfer->iso_packet_desc[i].actual_length;
+				fwrite(&packet, sizeof(packet), 1, replay->fp);
+			}
+			for (i = 0; i < transfer->num_iso_packets; i++) {
+				fwrite(libusb_get_iso_packet_buffer_simple(transfer, i), 1,
+					transfer->iso_packet_desc[i].actual_length, replay->fp);
+			}
+		}
+	}
+	pthread_mutex_unlock(&replay->lock);
+}
+
+/** @brief Open a recording as a stream
+ * @ingroup replay
+ *
+ * The stream is not connected to any device, so this works on a host
+ * without a camera. Use uvc_replay_start to feed the recorded transfers,
+ * then uvc_stream_stop / uvc_stream_close as usual.
+ *
+ * @param path recording written by uvc_stream_start_recording
+ * @param[out] strmhp replay stream
+ */
+uvc_error_t uvc_replay_open(const char *path, uvc_stream_handle_t **strmhp) {
+	uvc_stream_handle_t *strmh = NULL;
+	struct uvc_replay *replay = NULL;
+	uvc_error_t ret = UVC_ERROR_NO_MEM;
+
+	UVC_ENTER();
+
+	strmh = calloc(1, sizeof(*strmh));
+	replay = calloc(1, sizeof(*replay));
+	if (UNLIKELY(!strmh || !replay))
+		goto fail;
+	replay->mode = UVC_REPLAY_MODE_PLAY;
+	pthread_mutex_init(&replay->lock, NULL);
+	replay->devh = calloc(1, sizeof(*replay->devh));
+	replay->stream_if = calloc(1, sizeof(*replay->stream_if));
+	if (UNLIKELY(!replay->devh || !replay->stream_if))
+		goto fail;
+
+	replay->fp = fopen(path, "rb");
+	if (UNLIKELY(!replay->fp)) {
+		ret = UVC_ERROR_NOT_FOUND;
+		goto fail;
+	}
+	if (UNLIKELY((fread(&replay->header, sizeof(replay->header), 1, replay->fp) != 1)
+		|| memcmp(replay->header.magic, UVC_REPLAY_MAGIC, sizeof(replay->header.magic))
+		|| (replay->header.version != UVC_REPLAY_VERSION))) {
+		ret = UVC_ERROR_INVALID_PARAM;
+		goto fail;
+	}
+	fseek(replay->fp, replay->header.header_size, SEEK_SET);
+
+	strmh->devh = replay->devh;
+	strmh->stream_if = replay->stream_if;
+	strmh->replay = replay;
+	strmh->frame.library_owns_data = 1;
+	strmh->frame_format = replay->header.frame_format;
+	strmh->width = replay->header.width;
+	strmh->height = replay->header.height;
+	strmh->cur_ctrl.dwMaxVideoFrameSize = replay->header.max_frame_size;
+	strmh->cur_ctrl.dwMaxPayloadTransferSize = replay->header.max_payload_size;
+	strmh->cur_ctrl.dwFrameInterval = replay->header.frame_interval;
+	// same size as a live stream so that zero copy replays hand over the same buffers
+	strmh->size_buf = _uvc_frame_buf_bytes(strmh, replay->header.max_payload_size);
+	strmh->outbuf = malloc(strmh->size_buf);
+	strmh->holdbuf = malloc(strmh->size_buf);
+	if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf))
+		goto fail;
+	strmh->outbuf_bytes = strmh->holdbuf_bytes = strmh->size_buf;
+
+	pthread_mutex_init(&strmh->cb_mutex, NULL);
+	pthread_cond_init(&strmh->cb_cond, NULL);
+
+	DL_APPEND(replay->devh->streams, strmh);
+
+	*strmhp = strmh;
+
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+
+fail:
+	if (replay) {
+		if (replay->fp)
+			fclose(replay->fp);
+		pthread_mutex_destroy(&replay->lock);
+		free(replay->devh);
+		free(replay->stream_if);
+		free(replay);
+	}
+	if (strmh) {
+		free(strmh->outbuf);
+		free(strmh->holdbuf);
+		free(strmh);
+	}
+	UVC_EXIT(ret);
+	return ret;
+}
+
+/** @internal
+ * @brief read next transfer from the recording into replay->transfer
+ * @return 0: success, otherwise end of file or broken record
+ */
+static int _uvc_replay_read(struct uvc_replay *replay, uint64_t *timestamp_ns) {
+	uvc_replay_record_t record;
+	uvc_replay_packet_t packets[UVC_REPLAY_MAX_PACKETS];
+	struct libusb_transfer *transfer = replay->transfer;
+	size_t bytes;
+	uint32_t i;
+
+	if (fread(&record, sizeof(record), 1, replay->fp) != 1)
+		return -1;
+	if (UNLIKELY(record.num_packets > UVC_REPLAY_MAX_PACKETS))
+		return -1;
+	bytes = record.num_packets ? (size_t)record.length * record.num_packets : record.length;
+	if (UNLIKELY(bytes > replay->buffer_bytes)) {
+		uint8_t *buffer = realloc(replay->buffer, bytes);
+		if (UNLIKELY(!buffer))
+			return -1;
+		replay->buffer = buffer;
+		replay->buffer_bytes = bytes;
+	}
+	transfer->buffer = replay->buffer;
+	transfer->length = bytes;
+	transfer->status = LIBUSB_TRANSFER_COMPLETED;
+	transfer->num_iso_packets = record.num_packets;
+	if (!record.num_packets) {
+		transfer->actual_length = record.length;
+		if (UNLIKELY(fread(replay->buffer, 1, record.length, replay->fp) != record.length))
+			return -1;
+	} else {
+		if (UNLIKELY(fread(packets, sizeof(packets[0]), record.num_packets, replay->fp) != record.num_packets))
+			return -1;
+		transfer->actual_length = 0;
+		for (i = 0; i < record.num_packets; i++) {
+			struct libusb_iso_packet_descriptor *desc = &transfer->iso_packet_desc[i];
+			desc->length = record.length;
+			desc->actual_length = packets[i].actual_length;
+			desc->status = packets[i].status;
+			if (UNLIKELY(desc->actual_length > record.length))
+				return -1;
+		}
+		for (i = 0; i < record.num_packets; i++) {
+			struct libusb_iso_packet_descriptor *desc = &transfer->iso_packet_desc[i];
+			if (UNLIKELY(fread(replay->buffer + (size_t)record.length * i, 1,
+				desc->actual_length, replay->fp) != desc->actual_length))
+				return -1;
+			transfer->actual_length += desc->actual_length;
+		}
+	}
+	*timestamp_ns = record.timestamp_ns;
+	return 0;
+}
+
+/** @internal
+ * @brief called on the user callback thread after the callback returned
+ */
+void _uvc_replay_frame_done(uvc_stream_handle_t *strmh, uint32_t seq) {
+	struct uvc_replay *replay = strmh->replay;
+
+	if (replay->mode == UVC_REPLAY_MODE_PLAY) {
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			replay->done_seq = seq;
+			pthread_cond_broadcast(&strmh->cb_cond);
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+	}
+}
+
+/** @internal
+ * @brief feeds the recorded transfers into payload processing
+ */
+static void *_uvc_replay_thread(void *arg) {
+	uvc_stream_handle_t *strmh = (uvc_stream_handle_t *) arg;
+	struct uvc_replay *replay = strmh->replay;
+	const uint64_t start_ns = _uvc_replay_now();
+	uint64_t timestamp_ns, now_ns;
+	struct timespec ts;
+
+	for (; LIKELY(strmh->running) ;) {
+		if (_uvc_replay_read(replay, &timestamp_ns))
+			break;
+		if (replay->speed > 0) {
+			// keep the original timing
+			timestamp_ns = (uint64_t)(timestamp_ns / replay->speed);
+			now_ns = _uvc_replay_now() - start_ns;
+			if (timestamp_ns > now_ns) {
+				ts.tv_sec = (timestamp_ns - now_ns) / 1000000000ULL;
+				ts.tv_nsec = (timestamp_ns - now_ns) % 1000000000ULL;
+				nanosleep(&ts, NULL);
+			}
+		}
+		const uint32_t seq = strmh->seq;
+		_uvc_stream_process_transfer(strmh, replay->transfer);
+		if ((replay->speed <= 0) && strmh->user_cb && (seq != strmh->seq)) {
+			// as fast as possible, but never drop a frame because the callback is busy
+			pthread_mutex_lock(&strmh->cb_mutex);
+			{
+				for (; strmh->running && (replay->done_seq != strmh->hold_seq) ;) {
+					pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
+				}
+			}
+			pthread_mutex_unlock(&strmh->cb_mutex);
+		}
+	}
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		replay->finished = 1;
+		pthread_cond_broadcast(&strmh->cb_cond);
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+
+	return NULL;
+}
+
+/** @brief Start feeding the recorded transfers into the stream
+ * @ingroup replay
+ *
+ * @param strmh stream opened with uvc_replay_open
+ * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
+ * @param user_ptr passed to cb
+ * @param speed 1.0f keeps the recorded timing, 0 (or less) replays as fast as
+ *        the callback can process, without dropping frames
+ * @param flags same as uvc_stream_start
+ */
+uvc_error_t uvc_replay_start(uvc_stream_handle_t *strmh,
+		uvc_frame_callback_t *cb, void *user_ptr, float speed, uint8_t flags) {
+	struct uvc_replay *replay = strmh ? strmh->replay : NULL;
+	uvc_error_t ret;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!replay || (replay->mode != UVC_REPLAY_MODE_PLAY))) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	if (UNLIKELY(strmh->running)) {
+		UVC_EXIT(UVC_ERROR_BUSY);
+		return UVC_ERROR_BUSY;
+	}
+
+	if (!replay->transfer) {
+		replay->transfer = calloc(1, sizeof(struct libusb_transfer)
+			+ sizeof(struct libusb_iso_packet_descriptor) * UVC_REPLAY_MAX_PACKETS);
+		if (UNLIKELY(!replay->transfer)) {
+			UVC_EXIT(UVC_ERROR_NO_MEM);
+			return UVC_ERROR_NO_MEM;
+		}
+		replay->transfer->user_data = strmh;
+	}
+	fseek(replay->fp, replay->header.header_size, SEEK_SET);
+	replay->speed = speed;
+	replay->finished = 0;
+	replay->done_seq = 0;
+
+	strmh->running = 1;
+	strmh->seq = 1;	// XXX hold_seq 0 means no frame yet
+	strmh->hold_seq = 0;
+	strmh->fid = 0;
+	strmh->pts = 0;
+	strmh->last_scr = 0;
+	strmh->bfh_err = 0;
+	strmh->got_bytes = 0;
+
+	ret = _uvc_stream_start_callback(strmh, cb, user_ptr, flags);
+	if (LIKELY(!ret)) {
+		if (UNLIKELY(pthread_create(&replay->thread, NULL, _uvc_replay_thread, (void *) strmh))) {
+			ret = UVC_ERROR_OTHER;
+		} else {
+			replay->has_thread = 1;
+		}
+	}
+	if (UNLIKELY(ret)) {
+		uvc_stream_stop(strmh);
+	}
+
+	UVC_EXIT(ret);
+	return ret;
+}
+
+/** @brief Wait until all recorded transfers have been fed and delivered
+ * @ingroup replay
+ *
+ * @param strmh stream opened with uvc_replay_open
+ */
+uvc_error_t uvc_replay_wait(uvc_stream_handle_t *strmh) {
+	struct uvc_replay *replay = strmh ? strmh->replay : NULL;
+
+	if (UNLIKELY(!replay || (replay->mode != UVC_REPLAY_MODE_PLAY)))
+		return UVC_ERROR_INVALID_PARAM;
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	{
+		for (; strmh->running && !replay->finished ;) {
+			pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
+		}
+		// let the callback handle the last frame
+		for (; strmh->running && strmh->user_cb && (replay->done_seq != strmh->hold_seq) ;) {
+			pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
+		}
+	}
+	pthread_mutex_unlock(&strmh->cb_mutex);
+
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @brief called from uvc_stream_stop after stopping the callback thread
+ */
+void _uvc_replay_stop(uvc_stream_handle_t *strmh) {
+	struct uvc_replay *replay = strmh->replay;
+
+	if (replay->mode == UVC_REPLAY_MODE_PLAY) {
+		if (replay->has_thread) {
+			pthread_join(replay->thread, NULL);
+			replay->has_thread = 0;
+		}
+	} else {
+		uvc_stream_stop_recording(strmh);
+	}
+}
+
+/** @internal
+ * @brief called from uvc_stream_close, frees the recorder/player
+ */
+void _uvc_replay_close(uvc_stream_handle_t *strmh) {
+	struct uvc_replay *replay = strmh->replay;
+
+	strmh->replay = NULL;
+	if (replay->fp)
+		fclose(replay->fp);
+	pthread_mutex_destroy(&replay->lock);
+	free(replay->transfer);
+	free(replay->buffer);
+	free(replay->stream_if);
+	free(replay->devh);
+	free(replay);
+}
@@ -0,0 +1,238 @@
+/* Replays a payload recording (see uvc_stream_start_recording) through the
+ * same payload processing and pixel conversion paths as a live camera,
+ * once for each conversion, and prints the cost per frame.
+ *
+ * usage: replay_bench <recording> [speed]
+ *   speed 0 (default) replays as fast as possible without dropping frames,
+ *   1.0 keeps the recorded timing.
+ *
+ * The "+copy" and ">window" lines compare the two ways UVCPreview draws to an
+ * ANativeWindow: converting into an intermediate RGBX frame and copying it row
+ * by row into the window buffer, and converting straight into the window
+ * buffer with its stride. The window buffer is emulated with a stride padded
+ * to 64 pixels like gralloc does.
+ *
+ * Before the benchmarks, the recording is replayed once with
+ * UVC_STREAM_FLAG_ZERO_COPY, handing each frame to a pool the way UVCPreview
+ * does, and the tool exits with 1 if any frame was copied on the way
+ * (uvc_duplicate_frame or the memcpy into the callback frame). */
+#include "libuvc/libuvc.h"
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+typedef uvc_error_t (*convert_func_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+#define BLIT_NONE 0
+#define BLIT_COPY 1    /* convert into out, then copy rows into the window */
+#define BLIT_DIRECT 2  /* convert into the window */
+#define WINDOW_ALIGN 64
+
+typedef struct bench {
+  const char *name;
+  convert_func_t convert;
+  int blit;
+  uvc_frame_t *out;
+  uint8_t *window;
+  int stride;
+  int frames;
+  int errors;
+  size_t bytes;
+  size_t rgbx_bytes;
+  uint64_t cpu_ns;
+} bench_t;
+
+static uint64_t now_ns(clockid_t clock) {
+  struct timespec ts;
+  clock_gettime(clock, &ts);
+  return (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+/* runs on the callback thread of the stream, so the thread cpu time
+ * is the cost of the conversion only */
+static void cb(uvc_frame_t *frame, void *ptr) {
+  bench_t *bench = (bench_t *) ptr;
+  uint64_t start;
+
+  if (!bench->out) {
+    /* large enough for any of the conversions */
+    bench->out = uvc_allocate_frame(frame->width * frame->height * 4);
+  }
+  if (bench->blit && !bench->window) {
+    bench->stride = (frame->width + WINDOW_ALIGN - 1) & ~(WINDOW_ALIGN - 1);
+    bench->window = malloc(bench->stride * 4 * frame->height);
+  }
+  start = now_ns(CLOCK_THREAD_CPUTIME_ID);
+  if (bench->blit == BLIT_DIRECT) {
+    uvc_frame_t dest;
+    memset(&dest, 0, sizeof(dest));
+    dest.data = bench->window;
+    dest.data_bytes = dest.actual_bytes = bench->stride * 4 * frame->height;
+    dest.width = frame->width;
+    dest.height = frame->height;
+    dest.step = bench->stride * 4;
+    if (bench->convert(frame, &dest))
+      bench->errors++;
+    /* rgbx pixels written */
+    bench->rgbx_bytes += frame->width * frame->height * 4;
+  } else if (bench->convert && bench->convert(frame, bench->out)) {
+    bench->errors++;
+  } else if (bench->blit == BLIT_COPY) {
+    const uint8_t *src = bench->out->data;
+    uint8_t *dest = bench->window;
+    const size_t row = frame->width * 4;
+    uint32_t h;
+    for (h = 0; h < frame->height; h++) {
+      memcpy(dest, src, row);
+      src += row;
+      dest += bench->stride * 4;
+    }
+    /* rgbx pixels written by the conversion, then read and written by the copy */
+    bench->rgbx_bytes += frame->width * frame->height * 4 * 3;
+  }
+  bench->cpu_ns += now_ns(CLOCK_THREAD_CPUTIME_ID) - start;
+  bench->frames++;
+  bench->bytes += frame->actual_bytes;
+}
+
+#define POOL_FRAMES 4
+
+typedef struct zero_copy {
+  uvc_frame_t *pool[POOL_FRAMES];
+  int frames;
+  int duplicated;
+  size_t max_buf_bytes;
+  uint64_t reallocs;	/* uvc_get_frame_reallocs after all pool frames were used once */
+} zero_copy_t;
+
+/* same as UVCPreview::uvc_preview_frame_callback, takes the received buffer
+ * over with a pool frame and only copies when it can not */
+static void zero_copy_cb(uvc_frame_t *frame, void *ptr) {
+  zero_copy_t *zc = (zero_copy_t *) ptr;
+  uvc_frame_t **copy = &zc->pool[zc->frames % POOL_FRAMES];
+  /* pool frames are allocated with the size of the rgbx frame like UVCPreview,
+   * and are reused as the output of the conversion later */
+  const size_t rgbx_bytes = frame->width * frame->height * 4;
+
+  if (zc->frames == POOL_FRAMES)
+    zc->reallocs = uvc_get_frame_reallocs();
+  if (!*copy)
+    *copy = uvc_allocate_frame(rgbx_bytes);
+  if (uvc_swap_frame_data(frame, *copy)) {
+    uvc_duplicate_frame(frame, *copy);
+    zc->duplicated++;
+  }
+  if ((*copy)->data_bytes > zc->max_buf_bytes)
+    zc->max_buf_bytes = (*copy)->data_bytes;
+  /* the buffer that came from the stream should keep its capacity */
+  uvc_ensure_frame_size(*copy, rgbx_bytes);
+  zc->frames++;
+}
+
+/* returns 0 if no frame was copied between the receive buffer and the pool
+ * and no buffer was reallocated once all pool frames were used */
+static int check_zero_copy(const char *path) {
+  uvc_stream_handle_t *strmh;
+  uvc_transfer_stats_t stats;
+  zero_copy_t zc;
+  uvc_error_t res;
+  int i;
+
+  memset(&zc, 0, sizeof(zc));
+  memset(&stats, 0, sizeof(stats));
+  res = uvc_replay_open(path, &strmh);
+  if (res < 0) {
+    uvc_perror(res, "uvc_replay_open");
+    return -1;
+  }
+  res = uvc_replay_start(strmh, zero_copy_cb, &zc, 0, UVC_STREAM_FLAG_ZERO_COPY);
+  if (res < 0) {
+    uvc_perror(res, "uvc_replay_start");
+  } else {
+    uvc_replay_wait(strmh);
+    uvc_stream_stop(strmh);
+    uvc_stream_get_transfer_stats(strmh, &stats);
+  }
+  uvc_stream_close(strmh);
+  if (zc.frames > POOL_FRAMES)
+    zc.reallocs = uvc_get_frame_reallocs() - zc.reallocs;
+  for (i = 0; i < POOL_FRAMES; i++) {
+    if (zc.pool[i])
+      uvc_free_frame(zc.pool[i]);
+  }
+
+  printf("%-16s %6d frames %4d duplicated %4d copied %4d reallocated %10zu bytes/buffer %s\n",
+    "zero-copy", zc.frames, zc.duplicated, (int) stats.copied_frames, (int) zc.reallocs, zc.max_buf_bytes,
+    (zc.duplicated || stats.copied_frames) ? "COPIED" : (zc.reallocs ? "REALLOCATED" : "ok"));
+  return (res < 0) || !zc.frames || zc.duplicated || stats.copied_frames || zc.reallocs ? -1 : 0;
+}
+
+static int run(const char *path, float speed, bench_t *bench) {
+  uvc_stream_handle_t *strmh;
+  uvc_error_t res;
+  uint64_t start;
+
+  res = uvc_replay_open(path, &strmh);
+  if (res < 0) {
+    uvc_perror(res, "uvc_replay_open");
+    return -1;
+  }
+  start = now_ns(CLOCK_MONOTONIC);
+  res = uvc_replay_start(strmh, cb, bench, speed, 0);
+  if (res < 0) {
+    uvc_perror(res, "uvc_replay_start");
+  } else {
+    uvc_replay_wait(strmh);
+    uvc_stream_stop(strmh);
+  }
+  start = now_ns(CLOCK_MONOTONIC) - start;
+  uvc_stream_close(strmh);
+  if (bench->out)
+    uvc_free_frame(bench->out);
+  free(bench->window);
+
+  if (bench->frames) {
+    printf("%-16s %6d frames %4d errors %8.1f fps %10.1f us/frame (%zu bytes/frame)\n",
+      bench->name, bench->frames, bench->errors,
+      bench->frames * 1e9 / start, bench->cpu_ns / 1e3 / bench->frames,
+      bench->bytes / bench->frames);
+    if (bench->blit) {
+      printf("%-16s %10.2f MB/frame rgbx memory traffic, %8.1f MB/s at 30fps\n", "",
+        bench->rgbx_bytes / 1e6 / bench->frames, bench->rgbx_bytes * 30 / 1e6 / bench->frames);
+    }
+  } else {
+    printf("%-16s no frames\n", bench->name);
+  }
+  return res < 0 ? -1 : 0;
+}
+
+int main(int argc, char **argv) {
+  bench_t benches[] = {
+    { "none", NULL },
+    { "any2yuyv", uvc_any2yuyv },
+    { "any2rgbx", uvc_any2rgbx },
+    { "any2rgbx+copy", uvc_any2rgbx, BLIT_COPY },
+    { "any2rgbx>window", uvc_any2rgbx, BLIT_DIRECT },
+    { "any2rgb565", uvc_any2rgb565 },
+    { "any2rgb", uvc_any2rgb },
+    { "any2yuv420SP", uvc_any2yuv420SP },
+    { "any2iyuv420SP", uvc_any2iyuv420SP },
+  };
+  const float speed = argc > 2 ? atof(argv[2]) : 0;
+  size_t i;
+
+  if (argc < 2) {
+    fprintf(stderr, "usage: %s <recording> [speed]\n", argv[0]);
+    return 1;
+  }
+
+  if (check_zero_copy(argv[1]))
+    return 1;
+  for (i = 0; i < sizeof(benches) / sizeof(benches[0]); i++) {
+    if (run(argv[1], speed, &benches[i]))
+      return 1;
+  }
+
+  return 0;
+}
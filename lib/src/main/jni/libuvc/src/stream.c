@@ -68,6 +68,15 @@ uvc_frame_desc_t *uvc_find_frame_desc(uvc_device_handle_t *devh,
 		uint16_t format_id, uint16_t frame_id);
 static void *_uvc_user_caller(void *arg);
 static void _uvc_populate_frame(uvc_stream_handle_t *strmh);
+static int _uvc_ensure_spare_buffer(uvc_stream_handle_t *strmh);
+static void _uvc_swap_hold_frame(uvc_stream_handle_t *strmh);
+
+/** @internal CLOCK_MONOTONIC in nanoseconds */
+static inline uint64_t _uvc_now_ns(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
 
 struct format_table_entry {
 	enum uvc_frame_format format;
@@ -601,18 +610,25 @@ uvc_error_t uvc_probe_stream_ctrl(uvc_device_handle_t *devh,
  */
 static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 	uint8_t *tmp_buf;
+	size_t tmp_bytes;
+	struct timespec ts;
 
+	clock_gettime(CLOCK_MONOTONIC, &ts);	// XXX
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
 		/* swap the buffers */
 		tmp_buf = strmh->holdbuf;
+		tmp_bytes = strmh->holdbuf_bytes;
 		strmh->hold_bfh_err = strmh->bfh_err;	// XXX
 		strmh->hold_bytes = strmh->got_bytes;
 		strmh->holdbuf = strmh->outbuf;
+		strmh->holdbuf_bytes = strmh->outbuf_bytes;
 		strmh->outbuf = tmp_buf;
+		strmh->outbuf_bytes = tmp_bytes;
 		strmh->hold_last_scr = strmh->last_scr;
 		strmh->hold_pts = strmh->pts;
 		strmh->hold_seq = strmh->seq;
+		strmh->hold_host_ts_ns = (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;	// XXX
 
 		pthread_cond_broadcast(&strmh->cb_cond);
 	}
@@ -636,7 +652,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 	pthread_mutex_lock(&strmh->cb_mutex);	// XXX crash while calling uvc_stop_streaming
 	{
 		// Mark transfer as deleted.
-		for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+		for (i = 0; i < LIBUVC_MAX_TRANSFER_BUFS; i++) {
 			if (strmh->transfers[i] == transfer) {
 				libusb_cancel_transfer(strmh->transfers[i]);	// XXX 20141112追加
 				UVC_DEBUG("Freeing transfer %d (%p)", i, transfer);
@@ -646,7 +662,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 				break;
 			}
 		}
-		if (UNLIKELY(i == LIBUVC_NUM_TRANSFER_BUFS)) {
+		if (UNLIKELY(i == LIBUVC_MAX_TRANSFER_BUFS)) {
 			UVC_DEBUG("transfer %p not found; not freeing!", transfer);
 		}
 
@@ -726,9 +742,11 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 		if (UNLIKELY(header_info & UVC_STREAM_ERR)) {
 //			strmh->bfh_err |= UVC_STREAM_ERR;
 			UVC_DEBUG("bad packet: error bit set");
-			libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
-//			uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
-			uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+			if (LIKELY(strmh->devh->usb_devh)) {	// XXX usb_devh is NULL while replaying
+				libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
+//				uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
+				uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+			}
 //			return;
 		}
 
@@ -818,6 +836,7 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 	uvc_vc_error_code_control_t vc_error_code;
 	uvc_vs_error_code_control_t vs_error_code;
 
+	__atomic_add_fetch(&strmh->xfer_stats.iso_packets, transfer->num_iso_packets, __ATOMIC_RELAXED);
 	for (packet_id = 0; packet_id < transfer->num_iso_packets; ++packet_id) {
 		check_header = 1;
 
@@ -825,8 +844,10 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 
 		if (UNLIKELY(pkt->status != 0)) {
 			MARK("bad packet:status=%d,actual_length=%d", pkt->status, pkt->actual_length);
+			__atomic_add_fetch(&strmh->xfer_stats.iso_missed, 1, __ATOMIC_RELAXED);
 			strmh->bfh_err |= UVC_STREAM_ERR;
-			libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
+			if (LIKELY(strmh->devh->usb_devh))	// XXX usb_devh is NULL while replaying
+				libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
 //			uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
 //			uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
 			continue;
@@ -866,9 +887,11 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 				if (UNLIKELY(header_info & UVC_STREAM_ERR)) {
 //					strmh->bfh_err |= UVC_STREAM_ERR;
 					MARK("bad packet:status=0x%2x", header_info);
-					libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
-//					uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
-					uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+					if (LIKELY(strmh->devh->usb_devh)) {	// XXX usb_devh is NULL while replaying
+						libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
+//						uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
+						uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+					}
 					continue;
 				}
 #ifdef USE_EOF
@@ -929,11 +952,15 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 			// from "if (pkt->actual_length - header_len > 0)"
 			if (LIKELY(pkt->actual_length > header_len)) {
 				const size_t odd_bytes = pkt->actual_length - header_len;
-				assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
 				assert(strmh->outbuf);
 				assert(pktbuf);
-				memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-				strmh->got_bytes += odd_bytes;
+				// frame larger than the buffer(e.g. larger than dwMaxVideoFrameSize), drop the payload
+				if (LIKELY(strmh->got_bytes + odd_bytes < strmh->size_buf)) {
+					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+					strmh->got_bytes += odd_bytes;
+				} else {
+					strmh->bfh_err |= UVC_STREAM_ERR;
+				}
 			}
 #ifdef USE_EOF
 			if ((pktbuf[1] & UVC_STREAM_EOF) && strmh->got_bytes != 0) {
@@ -950,6 +977,25 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 }
 #endif
 
+/** @internal
+ * @brief Process a completed transfer
+ *
+ * This is also called from replay.c with the transfers read from a recording
+ *
+ * @param transfer Completed transfer, either bulk or isochronous
+ */
+void _uvc_stream_process_transfer(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer) {
+	if (UNLIKELY(strmh->replay))
+		_uvc_replay_record(strmh, transfer);
+	if (!transfer->num_iso_packets) {
+		/* This is a bulk mode transfer, so it just has one payload transfer */
+		_uvc_process_payload(strmh, transfer->buffer, transfer->actual_length);
+	} else {
+		/* This is an isochronous mode transfer, so each packet has a payload transfer */
+		_uvc_process_payload_iso(strmh, transfer);
+	}
+}
+
 /** @internal
  * @brief Isochronous transfer callback
  * 
@@ -965,6 +1011,13 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 	if UNLIKELY(!strmh) return;
 
 	int resubmit = 1;
+	const uint64_t start_ns = _uvc_now_ns();
+	uvc_transfer_stats_t *stats = &strmh->xfer_stats;
+
+	// XXX stats are only updated on the event thread and read from the other threads
+	const int in_flight = __atomic_sub_fetch(&strmh->in_flight, 1, __ATOMIC_RELAXED);
+	if (UNLIKELY((uint32_t)in_flight < __atomic_load_n(&stats->min_in_flight, __ATOMIC_RELAXED)))
+		__atomic_store_n(&stats->min_in_flight, (uint32_t)in_flight, __ATOMIC_RELAXED);
 
 #ifndef NDEBUG
 	static int cnt = 0;
@@ -973,13 +1026,8 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 #endif
 	switch (transfer->status) {
 	case LIBUSB_TRANSFER_COMPLETED:
-		if (!transfer->num_iso_packets) {
-			/* This is a bulk mode transfer, so it just has one payload transfer */
-			_uvc_process_payload(strmh, transfer->buffer, transfer->actual_length);
-		} else {
-			/* This is an isochronous mode transfer, so each packet has a payload transfer */
-			_uvc_process_payload_iso(strmh, transfer);
-		}
+		__atomic_add_fetch(&stats->completed, 1, __ATOMIC_RELAXED);
+		_uvc_stream_process_transfer(strmh, transfer);
 	    break;
 	case LIBUSB_TRANSFER_NO_DEVICE:
 		strmh->running = 0;	// this needs for unexpected disconnect of cable otherwise hangup
@@ -996,11 +1044,21 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 	case LIBUSB_TRANSFER_OVERFLOW:
 		UVC_DEBUG("retrying transfer, status = %d", transfer->status);
 //		MARK("retrying transfer, status = %d", transfer->status);
+		__atomic_add_fetch(&stats->errors, 1, __ATOMIC_RELAXED);
 		break;
 	}
 
 	if (LIKELY(strmh->running && resubmit)) {
-		libusb_submit_transfer(transfer);
+		if (LIKELY(!libusb_submit_transfer(transfer))) {
+			__atomic_add_fetch(&strmh->in_flight, 1, __ATOMIC_RELAXED);
+			const uint64_t ns = _uvc_now_ns() - start_ns;
+			__atomic_add_fetch(&stats->resubmitted, 1, __ATOMIC_RELAXED);
+			__atomic_add_fetch(&stats->resubmit_total_ns, ns, __ATOMIC_RELAXED);
+			if (ns > __atomic_load_n(&stats->resubmit_max_ns, __ATOMIC_RELAXED))
+				__atomic_store_n(&stats->resubmit_max_ns, ns, __ATOMIC_RELAXED);
+		} else {
+			__atomic_add_fetch(&stats->errors, 1, __ATOMIC_RELAXED);
+		}
 	} else {
 		// XXX delete non-reusing transfer
 		// real implementation of deleting transfer moves to _uvc_delete_transfer
@@ -1151,11 +1209,15 @@ static void _uvc_iso_callback(struct libusb_transfer *transfer) {
 				// from "if (pkt->actual_length - header_len > 0)"
 				if (LIKELY(pkt->actual_length > header_len)) {
 					const size_t odd_bytes = pkt->actual_length - header_len;
-					assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
 					assert(strmh->outbuf);
 					assert(pktbuf);
-					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-					strmh->got_bytes += odd_bytes;
+					// frame larger than the buffer(e.g. larger than dwMaxVideoFrameSize), drop the payload
+					if (LIKELY(strmh->got_bytes + odd_bytes < strmh->size_buf)) {
+						memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+						strmh->got_bytes += odd_bytes;
+					} else {
+						strmh->bfh_err |= UVC_STREAM_ERR;
+					}
 				}
 #ifdef USE_EOF
 				if ((pktbuf[1] & STREAM_HEADER_BFH_EOF) && strmh->got_bytes != 0) {
@@ -1287,6 +1349,65 @@ static uvc_streaming_interface_t *_uvc_get_stream_if(uvc_device_handle_t *devh,
 	return NULL;
 }
 
+/** XXX Get the isochronous bandwidth that each altsetting of the streaming interface reserves
+ * @ingroup streaming
+ *
+ * uvc_stream_start_bandwidth selects the first altsetting whose packet is not smaller than
+ * dwMaxPayloadTransferSize x bandwidth_factor(or the last one), so the bus bandwidth a stream
+ * reserves is packet_bytes x intervals_per_sec of that altsetting.
+ *
+ * @param devh UVC device
+ * @param ctrl Control block, only bInterfaceNumber is used
+ * @param[out] packet_bytes bytes of a packet(wMaxPacketSize x transactions) in the order of the altsettings
+ * @param[out] intervals_per_sec service intervals per second of the endpoint of the altsettings
+ * @param max_num size of packet_bytes and intervals_per_sec
+ * @return number of altsettings with the streaming endpoint(0 for bulk transfer), or uvc_error_t
+ */
+int uvc_get_stream_altsettings(uvc_device_handle_t *devh, const uvc_stream_ctrl_t *ctrl,
+		uint32_t *packet_bytes, uint32_t *intervals_per_sec, int max_num) {
+
+	const uvc_streaming_interface_t *stream_if;
+	const struct libusb_interface *interface;
+	int alt_idx, ep_idx, num = 0;
+
+	if (UNLIKELY(!devh || !devh->usb_devh || !ctrl || !packet_bytes || !intervals_per_sec))
+		return UVC_ERROR_INVALID_PARAM;
+	stream_if = _uvc_get_stream_if(devh, ctrl->bInterfaceNumber);
+	if (UNLIKELY(!stream_if))
+		return UVC_ERROR_INVALID_PARAM;
+
+	interface = &devh->info->config->interface[ctrl->bInterfaceNumber];
+	if (interface->num_altsetting <= 1)
+		return 0;	// bulk transfer does not reserve bus bandwidth
+
+	const int speed = libusb_get_device_speed(libusb_get_device(devh->usb_devh));
+	const uint32_t frames_per_sec = ((speed == LIBUSB_SPEED_LOW) || (speed == LIBUSB_SPEED_FULL))
+		? 1000 : 8000;	// (micro)frames
+	for (alt_idx = 0; (alt_idx < interface->num_altsetting) && (num < max_num); alt_idx++) {
+		const struct libusb_interface_descriptor *altsetting = interface->altsetting + alt_idx;
+		for (ep_idx = 0; ep_idx < altsetting->bNumEndpoints; ep_idx++) {
+			const struct libusb_endpoint_descriptor *endpoint = altsetting->endpoint + ep_idx;
+			if (endpoint->bEndpointAddress == stream_if->bEndpointAddress) {
+				const uint32_t bytes = (endpoint->wMaxPacketSize & 0x07ff)
+					* (((endpoint->wMaxPacketSize >> 11) & 3) + 1);
+				int interval = endpoint->bInterval;
+				if (interval < 1)
+					interval = 1;
+				else if (interval > 16)
+					interval = 16;
+				if (LIKELY(bytes)) {
+					packet_bytes[num] = bytes;
+					intervals_per_sec[num] = frames_per_sec >> (interval - 1);
+					num++;
+				}
+				break;
+			}
+		}
+	}
+
+	return num;
+}
+
 /** Open a new video stream.
  * @ingroup streaming
  *
@@ -1331,12 +1452,10 @@ uvc_error_t uvc_stream_open_ctrl(uvc_device_handle_t *devh,
 	if (UNLIKELY(ret != UVC_SUCCESS))
 		goto fail;
 
-	// Set up the streaming status and data space
+	// Set up the streaming status
+	// XXX the data space is allocated on start with the size of the negotiated frame,
+	// see _uvc_tune_transfers
 	strmh->running = 0;
-	/** @todo take only what we need */
-	strmh->outbuf = malloc(LIBUVC_XFER_BUF_SIZE);
-	strmh->holdbuf = malloc(LIBUVC_XFER_BUF_SIZE);
-	strmh->size_buf = LIBUVC_XFER_BUF_SIZE;	// xxx for boundary check
 
 	pthread_mutex_init(&strmh->cb_mutex, NULL);
 	pthread_cond_init(&strmh->cb_cond, NULL);
@@ -1368,6 +1487,118 @@ uvc_error_t uvc_stream_start(uvc_stream_handle_t *strmh,
 	return uvc_stream_start_bandwidth(strmh, cb, user_ptr, 0, flags);
 }
 
+/** @internal
+ * @brief size of the largest frame of the stream
+ * some cameras send frames larger than dwMaxVideoFrameSize, so this is at least uncompressed 16 bits frame
+ */
+static size_t _uvc_max_frame_bytes(uvc_stream_handle_t *strmh) {
+	const size_t frame_bytes = strmh->cur_ctrl.dwMaxVideoFrameSize;
+	const size_t raw_bytes = (size_t)strmh->width * strmh->height * 2;
+	return frame_bytes > raw_bytes ? frame_bytes : raw_bytes;
+}
+
+/** @internal
+ * @brief size of the frame assembling buffers, the largest frame and one transfer
+ * that may overrun it rounded up to the page size
+ * @param transfer_bytes size of each transfer
+ */
+size_t _uvc_frame_buf_bytes(uvc_stream_handle_t *strmh, size_t transfer_bytes) {
+	const size_t frame_bytes = _uvc_max_frame_bytes(strmh);
+	if (UNLIKELY(!frame_bytes))
+		return LIBUVC_XFER_BUF_SIZE;
+	const size_t buf_size = (frame_bytes + transfer_bytes + 4095) & ~((size_t)4095);
+	return buf_size < LIBUVC_XFER_BUF_SIZE ? buf_size : LIBUVC_XFER_BUF_SIZE;
+}
+
+/** @internal
+ * @brief Decide the transfer setup of the stream and allocate the frame assembling buffers
+ *
+ * Zero values of the requested config are sized from the negotiated parameters:
+ * the frame buffers hold the largest frame plus one transfer, isochronous streams keep
+ * transfers for one frame interval(16-100msec) submitted so that the event thread can be late
+ * without the host controller running out of transfers, bulk streams keep two frames submitted.
+ *
+ * @param transfer_bytes size of each transfer
+ * @param transfer_ns duration of each isochronous transfer, 0 for bulk transfer
+ */
+static uvc_error_t _uvc_tune_transfers(uvc_stream_handle_t *strmh,
+		size_t transfer_bytes, uint64_t transfer_ns) {
+
+	const uvc_transfer_config_t *req = &strmh->xfer_req;
+	uvc_transfer_config_t *cur = &strmh->xfer_cur;
+	uint32_t num_transfers;
+	size_t buf_size;
+	const size_t frame_bytes = _uvc_max_frame_bytes(strmh);
+
+	if (req->frame_buf_size) {
+		buf_size = req->frame_buf_size;
+		// the buffers should hold the largest frame and one transfer that may overrun it
+		if (buf_size < frame_bytes + transfer_bytes) {
+			LOGW("frame_buf_size %zu is too small, use %zu", buf_size, frame_bytes + transfer_bytes);
+			buf_size = frame_bytes + transfer_bytes;
+		} else if ((strmh->flags & UVC_STREAM_FLAG_ZERO_COPY) && frame_bytes
+			&& (buf_size > _uvc_frame_buf_bytes(strmh, transfer_bytes))) {
+			// the receive buffers are handed to the callback and kept in its frames,
+			// so larger buffers only waste memory
+			buf_size = _uvc_frame_buf_bytes(strmh, transfer_bytes);
+			LOGW("frame_buf_size %u is larger than needed for zero copy, use %zu",
+				req->frame_buf_size, buf_size);
+		}
+	} else {
+		buf_size = _uvc_frame_buf_bytes(strmh, transfer_bytes);
+	}
+
+	if (req->num_transfers) {
+		num_transfers = req->num_transfers;
+	} else {
+		if (transfer_ns) {
+			uint64_t queue_ns = strmh->cur_ctrl.dwFrameInterval * 100ULL;
+			if (queue_ns < 16000000ULL)
+				queue_ns = 16000000ULL;
+			else if (queue_ns > 100000000ULL)
+				queue_ns = 100000000ULL;
+			num_transfers = (uint32_t)((queue_ns + transfer_ns - 1) / transfer_ns);
+		} else if (transfer_bytes) {
+			num_transfers = (uint32_t)((frame_bytes * 2 + transfer_bytes - 1) / transfer_bytes);
+		} else {
+			num_transfers = LIBUVC_NUM_TRANSFER_BUFS;
+		}
+		if (num_transfers < 2)
+			num_transfers = 2;
+		else if (num_transfers > LIBUVC_MAX_TRANSFER_BUFS)
+			num_transfers = LIBUVC_MAX_TRANSFER_BUFS;
+	}
+
+	if (!strmh->outbuf || !strmh->holdbuf || (strmh->size_buf != buf_size)) {
+		free(strmh->outbuf);
+		free(strmh->holdbuf);
+		strmh->outbuf = malloc(buf_size);
+		strmh->holdbuf = malloc(buf_size);
+		if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf)) {
+			free(strmh->outbuf);
+			free(strmh->holdbuf);
+			strmh->outbuf = strmh->holdbuf = NULL;
+			strmh->outbuf_bytes = strmh->holdbuf_bytes = 0;
+			strmh->size_buf = 0;
+			LOGE("failed to allocate frame buffers:%zu bytes", buf_size);
+			return UVC_ERROR_NO_MEM;
+		}
+		strmh->size_buf = buf_size;	// xxx for boundary check
+		strmh->outbuf_bytes = strmh->holdbuf_bytes = buf_size;
+	}
+	strmh->got_bytes = 0;
+
+	cur->num_transfers = num_transfers;
+	cur->packets_per_transfer = 0;
+	cur->frame_buf_size = (uint32_t)buf_size;
+	memset(&strmh->xfer_stats, 0, sizeof(strmh->xfer_stats));
+	strmh->xfer_stats.min_in_flight = num_transfers;
+	MARK("num_transfers=%u,transfer_bytes=%zu,frame_buf_size=%zu",
+		num_transfers, transfer_bytes, buf_size);
+
+	return UVC_SUCCESS;
+}
+
 /** Begin streaming video from the stream into the callback function.
  * @ingroup streaming
  *
@@ -1407,6 +1638,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	strmh->pts = 0;
 	strmh->last_scr = 0;
 	strmh->bfh_err = 0;	// XXX
+	strmh->flags = flags;	// XXX _uvc_tune_transfers sizes the buffers for zero copy
 
 	frame_desc = uvc_find_frame_desc_stream(strmh, ctrl->bFormatIndex, ctrl->bFrameIndex);
 	if (UNLIKELY(!frame_desc)) {
@@ -1415,6 +1647,8 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		goto fail;
 	}
 	format_desc = frame_desc->parent;
+	strmh->width = frame_desc->wWidth;
+	strmh->height = frame_desc->wHeight;
 
 	strmh->frame_format = uvc_frame_format_for_guid(format_desc->guidFormat);
 	if (UNLIKELY(strmh->frame_format == UVC_FRAME_FORMAT_UNKNOWN)) {
@@ -1450,6 +1684,8 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		size_t endpoint_bytes_per_packet;
 		/* Index of the altsetting */
 		int alt_idx, ep_idx;
+		/* XXX bInterval of the chosen endpoint */
+		int endpoint_interval = 1;
 
 		struct libusb_transfer *transfer;
 		int transfer_id;
@@ -1496,6 +1732,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 					endpoint_bytes_per_packet
 						= (endpoint_bytes_per_packet & 0x07ff)
 							* (((endpoint_bytes_per_packet >> 11) & 3) + 1);
+					endpoint_interval = endpoint->bInterval;	// XXX
 					break;
 				}
 			}
@@ -1510,7 +1747,9 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 							/ endpoint_bytes_per_packet;		// XXX cashed by zero divided exception occured
 
 					/* But keep a reasonable limit: Otherwise we start dropping data */
-					if (packets_per_transfer > 32)
+					if (strmh->xfer_req.packets_per_transfer)	// XXX set by uvc_stream_set_transfer_config
+						packets_per_transfer = strmh->xfer_req.packets_per_transfer;
+					else if (packets_per_transfer > 32)
 						packets_per_transfer = 32;
 
 					total_transfer_size = packets_per_transfer * endpoint_bytes_per_packet;
@@ -1545,9 +1784,23 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 			goto fail;
 		}
 
+		/* XXX isochronous packets are serviced every 2^(bInterval-1) (micro)frames */
+		const int speed = libusb_get_device_speed(libusb_get_device(strmh->devh->usb_devh));
+		const uint64_t frame_ns = ((speed == LIBUSB_SPEED_LOW) || (speed == LIBUSB_SPEED_FULL))
+			? 1000000ULL : 125000ULL;
+		if (endpoint_interval < 1)
+			endpoint_interval = 1;
+		else if (endpoint_interval > 16)
+			endpoint_interval = 16;
+		ret = _uvc_tune_transfers(strmh, total_transfer_size,
+			(frame_ns << (endpoint_interval - 1)) * packets_per_transfer);
+		if (UNLIKELY(ret != UVC_SUCCESS))
+			goto fail;
+		strmh->xfer_cur.packets_per_transfer = packets_per_transfer;
+
 		/* Set up the transfers */
 		MARK("Set up the transfers");
-		for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; ++transfer_id) {
+		for (transfer_id = 0; transfer_id < strmh->xfer_cur.num_transfers; ++transfer_id) {
 			transfer = libusb_alloc_transfer(packets_per_transfer);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(total_transfer_size);
@@ -1562,8 +1815,11 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		}
 	} else {
 		MARK("bulk transfer mode");
+		ret = _uvc_tune_transfers(strmh, strmh->cur_ctrl.dwMaxPayloadTransferSize, 0);
+		if (UNLIKELY(ret != UVC_SUCCESS))
+			goto fail;
 		/** prepare for bulk transfer */
-		for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; ++transfer_id) {
+		for (transfer_id = 0; transfer_id < strmh->xfer_cur.num_transfers; ++transfer_id) {
 			transfer = libusb_alloc_transfer(0);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(strmh->cur_ctrl.dwMaxPayloadTransferSize);
@@ -1575,21 +1831,31 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		}
 	}
 
-	strmh->user_cb = cb;
-	strmh->user_ptr = user_ptr;
-
-	/* If the user wants it, set up a thread that calls the user's function
-	 * with the contents of each frame.
-	 */
-	MARK("create callback thread");
-	if LIKELY(cb) {
-		pthread_create(&strmh->cb_thread, NULL, _uvc_user_caller, (void*) strmh);
+	ret = _uvc_stream_start_callback(strmh, cb, user_ptr, flags);
+	if (UNLIKELY(ret != UVC_SUCCESS)) {
+		// XXX nothing is submitted yet, so the transfers can be freed here
+		LOGE("failed to start callback thread");
+		for (transfer_id = 0; transfer_id < strmh->xfer_cur.num_transfers; transfer_id++) {
+			transfer = strmh->transfers[transfer_id];
+			if (transfer) {
+				free(transfer->buffer);
+				libusb_free_transfer(transfer);
+				strmh->transfers[transfer_id] = NULL;
+				strmh->transfer_bufs[transfer_id] = NULL;
+			}
+		}
+		goto fail;
 	}
+
 	MARK("submit transfers");
-	for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; transfer_id++) {
+	// XXX count them before submitting because they can complete on the event thread soon
+	__atomic_store_n(&strmh->in_flight, (int)strmh->xfer_cur.num_transfers, __ATOMIC_RELAXED);
+	for (transfer_id = 0; transfer_id < strmh->xfer_cur.num_transfers; transfer_id++) {
 		ret = libusb_submit_transfer(strmh->transfers[transfer_id]);
 		if (UNLIKELY(ret != UVC_SUCCESS)) {
 			UVC_DEBUG("libusb_submit_transfer failed");
+			__atomic_sub_fetch(&strmh->in_flight,
+				(int)strmh->xfer_cur.num_transfers - transfer_id, __ATOMIC_RELAXED);
 			break;
 		}
 	}
@@ -1608,6 +1874,27 @@ fail:
 	return ret;
 }
 
+/** @internal
+ * @brief set up a thread that calls the user's function with the contents of each frame
+ * if the user wants it.
+ */
+uvc_error_t _uvc_stream_start_callback(uvc_stream_handle_t *strmh,
+		uvc_frame_callback_t *cb, void *user_ptr, uint8_t flags) {
+
+	strmh->user_cb = cb;
+	strmh->user_ptr = user_ptr;
+	strmh->flags = flags;
+
+	MARK("create callback thread");
+	if LIKELY(cb) {
+		if (UNLIKELY(pthread_create(&strmh->cb_thread, NULL, _uvc_user_caller, (void*) strmh))) {
+			strmh->user_cb = NULL;
+			return UVC_ERROR_OTHER;
+		}
+	}
+	return UVC_SUCCESS;
+}
+
 /** Begin streaming video from the stream into the callback function.
  * @ingroup streaming
  *
@@ -1633,6 +1920,9 @@ static void *_uvc_user_caller(void *arg) {
 	uvc_stream_handle_t *strmh = (uvc_stream_handle_t *) arg;
 
 	uint32_t last_seq = 0;
+	uint32_t delivered_seq = 0;	// XXX sequence number of the last frame passed to user_cb
+	int zero_copy = (strmh->flags & UVC_STREAM_FLAG_ZERO_COPY)
+		&& !_uvc_ensure_spare_buffer(strmh);
 
 	for (; 1 ;) {
 		pthread_mutex_lock(&strmh->cb_mutex);
@@ -1647,41 +1937,55 @@ static void *_uvc_user_caller(void *arg) {
 			}
 
 			last_seq = strmh->hold_seq;
-			if (LIKELY(!strmh->hold_bfh_err))	// XXX
-				_uvc_populate_frame(strmh);
+			if (LIKELY(!strmh->hold_bfh_err)) {	// XXX
+				if (zero_copy)
+					_uvc_swap_hold_frame(strmh);
+				else
+					_uvc_populate_frame(strmh);
+				// frames completed after the previous delivered one were broken
+				// or overwritten in the hold buffer while user_cb was busy
+				strmh->frame.meta.dropped = delivered_seq ? last_seq - delivered_seq - 1 : 0;
+				delivered_seq = last_seq;
+			}
 		}
 		pthread_mutex_unlock(&strmh->cb_mutex);
 
-		if (LIKELY(!strmh->hold_bfh_err))	// XXX
+		if (LIKELY(!strmh->hold_bfh_err)) {	// XXX
 			strmh->user_cb(&strmh->frame, strmh->user_ptr);	// call user callback function
+			if (zero_copy && UNLIKELY(_uvc_ensure_spare_buffer(strmh))) {
+				// could not get enough receive buffer back, fall back to copying
+				zero_copy = 0;
+			}
+		}
+		if (UNLIKELY(strmh->replay))
+			_uvc_replay_frame_done(strmh, last_seq);
 	}
 
 	return NULL; // return value ignored
 }
 
 /** @internal
- * @brief Populate the fields of a frame to be handed to user code
+ * @brief Populate the attributes of a frame to be handed to user code
  * must be called with stream cb lock held!
  */
-void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
-	size_t alloc_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
+static void _uvc_populate_frame_info(uvc_stream_handle_t *strmh) {
 	uvc_frame_t *frame = &strmh->frame;
-	uvc_frame_desc_t *frame_desc;
-
-	/** @todo this stuff that hits the main config cache should really happen
-	 * in start() so that only one thread hits these data. all of this stuff
-	 * is going to be reopen_on_change anyway
-	 */
-
-	frame_desc = uvc_find_frame_desc(strmh->devh, strmh->cur_ctrl.bFormatIndex,
-			strmh->cur_ctrl.bFrameIndex);
 
+	// XXX frame size is looked up from the frame descriptor once on start
+	// so that this never hits the main config cache (and works while replaying)
 	frame->frame_format = strmh->frame_format;
 
-	frame->width = frame_desc->wWidth;
-	frame->height = frame_desc->wHeight;
+	frame->width = strmh->width;
+	frame->height = strmh->height;
 	// XXX set actual_bytes to zero when erro bits is on
 	frame->actual_bytes = LIKELY(!strmh->hold_bfh_err) ? strmh->hold_bytes : 0;
+	// XXX payload header time stamps of the frame
+	frame->sequence = strmh->hold_seq;
+	frame->meta.pts = strmh->hold_pts;
+	frame->meta.scr = strmh->hold_last_scr;
+	frame->meta.host_ts_ns = strmh->hold_host_ts_ns;
+	frame->meta.received_bytes = frame->actual_bytes;
+	frame->meta.dropped = 0;
 
 	switch (frame->frame_format) {
 	case UVC_FRAME_FORMAT_YUYV:
@@ -1694,6 +1998,16 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 		frame->step = 0;
 		break;
 	}
+}
+
+/** @internal
+ * @brief Populate the fields of a frame to be handed to user code
+ * must be called with stream cb lock held!
+ */
+void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *frame = &strmh->frame;
+
+	_uvc_populate_frame_info(strmh);
 
 	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
 	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
@@ -1701,10 +2015,54 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 		frame->data_bytes = strmh->hold_bytes;
 	}
 	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
+	__atomic_add_fetch(&strmh->xfer_stats.copied_frames, 1, __ATOMIC_RELAXED);
 
 	/** @todo set the frame time */
 }
 
+/** @internal
+ * @brief make sure the frame buffer can be used as a receive buffer
+ * the callback may have exchanged it for a smaller one with uvc_swap_frame_data
+ * must be called without stream cb lock held
+ * @return 0: success, otherwise no memory
+ */
+static int _uvc_ensure_spare_buffer(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *frame = &strmh->frame;
+
+	if (UNLIKELY(!frame->data || (frame->data_bytes < strmh->size_buf))) {
+		_uvc_count_frame_realloc();
+		// the contents are not needed, realloc would copy them
+		free(frame->data);
+		frame->data = malloc(strmh->size_buf);
+		if (UNLIKELY(!frame->data)) {
+			frame->data_bytes = 0;
+			return -1;
+		}
+		frame->data_bytes = strmh->size_buf;
+	}
+	return 0;
+}
+
+/** @internal
+ * @brief Hand the hold buffer to user code without copying (UVC_STREAM_FLAG_ZERO_COPY)
+ * the frame buffer becomes the next hold buffer,
+ * must be called with stream cb lock held!
+ */
+static void _uvc_swap_hold_frame(uvc_stream_handle_t *strmh) {
+	uvc_frame_t *frame = &strmh->frame;
+	uint8_t *tmp_buf = strmh->holdbuf;
+	const size_t tmp_bytes = strmh->holdbuf_bytes;
+
+	_uvc_populate_frame_info(strmh);
+
+	// each buffer keeps its capacity, otherwise buffers that came from the callback in exchange
+	// would shrink to size_buf and be reallocated by the next conversion into them
+	strmh->holdbuf = frame->data;
+	strmh->holdbuf_bytes = frame->data_bytes;
+	frame->data = tmp_buf;
+	frame->data_bytes = tmp_bytes;
+}
+
 /** Poll for a frame
  * @ingroup streaming
  *
@@ -1770,6 +2128,74 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	return UVC_SUCCESS;
 }
 
+/** XXX Set the transfer setup used by the following uvc_stream_start*
+ * @ingroup streaming
+ *
+ * @param strmh UVC stream
+ * @param config zero values are sized from the negotiated parameters on start,
+ *        NULL resets everything to auto. frame_buf_size smaller than the largest frame
+ *        plus one transfer is enlarged on start
+ * @return UVC_ERROR_BUSY while streaming, UVC_ERROR_INVALID_PARAM when out of range
+ *        or frame_buf_size is smaller than the negotiated dwMaxVideoFrameSize
+ */
+uvc_error_t uvc_stream_set_transfer_config(uvc_stream_handle_t *strmh,
+		const uvc_transfer_config_t *config) {
+
+	if (UNLIKELY(!strmh))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(strmh->running))
+		return UVC_ERROR_BUSY;
+	if (config) {
+		if (UNLIKELY((config->num_transfers > UVC_MAX_TRANSFER_BUFS)
+			|| (config->packets_per_transfer > UVC_MAX_PACKETS_PER_TRANSFER)
+			|| (config->frame_buf_size && (config->frame_buf_size < strmh->cur_ctrl.dwMaxVideoFrameSize))))
+			return UVC_ERROR_INVALID_PARAM;
+		strmh->xfer_req = *config;
+	} else {
+		memset(&strmh->xfer_req, 0, sizeof(strmh->xfer_req));
+	}
+	return UVC_SUCCESS;
+}
+
+/** XXX Get the transfer setup of the stream
+ * @ingroup streaming
+ *
+ * @param strmh UVC stream
+ * @param[out] config values chosen on the last start,
+ *             the requested values if the stream has not started yet
+ */
+uvc_error_t uvc_stream_get_transfer_config(uvc_stream_handle_t *strmh,
+		uvc_transfer_config_t *config) {
+
+	if (UNLIKELY(!strmh || !config))
+		return UVC_ERROR_INVALID_PARAM;
+	*config = strmh->xfer_cur.num_transfers ? strmh->xfer_cur : strmh->xfer_req;
+	return UVC_SUCCESS;
+}
+
+/** XXX Get the transfer counters of the stream since the last start
+ * @ingroup streaming
+ *
+ * This can be called from any thread while streaming,
+ * each value is read atomically but the values are not a consistent snapshot as a whole.
+ */
+void uvc_stream_get_transfer_stats(uvc_stream_handle_t *strmh,
+		uvc_transfer_stats_t *stats) {
+
+	if (UNLIKELY(!strmh || !stats))
+		return;
+	const uvc_transfer_stats_t *src = &strmh->xfer_stats;
+	stats->completed = __atomic_load_n(&src->completed, __ATOMIC_RELAXED);
+	stats->errors = __atomic_load_n(&src->errors, __ATOMIC_RELAXED);
+	stats->iso_packets = __atomic_load_n(&src->iso_packets, __ATOMIC_RELAXED);
+	stats->iso_missed = __atomic_load_n(&src->iso_missed, __ATOMIC_RELAXED);
+	stats->resubmitted = __atomic_load_n(&src->resubmitted, __ATOMIC_RELAXED);
+	stats->resubmit_total_ns = __atomic_load_n(&src->resubmit_total_ns, __ATOMIC_RELAXED);
+	stats->resubmit_max_ns = __atomic_load_n(&src->resubmit_max_ns, __ATOMIC_RELAXED);
+	stats->min_in_flight = __atomic_load_n(&src->min_in_flight, __ATOMIC_RELAXED);
+	stats->copied_frames = __atomic_load_n(&src->copied_frames, __ATOMIC_RELAXED);
+}
+
 /** @brief Stop streaming video
  * @ingroup streaming
  *
@@ -1811,7 +2237,7 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
-		for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+		for (i = 0; i < LIBUVC_MAX_TRANSFER_BUFS; i++) {
 			if (strmh->transfers[i]) {
 				int res = libusb_cancel_transfer(strmh->transfers[i]);
 				if ((res < 0) && (res != LIBUSB_ERROR_NOT_FOUND)) {
@@ -1829,11 +2255,11 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 
 		/* Wait for transfers to complete/cancel */
 		for (; 1 ;) {
-			for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+			for (i = 0; i < LIBUVC_MAX_TRANSFER_BUFS; i++) {
 				if (strmh->transfers[i] != NULL)
 					break;
 			}
-			if (i == LIBUVC_NUM_TRANSFER_BUFS)
+			if (i == LIBUVC_MAX_TRANSFER_BUFS)
 				break;
 			pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
 		}
@@ -1849,6 +2275,9 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 		pthread_join(strmh->cb_thread, NULL);
 	}
 
+	if (UNLIKELY(strmh->replay))
+		_uvc_replay_stop(strmh);
+
 	RETURN(UVC_SUCCESS, uvc_error_t);
 }
 
@@ -1867,7 +2296,8 @@ void uvc_stream_close(uvc_stream_handle_t *strmh) {
 	if (strmh->running)
 		uvc_stream_stop(strmh);
 
-	uvc_release_if(strmh->devh, strmh->stream_if->bInterfaceNumber);
+	if (LIKELY(strmh->devh->usb_devh))	// XXX usb_devh is NULL while replaying
+		uvc_release_if(strmh->devh, strmh->stream_if->bInterfaceNumber);
 
 	if (strmh->frame.data) {
 		free(strmh->frame.data);
@@ -1882,11 +2312,14 @@ void uvc_stream_close(uvc_stream_handle_t *strmh) {
 		free(strmh->holdbuf);
 		strmh->holdbuf = NULL;
 	}
+	strmh->outbuf_bytes = strmh->holdbuf_bytes = 0;
 
 	pthread_cond_destroy(&strmh->cb_cond);
 	pthread_mutex_destroy(&strmh->cb_mutex);
 
 	DL_DELETE(strmh->devh->streams, strmh);
+	if (UNLIKELY(strmh->replay))
+		_uvc_replay_close(strmh);	// this also frees dummy device handle while replaying
 	free(strmh);
 
 	UVC_EXIT_VOID();
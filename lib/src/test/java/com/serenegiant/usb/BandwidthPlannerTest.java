@@ -0,0 +1,185 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * host side unit test of BandwidthPlanner, this does not need cameras
+ */
+public class BandwidthPlannerTest {
+	private static final long BUDGET = 10000;
+
+	@Test
+	public void solve_singleCameraFits() throws Exception {
+		final int[] selected = BandwidthPlanner.solve(
+			new long[][] {{8000, 4000}}, new int[] {0}, new long[] {BUDGET});
+		assertArrayEquals(new int[] {0}, selected);
+	}
+
+	@Test
+	public void solve_twoCamerasNeedDowngrade() throws Exception {
+		// both cameras want 6000, only one of them can keep it
+		final int[] selected = BandwidthPlanner.solve(
+			new long[][] {{6000, 4000, 2000}, {6000, 4000, 2000}}, new int[] {0, 0}, new long[] {BUDGET});
+		assertArrayEquals(new int[] {0, 1}, selected);
+	}
+
+	@Test
+	public void solve_camerasOnOtherBusesDoNotShareBudget() throws Exception {
+		final int[] selected = BandwidthPlanner.solve(
+			new long[][] {{6000, 4000}, {6000, 4000}}, new int[] {0, 1}, new long[] {BUDGET, BUDGET});
+		assertArrayEquals(new int[] {0, 0}, selected);
+	}
+
+	@Test
+	public void solve_infeasible() throws Exception {
+		// even the smallest options exceed the budget
+		assertNull(BandwidthPlanner.solve(
+			new long[][] {{8000, 6000}, {8000, 5000}}, new int[] {0, 0}, new long[] {BUDGET}));
+		// the smallest options fit alone, but not together with the camera on the same bus
+		assertNull(BandwidthPlanner.solve(
+			new long[][] {{6000}, {4000}, {1000}}, new int[] {0, 0, 0}, new long[] {BUDGET}));
+	}
+
+	@Test
+	public void solve_tieBreakingIsDeterministic() throws Exception {
+		// {1, 0, 0}, {0, 1, 0} and {0, 0, 1} cost the same, earlier cameras keep their preferred option
+		final long[][] reserved = {{6000, 3000}, {6000, 3000}, {6000, 3000}};
+		final int[] group = {0, 0, 0};
+		final long[] budgets = {15000};
+		final int[] first = BandwidthPlanner.solve(reserved, group, budgets);
+		assertArrayEquals(new int[] {0, 0, 1}, first);
+		for (int i = 0; i < 10; i++) {
+			assertArrayEquals(first, BandwidthPlanner.solve(reserved, group, budgets));
+		}
+	}
+
+	@Test
+	public void solve_lowestCostWins() throws Exception {
+		// downgrading the first camera by one rank is cheaper than the second one by two ranks
+		final int[] selected = BandwidthPlanner.solve(
+			new long[][] {{6000, 5000}, {6000, 5500, 4000}}, new int[] {0, 0}, new long[] {11000});
+		assertArrayEquals(new int[] {1, 0}, selected);
+	}
+
+	/**
+	 * records the calls of Plan#apply and fails when setting the camera named fail
+	 */
+	private static class RecordingSetter implements BandwidthPlanner.ModeSetter {
+		private final String fail;
+		private final RuntimeException exception;
+		private final List<String> calls = new ArrayList<String>();
+
+		private RecordingSetter(final String fail, final RuntimeException exception) {
+			this.fail = fail;
+			this.exception = exception;
+		}
+
+		@Override
+		public Object set(final Object camera, final BandwidthPlanner.Option option) {
+			calls.add("set:" + camera);
+			if (camera.equals(fail)) {
+				throw exception;
+			}
+			return "prev:" + camera;
+		}
+
+		@Override
+		public void restore(final Object camera, final Object previous) {
+			calls.add("restore:" + camera + "=" + previous);
+		}
+	}
+
+	private static BandwidthPlanner.Plan bulkPlan(final String... cameras) {
+		final BandwidthPlanner planner = new BandwidthPlanner();
+		final BandwidthPlanner.Mode mode = new BandwidthPlanner.Mode(640, 480, 30, 30,
+			UVCCamera.FRAME_FORMAT_MJPEG, 1.0f);
+		for (final String camera: cameras) {
+			planner.addCamera(camera, 1, new BandwidthPlanner.Probe(mode, BandwidthPlanner.SPEED_HIGH,
+				512 * 1024, 640 * 480 * 2, 333333, new int[0], new int[0]));
+		}
+		final BandwidthPlanner.Plan plan = planner.plan();
+		assertNotNull(plan);
+		return plan;
+	}
+
+	@Test
+	public void apply_setsAllCameras() throws Exception {
+		final RecordingSetter setter = new RecordingSetter(null, null);
+		assertTrue(bulkPlan("a", "b", "c").apply(setter));
+		assertEquals(Arrays.asList("set:a", "set:b", "set:c"), setter.calls);
+	}
+
+	@Test
+	public void apply_rollsBackWhenRejected() throws Exception {
+		final RecordingSetter setter = new RecordingSetter("c", new IllegalArgumentException());
+		assertFalse(bulkPlan("a", "b", "c").apply(setter));
+		assertEquals(Arrays.asList("set:a", "set:b", "set:c",
+			"restore:b=prev:b", "restore:a=prev:a"), setter.calls);
+	}
+
+	@Test
+	public void apply_rollsBackOnOtherExceptions() throws Exception {
+		final IllegalStateException exception = new IllegalStateException();
+		final RecordingSetter setter = new RecordingSetter("b", exception);
+		try {
+			bulkPlan("a", "b", "c").apply(setter);
+			fail("exception should be rethrown");
+		} catch (final IllegalStateException e) {
+			assertSame(exception, e);
+		}
+		assertEquals(Arrays.asList("set:a", "set:b", "restore:a=prev:a"), setter.calls);
+	}
+
+	@Test
+	public void apply_continuesRollbackWhenRestoreFails() throws Exception {
+		final List<String> restored = new ArrayList<String>();
+		final BandwidthPlanner.ModeSetter setter = new BandwidthPlanner.ModeSetter() {
+			@Override
+			public Object set(final Object camera, final BandwidthPlanner.Option option) {
+				if ("c".equals(camera)) {
+					throw new IllegalArgumentException();
+				}
+				return camera;
+			}
+
+			@Override
+			public void restore(final Object camera, final Object previous) {
+				if ("b".equals(camera)) {
+					throw new IllegalStateException();
+				}
+				restored.add((String)camera);
+			}
+		};
+		assertFalse(bulkPlan("a", "b", "c").apply(setter));
+		assertEquals(Arrays.asList("a"), restored);
+	}
+}